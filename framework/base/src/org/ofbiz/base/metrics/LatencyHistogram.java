@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.ofbiz.base.lang.ThreadSafe;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * <p>Durations are counted in power-of-two buckets, so recording is a couple of
+ * atomic increments and percentiles are accurate to within a factor of two. Unlike
+ * {@link Metrics}, instances are cheap enough to be updated on every cache access.</p>
+ * <p>The counters are striped: each thread updates one of several copies, picked by
+ * its id, so threads on different cores rarely write to the same cache line. The
+ * getters add the stripes up.</p>
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+    // the event count and total duration follow the buckets in each stripe
+    private static final int COUNT = BUCKETS;
+    private static final int TOTAL = BUCKETS + 1;
+    // a multiple of 8 longs, so stripes start on separate 64 byte cache lines
+    private static final int STRIPE_LENGTH = 72;
+    private static final int STRIPES = stripeCount();
+
+    private final String name;
+    private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    // a power of two of at least the number of processors, at most 8
+    private static int stripeCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        return Integer.highestOneBit(processors * 2 - 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Records one event that took <code>nanos</code> nanoseconds. */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+        counters.incrementAndGet(stripe + bucketIndex(nanos));
+        counters.incrementAndGet(stripe + COUNT);
+        counters.addAndGet(stripe + TOTAL, nanos);
+        // only written when the maximum grows, which soon becomes rare
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private long sum(int index) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += counters.get(stripe * STRIPE_LENGTH + index);
+        }
+        return sum;
+    }
+
+    /** Returns the number of recorded events. */
+    public long getCount() {
+        return sum(COUNT);
+    }
+
+    /** Returns the sum of all recorded durations. */
+    public long getTotalNanos() {
+        return sum(TOTAL);
+    }
+
+    /** Returns the longest recorded duration. */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /** Returns the average recorded duration, or 0 if nothing was recorded. */
+    public long getMeanNanos() {
+        long events = getCount();
+        return events == 0 ? 0 : getTotalNanos() / events;
+    }
+
+    /**
+     * Returns an upper bound for the duration below which <code>percentile</code>
+     * percent of the events fall, or 0 if nothing was recorded.
+     * @param percentile A value between 0 and 100
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = getBucketCounts();
+        long events = 0;
+        for (long bucketCount : snapshot) {
+            events += bucketCount;
+        }
+        if (events == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(events * Math.min(Math.max(percentile, 0.0), 100.0) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= threshold && seen > 0) {
+                return Math.min(bucketUpperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Returns a copy of the bucket counts; bucket <code>i</code> counts the events that
+     * took less than 2<sup>i</sup> nanoseconds and at least 2<sup>i-1</sup>.
+     */
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = sum(i);
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        maxNanos.set(0);
+    }
+
+    private static int bucketIndex(long nanos) {
+        return Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+    }
+
+    private static long bucketUpperBound(int index) {
+        return index >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[count=" + getCount() + ", mean=" + getMeanNanos() + "ns, p99=" + getPercentileNanos(99.0) + "ns, max=" + getMaxNanos() + "ns]";
+    }
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.io.IOException;
+
+/**
+ * Converts cache keys and values to and from bytes for the file system store
+ * of a {@link UtilCache}. Implementations must be thread-safe and have a public
+ * no-argument constructor so they can be named in cache.properties with
+ * <code>fileStoreSerializer</code>.
+ */
+public interface CacheSerializer {
+
+    public byte[] serialize(Object o) throws IOException;
+
+    public Object deserialize(byte[] bytes) throws IOException;
+}
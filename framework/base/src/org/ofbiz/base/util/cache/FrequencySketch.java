@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+/**
+ * A probabilistic estimate of how often a key has been used recently, kept in a
+ * count-min sketch of 4-bit counters (sixteen counters per <code>long</code>).
+ * Once the number of recorded increments reaches ten times the cache capacity all
+ * counters are halved, so the estimate ages and favours recent popularity.
+ * <p>
+ * This class is not thread-safe; {@link WindowTinyLfuMap} only touches it while
+ * holding its eviction lock.</p>
+ */
+final class FrequencySketch<E> {
+
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private long[] table = new long[1];
+    private int tableMask = 0;
+    private int sampleSize = 10;
+    private int additions = 0;
+
+    /** Resizes the sketch so that it can track about <code>maximumSize</code> distinct keys. */
+    void ensureCapacity(long maximumSize) {
+        int maximum = (int) Math.min(Math.max(maximumSize, 1), Integer.MAX_VALUE >>> 2);
+        if (table.length >= maximum) {
+            return;
+        }
+        table = new long[ceilingPowerOfTwo(maximum)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        additions = 0;
+    }
+
+    /** Returns the estimated number of recent occurrences of the key, capped at 15. */
+    int frequency(E e) {
+        int hash = spread(e.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEED.length; i++) {
+            long h = indexHash(hash, i);
+            frequency = Math.min(frequency, (int) ((table[tableIndex(h)] >>> counterShift(h)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /** Records one more occurrence of the key, aging all counters when the sample period is reached. */
+    void increment(E e) {
+        int hash = spread(e.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEED.length; i++) {
+            long h = indexHash(hash, i);
+            int index = tableIndex(h);
+            int shift = counterShift(h);
+            if (((table[index] >>> shift) & 0xfL) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private static long indexHash(int hash, int depth) {
+        long h = (hash + SEED[depth]) * SEED[depth];
+        return h + (h >>> 32);
+    }
+
+    private int tableIndex(long h) {
+        return (int) h & tableMask;
+    }
+
+    private static int counterShift(long h) {
+        return (int) ((h >>> 40) & 0xfL) << 2;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    static int ceilingPowerOfTwo(int x) {
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+}
@@ -28,7 +28,9 @@ import jdbm.recman.BaseRecordManager;
 /**
  * Customer JDBM Record Manager
  *
+ * @deprecated UtilCache no longer uses JDBM for its file system store, see {@link MappedSegmentStore}
  */
+@Deprecated
 public class JdbmRecordManager implements RecordManager {
 
     protected BaseRecordManager manager = null;
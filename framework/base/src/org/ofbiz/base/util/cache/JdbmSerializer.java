@@ -32,7 +32,7 @@ import org.ofbiz.base.util.UtilObject;
  *
  */
 @SuppressWarnings({"serial", "unchecked"})
-public class JdbmSerializer implements Serializer, ISerializationHandler {
+public class JdbmSerializer implements Serializer, ISerializationHandler, CacheSerializer {
 
     public byte[] serialize(Object o) throws IOException {
         return UtilObject.getBytes(o);
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.ObjectType;
+
+/**
+ * Makes sure that at most one load runs at a time for a given key: threads asking
+ * for a key that is already being loaded wait for that load and share its result
+ * (or its exception) instead of starting their own.
+ * <p>A loader that asks for its own key again on the loading thread runs directly
+ * instead of waiting on itself.</p>
+ */
+@ThreadSafe
+public final class LoadCoalescer<K, V> {
+
+    public static final String module = LoadCoalescer.class.getName();
+
+    private final ConcurrentMap<Object, LoadTask> inFlight = new ConcurrentHashMap<Object, LoadTask>();
+
+    /**
+     * Loads the value for <code>key</code>, or waits for the load already running for it.
+     * @throws GeneralException if the loader failed; a <code>GeneralException</code> or
+     * <code>RuntimeException</code> thrown by the loader is passed through unchanged
+     */
+    public V load(K key, CacheLoader<K, V> loader) throws GeneralException {
+        Object mapKey = key == null ? ObjectType.NULL : key;
+        LoadTask task = inFlight.get(mapKey);
+        if (task == null) {
+            LoadTask newTask = new LoadTask(mapKey, key, loader, false);
+            task = inFlight.putIfAbsent(mapKey, newTask);
+            if (task == null) {
+                newTask.run();
+                return getResult(newTask, key);
+            }
+        }
+        if (task.runner == Thread.currentThread()) {
+            // re-entrant load of the same key
+            try {
+                return loader.load(key);
+            } catch (Exception e) {
+                throw toGeneralException(e, key);
+            }
+        }
+        return getResult(task, key);
+    }
+
+    /**
+     * Starts loading <code>key</code> on <code>executor</code> unless a load for it is
+     * already running. Failures are logged as warnings, not reported.
+     * @return <code>true</code> if a load was started
+     */
+    public boolean loadAsync(K key, CacheLoader<K, V> loader, Executor executor) {
+        Object mapKey = key == null ? ObjectType.NULL : key;
+        LoadTask task = new LoadTask(mapKey, key, loader, true);
+        if (inFlight.putIfAbsent(mapKey, task) != null) {
+            return false;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(mapKey, task);
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns <code>true</code> if a load for <code>key</code> is running. */
+    public boolean isLoading(K key) {
+        return inFlight.containsKey(key == null ? ObjectType.NULL : key);
+    }
+
+    private V getResult(LoadTask task, K key) throws GeneralException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted while waiting for the value of [" + key + "] to be loaded", e);
+        } catch (ExecutionException e) {
+            throw toGeneralException(e.getCause(), key);
+        }
+    }
+
+    private static GeneralException toGeneralException(Throwable t, Object key) {
+        if (t instanceof GeneralException) {
+            return (GeneralException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new GeneralException("Error loading the value of [" + key + "]", t);
+    }
+
+    private final class LoadTask extends FutureTask<V> {
+        private final Object mapKey;
+        private final K key;
+        // nobody waits for the result of an asynchronous load, so its failure is only logged
+        private final boolean async;
+        private volatile Thread runner = null;
+
+        private LoadTask(Object mapKey, final K key, final CacheLoader<K, V> loader, boolean async) {
+            super(new Callable<V>() {
+                public V call() throws Exception {
+                    return loader.load(key);
+                }
+            });
+            this.mapKey = mapKey;
+            this.key = key;
+            this.async = async;
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                super.run();
+            } finally {
+                runner = null;
+                inFlight.remove(mapKey, this);
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+            if (async) {
+                Debug.logWarning(t, "Error loading the value of [" + key + "]", module);
+            } else if (Debug.verboseOn()) {
+                Debug.logVerbose(t, "Error loading the value of [" + key + "]", module);
+            }
+        }
+    }
+}
@@ -0,0 +1,595 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * The file system store behind a {@link UtilCache} with <code>useFileSystemStore=true</code>.
+ * <p>Serialized keys and values are appended to fixed-size segment files that are
+ * memory-mapped, so the data lives outside of the Java heap and writes cost a memory
+ * copy instead of a synchronous commit. Only an index from each key to the position of
+ * its latest record is kept on the heap. Replacing or removing a key leaves the old
+ * record behind as garbage; when a new segment is started, older segments that are
+ * mostly garbage are compacted by copying their live records forward and deleting the
+ * file.</p>
+ * <p>Readers never lock. Writers are serialized by a single lock that is only held
+ * while the record bytes are copied.</p>
+ * <p>If the store is opened with <code>recover</code> set, the index is rebuilt from the
+ * segment files that are already in the directory, so the contents survive a restart;
+ * records that were only partly written are detected with a checksum and dropped.</p>
+ */
+@ThreadSafe
+public final class MappedSegmentStore {
+
+    public static final String module = MappedSegmentStore.class.getName();
+
+    /** "OFCS" */
+    private static final int MAGIC = 0x4f464353;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    /** record length, key length, value length (-1 for a removal), checksum */
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int TOMBSTONE = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final File directory;
+    private final CacheSerializer serializer;
+    private final int segmentSize;
+    private final ConcurrentMap<Object, Long> index = new ConcurrentHashMap<Object, Long>();
+    private final ConcurrentMap<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicLong compactionCount = new AtomicLong();
+    // guarded by writeLock
+    private Segment active;
+    private int nextSegmentId = 0;
+    private boolean compacting = false;
+
+    /**
+     * Opens the store kept in <code>directory</code>.
+     * @param segmentSize The size in bytes of each segment file, which is also the largest record that can be stored
+     * @param recover If <code>true</code> the existing contents of the directory are loaded, otherwise they are deleted
+     */
+    public MappedSegmentStore(File directory, CacheSerializer serializer, int segmentSize, boolean recover) throws IOException {
+        if (segmentSize <= FILE_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache store directory " + directory);
+        }
+        writeLock.lock();
+        try {
+            for (File file: listSegmentFiles()) {
+                int id = segmentId(file);
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+                if (recover) {
+                    try {
+                        Segment segment = Segment.open(id, file);
+                        segments.put(id, segment);
+                        replay(segment);
+                        continue;
+                    } catch (IOException e) {
+                        Debug.logWarning(e, "Discarding unreadable cache store segment " + file, module);
+                    }
+                }
+                deleteFile(file);
+            }
+            newActiveSegment();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Returns the value stored for <code>key</code>, or <code>null</code>. */
+    public Object get(Object key) throws IOException {
+        // a record can be moved by a compaction between the index lookup and the read
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Long address = index.get(key);
+            if (address == null) {
+                return null;
+            }
+            Segment segment = segments.get(segmentId(address));
+            if (segment != null) {
+                byte[] valueBytes = readValue(segment, offset(address));
+                return valueBytes == null ? null : serializer.deserialize(valueBytes);
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    /** Stores <code>value</code> for <code>key</code>, replacing any previous value. */
+    public void put(Object key, Object value) throws IOException {
+        byte[] keyBytes = serializer.serialize(key);
+        byte[] valueBytes = serializer.serialize(value);
+        writeLock.lock();
+        try {
+            store(key, keyBytes, valueBytes);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stores <code>value</code> for <code>key</code> if there is no value for it yet.
+     * @return The existing value, or <code>null</code> if <code>value</code> was stored
+     */
+    public Object putIfAbsent(Object key, Object value) throws IOException {
+        byte[] keyBytes = serializer.serialize(key);
+        byte[] valueBytes = serializer.serialize(value);
+        writeLock.lock();
+        try {
+            if (index.containsKey(key)) {
+                Object oldValue = get(key);
+                if (oldValue != null) {
+                    return oldValue;
+                }
+            }
+            store(key, keyBytes, valueBytes);
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Removes <code>key</code> and returns the value it had, or <code>null</code>. */
+    public Object remove(Object key) throws IOException {
+        writeLock.lock();
+        try {
+            if (!index.containsKey(key)) {
+                return null;
+            }
+            Object oldValue = null;
+            try {
+                oldValue = get(key);
+            } finally {
+                delete(key);
+            }
+            return oldValue;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Removes <code>key</code> without reading its value. */
+    public boolean delete(Object key) throws IOException {
+        writeLock.lock();
+        try {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            // record the removal so that the old value is not recovered after a restart
+            long address = append(serializer.serialize(key), null);
+            active.deadBytes += recordLength(address);
+            Long oldAddress = index.remove(key);
+            if (oldAddress != null) {
+                markDead(oldAddress);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Returns a copy of the stored keys. */
+    public Set<Object> keySet() {
+        return new HashSet<Object>(index.keySet());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /** Removes everything and deletes all segment files. */
+    public void clear() throws IOException {
+        writeLock.lock();
+        try {
+            index.clear();
+            for (Segment segment: segments.values()) {
+                segments.remove(segment.id);
+                deleteFile(segment.file);
+            }
+            newActiveSegment();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Compacts every segment but the one being written to that holds any garbage. */
+    public void compact() throws IOException {
+        writeLock.lock();
+        try {
+            compactSegments(true);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Writes changes in the mapped segments through to the files. */
+    public void flush() {
+        for (Segment segment: segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /** Flushes the segments and stops using them; the store must not be used afterwards. */
+    public void close() {
+        writeLock.lock();
+        try {
+            flush();
+            index.clear();
+            segments.clear();
+            active = null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Returns the number of bytes used by the latest record of each key. */
+    public long getLiveBytes() {
+        writeLock.lock();
+        try {
+            long liveBytes = 0;
+            for (Segment segment: segments.values()) {
+                liveBytes += segment.liveBytes;
+            }
+            return liveBytes;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Returns the total size of the segment files. */
+    public long getFileBytes() {
+        long fileBytes = 0;
+        for (Segment segment: segments.values()) {
+            fileBytes += segment.buffer.capacity();
+        }
+        return fileBytes;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    // everything below is called with writeLock held
+
+    private void store(Object key, byte[] keyBytes, byte[] valueBytes) throws IOException {
+        long address = append(keyBytes, valueBytes);
+        active.liveBytes += recordLength(address);
+        Long oldAddress = index.put(key, address);
+        if (oldAddress != null) {
+            markDead(oldAddress);
+        }
+    }
+
+    private long append(byte[] keyBytes, byte[] valueBytes) throws IOException {
+        int recordLength = RECORD_HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (recordLength > segmentSize - FILE_HEADER_SIZE) {
+            throw new IOException("A record of " + recordLength + " bytes does not fit in the cache store segments of " + segmentSize + " bytes");
+        }
+        if (active.writePosition + recordLength > active.buffer.capacity()) {
+            newActiveSegment();
+            if (!compacting) {
+                compactSegments(false);
+                // compaction may have filled up the new segment already
+                if (active.writePosition + recordLength > active.buffer.capacity()) {
+                    newActiveSegment();
+                }
+            }
+        }
+        int offset = active.writePosition;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset + 4);
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(valueBytes == null ? TOMBSTONE : valueBytes.length);
+        buffer.putInt(checksum(keyBytes, valueBytes));
+        buffer.put(keyBytes);
+        if (valueBytes != null) {
+            buffer.put(valueBytes);
+        }
+        // the length is written last, a record without it reads as the end of the segment
+        active.buffer.putInt(offset, recordLength);
+        active.writePosition += recordLength;
+        return address(active.id, offset);
+    }
+
+    private void newActiveSegment() throws IOException {
+        int id = nextSegmentId++;
+        active = Segment.create(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX), segmentSize);
+        segments.put(id, active);
+    }
+
+    private void markDead(long address) {
+        Segment segment = segments.get(segmentId(address));
+        if (segment != null) {
+            int length = recordLength(address);
+            segment.liveBytes -= length;
+            segment.deadBytes += length;
+        }
+    }
+
+    private int recordLength(long address) {
+        Segment segment = segments.get(segmentId(address));
+        return segment == null ? 0 : segment.buffer.getInt(offset(address));
+    }
+
+    private void compactSegments(boolean all) throws IOException {
+        compacting = true;
+        try {
+            for (Segment segment: new TreeMap<Integer, Segment>(segments).values()) {
+                if (segment != active && (all ? segment.deadBytes > 0 : segment.deadBytes > segment.liveBytes)) {
+                    compactSegment(segment);
+                }
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        // removals only need to be kept while an older segment may still hold the removed value
+        boolean keepRemovals = false;
+        for (Integer id: segments.keySet()) {
+            if (id < segment.id) {
+                keepRemovals = true;
+                break;
+            }
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = FILE_HEADER_SIZE;
+        while (position < segment.writePosition) {
+            buffer.position(position);
+            int recordLength = buffer.getInt();
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            buffer.getInt();
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            if (valueLength == TOMBSTONE) {
+                if (keepRemovals) {
+                    Object key = serializer.deserialize(keyBytes);
+                    if (!index.containsKey(key)) {
+                        long address = append(keyBytes, null);
+                        active.deadBytes += recordLength(address);
+                    }
+                }
+            } else if (segment.liveBytes > 0) {
+                Object key = serializer.deserialize(keyBytes);
+                Long current = index.get(key);
+                if (current != null && current.longValue() == address(segment.id, position)) {
+                    byte[] valueBytes = new byte[valueLength];
+                    buffer.get(valueBytes);
+                    long address = append(keyBytes, valueBytes);
+                    active.liveBytes += recordLength;
+                    segment.liveBytes -= recordLength;
+                    index.put(key, address);
+                }
+            }
+            position += recordLength;
+        }
+        // readers that already looked up this segment keep their reference to the mapping
+        segments.remove(segment.id);
+        deleteFile(segment.file);
+        compactionCount.incrementAndGet();
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int capacity = buffer.capacity();
+        int position = FILE_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= capacity) {
+            buffer.position(position);
+            int recordLength = buffer.getInt();
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (recordLength < RECORD_HEADER_SIZE || recordLength > capacity - position || keyLength < 0
+                    || recordLength != RECORD_HEADER_SIZE + keyLength + (valueLength == TOMBSTONE ? 0 : valueLength)) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            byte[] valueBytes = null;
+            if (valueLength != TOMBSTONE) {
+                valueBytes = new byte[valueLength];
+                buffer.get(valueBytes);
+            }
+            if (checksum(keyBytes, valueBytes) != checksum) {
+                Debug.logWarning("Found a partly written record in cache store segment " + segment.file + " at " + position + ", ignoring the rest of the segment", module);
+                break;
+            }
+            Object key = null;
+            try {
+                key = serializer.deserialize(keyBytes);
+            } catch (IOException e) {
+                Debug.logWarning(e, "Could not read a key in cache store segment " + segment.file + ", skipping it", module);
+            }
+            Long oldAddress = null;
+            if (key != null && valueBytes != null) {
+                oldAddress = index.put(key, address(segment.id, position));
+                segment.liveBytes += recordLength;
+            } else {
+                if (key != null) {
+                    oldAddress = index.remove(key);
+                }
+                segment.deadBytes += recordLength;
+            }
+            if (oldAddress != null) {
+                markDead(oldAddress);
+            }
+            position += recordLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private static byte[] readValue(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset + 4);
+        int keyLength = buffer.getInt();
+        int valueLength = buffer.getInt();
+        if (valueLength == TOMBSTONE) {
+            return null;
+        }
+        buffer.position(offset + RECORD_HEADER_SIZE + keyLength);
+        byte[] valueBytes = new byte[valueLength];
+        buffer.get(valueBytes);
+        return valueBytes;
+    }
+
+    private static int checksum(byte[] keyBytes, byte[] valueBytes) {
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        if (valueBytes != null) {
+            crc.update(valueBytes);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static long address(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentId(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private List<File> listSegmentFiles() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && segmentId(name) >= 0;
+            }
+        });
+        List<File> segmentFiles = new ArrayList<File>();
+        if (files != null) {
+            TreeMap<Integer, File> sorted = new TreeMap<Integer, File>();
+            for (File file: files) {
+                sorted.put(segmentId(file), file);
+            }
+            segmentFiles.addAll(sorted.values());
+        }
+        return Collections.unmodifiableList(segmentFiles);
+    }
+
+    private static int segmentId(File file) {
+        return segmentId(file.getName());
+    }
+
+    private static int segmentId(String fileName) {
+        try {
+            return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Debug.logWarning("Could not delete cache store segment " + file, module);
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        // guarded by the store's writeLock
+        private int writePosition = FILE_HEADER_SIZE;
+        private long liveBytes = 0;
+        private long deadBytes = 0;
+
+        private Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(int id, File file, int size) throws IOException {
+            Segment segment = new Segment(id, file, map(file, size));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(4, VERSION);
+            return segment;
+        }
+
+        private static Segment open(int id, File file) throws IOException {
+            long length = file.length();
+            if (length < FILE_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid cache store segment size " + length);
+            }
+            MappedByteBuffer buffer = map(file, (int) length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a cache store segment");
+            }
+            return new Segment(id, file, buffer);
+        }
+
+        private static MappedByteBuffer map(File file, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid after the channel is closed
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.base.util.cache;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.Serializable;
@@ -25,7 +26,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -39,11 +39,12 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.helper.FastIterator;
-import jdbm.htree.HTree;
-
 import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.metrics.Metrics;
+import org.ofbiz.base.metrics.MetricsFactory;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilObject;
@@ -57,10 +58,16 @@ import com.googlecode.concurrentlinkedhashmap.EvictionListener;
  * Generalized caching utility. Provides a number of caching features:
  * <ul>
  *   <li>Limited or unlimited element capacity
- *   <li>If limited, removes elements with the LRU (Least Recently Used) algorithm
+ *   <li>If limited, removes elements with the W-TinyLFU (frequency-aware admission in front of a
+ *       segmented LRU) algorithm, or with plain LRU when <code>evictionPolicy=lru</code> is configured
  *   <li>Keeps track of when each element was loaded into the cache
  *   <li>Using the expireTime can report whether a given element has expired
  *   <li>Counts misses and hits
+ *   <li>Counts evictions by cause and records get, put and load-through latencies,
+ *       also published over JMX (see {@link UtilCacheMXBean})
+ *   <li>Can be saved to disk and restored after a restart (see {@link UtilCacheSnapshots})
+ *   <li>Loads missing values through a {@link CacheLoader}, once per key however many threads
+ *       miss on it, optionally refreshing them in the background shortly before they expire
  * </ul>
  *
  */
@@ -93,34 +100,64 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
     /** A count of the number of cache misses on removes */
     protected AtomicLong removeMissCount = new AtomicLong(0);
 
+    /** A count of the number of elements evicted because the cache was full */
+    protected AtomicLong evictionCountSize = new AtomicLong(0);
+    /** A count of the number of elements evicted because they expired */
+    protected AtomicLong evictionCountExpired = new AtomicLong(0);
+    /** A count of the number of elements evicted because the garbage collector cleared their Soft Reference */
+    protected AtomicLong evictionCountSoftRef = new AtomicLong(0);
+
+    /** Time taken by get, put and by callers loading a missing value (see {@link #recordLoad(long)}) */
+    protected final LatencyHistogram getLatency;
+    protected final LatencyHistogram putLatency;
+    protected final LatencyHistogram loadLatency;
+    private volatile Metrics loadMetrics = null;
+
     /** The maximum number of elements in the cache.
      * If set to 0, there will be no limit on the number of elements in the cache.
      */
     protected int sizeLimit = 0;
     protected int maxInMemory = 0;
 
+    /** The algorithm used to bound the in-memory table, either "tinylfu" (the default) or "lru". */
+    protected String evictionPolicy = "tinylfu";
+
     /** Specifies the amount of time since initial loading before an element will be reported as expired.
      * If set to 0, elements will never expire.
      */
     protected long expireTimeNanos = 0;
 
+    /** When a value loaded through {@link #get(Object, CacheLoader)} is read this close to its
+     * expiration it is reloaded in the background, so readers keep getting the old value instead
+     * of blocking on a miss. If set to 0, values are only loaded after they are gone.
+     */
+    protected long refreshAheadNanos = 0;
+
+    /** Loads in progress for {@link #get(Object, CacheLoader)}, so each missing key is loaded once */
+    private final transient LoadCoalescer<K, V> loads = new LoadCoalescer<K, V>();
+
     /** Specifies whether or not to use soft references for this cache, defaults to false */
     protected boolean useSoftReference = false;
 
     /** Specifies whether or not to use file base stored for this cache, defaults to false */
     protected boolean useFileSystemStore = false;
     private String fileStore = "runtime/data/utilcache";
+    /** Specifies whether the file system store keeps what it held before a restart, defaults to false */
+    private boolean recoverFileSystemStore = false;
+    private int fileStoreSegmentSize = 16 * 1024 * 1024;
+    private String fileStoreSerializer = null;
+
+    /** Specifies whether this cache is saved by and restored from {@link UtilCacheSnapshots}, defaults to false */
+    protected boolean useSnapshot = false;
 
     /** The set of listeners to receive notifications when items are modified (either deliberately or because they were expired). */
     protected Set<CacheListener<K, V>> listeners = new CopyOnWriteArraySet<CacheListener<K, V>>();
 
-    protected transient HTree<Object, V> fileTable = null;
+    protected transient MappedSegmentStore fileTable = null;
     protected ConcurrentMap<Object, CacheLine<V>> memoryTable = null;
 
-    protected JdbmRecordManager jdbmMgr;
-
-    // weak ref on this
-    private static final ConcurrentMap<String, JdbmRecordManager> fileManagers = new ConcurrentHashMap<String, JdbmRecordManager>();
+    /** The file system stores by directory, shared by caches created again with the same name */
+    private static final ConcurrentMap<String, MappedSegmentStore> fileStores = new ConcurrentHashMap<String, MappedSegmentStore>();
 
     /** Constructor which specifies the cacheName as well as the sizeLimit, expireTime and useSoftReference.
      * The passed sizeLimit, expireTime and useSoftReference will be overridden by values from cache.properties if found.
@@ -131,6 +168,9 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
      */
     private UtilCache(String cacheName, int sizeLimit, int maxInMemory, long expireTimeMillis, boolean useSoftReference, boolean useFileSystemStore, String propName, String... propNames) {
         this.name = cacheName;
+        this.getLatency = new LatencyHistogram(cacheName + ".get");
+        this.putLatency = new LatencyHistogram(cacheName + ".put");
+        this.loadLatency = new LatencyHistogram(cacheName + ".load");
         this.sizeLimit = sizeLimit;
         this.maxInMemory = maxInMemory;
         this.expireTimeNanos = TimeUnit.NANOSECONDS.convert(expireTimeMillis, TimeUnit.MILLISECONDS);
@@ -140,42 +180,44 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         setPropertiesParams(propNames);
         int maxMemSize = this.maxInMemory;
         if (maxMemSize == 0) maxMemSize = sizeLimit;
-        if (maxMemSize == 0) {
-            memoryTable = new ConcurrentHashMap<Object, CacheLine<V>>();
-        } else {
-            memoryTable = new Builder<Object, CacheLine<V>>()
-            .maximumWeightedCapacity(maxMemSize)
-            .listener(this)
-            .build();
-        }
+        memoryTable = createMemoryTable(maxMemSize);
         if (this.useFileSystemStore) {
-            // create the manager the first time it is needed
-            jdbmMgr = fileManagers.get(fileStore);
-            if (jdbmMgr == null) {
-                Debug.logImportant("Creating file system cache store for cache with name: " + cacheName, module);
-                try {
-                    String ofbizHome = System.getProperty("ofbiz.home");
-                    if (ofbizHome == null) {
-                        Debug.logError("No ofbiz.home property set in environment", module);
-                    } else {
-                        jdbmMgr = new JdbmRecordManager(ofbizHome + "/" + fileStore);
-                    }
-                } catch (IOException e) {
-                    Debug.logError(e, "Error creating file system cache store for cache with name: " + cacheName, module);
-                }
-                fileManagers.putIfAbsent(fileStore, jdbmMgr);
+            String ofbizHome = System.getProperty("ofbiz.home");
+            if (ofbizHome == null) {
+                Debug.logError("No ofbiz.home property set in environment", module);
+            } else {
+                this.fileTable = getOrCreateFileTable(new File(ofbizHome + "/" + fileStore, cacheName.replaceAll("[^\\w.-]", "_")));
             }
-            jdbmMgr = fileManagers.get(fileStore);
-            if (jdbmMgr != null) {
+        }
+    }
+
+    private MappedSegmentStore getOrCreateFileTable(File directory) {
+        String path = directory.getAbsolutePath();
+        synchronized (fileStores) {
+            MappedSegmentStore store = fileStores.get(path);
+            if (store == null) {
+                Debug.logImportant("Creating file system cache store for cache with name: " + name, module);
                 try {
-                    this.fileTable = HTree.createInstance(jdbmMgr);
-                    jdbmMgr.setNamedObject(cacheName, this.fileTable.getRecid());
-                    jdbmMgr.commit();
+                    store = new MappedSegmentStore(directory, createFileStoreSerializer(), fileStoreSegmentSize, recoverFileSystemStore);
                 } catch (IOException e) {
-                    Debug.logError(e, module);
+                    Debug.logError(e, "Error creating file system cache store for cache with name: " + name, module);
+                    return null;
                 }
+                fileStores.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    private CacheSerializer createFileStoreSerializer() {
+        if (UtilValidate.isNotEmpty(fileStoreSerializer)) {
+            try {
+                return (CacheSerializer) ObjectType.loadClass(fileStoreSerializer).newInstance();
+            } catch (Exception e) {
+                Debug.logError(e, "Could not create cache serializer " + fileStoreSerializer + " for cache with name: " + name + ", using the default", module);
             }
         }
+        return new UtilObjectSerializer();
     }
 
     private static String getNextDefaultIndex(String cacheName) {
@@ -229,14 +271,38 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             if (UtilValidate.isNotEmpty(value)) {
                 this.expireTimeNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
             }
+            value = getPropertyParam(res, propNames, "refreshAheadTime");
+            if (UtilValidate.isNotEmpty(value)) {
+                this.refreshAheadNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
+            }
             value = getPropertyParam(res, propNames, "useSoftReference");
             if (value != null) {
                 useSoftReference = "true".equals(value);
             }
+            value = getPropertyParam(res, propNames, "evictionPolicy");
+            if (UtilValidate.isNotEmpty(value)) {
+                evictionPolicy = value;
+            }
             value = getPropertyParam(res, propNames, "useFileSystemStore");
             if (value != null) {
                 useFileSystemStore = "true".equals(value);
             }
+            value = getPropertyParam(res, propNames, "recoverFileSystemStore");
+            if (value != null) {
+                recoverFileSystemStore = "true".equals(value);
+            }
+            value = getPropertyParam(res, propNames, "fileStoreSegmentSize");
+            if (UtilValidate.isNotEmpty(value)) {
+                fileStoreSegmentSize = Integer.parseInt(value);
+            }
+            value = getPropertyParam(res, propNames, "fileStoreSerializer");
+            if (UtilValidate.isNotEmpty(value)) {
+                fileStoreSerializer = value;
+            }
+            value = getPropertyParam(res, propNames, "snapshot");
+            if (value != null) {
+                useSnapshot = "true".equals(value);
+            }
             value = getPropertyParam(res, new String[0], "cache.file.store");
             if (value != null) {
                 fileStore = value;
@@ -244,21 +310,30 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         }
     }
 
+    private ConcurrentMap<Object, CacheLine<V>> createMemoryTable(int maxMemSize) {
+        if (maxMemSize <= 0) {
+            return new ConcurrentHashMap<Object, CacheLine<V>>();
+        } else if ("lru".equals(evictionPolicy)) {
+            return new Builder<Object, CacheLine<V>>()
+                .maximumWeightedCapacity(maxMemSize)
+                .listener(this)
+                .build();
+        } else {
+            if (!"tinylfu".equals(evictionPolicy)) {
+                Debug.logWarning("Unknown evictionPolicy [" + evictionPolicy + "] for cache " + name + ", using tinylfu", module);
+            }
+            return new WindowTinyLfuMap<Object, CacheLine<V>>(maxMemSize, this);
+        }
+    }
+
     private Object fromKey(Object key) {
         return key == null ? ObjectType.NULL : key;
     }
 
     @SuppressWarnings("unchecked")
     private K toKey(Object key) {
-        return key == ObjectType.NULL ? null : (K) key;
-    }
-
-    private void addAllFileTableKeys(Set<Object> keys) throws IOException {
-        FastIterator<Object> iter = fileTable.keys();
-        Object key = null;
-        while ((key = iter.next()) != null) {
-            keys.add(key);
-        }
+        // keys recovered from the file system store are copies of ObjectType.NULL
+        return key instanceof ObjectType.NullObject ? null : (K) key;
     }
 
     public Object getCacheLineTable() {
@@ -267,14 +342,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     public boolean isEmpty() {
         if (fileTable != null) {
-            try {
-                synchronized (this) {
-                    return fileTable.keys().next() == null;
-                }
-            } catch (IOException e) {
-                Debug.logError(e, module);
-                return false;
-            }
+            return fileTable.isEmpty();
         } else {
             return memoryTable.isEmpty();
         }
@@ -379,16 +447,22 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
     }
 
     V putInternal(K key, V value, long expireTimeNanos) {
+        long startNanos = System.nanoTime();
+        try {
+            return putInternalTimed(key, value, expireTimeNanos);
+        } finally {
+            putLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private V putInternalTimed(K key, V value, long expireTimeNanos) {
         Object nulledKey = fromKey(key);
         CacheLine<V> oldCacheLine = memoryTable.put(nulledKey, createCacheLine(key, value, expireTimeNanos));
         V oldValue = oldCacheLine == null ? null : cancel(oldCacheLine);
         if (fileTable != null) {
             try {
-                synchronized (this) {
-                    if (oldValue == null) oldValue = fileTable.get(nulledKey);
-                    fileTable.put(nulledKey, value);
-                    jdbmMgr.commit();
-                }
+                if (oldValue == null) oldValue = UtilGenerics.<V>cast(fileTable.get(nulledKey));
+                fileTable.put(nulledKey, value);
             } catch (IOException e) {
                 Debug.logError(e, module);
             }
@@ -403,17 +477,22 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
     }
 
     V putIfAbsentInternal(K key, V value, long expireTimeNanos) {
+        long startNanos = System.nanoTime();
+        try {
+            return putIfAbsentInternalTimed(key, value, expireTimeNanos);
+        } finally {
+            putLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private V putIfAbsentInternalTimed(K key, V value, long expireTimeNanos) {
         Object nulledKey = fromKey(key);
         V oldValue;
         if (fileTable != null) {
             try {
-                synchronized (this) {
-                    oldValue = fileTable.get(nulledKey);
-                    if (oldValue == null) {
-                        memoryTable.put(nulledKey, createCacheLine(key, value, expireTimeNanos));
-                        fileTable.put(nulledKey, value);
-                        jdbmMgr.commit();
-                    }
+                oldValue = UtilGenerics.<V>cast(fileTable.putIfAbsent(nulledKey, value));
+                if (oldValue == null) {
+                    memoryTable.put(nulledKey, createCacheLine(key, value, expireTimeNanos));
                 }
             } catch (IOException e) {
                 Debug.logError(e, module);
@@ -442,6 +521,15 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
      * @return The value of the element specified by the key
      */
     public V get(Object key) {
+        long startNanos = System.nanoTime();
+        try {
+            return getInternal(key);
+        } finally {
+            getLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private V getInternal(Object key) {
         boolean countGet = true;
         Object nulledKey = fromKey(key);
         CacheLine<V> line = memoryTable.get(nulledKey);
@@ -449,9 +537,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             if (fileTable != null) {
                 V value;
                 try {
-                    synchronized (this) {
-                        value = fileTable.get(nulledKey);
-                    }
+                    value = UtilGenerics.<V>cast(fileTable.get(nulledKey));
                 } catch (IOException e) {
                     Debug.logError(e, module);
                     value = null;
@@ -473,20 +559,70 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return line != null ? line.getValue() : null;
     }
 
+    /** Gets an element from the cache, loading it with <code>loader</code> if it is missing.
+     * Concurrent callers missing on the same key share a single load, and loaded values are put in
+     * the cache and counted in {@link #getLoadLatency()}. <code>null</code> values are not cached.
+     * @param key The key for the element
+     * @param loader Computes the value when it is not in the cache
+     * @return The cached or loaded value
+     * @throws GeneralException if the loader failed; <code>GeneralException</code>s and
+     * <code>RuntimeException</code>s thrown by the loader are passed through unchanged
+     */
+    public V get(K key, CacheLoader<K, V> loader) throws GeneralException {
+        V value = get(key);
+        if (value == null) {
+            return loads.load(key, new CachingLoader(loader, true));
+        }
+        if (refreshAheadNanos > 0) {
+            CacheLine<V> line = memoryTable.get(fromKey(key));
+            if (line != null && line.getLoadTimeNanos() > 0 && line.getExpireTimeNanos() - System.nanoTime() < refreshAheadNanos) {
+                loads.loadAsync(key, new CachingLoader(loader, false), ExecutionPool.GLOBAL_BATCH);
+            }
+        }
+        return value;
+    }
+
+    /** Wraps a caller's loader so that what it loads is timed and stored in this cache. */
+    private final class CachingLoader implements CacheLoader<K, V> {
+        private final CacheLoader<K, V> loader;
+        private final boolean checkCache;
+
+        private CachingLoader(CacheLoader<K, V> loader, boolean checkCache) {
+            this.loader = loader;
+            this.checkCache = checkCache;
+        }
+
+        public V load(K key) throws Exception {
+            if (checkCache) {
+                // another thread may have finished loading between our miss and this load
+                CacheLine<V> line = memoryTable.get(fromKey(key));
+                V value = line != null ? line.getValue() : null;
+                if (value != null) {
+                    return value;
+                }
+            }
+            long startNanos = System.nanoTime();
+            V value = loader.load(key);
+            recordLoad(System.nanoTime() - startNanos);
+            if (value != null) {
+                put(key, value);
+            }
+            return value;
+        }
+    }
+
     public Collection<V> values() {
         if (fileTable != null) {
             List<V> values = new LinkedList<V>();
-            try {
-                synchronized (this) {
-                    FastIterator<V> iter = fileTable.values();
-                    V value = iter.next();
-                    while (value != null) {
+            for (Object key: fileTable.keySet()) {
+                try {
+                    V value = UtilGenerics.<V>cast(fileTable.get(key));
+                    if (value != null) {
                         values.add(value);
-                        value = iter.next();
                     }
+                } catch (IOException e) {
+                    Debug.logError(e, module);
                 }
-            } catch (IOException e) {
-                Debug.logError(e, module);
             }
             return values;
         } else {
@@ -523,21 +659,41 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         }
     }
 
+    /**
+     * Estimates the memory used by keys and values from a sample of at most
+     * <code>sampleSize</code> lines, which is much cheaper than {@link #getSizeInBytes()}
+     * on large caches because only the sample is serialized.
+     */
+    public long getEstimatedSizeInBytes(int sampleSize) {
+        int size = size();
+        if (size == 0 || sampleSize <= 0) {
+            return 0;
+        }
+        if (fileTable != null) {
+            // the serialized size of what is stored, without reading it back
+            return fileTable.getLiveBytes();
+        }
+        long sampledBytes = 0;
+        int sampled = 0;
+        for (Map.Entry<Object, CacheLine<V>> entry: memoryTable.entrySet()) {
+            if (sampled >= sampleSize) {
+                break;
+            }
+            sampledBytes += findSizeInBytes(entry.getKey()) + findSizeInBytes(entry.getValue().getValue());
+            sampled++;
+        }
+        return sampled == 0 ? 0 : sampledBytes * size / sampled;
+    }
+
+    public long getEstimatedSizeInBytes() {
+        return getEstimatedSizeInBytes(100);
+    }
+
     public long getSizeInBytes() {
         long totalSize = 0;
         if (fileTable != null) {
-            try {
-                synchronized (this) {
-                    FastIterator<V> iter = fileTable.values();
-                    V value = iter.next();
-                    while (value != null) {
-                        totalSize += findSizeInBytes(value);
-                        value = iter.next();
-                    }
-                }
-            } catch (IOException e) {
-                Debug.logError(e, module);
-                return 0;
+            for (V value: values()) {
+                totalSize += findSizeInBytes(value);
             }
         } else {
             for (CacheLine<V> line: memoryTable.values()) {
@@ -557,7 +713,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     /** This is used for internal remove calls because we only want to count external calls */
     @SuppressWarnings("unchecked")
-    protected synchronized V removeInternal(Object key, boolean countRemove) {
+    protected V removeInternal(Object key, boolean countRemove) {
         if (key == null) {
             if (Debug.verboseOn()) Debug.logVerbose("In UtilCache tried to remove with null key, using NullObject" + this.name, module);
         }
@@ -566,16 +722,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         V oldValue;
         if (fileTable != null) {
             try {
-                synchronized (this) {
-                    try {
-                        oldValue = fileTable.get(nulledKey);
-                    } catch (IOException e) {
-                        oldValue = null;
-                        throw e;
-                    }
-                    fileTable.remove(nulledKey);
-                    jdbmMgr.commit();
-                }
+                oldValue = UtilGenerics.<V>cast(fileTable.remove(nulledKey));
             } catch (IOException e) {
                 oldValue = null;
                 Debug.logError(e, module);
@@ -598,56 +745,56 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         }
     }
 
-    protected synchronized void removeInternal(Object key, CacheLine<V> existingCacheLine) {
+    protected void removeInternal(Object key, CacheLine<V> existingCacheLine) {
         Object nulledKey = fromKey(key);
-        cancel(existingCacheLine);
+        // a soft reference line only loses its value when the garbage collector clears it
+        boolean collected = existingCacheLine.getValue() == null;
+        V oldValue = cancel(existingCacheLine);
         if (!memoryTable.remove(nulledKey, existingCacheLine)) {
             return;
         }
+        if (collected) {
+            evictionCountSoftRef.incrementAndGet();
+        } else {
+            evictionCountExpired.incrementAndGet();
+        }
         if (fileTable != null) {
             try {
-                synchronized (this) {
-                    fileTable.remove(nulledKey);
-                    jdbmMgr.commit();
-                }
+                fileTable.delete(nulledKey);
             } catch (IOException e) {
                 Debug.logError(e, module);
             }
         }
-        noteRemoval(UtilGenerics.<K>cast(key), existingCacheLine.getValue());
+        noteRemoval(UtilGenerics.<K>cast(key), oldValue);
     }
 
     /** Removes all elements from this cache */
-    public synchronized void erase() {
+    public void erase() {
         if (fileTable != null) {
-            // FIXME: erase from memory too
-            synchronized (this) {
-                Set<Object> keys = new HashSet<Object>();
+            for (Object key: fileTable.keySet()) {
                 try {
-                    addAllFileTableKeys(keys);
-                } catch (IOException e) {
-                    Debug.logError(e, module);
-                }
-                for (Object key: keys) {
-                    try {
-                        V value = fileTable.get(key);
+                    V value = UtilGenerics.<V>cast(fileTable.remove(key));
+                    if (value != null) {
                         noteRemoval(toKey(key), value);
                         removeHitCount.incrementAndGet();
-                        fileTable.remove(key);
-                        jdbmMgr.commit();
-                    } catch (IOException e) {
-                        Debug.logError(e, module);
                     }
+                } catch (IOException e) {
+                    Debug.logError(e, module);
+                }
+            }
+            for (Map.Entry<Object, CacheLine<V>> entry: memoryTable.entrySet()) {
+                if (memoryTable.remove(entry.getKey(), entry.getValue())) {
+                    cancel(entry.getValue());
                 }
             }
-            memoryTable.clear();
         } else {
-            Iterator<Map.Entry<Object, CacheLine<V>>> it = memoryTable.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<Object, CacheLine<V>> entry = it.next();
-                noteRemoval(toKey(entry.getKey()), entry.getValue().getValue());
-                removeHitCount.incrementAndGet();
-                it.remove();
+            // only report the lines this call actually removed, a concurrent put may replace one while iterating
+            for (Map.Entry<Object, CacheLine<V>> entry: memoryTable.entrySet()) {
+                CacheLine<V> line = entry.getValue();
+                if (memoryTable.remove(entry.getKey(), line)) {
+                    noteRemoval(toKey(entry.getKey()), cancel(line));
+                    removeHitCount.incrementAndGet();
+                }
             }
         }
     }
@@ -721,6 +868,56 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return this.removeMissCount.get();
     }
 
+    /** Returns the fraction of gets that found a value, or 0 if there were no gets */
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCountTotal();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /** Returns the number of elements evicted to keep the cache within maxInMemory */
+    public long getEvictionCountSize() {
+        return this.evictionCountSize.get();
+    }
+
+    /** Returns the number of elements evicted because their expire time passed */
+    public long getEvictionCountExpired() {
+        return this.evictionCountExpired.get();
+    }
+
+    /** Returns the number of elements evicted because the garbage collector cleared their soft reference */
+    public long getEvictionCountSoftRef() {
+        return this.evictionCountSoftRef.get();
+    }
+
+    public LatencyHistogram getGetLatency() {
+        return this.getLatency;
+    }
+
+    public LatencyHistogram getPutLatency() {
+        return this.putLatency;
+    }
+
+    public LatencyHistogram getLoadLatency() {
+        return this.loadLatency;
+    }
+
+    /**
+     * Records how long a caller took to load a value after a miss on this cache, e.g. the
+     * database query behind an entity cache. Load times are also published as a
+     * {@link Metrics} named "UtilCache load: " followed by the cache name.
+     * @param loadTimeNanos The load time in nanoseconds
+     */
+    public void recordLoad(long loadTimeNanos) {
+        loadLatency.record(loadTimeNanos);
+        Metrics metrics = loadMetrics;
+        if (metrics == null) {
+            metrics = MetricsFactory.getInstance("UtilCache load: " + name, 100, 1000, 0.7, 0.0);
+            loadMetrics = metrics;
+        }
+        metrics.recordServiceRate(1, TimeUnit.MILLISECONDS.convert(loadTimeNanos, TimeUnit.NANOSECONDS));
+    }
+
     /** Clears the hit and miss counters
      */
     public void clearCounters() {
@@ -730,6 +927,12 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         this.missCountSoftRef.set(0);
         this.removeHitCount.set(0);
         this.removeMissCount.set(0);
+        this.evictionCountSize.set(0);
+        this.evictionCountExpired.set(0);
+        this.evictionCountSoftRef.set(0);
+        this.getLatency.reset();
+        this.putLatency.reset();
+        this.loadLatency.reset();
     }
 
     public void setMaxInMemory(int newInMemory) {
@@ -740,15 +943,12 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             if (this.memoryTable instanceof ConcurrentLinkedHashMap<?, ?>) {
                 ((ConcurrentLinkedHashMap<?, ?>) this.memoryTable).setCapacity(newInMemory);
                 return;
-            } else {
-                this.memoryTable =new Builder<Object, CacheLine<V>>()
-                    .maximumWeightedCapacity(newInMemory)
-                    .build();
+            } else if (this.memoryTable instanceof WindowTinyLfuMap<?, ?>) {
+                ((WindowTinyLfuMap<?, ?>) this.memoryTable).setCapacity(newInMemory);
+                return;
             }
-        } else {
-            this.memoryTable = new ConcurrentHashMap<Object, CacheLine<V>>();
         }
-
+        this.memoryTable = createMemoryTable(newInMemory);
         this.memoryTable.putAll(oldmap);
     }
 
@@ -788,6 +988,15 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return TimeUnit.MILLISECONDS.convert(expireTimeNanos, TimeUnit.NANOSECONDS);
     }
 
+    /** Sets how long before expiration a value read through {@link #get(Object, CacheLoader)} is reloaded in the background, 0 to disable */
+    public void setRefreshAheadTime(long refreshAheadTimeMillis) {
+        this.refreshAheadNanos = TimeUnit.NANOSECONDS.convert(Math.max(refreshAheadTimeMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    public long getRefreshAheadTime() {
+        return TimeUnit.MILLISECONDS.convert(refreshAheadNanos, TimeUnit.NANOSECONDS);
+    }
+
     /** Set whether or not the cache lines should use a soft reference to the data */
     public void setUseSoftReference(boolean useSoftReference) {
         if (this.useSoftReference != useSoftReference) {
@@ -803,27 +1012,24 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         return this.useSoftReference;
     }
 
+    public String getEvictionPolicy() {
+        return this.evictionPolicy;
+    }
+
     public boolean getUseFileSystemStore() {
         return this.useFileSystemStore;
     }
 
+    public boolean getUseSnapshot() {
+        return this.useSnapshot;
+    }
+
     /** Returns the number of elements currently in the cache
      * @return The number of elements currently in the cache
      */
     public int size() {
         if (fileTable != null) {
-            int size = 0;
-            try {
-                synchronized (this) {
-                    FastIterator<Object> iter = fileTable.keys();
-                    while (iter.next() != null) {
-                        size++;
-                    }
-                }
-            } catch (IOException e) {
-                Debug.logError(e, module);
-            }
-            return size;
+            return fileTable.size();
         } else {
             return memoryTable.size();
         }
@@ -837,22 +1043,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         Object nulledKey = fromKey(key);
         CacheLine<V> line = memoryTable.get(nulledKey);
         if (line == null) {
-            if (fileTable != null) {
-                try {
-                    synchronized (this) {
-                        FastIterator<Object> iter = fileTable.keys();
-                        Object checkKey = null;
-                        while ((checkKey = iter.next()) != null) {
-                            if (nulledKey.equals(checkKey)) {
-                                return true;
-                            }
-                        }
-                    }
-                } catch (IOException e) {
-                    Debug.logError(e, module);
-                }
-            }
-            return false;
+            return fileTable != null && fileTable.containsKey(nulledKey);
         } else {
             return true;
         }
@@ -868,14 +1059,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         Set<Object> keys;
 
         if (fileTable != null) {
-            keys = new HashSet<Object>();
-            try {
-                synchronized (this) {
-                    addAllFileTableKeys(keys);
-                }
-            } catch (IOException e) {
-                Debug.logError(e, module);
-            }
+            keys = fileTable.keySet();
             if (keys.remove(ObjectType.NULL)) {
                 keys.add(null);
             }
@@ -922,9 +1106,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
             Object nulledKey = fromKey(key);
             if (fileTable != null) {
                 try {
-                    synchronized (this) {
-                        lineInfos.add(createLineInfo(keyIndex, key, fileTable.get(nulledKey)));
-                    }
+                    lineInfos.add(createLineInfo(keyIndex, key, UtilGenerics.<V>cast(fileTable.get(nulledKey))));
                 } catch (IOException e) {
                     Debug.logError(e, module);
                 }
@@ -996,13 +1178,33 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
         cache.clear();
     }
 
+    /** Clears the cache and removes it from the cache table, so it can be garbage collected; its JMX bean is unregistered. */
+    public static void removeCache(String cacheName) {
+        UtilCache<?, ?> cache = utilCacheTable.remove(cacheName);
+        if (cache == null) return;
+        UtilCacheJmx.unregister(cache);
+        cache.clear();
+    }
+
+    /** Removes all caches whose name starts with <code>startsWith</code>, see {@link #removeCache(String)}. */
+    public static void removeCachesThatStartWith(String startsWith) {
+        for (String name: getUtilCacheTableKeySet()) {
+            if (name.startsWith(startsWith)) {
+                removeCache(name);
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static <K, V> UtilCache<K, V> getOrCreateUtilCache(String name, int sizeLimit, int maxInMemory, long expireTime, boolean useSoftReference, boolean useFileSystemStore, String... names) {
         UtilCache<K, V> existingCache = (UtilCache<K, V>) utilCacheTable.get(name);
         if (existingCache != null) return existingCache;
         String cacheName = name + getNextDefaultIndex(name);
         UtilCache<K, V> newCache = new UtilCache<K, V>(cacheName, sizeLimit, maxInMemory, expireTime, useSoftReference, useFileSystemStore, name, names);
-        utilCacheTable.putIfAbsent(name, newCache);
+        if (utilCacheTable.putIfAbsent(name, newCache) == null) {
+            UtilCacheJmx.register(newCache);
+            UtilCacheSnapshots.restorePending(newCache);
+        }
         return (UtilCache<K, V>) utilCacheTable.get(name);
     }
 
@@ -1048,6 +1250,8 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     private static <K, V> UtilCache<K, V> storeCache(UtilCache<K, V> cache) {
         utilCacheTable.put(cache.getName(), cache);
+        UtilCacheJmx.register(cache);
+        UtilCacheSnapshots.restorePending(cache);
         return cache;
     }
 
@@ -1058,6 +1262,7 @@ public class UtilCache<K, V> implements Serializable, EvictionListener<Object, C
 
     @Override
     public void onEviction(Object key, CacheLine<V> value) {
+        evictionCountSize.incrementAndGet();
         ExecutionPool.removePulse(value);
     }
 }
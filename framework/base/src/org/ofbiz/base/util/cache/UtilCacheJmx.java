@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * Registers {@link UtilCache} instances with the platform MBean server, and unregisters
+ * them when they are removed with {@link UtilCache#removeCache(String)}.
+ * Registration can be turned off with <code>cache.jmx.enable=false</code> in cache.properties.
+ */
+final class UtilCacheJmx {
+
+    public static final String module = UtilCacheJmx.class.getName();
+    private static final boolean enabled = isEnabled();
+
+    private static boolean isEnabled() {
+        try {
+            ResourceBundle res = ResourceBundle.getBundle("cache");
+            if (res.containsKey("cache.jmx.enable")) {
+                return !"false".equals(res.getString("cache.jmx.enable"));
+            }
+        } catch (MissingResourceException e) {
+        }
+        return true;
+    }
+
+    static void register(UtilCache<?, ?> cache) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getObjectName(cache);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new CacheBean(cache), objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered concurrently by another thread for a cache with the same name
+        } catch (JMException e) {
+            Debug.logWarning(e, "Could not register JMX bean for cache " + cache.getName(), module);
+        }
+    }
+
+    static void unregister(UtilCache<?, ?> cache) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName(cache));
+        } catch (InstanceNotFoundException e) {
+            // never registered, or replaced by a cache with the same name that was unregistered already
+        } catch (JMException e) {
+            Debug.logWarning(e, "Could not unregister JMX bean for cache " + cache.getName(), module);
+        }
+    }
+
+    private static ObjectName getObjectName(UtilCache<?, ?> cache) throws MalformedObjectNameException {
+        return new ObjectName("org.ofbiz:type=UtilCache,name=" + ObjectName.quote(cache.getName()));
+    }
+
+    private static final class CacheBean implements UtilCacheMXBean {
+        private final UtilCache<?, ?> cache;
+
+        private CacheBean(UtilCache<?, ?> cache) {
+            this.cache = cache;
+        }
+
+        public String getName() {
+            return cache.getName();
+        }
+
+        public int getSize() {
+            return cache.size();
+        }
+
+        public int getMaxInMemory() {
+            return cache.getMaxInMemory();
+        }
+
+        public long getExpireTime() {
+            return cache.getExpireTime();
+        }
+
+        public String getEvictionPolicy() {
+            return cache.getEvictionPolicy();
+        }
+
+        public long getHitCount() {
+            return cache.getHitCount();
+        }
+
+        public long getMissCountTotal() {
+            return cache.getMissCountTotal();
+        }
+
+        public double getHitRatio() {
+            return cache.getHitRatio();
+        }
+
+        public long getEvictionCountSize() {
+            return cache.getEvictionCountSize();
+        }
+
+        public long getEvictionCountExpired() {
+            return cache.getEvictionCountExpired();
+        }
+
+        public long getEvictionCountSoftRef() {
+            return cache.getEvictionCountSoftRef();
+        }
+
+        public long getGetMeanNanos() {
+            return cache.getGetLatency().getMeanNanos();
+        }
+
+        public long getGet99thPercentileNanos() {
+            return cache.getGetLatency().getPercentileNanos(99.0);
+        }
+
+        public long getPutMeanNanos() {
+            return cache.getPutLatency().getMeanNanos();
+        }
+
+        public long getPut99thPercentileNanos() {
+            return cache.getPutLatency().getPercentileNanos(99.0);
+        }
+
+        public long getLoadCount() {
+            return cache.getLoadLatency().getCount();
+        }
+
+        public long getLoadMeanNanos() {
+            return cache.getLoadLatency().getMeanNanos();
+        }
+
+        public long getLoad99thPercentileNanos() {
+            return cache.getLoadLatency().getPercentileNanos(99.0);
+        }
+
+        public long getEstimatedSizeInBytes() {
+            return cache.getEstimatedSizeInBytes();
+        }
+
+        public void clear() {
+            cache.clear();
+        }
+
+        public void clearCounters() {
+            cache.clearCounters();
+        }
+    }
+
+    private UtilCacheJmx() {}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+/**
+ * The JMX view of a {@link UtilCache}, registered as
+ * <code>org.ofbiz:type=UtilCache,name=&lt;cache name&gt;</code>.
+ */
+public interface UtilCacheMXBean {
+
+    String getName();
+
+    int getSize();
+
+    int getMaxInMemory();
+
+    long getExpireTime();
+
+    String getEvictionPolicy();
+
+    long getHitCount();
+
+    long getMissCountTotal();
+
+    double getHitRatio();
+
+    long getEvictionCountSize();
+
+    long getEvictionCountExpired();
+
+    long getEvictionCountSoftRef();
+
+    long getGetMeanNanos();
+
+    long getGet99thPercentileNanos();
+
+    long getPutMeanNanos();
+
+    long getPut99thPercentileNanos();
+
+    long getLoadCount();
+
+    long getLoadMeanNanos();
+
+    long getLoad99thPercentileNanos();
+
+    long getEstimatedSizeInBytes();
+
+    void clear();
+
+    void clearCounters();
+}
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.UtilGenerics;
+
+/**
+ * Saves the contents of selected caches to files and loads them back after a restart,
+ * so that a node does not start with cold caches.
+ * <p>Caches take part when <code>snapshot=true</code> is set for them in cache.properties.
+ * Snapshots are written to <code>cache.snapshot.dir</code> by {@link #writeSnapshots()},
+ * which is run periodically and on shutdown by the cache snapshot container. At startup
+ * {@link #preloadSnapshots(ExecutorService)} reads the snapshot files in parallel; the
+ * entries of each snapshot are handed to the {@link SnapshotValidator} registered for the
+ * cache name, which drops those that are no longer current, and the rest is put into
+ * the cache as soon as it exists. A snapshot whose cache is created later is validated
+ * again at that point, and dropped if the cache is not created within
+ * <code>cache.snapshot.pendingMaxAge</code>, since the database may have changed in the
+ * meantime without clearing a cache that did not exist yet.</p>
+ * <p>Snapshots older than <code>cache.snapshot.maxAge</code> are ignored. Entries keep
+ * what is left of their expire time, and caches without a validator are restored as they
+ * were saved, so only enable snapshots for such caches if a value may be served for up to
+ * its expire time after being changed.</p>
+ */
+public final class UtilCacheSnapshots {
+
+    public static final String module = UtilCacheSnapshots.class.getName();
+
+    /** "OFSN" */
+    private static final int MAGIC = 0x4f46534e;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".snapshot";
+
+    private static final ConcurrentMap<String, SnapshotValidator> validators = new ConcurrentHashMap<String, SnapshotValidator>();
+    /** Validated snapshots waiting for their cache to be created */
+    private static final ConcurrentMap<String, Snapshot> pending = new ConcurrentHashMap<String, Snapshot>();
+    private static final CacheSerializer serializer = new UtilObjectSerializer();
+
+    /**
+     * Checks the entries of a snapshot before they are put back into a cache.
+     */
+    public interface SnapshotValidator {
+        /**
+         * Returns the entries that may be restored. Keys and values can be replaced,
+         * e.g. by canonical instances, and entries that are not current must be left out.
+         * @param cacheName The name of the cache the snapshot was taken from
+         * @param entries The entries of the snapshot; the map can be modified
+         */
+        public Map<Object, Object> validate(String cacheName, Map<Object, Object> entries) throws Exception;
+    }
+
+    /** Registers the validator for the snapshots of all caches whose name starts with <code>cacheNamePrefix</code>. */
+    public static void registerValidator(String cacheNamePrefix, SnapshotValidator validator) {
+        validators.put(cacheNamePrefix, validator);
+    }
+
+    public static File getSnapshotDirectory() {
+        String ofbizHome = System.getProperty("ofbiz.home", ".");
+        return new File(ofbizHome, getProperty("cache.snapshot.dir", "runtime/data/cachesnapshot"));
+    }
+
+    /** Returns the interval in milliseconds at which snapshots are written, 0 if only on shutdown. */
+    public static long getSnapshotInterval() {
+        return Long.parseLong(getProperty("cache.snapshot.interval", "600000"));
+    }
+
+    private static long getMaxAge() {
+        return Long.parseLong(getProperty("cache.snapshot.maxAge", "86400000"));
+    }
+
+    /** Returns how many milliseconds a snapshot is kept for a cache that does not exist yet. */
+    public static long getPendingMaxAge() {
+        return Long.parseLong(getProperty("cache.snapshot.pendingMaxAge", "60000"));
+    }
+
+    private static String getProperty(String name, String defaultValue) {
+        try {
+            ResourceBundle res = ResourceBundle.getBundle("cache");
+            if (res.containsKey(name)) {
+                return res.getString(name).trim();
+            }
+        } catch (MissingResourceException e) {
+        }
+        return defaultValue;
+    }
+
+    private static File getSnapshotFile(String cacheName) {
+        return new File(getSnapshotDirectory(), cacheName.replaceAll("[^\\w.-]", "_") + SUFFIX);
+    }
+
+    /** Writes a snapshot of every cache that has <code>snapshot=true</code>. */
+    public static int writeSnapshots() {
+        int count = 0;
+        for (String cacheName: UtilCache.getUtilCacheTableKeySet()) {
+            UtilCache<?, ?> cache = UtilCache.findCache(cacheName);
+            if (cache != null && cache.getUseSnapshot()) {
+                try {
+                    writeSnapshot(cache);
+                    count++;
+                } catch (IOException e) {
+                    Debug.logWarning(e, "Could not write a snapshot of cache " + cacheName, module);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the in-memory entries of <code>cache</code> to its snapshot file, replacing the
+     * previous snapshot. Entries that cannot be serialized are left out.
+     * @return The number of entries written
+     */
+    public static int writeSnapshot(UtilCache<?, ?> cache) throws IOException {
+        File file = getSnapshotFile(cache.getName());
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache snapshot directory " + directory);
+        }
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        long nowNanos = System.nanoTime();
+        List<byte[]> keys = new ArrayList<byte[]>();
+        List<byte[]> values = new ArrayList<byte[]>();
+        List<Long> expireTimes = new ArrayList<Long>();
+        for (Map.Entry<Object, ? extends CacheLine<?>> entry: cache.memoryTable.entrySet()) {
+            CacheLine<?> line = entry.getValue();
+            Object value = line.getValue();
+            if (value == null) {
+                continue;
+            }
+            long expireTimeMillis = 0;
+            if (line.getLoadTimeNanos() > 0) {
+                expireTimeMillis = TimeUnit.MILLISECONDS.convert(line.getExpireTimeNanos() - nowNanos, TimeUnit.NANOSECONDS);
+                if (expireTimeMillis <= 0) {
+                    continue;
+                }
+            }
+            try {
+                byte[] keyBytes = serializer.serialize(entry.getKey());
+                byte[] valueBytes = serializer.serialize(value);
+                keys.add(keyBytes);
+                values.add(valueBytes);
+                expireTimes.add(expireTimeMillis);
+            } catch (IOException e) {
+                if (Debug.verboseOn()) Debug.logVerbose("Leaving an entry out of the snapshot of cache " + cache.getName() + ": " + e, module);
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(cache.getName());
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.writeInt(keys.get(i).length);
+                out.write(keys.get(i));
+                out.writeInt(values.get(i).length);
+                out.write(values.get(i));
+                out.writeLong(expireTimes.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // renameTo does not replace an existing file on every platform
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not replace cache snapshot " + file);
+            }
+        }
+        return keys.size();
+    }
+
+    /**
+     * Reads all snapshot files in parallel on <code>executor</code>, validates them and restores
+     * them into their caches, right away for caches that exist and otherwise when the cache is
+     * created. Waits until all files are read.
+     * @return The number of entries that passed validation
+     */
+    public static int preloadSnapshots(ExecutorService executor) {
+        File[] files = getSnapshotDirectory().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(files.length);
+        for (final File file: files) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    return preloadSnapshot(file);
+                }
+            }));
+        }
+        int count = 0;
+        for (Integer loaded: ExecutionPool.getAllFutures(futures)) {
+            count += loaded;
+        }
+        return count;
+    }
+
+    private static int preloadSnapshot(File file) {
+        Snapshot snapshot;
+        try {
+            snapshot = readSnapshot(file);
+        } catch (IOException e) {
+            Debug.logWarning(e, "Could not read cache snapshot " + file, module);
+            return 0;
+        }
+        long age = System.currentTimeMillis() - snapshot.timeMillis;
+        if (age > getMaxAge()) {
+            Debug.logInfo("Ignoring cache snapshot " + file + " taken " + age + "ms ago", module);
+            return 0;
+        }
+        if (!validate(snapshot)) {
+            return 0;
+        }
+        int count = snapshot.entries.size();
+        UtilCache<Object, Object> cache = UtilCache.findCache(snapshot.cacheName);
+        if (cache != null) {
+            restore(cache, snapshot);
+            return count;
+        }
+        snapshot.pendingSinceMillis = System.currentTimeMillis();
+        pending.put(snapshot.cacheName, snapshot);
+        // the cache may have been created while the snapshot was validated
+        cache = UtilCache.findCache(snapshot.cacheName);
+        if (cache != null) {
+            restorePending(cache);
+        }
+        return count;
+    }
+
+    private static boolean validate(Snapshot snapshot) {
+        SnapshotValidator validator = getValidator(snapshot.cacheName);
+        if (validator != null) {
+            try {
+                snapshot.entries = validator.validate(snapshot.cacheName, snapshot.entries);
+            } catch (Exception e) {
+                Debug.logWarning(e, "Could not validate the snapshot of cache " + snapshot.cacheName + ", not restoring it", module);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts the pending snapshot for <code>cache</code>, if there is one, into the cache. The
+     * snapshot is validated again, as rows may have changed while it was waiting.
+     */
+    static void restorePending(UtilCache<?, ?> cache) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = pending.remove(cache.getName());
+        if (snapshot == null) {
+            return;
+        }
+        long pendingMillis = System.currentTimeMillis() - snapshot.pendingSinceMillis;
+        if (pendingMillis > getPendingMaxAge()) {
+            Debug.logInfo("Not restoring the snapshot of cache " + cache.getName() + ", the cache was created " + pendingMillis + "ms after it was read", module);
+            return;
+        }
+        if (validate(snapshot)) {
+            restore(cache, snapshot);
+        }
+    }
+
+    private static void restore(UtilCache<?, ?> cache, Snapshot snapshot) {
+        UtilCache<Object, Object> target = UtilGenerics.cast(cache);
+        long elapsedMillis = System.currentTimeMillis() - snapshot.timeMillis;
+        int restored = 0;
+        for (Map.Entry<Object, Object> entry: snapshot.entries.entrySet()) {
+            Long expireTimeMillis = snapshot.expireTimes.get(entry.getKey());
+            Object key = entry.getKey() instanceof ObjectType.NullObject ? null : entry.getKey();
+            if (expireTimeMillis == null || expireTimeMillis.longValue() == 0) {
+                target.putIfAbsent(key, entry.getValue());
+            } else if (expireTimeMillis.longValue() > elapsedMillis) {
+                target.putIfAbsent(key, entry.getValue(), expireTimeMillis.longValue() - elapsedMillis);
+            } else {
+                continue;
+            }
+            restored++;
+        }
+        Debug.logInfo("Restored " + restored + " entries into cache " + cache.getName() + " from its snapshot", module);
+    }
+
+    /** Drops the snapshots read by {@link #preloadSnapshots(ExecutorService)} whose cache was not created within <code>cache.snapshot.pendingMaxAge</code>. */
+    public static void discardPending() {
+        long maxAge = getPendingMaxAge();
+        long now = System.currentTimeMillis();
+        for (Snapshot snapshot: pending.values()) {
+            if (now - snapshot.pendingSinceMillis > maxAge) {
+                pending.remove(snapshot.cacheName, snapshot);
+            }
+        }
+    }
+
+    private static SnapshotValidator getValidator(String cacheName) {
+        SnapshotValidator validator = null;
+        int matchLength = -1;
+        for (Map.Entry<String, SnapshotValidator> entry: validators.entrySet()) {
+            if (cacheName.startsWith(entry.getKey()) && entry.getKey().length() > matchLength) {
+                validator = entry.getValue();
+                matchLength = entry.getKey().length();
+            }
+        }
+        return validator;
+    }
+
+    private static Snapshot readSnapshot(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a cache snapshot");
+            }
+            Snapshot snapshot = new Snapshot(in.readUTF(), in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] keyBytes = new byte[in.readInt()];
+                in.readFully(keyBytes);
+                byte[] valueBytes = new byte[in.readInt()];
+                in.readFully(valueBytes);
+                long expireTimeMillis = in.readLong();
+                try {
+                    Object key = serializer.deserialize(keyBytes);
+                    snapshot.entries.put(key, serializer.deserialize(valueBytes));
+                    snapshot.expireTimes.put(key, expireTimeMillis);
+                } catch (IOException e) {
+                    // e.g. a class that was removed since the snapshot was taken
+                    if (Debug.verboseOn()) Debug.logVerbose("Skipping an unreadable entry in cache snapshot " + file + ": " + e, module);
+                }
+            }
+            return snapshot;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class Snapshot {
+        private final String cacheName;
+        private final long timeMillis;
+        private Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+        private final Map<Object, Long> expireTimes = new HashMap<Object, Long>();
+        private long pendingSinceMillis;
+
+        private Snapshot(String cacheName, long timeMillis) {
+            this.cacheName = cacheName;
+            this.timeMillis = timeMillis;
+        }
+    }
+
+    private UtilCacheSnapshots() {}
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.ofbiz.base.util.UtilObject;
+
+/**
+ * The default {@link CacheSerializer}, using Java serialization with the context
+ * class loader so that classes from components can be read back.
+ */
+public class UtilObjectSerializer implements CacheSerializer {
+
+    public byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(o);
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    public Object deserialize(byte[] bytes) throws IOException {
+        try {
+            return UtilObject.getObjectException(bytes);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+
+/**
+ * A bounded {@link ConcurrentMap} that evicts with the W-TinyLFU policy.
+ * <p>
+ * New entries enter a small LRU admission window (1% of the capacity). Entries
+ * leaving the window compete with the eviction victim of the main space, and only
+ * the one with the higher estimated access frequency (see {@link FrequencySketch})
+ * is retained. The main space is a segmented LRU made of a probation and a protected
+ * (80%) segment, so a burst of one-time keys cannot flush the frequently used ones.</p>
+ * <p>
+ * Reads and writes go straight to a {@link ConcurrentHashMap} and never block. The
+ * policy bookkeeping is recorded in striped, lossy read buffers and a write queue
+ * which are replayed by whichever thread manages to <code>tryLock</code> the eviction
+ * lock, so no caller ever waits on another one.</p>
+ */
+final class WindowTinyLfuMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    private static final int READ_BUFFER_STRIPES = FrequencySketch.ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    // the queue a node currently belongs to; guarded by the evictionLock
+    private static final int NEW = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+    private static final int RETIRED = 4;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<K, Node<K, V>>();
+    private final EvictionListener<K, V> listener;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicReferenceArray<Node<K, V>> readBuffer = new AtomicReferenceArray<Node<K, V>>(READ_BUFFER_STRIPES * READ_BUFFER_SIZE);
+    private final AtomicLong[] readBufferWriteCount = new AtomicLong[READ_BUFFER_STRIPES];
+    private final AtomicLong[] readBufferDrainAtWriteCount = new AtomicLong[READ_BUFFER_STRIPES];
+    private final long[] readBufferReadCount = new long[READ_BUFFER_STRIPES];
+
+    // guarded by the evictionLock
+    private final FrequencySketch<K> sketch = new FrequencySketch<K>();
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<K, V>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<K, V>();
+    private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<K, V>();
+    private long capacity;
+    private long windowMaximum;
+    private long protectedMaximum;
+
+    WindowTinyLfuMap(long capacity, EvictionListener<K, V> listener) {
+        this.listener = listener;
+        for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+            readBufferWriteCount[i] = new AtomicLong();
+            readBufferDrainAtWriteCount[i] = new AtomicLong();
+        }
+        setCapacity(capacity);
+    }
+
+    /** Changes the maximum number of entries, evicting immediately if the map is now too large. */
+    void setCapacity(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        evictionLock.lock();
+        try {
+            this.capacity = capacity;
+            this.windowMaximum = Math.max(1, capacity * WINDOW_PERCENT / 100);
+            this.protectedMaximum = (capacity - windowMaximum) * PROTECTED_PERCENT / 100;
+            sketch.ensureCapacity(capacity);
+            drainBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    long capacity() {
+        evictionLock.lock();
+        try {
+            return capacity;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Node<K, V> node : data.values()) {
+            if (node.value.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        afterRead(node);
+        return node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, checkNotNull(value));
+        Node<K, V> prior = data.put(checkNotNull(key), node);
+        if (prior == null) {
+            afterWrite(new AddTask(node));
+            return null;
+        }
+        afterWrite(new UpdateTask(prior, node));
+        return prior.value;
+    }
+
+    public V putIfAbsent(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, checkNotNull(value));
+        Node<K, V> prior = data.putIfAbsent(checkNotNull(key), node);
+        if (prior == null) {
+            afterWrite(new AddTask(node));
+            return null;
+        }
+        afterRead(prior);
+        return prior.value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        afterWrite(new RemovalTask(node));
+        return node.value;
+    }
+
+    public boolean remove(Object key, Object value) {
+        Node<K, V> node = data.get(key);
+        while (node != null && node.value.equals(value)) {
+            if (data.remove(key, node)) {
+                afterWrite(new RemovalTask(node));
+                return true;
+            }
+            node = data.get(key);
+        }
+        return false;
+    }
+
+    public V replace(K key, V value) {
+        checkNotNull(value);
+        Node<K, V> node;
+        while ((node = data.get(key)) != null) {
+            Node<K, V> newNode = new Node<K, V>(key, value);
+            if (data.replace(key, node, newNode)) {
+                afterWrite(new UpdateTask(node, newNode));
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        checkNotNull(newValue);
+        Node<K, V> node;
+        while ((node = data.get(key)) != null && node.value.equals(oldValue)) {
+            Node<K, V> newNode = new Node<K, V>(key, newValue);
+            if (data.replace(key, node, newNode)) {
+                afterWrite(new UpdateTask(node, newNode));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (Node<K, V> node : data.values()) {
+            if (data.remove(node.key, node)) {
+                writeBuffer.add(new RemovalTask(node));
+            }
+        }
+        tryToDrainBuffers();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    private static <T> T checkNotNull(T o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+        return o;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        int stripe = (int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1);
+        AtomicLong counter = readBufferWriteCount[stripe];
+        long writeCount = counter.get();
+        counter.lazySet(writeCount + 1);
+        readBuffer.lazySet(stripe * READ_BUFFER_SIZE + (int) (writeCount & READ_BUFFER_MASK), node);
+        long pending = writeCount + 1 - readBufferDrainAtWriteCount[stripe].get();
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD || !writeBuffer.isEmpty()) {
+            tryToDrainBuffers();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        tryToDrainBuffers();
+    }
+
+    /**
+     * Replays the buffered reads and writes if no other thread is doing so. The
+     * thread that holds the lock re-checks the write queue after releasing it, so
+     * a write recorded while the lock was busy is never left behind.
+     */
+    private void tryToDrainBuffers() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+
+    private void drainBuffers() {
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+        }
+        for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+            drainReadBuffer(i);
+        }
+        evict();
+    }
+
+    private void drainReadBuffer(int stripe) {
+        long writeCount = readBufferWriteCount[stripe].get();
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            int index = stripe * READ_BUFFER_SIZE + (int) (readBufferReadCount[stripe] & READ_BUFFER_MASK);
+            Node<K, V> node = readBuffer.get(index);
+            if (node == null) {
+                break;
+            }
+            readBuffer.lazySet(index, null);
+            onAccess(node);
+            readBufferReadCount[stripe]++;
+        }
+        readBufferDrainAtWriteCount[stripe].lazySet(writeCount);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedDeque.addLast(node);
+                node.queue = PROTECTED;
+                while (protectedDeque.size() > protectedMaximum) {
+                    Node<K, V> demoted = protectedDeque.pollFirst();
+                    probation.addLast(demoted);
+                    demoted.queue = PROBATION;
+                }
+                break;
+            case PROTECTED:
+                protectedDeque.moveToBack(node);
+                break;
+            default:
+                // not yet added, or already gone
+        }
+    }
+
+    private void onAdd(Node<K, V> node) {
+        if (node.queue != NEW) {
+            return;
+        }
+        sketch.increment(node.key);
+        window.addLast(node);
+        node.queue = WINDOW;
+    }
+
+    private void onRemove(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedDeque.remove(node);
+                break;
+            default:
+        }
+        node.queue = RETIRED;
+    }
+
+    /**
+     * Moves the window overflow into probation, then evicts until the map fits its
+     * capacity. The entry that most recently left the window (the probation tail)
+     * is only admitted if it is used more often than the probation head.
+     */
+    private void evict() {
+        while (window.size() > windowMaximum) {
+            Node<K, V> node = window.pollFirst();
+            probation.addLast(node);
+            node.queue = PROBATION;
+        }
+        while (window.size() + probation.size() + protectedDeque.size() > capacity) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = probation.peekLast();
+            Node<K, V> evicted;
+            if (victim == null) {
+                evicted = protectedDeque.isEmpty() ? window.peekFirst() : protectedDeque.peekFirst();
+            } else if (victim == candidate) {
+                evicted = victim;
+            } else {
+                evicted = sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+            }
+            onRemove(evicted);
+            if (data.remove(evicted.key, evicted) && listener != null) {
+                listener.onEviction(evicted.key, evicted.value);
+            }
+        }
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        private final K key;
+        private final V value;
+        // guarded by the evictionLock
+        private Node<K, V> prev;
+        private Node<K, V> next;
+        private int queue = NEW;
+
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** A doubly-linked list of nodes, least recently used first. */
+    private static final class AccessOrderDeque<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        Node<K, V> peekLast() {
+            return last;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    private final class AddTask implements Runnable {
+        private final Node<K, V> node;
+
+        private AddTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        public void run() {
+            onAdd(node);
+        }
+    }
+
+    private final class RemovalTask implements Runnable {
+        private final Node<K, V> node;
+
+        private RemovalTask(Node<K, V> node) {
+            this.node = node;
+        }
+
+        public void run() {
+            onRemove(node);
+        }
+    }
+
+    private final class UpdateTask implements Runnable {
+        private final Node<K, V> oldNode;
+        private final Node<K, V> newNode;
+
+        private UpdateTask(Node<K, V> oldNode, Node<K, V> newNode) {
+            this.oldNode = oldNode;
+            this.newNode = newNode;
+        }
+
+        public void run() {
+            onRemove(oldNode);
+            onAdd(newNode);
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return data.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return WindowTinyLfuMap.this.remove(o) != null;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<K> it = data.keySet().iterator();
+            return new Iterator<K>() {
+                private K current;
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public K next() {
+                    current = it.next();
+                    return current;
+                }
+
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    WindowTinyLfuMap.this.remove(current);
+                    current = null;
+                }
+            };
+        }
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            final Iterator<Map.Entry<K, V>> it = new EntrySet().iterator();
+            return new Iterator<V>() {
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public V next() {
+                    return it.next().getValue();
+                }
+
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Node<K, V>> it = data.values().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+                private Node<K, V> current;
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public Map.Entry<K, V> next() {
+                    current = it.next();
+                    return new WriteThroughEntry(current.key, current.value);
+                }
+
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    WindowTinyLfuMap.this.remove(current.key, current.value);
+                    current = null;
+                }
+            };
+        }
+    }
+
+    /** An entry whose <code>setValue</code> updates the map, as <code>UtilCache.setExpireTime</code> relies on. */
+    @SuppressWarnings("serial")
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        private WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.cache.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.cache.MappedSegmentStore;
+import org.ofbiz.base.util.cache.UtilObjectSerializer;
+
+public class MappedSegmentStoreTests extends GenericTestCaseBase {
+    public static final String module = MappedSegmentStoreTests.class.getName();
+
+    private File directory;
+
+    public MappedSegmentStoreTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), getClass().getName() + "." + getName());
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private MappedSegmentStore openStore(int segmentSize, boolean recover) throws IOException {
+        return new MappedSegmentStore(directory, new UtilObjectSerializer(), segmentSize, recover);
+    }
+
+    public void testBasic() throws Exception {
+        MappedSegmentStore store = openStore(4096, false);
+        assertTrue("initial empty", store.isEmpty());
+        assertNull("get-empty", store.get("one"));
+        store.put("one", "uno");
+        assertTrue("containsKey", store.containsKey("one"));
+        assertEquals("get", "uno", store.get("one"));
+        store.put("one", "single");
+        assertEquals("get-replaced", "single", store.get("one"));
+        assertEquals("putIfAbsent-present", "single", store.putIfAbsent("one", "other"));
+        assertNull("putIfAbsent-absent", store.putIfAbsent("two", "dos"));
+        assertEquals("size", 2, store.size());
+        assertEquals("keys", new HashSet<Object>(UtilMisc.toList("one", "two")), store.keySet());
+        assertEquals("remove", "single", store.remove("one"));
+        assertNull("remove-missing", store.remove("one"));
+        assertFalse("delete-missing", store.delete("one"));
+        assertTrue("delete", store.delete("two"));
+        assertTrue("removed empty", store.isEmpty());
+        store.put("three", "tres");
+        store.clear();
+        assertTrue("cleared empty", store.isEmpty());
+        assertNull("cleared get", store.get("three"));
+        store.close();
+    }
+
+    public void testCompaction() throws Exception {
+        MappedSegmentStore store = openStore(1024, false);
+        for (int i = 0; i < 200; i++) {
+            store.put("key" + (i % 5), "value" + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("value after overwrites", "value" + (195 + i), store.get("key" + i));
+        }
+        assertTrue("old segments compacted", store.getCompactionCount() > 0);
+        assertTrue("segments bounded", store.getSegmentCount() <= 3);
+        try {
+            store.put("large", new byte[2048]);
+            fail("record larger than a segment");
+        } catch (IOException e) {
+        }
+        assertFalse("large not stored", store.containsKey("large"));
+        store.close();
+    }
+
+    public void testRecover() throws Exception {
+        MappedSegmentStore store = openStore(1024, false);
+        for (int i = 0; i < 50; i++) {
+            store.put("key" + i, "value" + i);
+        }
+        store.remove("key7");
+        store.put("key8", "changed");
+        store.close();
+
+        store = openStore(1024, true);
+        assertEquals("recovered size", 49, store.size());
+        assertNull("removed stays removed", store.get("key7"));
+        assertEquals("latest value recovered", "changed", store.get("key8"));
+        assertEquals("value recovered", "value49", store.get("key49"));
+        store.put("key50", "value50");
+        store.close();
+
+        // a record that was only partly written is dropped along with everything after it
+        File newest = null;
+        int newestId = -1;
+        for (String fileName: directory.list()) {
+            int id = Integer.parseInt(fileName.substring("segment-".length(), fileName.length() - ".dat".length()));
+            if (id > newestId) {
+                newestId = id;
+                newest = new File(directory, fileName);
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(newest, "rw");
+        try {
+            raf.seek(8 + 16);
+            raf.write(0xff);
+        } finally {
+            raf.close();
+        }
+        store = openStore(1024, true);
+        assertFalse("torn record dropped", store.containsKey("key50"));
+        assertEquals("older records kept", "value49", store.get("key49"));
+        store.close();
+
+        store = openStore(1024, false);
+        assertTrue("not recovered", store.isEmpty());
+        store.close();
+    }
+}
@@ -21,18 +21,35 @@ package org.ofbiz.base.util.cache.test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.base.util.cache.UtilCacheSnapshots;
 
 @SuppressWarnings("serial")
 public class UtilCacheTests extends GenericTestCaseBase implements Serializable {
@@ -397,6 +414,207 @@ public class UtilCacheTests extends GenericTestCaseBase implements Serializable
         assertEquals("map-values", map.values().size(), cache.values().size());
     }
 
+    public void testFrequentKeysSurviveScan() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(10, 10, 0, false, false);
+        assertEquals("evictionPolicy", "tinylfu", cache.getEvictionPolicy());
+        for (int i = 0; i < 5; i++) {
+            cache.put("hot" + i, "hot" + i);
+        }
+        for (int n = 0; n < 20; n++) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("hot-get", "hot" + i, cache.get("hot" + i));
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.put("scan" + i, "scan" + i);
+        }
+        assertEquals("cache.size", 10, cache.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue("hot" + i + " retained", cache.containsKey("hot" + i));
+        }
+    }
+
+    public void testMetrics() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(3, 3, 0, false, false);
+        for (int i = 0; i < 5; i++) {
+            cache.put(Integer.toString(i), Integer.toString(i));
+        }
+        cache.get("0");
+        cache.get("missing");
+        assertEquals("put-count", 5, cache.getPutLatency().getCount());
+        assertEquals("get-count", 2, cache.getGetLatency().getCount());
+        assertEquals("evicted-size", 2, cache.getEvictionCountSize());
+        assertEquals("evicted-expired", 0, cache.getEvictionCountExpired());
+        cache.recordLoad(2000000);
+        assertEquals("load-count", 1, cache.getLoadLatency().getCount());
+        assertEquals("load-mean", 2000000, cache.getLoadLatency().getMeanNanos());
+        assertThat(cache.getEstimatedSizeInBytes(), greaterThan(0L));
+        cache.setExpireTime(100);
+        cache.put("expiring", "value");
+        Thread.sleep(200);
+        assertEquals("evicted-expired", 1, cache.getEvictionCountExpired());
+        cache.clearCounters();
+        assertEquals("cleared-evictions", 0, cache.getEvictionCountSize());
+        assertEquals("cleared-loads", 0, cache.getLoadLatency().getCount());
+    }
+
+    public void testMetricsFromManyThreads() throws Exception {
+        final UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 8; i++) {
+            final String key = Integer.toString(i);
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int j = 0; j < 1000; j++) {
+                        cache.put(key, key);
+                        cache.get(key);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future: futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals("put-count", 8000, cache.getPutLatency().getCount());
+        assertEquals("get-count", 8000, cache.getGetLatency().getCount());
+        long bucketTotal = 0;
+        for (long bucketCount: cache.getGetLatency().getBucketCounts()) {
+            bucketTotal += bucketCount;
+        }
+        assertEquals("get-bucket-total", 8000, bucketTotal);
+    }
+
+    public void testRemoveCache() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        cache.put("key", "value");
+        ObjectName objectName = new ObjectName("org.ofbiz:type=UtilCache,name=" + ObjectName.quote(cache.getName()));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue("registered", server.isRegistered(objectName));
+        UtilCache.removeCache(cache.getName());
+        assertNull("removed", UtilCache.findCache(cache.getName()));
+        assertFalse("unregistered", server.isRegistered(objectName));
+        assertEquals("cleared", 0, cache.size());
+    }
+
+    public void testLoadingGet() throws Exception {
+        final UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            public String load(String key) throws Exception {
+                loadCount.incrementAndGet();
+                loading.countDown();
+                Thread.sleep(200);
+                return "value-" + key;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Callable<String> task = new Callable<String>() {
+                public String call() throws Exception {
+                    return cache.get("key", loader);
+                }
+            };
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            results.add(executor.submit(task));
+            // the first load is now running, everyone else should wait for it
+            loading.await();
+            for (int i = 0; i < 7; i++) {
+                results.add(executor.submit(task));
+            }
+            for (Future<String> result : results) {
+                assertEquals("loaded-value", "value-key", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("load-once", 1, loadCount.get());
+        assertEquals("load-count", 1, cache.getLoadLatency().getCount());
+        assertEquals("cached", "value-key", cache.get("key"));
+        try {
+            cache.get("failing", new CacheLoader<String, String>() {
+                public String load(String key) throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("loader exception not reported");
+        } catch (GeneralException e) {
+            assertTrue("cause", e.getCause() instanceof IOException);
+        }
+        assertFalse("failure-not-cached", cache.containsKey("failing"));
+    }
+
+    public void testSnapshot() throws Exception {
+        String name = getClass().getName() + "." + getName();
+        UtilCache<String, String> cache = UtilCache.createUtilCache(name, 0, 0, 0, false, false);
+        cache.put("one", "uno");
+        cache.put("two", "dos");
+        cache.put(null, "null");
+        cache.put("expiring", "soon", 100);
+        UtilCacheSnapshots.registerValidator(name, new UtilCacheSnapshots.SnapshotValidator() {
+            public Map<Object, Object> validate(String cacheName, Map<Object, Object> entries) {
+                entries.remove("two");
+                return entries;
+            }
+        });
+        assertEquals("written", 4, UtilCacheSnapshots.writeSnapshot(cache));
+        cache.clear();
+        Thread.sleep(200);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            UtilCacheSnapshots.preloadSnapshots(executor);
+        } finally {
+            executor.shutdown();
+            new File(UtilCacheSnapshots.getSnapshotDirectory(), cache.getName() + ".snapshot").delete();
+        }
+        assertEquals("restored", "uno", cache.get("one"));
+        assertEquals("restored-null-key", "null", cache.get(null));
+        assertNull("rejected by validator", cache.get("two"));
+        assertNull("expired since snapshot", cache.get("expiring"));
+        assertEquals("size", 2, cache.size());
+    }
+
+    public void testPendingSnapshot() throws Exception {
+        String name = getClass().getName() + "." + getName();
+        // a cache named name + "1", so that createUtilCache(name + "1") can create it again after it was removed
+        UtilCache.removeCache(UtilCache.createUtilCache(name, 0, 0, 0, false, false).getName());
+        UtilCache<String, String> cache = UtilCache.createUtilCache(name, 0, 0, 0, false, false);
+        String cacheName = cache.getName();
+        cache.put("one", "uno");
+        cache.put("two", "dos");
+        final Set<String> changed = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger validations = new AtomicInteger();
+        UtilCacheSnapshots.registerValidator(name, new UtilCacheSnapshots.SnapshotValidator() {
+            public Map<Object, Object> validate(String cacheName, Map<Object, Object> entries) {
+                validations.incrementAndGet();
+                entries.keySet().removeAll(changed);
+                return entries;
+            }
+        });
+        assertEquals("written", 2, UtilCacheSnapshots.writeSnapshot(cache));
+        UtilCache.removeCache(cacheName);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals("preloaded", 2, UtilCacheSnapshots.preloadSnapshots(executor));
+        } finally {
+            executor.shutdown();
+            new File(UtilCacheSnapshots.getSnapshotDirectory(), cache.getName() + ".snapshot").delete();
+        }
+        assertEquals("validated-on-preload", 1, validations.get());
+        // a change after the snapshot was read, while its cache did not exist
+        changed.add("two");
+        UtilCacheSnapshots.discardPending();
+        cache = UtilCache.createUtilCache(cacheName, 0, 0, 0, false, false);
+        assertEquals("same-name", cacheName, cache.getName());
+        assertEquals("validated-on-restore", 2, validations.get());
+        assertEquals("restored", "uno", cache.get("one"));
+        assertNull("changed while pending", cache.get("two"));
+        assertEquals("size", 1, cache.size());
+    }
+
     private void expireTest(UtilCache<String, Serializable> cache, int size, long ttl) throws Exception {
         Map<String, Serializable> map = new HashMap<String, Serializable>();
         for (int i = 0; i < size; i++) {
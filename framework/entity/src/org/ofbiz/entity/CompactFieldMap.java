@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The field values of a {@link GenericEntity}, kept in an array indexed by the field position
+ * in the {@link org.ofbiz.entity.model.ModelEntity}. The name to position Map, ordered by
+ * position, is shared by all the values of an entity, so a value costs one array instead of a
+ * hash table with an entry object per field. Like a <code>HashMap</code>, null values are kept
+ * and distinguished from absent fields. Names that are not in the index, for example fields
+ * added to the model after the value was created, are kept in a separate <code>HashMap</code>.
+ */
+@SuppressWarnings("serial")
+public final class CompactFieldMap extends AbstractMap<String, Object> implements Serializable {
+
+    private static final Object ABSENT = new Object();
+
+    private transient Map<String, Integer> index;
+    private transient Object[] values;
+    private transient Map<String, Object> overflow;
+    private transient int size;
+
+    public CompactFieldMap(Map<String, Integer> index) {
+        init(index);
+    }
+
+    public CompactFieldMap(CompactFieldMap source) {
+        this.index = source.index;
+        this.values = source.values.clone();
+        this.size = source.size;
+        if (source.overflow != null) {
+            this.overflow = new HashMap<String, Object>(source.overflow);
+        }
+    }
+
+    private void init(Map<String, Integer> index) {
+        this.index = index;
+        this.values = new Object[index.size()];
+        Arrays.fill(this.values, ABSENT);
+        this.overflow = null;
+        this.size = 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Integer position = index.get(key);
+        if (position != null) {
+            Object value = values[position];
+            return value == ABSENT ? null : value;
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Integer position = index.get(key);
+        if (position != null) {
+            return values[position] != ABSENT;
+        }
+        return overflow != null && overflow.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Integer position = index.get(key);
+        if (position != null) {
+            Object old = values[position];
+            values[position] = value;
+            if (old == ABSENT) {
+                size++;
+                return null;
+            }
+            return old;
+        }
+        if (overflow == null) {
+            overflow = new HashMap<String, Object>();
+        }
+        if (!overflow.containsKey(key)) {
+            size++;
+        }
+        return overflow.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Integer position = index.get(key);
+        if (position != null) {
+            Object old = values[position];
+            if (old == ABSENT) {
+                return null;
+            }
+            values[position] = ABSENT;
+            size--;
+            return old;
+        }
+        if (overflow != null && overflow.containsKey(key)) {
+            size--;
+            return overflow.remove(key);
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, ABSENT);
+        overflow = null;
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // iterates the shared index, which is ordered by position, then the overflow
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private final Iterator<Map.Entry<String, Integer>> indexIter = index.entrySet().iterator();
+        private final Iterator<Map.Entry<String, Object>> overflowIter = overflow == null ? Collections.<Map.Entry<String, Object>>emptyIterator() : overflow.entrySet().iterator();
+        private Map.Entry<String, Integer> next = null;
+        private Map.Entry<String, Integer> last = null;
+        private boolean lastFromOverflow = false;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (indexIter.hasNext()) {
+                Map.Entry<String, Integer> candidate = indexIter.next();
+                if (values[candidate.getValue()] != ABSENT) {
+                    next = candidate;
+                    return;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null || overflowIter.hasNext();
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (next != null) {
+                last = next;
+                lastFromOverflow = false;
+                advance();
+                return new FieldEntry(last.getKey(), last.getValue());
+            }
+            last = null;
+            lastFromOverflow = true;
+            return overflowIter.next();
+        }
+
+        public void remove() {
+            if (lastFromOverflow) {
+                overflowIter.remove();
+                lastFromOverflow = false;
+                size--;
+                return;
+            }
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            values[last.getValue()] = ABSENT;
+            last = null;
+            size--;
+        }
+    }
+
+    private final class FieldEntry implements Map.Entry<String, Object> {
+        private final String name;
+        private final int position;
+
+        private FieldEntry(String name, int position) {
+            this.name = name;
+            this.position = position;
+        }
+
+        public String getKey() {
+            return name;
+        }
+
+        public Object getValue() {
+            Object value = values[position];
+            return value == ABSENT ? null : value;
+        }
+
+        public Object setValue(Object value) {
+            Object old = getValue();
+            values[position] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> that = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(that.getKey()) && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    // the shared index is not written, a deserialized map gets an index of its own
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(index.size());
+        for (String name: index.keySet()) {
+            out.writeObject(name);
+        }
+        out.writeInt(size);
+        for (Map.Entry<String, Object> entry: entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int nameCount = in.readInt();
+        Map<String, Integer> index = new LinkedHashMap<String, Integer>(nameCount * 2);
+        for (int i = 0; i < nameCount; i++) {
+            index.put((String) in.readObject(), i);
+        }
+        init(index);
+        int entryCount = in.readInt();
+        for (int i = 0; i < entryCount; i++) {
+            put((String) in.readObject(), in.readObject());
+        }
+    }
+}
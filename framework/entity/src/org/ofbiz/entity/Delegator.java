@@ -569,6 +569,21 @@ public interface Delegator {
      */
     GenericValue findOne(String entityName, Map<String, ? extends Object> fields, boolean useCache) throws GenericEntityException;
 
+    /**
+     * Find a number of Generic Entities by their Primary Keys. When the cache
+     * is used, keys found in the primary key cache are not queried; the other
+     * keys are queried a few hundred at a time per entity and the results,
+     * including the keys that were not found, are put in the cache.
+     *
+     * @param primaryKeys
+     *            The primary keys to find by, they may be of different entities
+     * @param useCache
+     *            Whether to use the primary key cache
+     * @return List of the GenericValues that were found, in the order of the
+     *         passed primary keys; keys without a value are skipped
+     */
+    List<GenericValue> findAllByPrimaryKeys(Collection<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException;
+
     Cache getCache();
 
     String getCurrentSessionIdentifier();
@@ -915,6 +930,24 @@ public interface Delegator {
      */
     GenericValue getRelatedOne(String relationName, GenericValue value, boolean useCache) throws GenericEntityException;
 
+    /**
+     * Get the related entities of a list of values where the relation is of
+     * type one, uses findAllByPrimaryKeys so the related entities are found
+     * with a few queries instead of one query per value
+     *
+     * @param relationName
+     *            String containing the relation name which is the combination
+     *            of relation.title and relation.rel-entity-name as specified in
+     *            the entity XML definition file
+     * @param values
+     *            List of GenericValue instances of the same entity
+     * @param useCache
+     *            Whether to cache the results
+     * @return List of the related GenericValues in the order of the passed
+     *         values, with null for values that have no related entity
+     */
+    List<GenericValue> getRelatedOne(String relationName, List<GenericValue> values, boolean useCache) throws GenericEntityException;
+
     void initEntityEcaHandler();
 
     void initDistributedCacheClear();
@@ -29,6 +29,7 @@ import org.ofbiz.base.container.ContainerConfig;
 import org.ofbiz.base.container.ContainerException;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.cache.UtilCache;
 
 public class DelegatorContainer implements Container {
     private String name;
@@ -58,6 +59,8 @@ public class DelegatorContainer implements Container {
 
     @Override
     public void stop() throws ContainerException {
+        // the entity caches of all delegators, which also unregisters their JMX beans
+        UtilCache.removeCachesThatStartWith("entitycache.");
     }
 
     @Override
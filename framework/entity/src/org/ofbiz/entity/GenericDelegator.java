@@ -22,9 +22,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +46,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.ofbiz.base.concurrent.ConstantFuture;
 import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.GeneralRuntimeException;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilFormatOut;
@@ -50,14 +55,19 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.entity.cache.Cache;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.config.model.Datasource;
 import org.ofbiz.entity.config.model.DelegatorElement;
 import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.config.model.GroupMap;
+import org.ofbiz.entity.datasource.GenericDAO;
 import org.ofbiz.entity.datasource.GenericHelper;
 import org.ofbiz.entity.datasource.GenericHelperFactory;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.datasource.ReadReplicaRouter;
 import org.ofbiz.entity.eca.EntityEcaHandler;
 import org.ofbiz.entity.model.DynamicViewEntity;
 import org.ofbiz.entity.model.ModelEntity;
@@ -103,6 +113,8 @@ public class GenericDelegator implements Delegator {
     private String originalDelegatorName = null;
 
     protected DelegatorElement delegatorInfo = null;
+    /** The read replica routers of the entity groups that have read replicas, by group name */
+    protected Map<String, ReadReplicaRouter> readReplicaRouters = Collections.emptyMap();
 
     protected Cache cache = null;
 
@@ -218,6 +230,19 @@ public class GenericDelegator implements Delegator {
 
         cache = new Cache(delegatorFullName);
 
+        // tenant delegators override the JDBC settings of the group datasources, which the replicas would not follow
+        if (UtilValidate.isEmpty(this.delegatorTenantId)) {
+            Map<String, ReadReplicaRouter> readReplicaRouters = new HashMap<String, ReadReplicaRouter>();
+            for (GroupMap groupMap : this.delegatorInfo.getGroupMapList()) {
+                if (!groupMap.getReadReplicaList().isEmpty()) {
+                    readReplicaRouters.put(groupMap.getGroupName(), new ReadReplicaRouter(this, groupMap));
+                }
+            }
+            if (!readReplicaRouters.isEmpty()) {
+                this.readReplicaRouters = readReplicaRouters;
+            }
+        }
+
         // do the entity model check
         List<String> warningList = new LinkedList<String>();
         Debug.logInfo("Doing entity definition check...", module);
@@ -545,6 +570,25 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /**
+     * Returns the helper to read the entity with: a read replica of the entity group if it has one that can be used,
+     * otherwise the same helper as {@link #getEntityHelper(String)}.
+     * @param replicaAllowed true if the read is outside of a transaction or asked for a replica, and doesn't fill
+     * the entity cache: a lagging replica could put a row in the cache that was changed after the write cleared it
+     */
+    protected GenericHelper getEntityReadHelper(String entityName, boolean replicaAllowed) throws GenericEntityException {
+        if (replicaAllowed && !this.readReplicaRouters.isEmpty()) {
+            ReadReplicaRouter router = this.readReplicaRouters.get(this.getEntityGroupName(entityName));
+            if (router != null) {
+                GenericHelperInfo helperInfo = router.getReplicaHelperInfo();
+                if (helperInfo != null) {
+                    return GenericHelperFactory.getHelper(helperInfo);
+                }
+            }
+        }
+        return getEntityHelper(entityName);
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#getEntityHelper(org.ofbiz.entity.model.ModelEntity)
      */
@@ -807,6 +851,7 @@ public class GenericDelegator implements Delegator {
             }
 
             try {
+                ReadReplicaRouter.transactionWritten();
                 value = helper.create(value);
 
                 if (testMode) {
@@ -834,6 +879,7 @@ public class GenericDelegator implements Delegator {
                     this.AtomicRefSequencer.get().forceBankRefresh(value.getEntityName(), 1);
 
                     value.setNextSeqId();
+                    ReadReplicaRouter.transactionWritten();
                     value = helper.create(value);
                     if (Debug.infoOn()) {
                         Debug.logInfo("Successfully created new entity record on retry with a sequenced value [" + value.getPrimaryKey() + "], after getting refreshed bank for entity [" + value.getEntityName() + "]", module);
@@ -899,6 +945,7 @@ public class GenericDelegator implements Delegator {
                 createEntityAuditLogAll(value, false, false);
             }
 
+            ReadReplicaRouter.transactionWritten();
             value = helper.create(value);
 
             if (testMode) {
@@ -1034,6 +1081,7 @@ public class GenericDelegator implements Delegator {
             if (testMode) {
                 removedEntity = this.findOne(primaryKey.getEntityName(), primaryKey, false);
             }
+            ReadReplicaRouter.transactionWritten();
             int num = helper.removeByPrimaryKey(primaryKey);
             if (doCacheClear) {
                 ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_REMOVE, primaryKey, false);
@@ -1098,6 +1146,7 @@ public class GenericDelegator implements Delegator {
                 removedValue = this.findOne(value.getEntityName(), value.getPrimaryKey(), false);
             }
 
+            ReadReplicaRouter.transactionWritten();
             int num = helper.removeByPrimaryKey(value.getPrimaryKey());
             // Need to call removedFromDatasource() here because the helper calls removedFromDatasource() on the PK instead of the GenericEntity.
             value.removedFromDatasource();
@@ -1192,6 +1241,7 @@ public class GenericDelegator implements Delegator {
                 removedEntities = this.findList(entityName, condition, null, null, null, false);
             }
 
+            ReadReplicaRouter.transactionWritten();
             int rowsAffected = helper.removeByCondition(this, modelEntity, condition);
             if (rowsAffected > 0 && doCacheClear) {
                 this.clearCacheLine(entityName);
@@ -1305,6 +1355,7 @@ public class GenericDelegator implements Delegator {
                 updatedEntities = this.findList(entityName, condition, null, null, null, false);
             }
 
+            ReadReplicaRouter.transactionWritten();
             int rowsAffected =  helper.storeByCondition(this, modelEntity, fieldsToSet, condition);
             if (rowsAffected > 0 && doCacheClear) {
                 this.clearCacheLine(entityName);
@@ -1363,6 +1414,7 @@ public class GenericDelegator implements Delegator {
                 updatedEntity = this.findOne(value.getEntityName(), value.getPrimaryKey(), false);
             }
 
+            ReadReplicaRouter.transactionWritten();
             int retVal = helper.store(value);
             if (doCacheClear) {
                 ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, value, false);
@@ -1423,55 +1475,36 @@ public class GenericDelegator implements Delegator {
         try {
             beganTransaction = TransactionUtil.begin();
 
-            for (GenericValue value: values) {
-                String entityName = value.getEntityName();
-                GenericPK primaryKey = value.getPrimaryKey();
-                GenericHelper helper = getEntityHelper(entityName);
-
-                // exists?
-                // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
-                if (!primaryKey.isPrimaryKey()) {
-                    throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
-                }
-                GenericValue existing = null;
-                try {
-                    existing = helper.findByPrimaryKey(primaryKey);
-                } catch (GenericEntityNotFoundException e) {
-                    existing = null;
-                }
-
-                if (existing == null) {
-                    if (createDummyFks) {
-                        value.checkFks(true);
+            // values are written in runs of the same entity so that the order of the list, and so the
+            // order foreign keys are satisfied in, is kept; a run ends at a repeated primary key
+            int start = 0;
+            while (start < values.size()) {
+                String entityName = values.get(start).getEntityName();
+                Set<GenericPK> primaryKeys = new HashSet<GenericPK>();
+                int end = start;
+                while (end < values.size() && end - start < GenericDAO.BATCH_SIZE) {
+                    GenericValue value = values.get(end);
+                    if (!entityName.equals(value.getEntityName())) {
+                        break;
                     }
-                    this.create(value, doCacheClear);
-                    numberChanged++;
-                } else {
-                    // don't send fields that are the same, and if no fields have changed, update nothing
-                    ModelEntity modelEntity = value.getModelEntity();
-                    GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
-                    boolean atLeastOneField = false;
-                    Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
-                    while (nonPksIter.hasNext()) {
-                        ModelField modelField = nonPksIter.next();
-                        String fieldName = modelField.getName();
-                        if (value.containsKey(fieldName)) {
-                            Object fieldValue = value.get(fieldName);
-                            Object oldValue = existing.get(fieldName);
-                            if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
-                                toStore.put(fieldName, fieldValue);
-                                atLeastOneField = true;
-                            }
-                        }
+                    GenericPK primaryKey = value.getPrimaryKey();
+                    if (!primaryKey.isPrimaryKey()) {
+                        throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
                     }
-
-                    if (atLeastOneField) {
-                        if (createDummyFks) {
-                            value.checkFks(true);
-                        }
-                        numberChanged += this.store(toStore, doCacheClear);
+                    if (!primaryKeys.add(primaryKey)) {
+                        break;
+                    }
+                    end++;
+                }
+                List<GenericValue> run = values.subList(start, end);
+                if (isBatchStoreAllowed(entityName)) {
+                    numberChanged += this.storeAllBatch(run, doCacheClear, createDummyFks);
+                } else {
+                    for (GenericValue value: run) {
+                        numberChanged += this.storeOne(value, doCacheClear, createDummyFks);
                     }
                 }
+                start = end;
             }
             TransactionUtil.commit(beganTransaction);
             return numberChanged;
@@ -1483,6 +1516,130 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /**
+     * Returns true if values of the entity can be written with JDBC batches: create and store do nothing
+     * for them besides the write and the cache clear, ie there are no entity ECA rules, no audit log, no
+     * optimistic locking and no test mode.
+     */
+    private boolean isBatchStoreAllowed(String entityName) throws GenericEntityException {
+        if (testMode) {
+            return false;
+        }
+        ModelEntity modelEntity = getModelEntity(entityName);
+        if (modelEntity == null || modelEntity instanceof ModelViewEntity || modelEntity.lock() || modelEntity.getHasFieldWithAuditLog()) {
+            return false;
+        }
+        return !getEcaRuleRunner(entityName).hasRules();
+    }
+
+    // Stores values of the same entity with one select and JDBC batches, the primary keys must be distinct.
+    private int storeAllBatch(List<GenericValue> values, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        ModelEntity modelEntity = values.get(0).getModelEntity();
+        GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+
+        // exists?
+        // NOTE: don't use findList because we don't want to the ECA events to fire and such
+        List<EntityCondition> pkConditions = new LinkedList<EntityCondition>();
+        for (GenericValue value: values) {
+            pkConditions.add(EntityCondition.makeCondition(value.getPrimaryKey()));
+        }
+        Map<GenericPK, GenericValue> existingValues = new HashMap<GenericPK, GenericValue>();
+        EntityListIterator eli = helper.findListIteratorByCondition(this, modelEntity, EntityCondition.makeCondition(pkConditions, EntityOperator.OR), null, null, null, null);
+        try {
+            GenericValue existing;
+            while ((existing = eli.next()) != null) {
+                existingValues.put(existing.getPrimaryKey(), existing);
+            }
+        } finally {
+            eli.close();
+        }
+
+        List<GenericValue> toCreate = new LinkedList<GenericValue>();
+        List<GenericValue> toStore = new LinkedList<GenericValue>();
+        for (GenericValue value: values) {
+            GenericValue existing = existingValues.get(value.getPrimaryKey());
+            if (existing == null) {
+                if (createDummyFks) {
+                    value.checkFks(true);
+                }
+                value.setDelegator(this);
+                toCreate.add(value);
+            } else {
+                GenericValue changedValue = makeChangedValue(value, existing);
+                if (changedValue != null) {
+                    if (createDummyFks) {
+                        value.checkFks(true);
+                    }
+                    toStore.add(changedValue);
+                }
+            }
+        }
+
+        ReadReplicaRouter.transactionWritten();
+        int numberChanged = helper.createAll(toCreate);
+        numberChanged += helper.storeAll(toStore);
+        if (doCacheClear) {
+            for (GenericValue value: toCreate) {
+                this.clearCacheLine(value);
+            }
+            for (GenericValue value: toStore) {
+                this.clearCacheLine(value);
+            }
+        }
+        return numberChanged;
+    }
+
+    private int storeOne(GenericValue value, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        GenericHelper helper = getEntityHelper(value.getEntityName());
+
+        // exists?
+        // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
+        GenericValue existing = null;
+        try {
+            existing = helper.findByPrimaryKey(value.getPrimaryKey());
+        } catch (GenericEntityNotFoundException e) {
+            existing = null;
+        }
+
+        if (existing == null) {
+            if (createDummyFks) {
+                value.checkFks(true);
+            }
+            this.create(value, doCacheClear);
+            return 1;
+        }
+        GenericValue toStore = makeChangedValue(value, existing);
+        if (toStore == null) {
+            return 0;
+        }
+        if (createDummyFks) {
+            value.checkFks(true);
+        }
+        return this.store(toStore, doCacheClear);
+    }
+
+    // Returns a value with the primary key and the fields that differ from the existing value, or null if no field has changed.
+    private GenericValue makeChangedValue(GenericValue value, GenericValue existing) {
+        // don't send fields that are the same, and if no fields have changed, update nothing
+        ModelEntity modelEntity = value.getModelEntity();
+        GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
+        boolean atLeastOneField = false;
+        Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
+        while (nonPksIter.hasNext()) {
+            ModelField modelField = nonPksIter.next();
+            String fieldName = modelField.getName();
+            if (value.containsKey(fieldName)) {
+                Object fieldValue = value.get(fieldName);
+                Object oldValue = existing.get(fieldName);
+                if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
+                    toStore.put(fieldName, fieldValue);
+                    atLeastOneField = true;
+                }
+            }
+        }
+        return atLeastOneField ? toStore : null;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#removeAll(java.lang.String)
      */
@@ -1552,18 +1709,30 @@ public class GenericDelegator implements Delegator {
         if (!primaryKey.isPrimaryKey()) {
             throw new GenericModelException("[GenericDelegator.findOne] Passed primary key is not a valid primary key: " + primaryKey);
         }
-        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+        final EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
         if (useCache) {
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, primaryKey, false);
-            GenericValue value = cache.get(primaryKey);
-            if (value == GenericValue.NULL_VALUE) {
-                return null;
-            }
-            if (value != null) {
-                return value;
+            // concurrent misses on the same primary key outside a transaction share a single query
+            GenericValue value;
+            try {
+                value = cache.get(primaryKey, new CacheLoader<GenericPK, GenericValue>() {
+                    public GenericValue load(GenericPK primaryKey) throws GenericEntityException {
+                        return findOneFromDatasource(primaryKey, ecaRunner, true);
+                    }
+                });
+            } catch (GenericEntityException e) {
+                throw e;
+            } catch (GeneralException e) {
+                throw new GenericEntityException(e);
             }
+            return value == GenericValue.NULL_VALUE ? null : value;
         }
+        return findOneFromDatasource(primaryKey, ecaRunner, false);
+    }
 
+    private GenericValue findOneFromDatasource(GenericPK primaryKey, EntityEcaRuleRunner<?> ecaRunner, boolean useCache) throws GenericEntityException {
+        String entityName = primaryKey.getEntityName();
+        boolean replicaAllowed = !useCache && !TransactionUtil.isTransactionInPlace();
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1572,7 +1741,7 @@ public class GenericDelegator implements Delegator {
 
             ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_FIND, primaryKey, false);
 
-            GenericHelper helper = getEntityHelper(entityName);
+            GenericHelper helper = getEntityReadHelper(entityName, replicaAllowed);
             GenericValue value = null;
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, primaryKey, false);
@@ -1584,13 +1753,9 @@ public class GenericDelegator implements Delegator {
                 value.setDelegator(this);
             }
 
-            if (useCache) {
-                if (value != null) {
-                    ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
-                    this.putInPrimaryKeyCache(primaryKey, value);
-                } else {
-                    this.putInPrimaryKeyCache(primaryKey, GenericValue.NULL_VALUE);
-                }
+            if (useCache && value != null) {
+                // the value is put in the cache by the caller
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
             }
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, (value == null ? primaryKey : value), false);
@@ -1604,6 +1769,96 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#findAllByPrimaryKeys(java.util.Collection, boolean)
+     */
+    @Override
+    public List<GenericValue> findAllByPrimaryKeys(Collection<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException {
+        Map<GenericPK, GenericValue> found = findAllByPrimaryKeysMap(primaryKeys, useCache);
+        List<GenericValue> results = new ArrayList<GenericValue>(primaryKeys.size());
+        for (GenericPK primaryKey: primaryKeys) {
+            GenericValue value = found.get(primaryKey);
+            if (value != null) {
+                results.add(value);
+            }
+        }
+        return results;
+    }
+
+    // Maps every distinct key to its value, or to null if there is no value for it.
+    private Map<GenericPK, GenericValue> findAllByPrimaryKeysMap(Collection<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException {
+        Map<GenericPK, GenericValue> found = new HashMap<GenericPK, GenericValue>();
+        Map<String, List<GenericPK>> toFind = new LinkedHashMap<String, List<GenericPK>>();
+        for (GenericPK primaryKey: primaryKeys) {
+            if (!primaryKey.isPrimaryKey()) {
+                throw new GenericModelException("[GenericDelegator.findAllByPrimaryKeys] Passed primary key is not a valid primary key: " + primaryKey);
+            }
+            if (found.containsKey(primaryKey)) {
+                continue;
+            }
+            String entityName = primaryKey.getEntityName();
+            if (getEcaRuleRunner(entityName).hasRules()) {
+                // the find rules are evaluated for each key, so these keys are found one at a time
+                found.put(primaryKey, findOne(entityName, primaryKey, useCache));
+                continue;
+            }
+            if (useCache) {
+                GenericValue value = cache.get(primaryKey);
+                if (value != null) {
+                    found.put(primaryKey, value == GenericValue.NULL_VALUE ? null : value);
+                    continue;
+                }
+            }
+            List<GenericPK> entityKeys = toFind.get(entityName);
+            if (entityKeys == null) {
+                entityKeys = new LinkedList<GenericPK>();
+                toFind.put(entityName, entityKeys);
+            }
+            entityKeys.add(primaryKey);
+            found.put(primaryKey, null);
+        }
+
+        for (Map.Entry<String, List<GenericPK>> entry: toFind.entrySet()) {
+            List<GenericValue> values = findAllByPrimaryKeysFromDatasource(entry.getKey(), entry.getValue(), useCache);
+            for (GenericValue value: values) {
+                found.put(value.getPrimaryKey(), value);
+            }
+            if (useCache && !getModelEntity(entry.getKey()).getNeverCache()) {
+                this.putAllInPrimaryKeyCache(values);
+                for (GenericPK primaryKey: entry.getValue()) {
+                    if (found.get(primaryKey) == null) {
+                        cache.put(primaryKey, GenericValue.NULL_VALUE);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private List<GenericValue> findAllByPrimaryKeysFromDatasource(String entityName, List<GenericPK> primaryKeys, boolean useCache) throws GenericEntityException {
+        boolean replicaAllowed = !useCache && !TransactionUtil.isTransactionInPlace();
+        boolean beganTransaction = false;
+        try {
+            if (alwaysUseTransaction) {
+                beganTransaction = TransactionUtil.begin();
+            }
+
+            GenericHelper helper = getEntityReadHelper(entityName, replicaAllowed);
+            List<GenericValue> values = helper.findAllByPrimaryKeys(primaryKeys);
+            for (GenericValue value: values) {
+                value.setDelegator(this);
+            }
+
+            TransactionUtil.commit(beganTransaction);
+            return values;
+        } catch (Exception e) {
+            String errMsg = "Failure in findAllByPrimaryKeys operation for entity [" + entityName + "]: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(e, errMsg, module);
+            TransactionUtil.rollback(beganTransaction, errMsg, e);
+            throw new GenericEntityException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#findByPrimaryKey(java.lang.String, java.util.Map)
      * @deprecated use {@link #findOne(String, Map, boolean)}
@@ -1639,6 +1894,7 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public GenericValue findByPrimaryKeyPartial(GenericPK primaryKey, Set<String> keys) throws GenericEntityException {
+        boolean replicaAllowed = !TransactionUtil.isTransactionInPlace();
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1648,7 +1904,7 @@ public class GenericDelegator implements Delegator {
             EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(primaryKey.getEntityName());
             ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_FIND, primaryKey, false);
 
-            GenericHelper helper = getEntityHelper(primaryKey.getEntityName());
+            GenericHelper helper = getEntityReadHelper(primaryKey.getEntityName(), replicaAllowed);
             GenericValue value = null;
 
             if (!primaryKey.isPrimaryKey()) {
@@ -1748,6 +2004,11 @@ public class GenericDelegator implements Delegator {
      */
     @Override
     public EntityListIterator find(String entityName, EntityCondition whereEntityCondition, EntityCondition havingEntityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions) throws GenericEntityException {
+        boolean replicaAllowed = (findOptions != null && findOptions.getUseReadReplica()) || !TransactionUtil.isTransactionInPlace();
+        return find(entityName, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions, replicaAllowed);
+    }
+
+    private EntityListIterator find(String entityName, EntityCondition whereEntityCondition, EntityCondition havingEntityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean replicaAllowed) throws GenericEntityException {
 
         // if there is no transaction throw an exception, we don't want to create a transaction here since closing it would mess up the ELI
         if (!TransactionUtil.isTransactionInPlace()) {
@@ -1771,7 +2032,7 @@ public class GenericDelegator implements Delegator {
         }
 
         ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
-        GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+        GenericHelper helper = getEntityReadHelper(modelEntity.getEntityName(), replicaAllowed);
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, fieldsToSelect, orderBy, findOptions);
         eli.setDelegator(this);
 
@@ -1783,22 +2044,32 @@ public class GenericDelegator implements Delegator {
      * @see org.ofbiz.entity.Delegator#findList(java.lang.String, org.ofbiz.entity.condition.EntityCondition, java.util.Set, java.util.List, org.ofbiz.entity.util.EntityFindOptions, boolean)
      */
     @Override
-    public List<GenericValue> findList(String entityName, EntityCondition entityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean useCache) throws GenericEntityException {
+    public List<GenericValue> findList(final String entityName, final EntityCondition entityCondition, final Set<String> fieldsToSelect, final List<String> orderBy, final EntityFindOptions findOptions, boolean useCache) throws GenericEntityException {
 
-        EntityEcaRuleRunner<?> ecaRunner = null;
-        GenericValue dummyValue = null;
         if (useCache) {
-            ecaRunner = this.getEcaRuleRunner(entityName);
+            final EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
             ModelEntity modelEntity = getModelReader().getModelEntity(entityName);
-            dummyValue = GenericValue.create(modelEntity);
+            final GenericValue dummyValue = GenericValue.create(modelEntity);
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, dummyValue, false);
 
-            List<GenericValue> cacheList = this.cache.get(entityName, entityCondition, orderBy);
-            if (cacheList != null) {
-                return cacheList;
+            // concurrent misses on the same condition and ordering outside a transaction share a single query
+            try {
+                return this.cache.get(entityName, entityCondition, orderBy, new CacheLoader<EntityCondition, List<GenericValue>>() {
+                    public List<GenericValue> load(EntityCondition condition) throws GenericEntityException {
+                        return findListFromDatasource(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, ecaRunner, dummyValue);
+                    }
+                });
+            } catch (GenericEntityException e) {
+                throw e;
+            } catch (GeneralException e) {
+                throw new GenericEntityException(e);
             }
         }
+        return findListFromDatasource(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, null, null);
+    }
 
+    private List<GenericValue> findListFromDatasource(String entityName, EntityCondition entityCondition, Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, EntityEcaRuleRunner<?> cacheEcaRunner, GenericValue dummyValue) throws GenericEntityException {
+        boolean replicaAllowed = cacheEcaRunner == null && ((findOptions != null && findOptions.getUseReadReplica()) || !TransactionUtil.isTransactionInPlace());
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1808,7 +2079,7 @@ public class GenericDelegator implements Delegator {
             EntityListIterator eli = null;
             List<GenericValue> list = null;
             try {
-                eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions);
+                eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions, replicaAllowed);
                 list = eli.getCompleteList();
             } finally {
                 if (eli != null) {
@@ -1818,9 +2089,9 @@ public class GenericDelegator implements Delegator {
                 }
             }
 
-            if (useCache) {
-                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
-                this.cache.put(entityName, entityCondition, orderBy, list);
+            if (cacheEcaRunner != null) {
+                // the list is put in the cache by the caller
+                cacheEcaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
             }
             TransactionUtil.commit(beganTransaction);
             return list;
@@ -1851,7 +2122,8 @@ public class GenericDelegator implements Delegator {
         if (whereEntityCondition != null) whereEntityCondition.checkCondition(modelViewEntity);
         if (havingEntityCondition != null) havingEntityCondition.checkCondition(modelViewEntity);
 
-        GenericHelper helper = getEntityHelper(dynamicViewEntity.getOneRealEntityName());
+        boolean replicaAllowed = (findOptions != null && findOptions.getUseReadReplica()) || !TransactionUtil.isTransactionInPlace();
+        GenericHelper helper = getEntityReadHelper(dynamicViewEntity.getOneRealEntityName(), replicaAllowed);
         EntityListIterator eli = helper.findListIteratorByCondition(this, modelViewEntity, whereEntityCondition,
                 havingEntityCondition, fieldsToSelect, orderBy, findOptions);
         eli.setDelegator(this);
@@ -1866,6 +2138,7 @@ public class GenericDelegator implements Delegator {
     public long findCountByCondition(String entityName, EntityCondition whereEntityCondition,
             EntityCondition havingEntityCondition, EntityFindOptions findOptions) throws GenericEntityException {
 
+        boolean replicaAllowed = (findOptions != null && findOptions.getUseReadReplica()) || !TransactionUtil.isTransactionInPlace();
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1885,7 +2158,7 @@ public class GenericDelegator implements Delegator {
             }
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
-            GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
+            GenericHelper helper = getEntityReadHelper(modelEntity.getEntityName(), replicaAllowed);
             long count = helper.findCountByCondition(this, modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, dummyValue, false);
@@ -2043,6 +2316,43 @@ public class GenericDelegator implements Delegator {
         return this.findOne(relation.getRelEntityName(), fields, useCache);
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#getRelatedOne(java.lang.String, java.util.List, boolean)
+     */
+    @Override
+    public List<GenericValue> getRelatedOne(String relationName, List<GenericValue> values, boolean useCache) throws GenericEntityException {
+        List<GenericPK> relatedKeys = new ArrayList<GenericPK>(values.size());
+        List<GenericPK> keysToFind = new LinkedList<GenericPK>();
+        for (GenericValue value: values) {
+            ModelRelation relation = value.getModelEntity().getRelation(relationName);
+            if (relation == null) {
+                throw new GenericModelException("Could not find relation for relationName: " + relationName + " for value " + value);
+            }
+            if (!"one".equals(relation.getType()) && !"one-nofk".equals(relation.getType())) {
+                throw new GenericModelException("Relation is not a 'one' or a 'one-nofk' relation: " + relationName + " of entity " + value.getEntityName());
+            }
+
+            GenericPK relatedKey = this.makePK(relation.getRelEntityName());
+            for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+                relatedKey.set(keyMap.getRelFieldName(), value.get(keyMap.getFieldName()));
+            }
+            // a value with an empty foreign key has no related entity
+            if (relatedKey.isPrimaryKey()) {
+                relatedKeys.add(relatedKey);
+                keysToFind.add(relatedKey);
+            } else {
+                relatedKeys.add(null);
+            }
+        }
+
+        Map<GenericPK, GenericValue> found = findAllByPrimaryKeysMap(keysToFind, useCache);
+        List<GenericValue> results = new ArrayList<GenericValue>(relatedKeys.size());
+        for (GenericPK relatedKey: relatedKeys) {
+            results.add(relatedKey == null ? null : found.get(relatedKey));
+        }
+        return results;
+    }
+
 
     // ======================================
     // ======= Cache Related Methods ========
@@ -2457,6 +2767,10 @@ public class GenericDelegator implements Delegator {
             //}
             entityEcaHandler.evalRules(currentOperation, eventMap, event, value, isError);
         }
+
+        protected boolean hasRules() {
+            return entityEcaHandler != null && UtilValidate.isNotEmpty(eventMap);
+        }
     }
 
     protected EntityEcaRuleRunner<?> getEcaRuleRunner(String entityName) {
@@ -2816,6 +3130,7 @@ public class GenericDelegator implements Delegator {
         //   delegator, allowing the new delegatorFullName to not match a delegator name in the entityengine.xml file
         newDelegator.delegatorBaseName = this.delegatorBaseName;
         newDelegator.delegatorInfo = this.delegatorInfo;
+        newDelegator.readReplicaRouters = this.readReplicaRouters;
         newDelegator.cache = this.cache;
         newDelegator.distributedCacheClear.set(this.distributedCacheClear.get());
         newDelegator.originalDelegatorName = getOriginalDelegatorName();
@@ -78,6 +78,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     public static final String module = GenericEntity.class.getName();
     public static final GenericEntity NULL_ENTITY = new NullGenericEntity();
     public static final NullField NULL_FIELD = new NullField();
+    private static final boolean compactFields = "Y".equalsIgnoreCase(UtilProperties.getPropertyValue("general.properties", "entity.compact.fields"));
 
     // Do not restore observers during deserialization. Instead, client code must add observers.
     private transient Observable observable = new Observable();
@@ -93,13 +94,13 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
     private Map<String, Object> originalDbValues = null;
 
     /** Contains the fields for this entity. Note that this should always be a
-     *  HashMap to allow for two things: non-synchronized reads (synchronized
-     *  writes are done through synchronized setters) and being able to store
-     *  null values. Null values are important because with them we can distinguish
-     *  between desiring to set a value to null and desiring to not modify the
-     *  current value on an update.
+     *  HashMap, or a CompactFieldMap when entity.compact.fields is on, to allow for two
+     *  things: non-synchronized reads (synchronized writes are done through synchronized
+     *  setters) and being able to store null values. Null values are important because
+     *  with them we can distinguish between desiring to set a value to null and desiring
+     *  to not modify the current value on an update.
      */
-    private Map<String, Object> fields = new HashMap<String, Object>();
+    private Map<String, Object> fields = Collections.emptyMap();
 
     /** Contains the entityName of this entity, necessary for efficiency when creating EJBs */
     private String entityName = null;
@@ -152,6 +153,22 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         return newEntity;
     }
 
+    private static Map<String, Object> newFields(ModelEntity modelEntity) {
+        if (compactFields && modelEntity != null) {
+            return new CompactFieldMap(modelEntity.getFieldIndexMap());
+        }
+        return new HashMap<String, Object>();
+    }
+
+    private static Map<String, Object> copyFields(Map<String, Object> source, ModelEntity modelEntity) {
+        if (source instanceof CompactFieldMap) {
+            return new CompactFieldMap((CompactFieldMap) source);
+        }
+        Map<String, Object> fields = newFields(modelEntity);
+        fields.putAll(source);
+        return fields;
+    }
+
     protected void assertIsMutable() {
         if (!this.mutable) {
             String msg = "This object has been flagged as immutable (unchangeable), probably because it came from an Entity Engine cache. Cannot modify an immutable entity object. Use the clone method to create a mutable copy of this object.";
@@ -176,6 +193,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = newFields(modelEntity);
         this.observable = new Observable();
 
         // check some things
@@ -192,6 +210,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = newFields(modelEntity);
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -214,6 +233,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         }
         this.modelEntity = modelEntity;
         this.entityName = modelEntity.getEntityName();
+        this.fields = newFields(modelEntity);
         this.delegatorName = delegator.getDelegatorName();
         this.internalDelegator = delegator;
         this.observable = new Observable();
@@ -235,7 +255,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         this.entityName = value.getEntityName();
         // NOTE: could call getModelEntity to insure we have a value, just in case the value passed in has been serialized, but might as well leave it null to keep the object light if it isn't there
         this.modelEntity = value.modelEntity;
-        if (value.fields != null) this.fields.putAll(value.fields);
+        this.fields = copyFields(value.fields, value.modelEntity);
         this.delegatorName = value.delegatorName;
         this.internalDelegator = value.internalDelegator;
         this.observable = new Observable(value.observable);
@@ -247,7 +267,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         this.delegatorName = null;
         this.internalDelegator = null;
         this.originalDbValues = null;
-        this.fields = new HashMap<String, Object>();
+        this.fields = newFields(null);
         this.entityName = null;
         this.modelEntity = null;
         this.generateHashCode = true;
@@ -267,7 +287,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
         if (!thisPK.equals(newPK)) {
             throw new GenericEntityException("Could not refresh value, new value did not have the same primary key; this PK=" + thisPK + ", new value PK=" + newPK);
         }
-        this.fields = new HashMap<String, Object>(newValue.fields);
+        this.fields = copyFields(newValue.fields, this.modelEntity);
         this.setDelegator(newValue.getDelegator());
         this.generateHashCode = newValue.generateHashCode;
         this.cachedHashCode = newValue.cachedHashCode;
@@ -289,7 +309,7 @@ public class GenericEntity implements Map<String, Object>, LocalizedMap<Object>,
      */
     public void synchronizedWithDatasource() {
         assertIsMutable();
-        this.originalDbValues = Collections.unmodifiableMap(getAllFields());
+        this.originalDbValues = Collections.unmodifiableMap(copyFields(this.fields, this.modelEntity));
         this.clearChanged();
     }
 
@@ -322,5 +322,9 @@ public class GenericValue extends GenericEntity {
         public String toString() {
             return "[null-entity-value]";
         }
+        // keep NULL_VALUE a singleton for values read back from a cache snapshot or file store
+        private Object readResolve() {
+            return NULL_VALUE;
+        }
     }
 }
@@ -18,9 +18,12 @@
  *******************************************************************************/
 package org.ofbiz.entity.cache;
 
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.transaction.TransactionUtil;
 
 public abstract class AbstractCache<K, V> {
 
@@ -70,6 +73,39 @@ public abstract class AbstractCache<K, V> {
         return names;
     }
 
+    /**
+     * Records the time spent loading values of the given entity after a cache miss,
+     * see {@link UtilCache#recordLoad(long)}. Nothing is recorded if the entity has no cache yet.
+     */
+    public void recordLoad(String entityName, long loadTimeNanos) {
+        UtilCache<K, V> cache = getCache(entityName);
+        if (cache != null) {
+            cache.recordLoad(loadTimeNanos);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if concurrent misses may wait for one load. Not inside a
+     * transaction: the waiters would get a value read outside of their transaction, and
+     * could wait forever for a load that is blocked on a lock their transaction holds.
+     */
+    protected static boolean isLoadSharable() throws GeneralException {
+        return !TransactionUtil.isTransactionInPlace();
+    }
+
+    /** Runs <code>loader</code> on the calling thread, passing <code>GeneralException</code>s and <code>RuntimeException</code>s through. */
+    protected static <L, T> T loadDirectly(CacheLoader<L, T> loader, L key) throws GeneralException {
+        try {
+            return loader.load(key);
+        } catch (GeneralException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GeneralException(e);
+        }
+    }
+
     protected UtilCache<K, V> getCache(String entityName) {
         return UtilCache.findCache(getCacheName(entityName));
     }
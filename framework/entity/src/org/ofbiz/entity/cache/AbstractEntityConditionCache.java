@@ -18,9 +18,11 @@
  *******************************************************************************/
 package org.ofbiz.entity.cache;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -38,6 +40,8 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
 
     public static final String module = AbstractEntityConditionCache.class.getName();
 
+    private final ConcurrentMap<String, EntityConditionIndex<ConcurrentMap<K, V>>> conditionIndexes = new ConcurrentHashMap<String, EntityConditionIndex<ConcurrentMap<K, V>>>();
+
     protected AbstractEntityConditionCache(String delegatorName, String id) {
         super(delegatorName, id);
     }
@@ -60,10 +64,41 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     }
 
     /**
-     * Removes all condition caches that include the specified entity.
+     * Removes all cached conditions of the entity of the specified changed row, and of the view
+     * entities that include it. The state of the row before the change is not known, so no
+     * condition can be ruled out.
      */
     public void remove(GenericEntity entity) {
-        UtilCache.clearCache(getCacheName(entity.getEntityName()));
+        remove(null, entity);
+    }
+
+    /**
+     * Removes the cached conditions that a change to a single row can affect.
+     * <p>Conditions that the index rules out by a primary key term are left alone. The others
+     * are evaluated against the row as it was and as it is now, and are kept if they select
+     * neither state or if their cached values already show the current state of the row.
+     * If the old row is not known or <code>entity</code> does not hold a complete primary key
+     * all conditions of the entity are removed. The condition caches of view entities that
+     * include the entity are always cleared completely.</p>
+     * @param oldEntity The row as the write itself found it before the change: a complete value,
+     * {@link GenericValue#NULL_VALUE} if it did not exist, or <code>null</code> if it is not known.
+     * A copy taken from a cache must not be passed here, it can be older than the row.
+     * @param entity The changed row: a {@link GenericPK} if the row was removed, otherwise a value
+     * that is either the row after the change or the row that was removed; a partial value means
+     * the state of the row is not known
+     */
+    public void remove(GenericEntity oldEntity, GenericEntity entity) {
+        if (oldEntity != null && entity.containsPrimaryKey()) {
+            GenericEntity newState;
+            if (entity instanceof GenericPK) {
+                newState = GenericValue.NULL_VALUE;
+            } else {
+                newState = toState(entity);
+            }
+            removeAffected(entity.getEntityName(), entity.getPrimaryKey(), toState(oldEntity), newState, !(entity instanceof GenericPK));
+        } else {
+            UtilCache.clearCache(getCacheName(entity.getEntityName()));
+        }
         ModelEntity model = entity.getModelEntity();
         if (model != null) {
             Iterator<String> it = model.getViewConvertorsIterator();
@@ -74,6 +109,129 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         }
     }
 
+    private void removeAffected(String entityName, GenericPK primaryKey, GenericEntity oldState, GenericEntity newState, boolean mayBeRemoved) {
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> cache = getCache(entityName);
+        if (cache == null) {
+            return;
+        }
+        List<GenericEntity> states = null;
+        if (oldState != null && newState != null) {
+            states = new ArrayList<GenericEntity>(2);
+            if (!isNull(oldState)) states.add(oldState);
+            if (!isNull(newState)) states.add(newState);
+        }
+        EntityConditionIndex<ConcurrentMap<K, V>> index = getConditionIndex(entityName, cache);
+        Set<EntityCondition> candidates = index.getCandidates(primaryKey, states);
+        if (cache.containsKey(null)) {
+            candidates.add(null);
+        }
+        for (EntityCondition condition: candidates) {
+            ConcurrentMap<K, V> conditionCache = cache.get(condition);
+            if (conditionCache == null) {
+                if (condition != null) {
+                    index.prune(condition);
+                }
+                continue;
+            }
+            if (isAffected(condition, conditionCache, primaryKey, oldState, newState, mayBeRemoved)) {
+                if (Debug.verboseOn()) Debug.logVerbose("Removing from cache with name [" + cache.getName() + "] entry with condition: " + condition, module);
+                cache.remove(condition);
+            }
+        }
+    }
+
+    private boolean isAffected(EntityCondition condition, ConcurrentMap<K, V> conditionCache, GenericPK primaryKey, GenericEntity oldState, GenericEntity newState, boolean mayBeRemoved) {
+        Boolean newMatches = matches(condition, newState);
+        if (newMatches == null) {
+            return true;
+        }
+        Boolean oldMatches = matches(condition, oldState);
+        if (Boolean.FALSE.equals(oldMatches) && !newMatches) {
+            return false;
+        }
+        if (mayBeRemoved && newMatches) {
+            // the cached values can't be current both with and without the row
+            return true;
+        }
+        return !isCurrent(conditionCache, primaryKey, newMatches ? newState : null);
+    }
+
+    /** Evaluates the condition in memory; returns <code>null</code> if the state is not known or the condition can't be evaluated. */
+    private Boolean matches(EntityCondition condition, GenericEntity state) {
+        if (state == null) {
+            return null;
+        }
+        if (isNull(state)) {
+            return Boolean.FALSE;
+        }
+        if (condition == null) {
+            return Boolean.TRUE;
+        }
+        try {
+            return condition.mapMatches(getDelegator(), state);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the values cached for a condition are known to show the row with the given
+     * primary key in its current state: as <code>entity</code>, or not at all if <code>entity</code>
+     * is <code>null</code>. The values of this cache can't be inspected, so this returns false.
+     */
+    protected boolean isCurrent(ConcurrentMap<K, V> conditionCache, GenericPK primaryKey, GenericEntity entity) {
+        return false;
+    }
+
+    /** Returns the entity if it holds all fields of its entity, <code>null</code> otherwise. */
+    private static GenericEntity toState(GenericEntity entity) {
+        if (entity == null) {
+            return null;
+        }
+        if (isNull(entity)) {
+            return GenericValue.NULL_VALUE;
+        }
+        ModelEntity model = entity.getModelEntity();
+        if (model == null) {
+            return null;
+        }
+        for (String fieldName: model.getAllFieldNames()) {
+            if (!entity.containsKey(fieldName)) {
+                return null;
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    protected UtilCache<EntityCondition, ConcurrentMap<K, V>> getOrCreateCache(String entityName) {
+        UtilCache<EntityCondition, ConcurrentMap<K, V>> cache = super.getOrCreateCache(entityName);
+        getConditionIndex(entityName, cache);
+        return cache;
+    }
+
+    private EntityConditionIndex<ConcurrentMap<K, V>> getConditionIndex(String entityName, UtilCache<EntityCondition, ConcurrentMap<K, V>> cache) {
+        EntityConditionIndex<ConcurrentMap<K, V>> index = conditionIndexes.get(entityName);
+        if (index != null && index.getCache() == cache) {
+            return index;
+        }
+        synchronized (conditionIndexes) {
+            index = conditionIndexes.get(entityName);
+            if (index != null) {
+                if (index.getCache() == cache) {
+                    return index;
+                }
+                index.getCache().removeListener(index);
+            }
+            index = new EntityConditionIndex<ConcurrentMap<K, V>>(cache, getDelegator().getModelEntity(entityName).getPkFieldNames());
+            // listen before filing the existing lines so that no put falls in between
+            cache.addListener(index);
+            index.rebuild();
+            conditionIndexes.put(entityName, index);
+            return index;
+        }
+    }
+
     public void remove(String entityName, EntityCondition condition) {
         UtilCache<EntityCondition, ConcurrentMap<K, V>> cache = getCache(entityName);
         if (cache == null) return;
@@ -169,11 +327,15 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     public void storeHook(boolean isPK, GenericEntity oldEntity, GenericEntity newEntity) {
         ModelEntity model = getModelCheckValid(oldEntity, newEntity);
         String entityName = model.getEntityName();
-        // for info about cache clearing
-        if (newEntity == null) {
-            //Debug.logInfo("In storeHook calling sub-storeHook for entity name [" + entityName + "] for the oldEntity: " + oldEntity, module);
+        GenericEntity entity = isNull(newEntity) ? oldEntity : newEntity;
+        if (entity.containsPrimaryKey()) {
+            // a primary key says nothing about the old state; a null old entity may be new or not cached
+            GenericEntity oldState = isPK ? null : toState(oldEntity);
+            GenericEntity newState = isNull(newEntity) ? GenericValue.NULL_VALUE : toState(newEntity);
+            removeAffected(entityName, entity.getPrimaryKey(), oldState, newState, false);
+        } else {
+            storeHook(entityName, isPK, UtilMisc.toList(oldEntity), UtilMisc.toList(newEntity));
         }
-        storeHook(entityName, isPK, UtilMisc.toList(oldEntity), UtilMisc.toList(newEntity));
         Iterator<String> it = model.getViewConvertorsIterator();
         while (it.hasNext()) {
             String targetEntityName = it.next();
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.util.DistributedCacheClear;
+
+/**
+ * Distributed cache clear that sends binary batches over a {@link CacheClearChannel}
+ * instead of running a service per cleared line.
+ * <p>Operations issued inside a transaction are held back until it commits and are
+ * dropped if it rolls back, other servers never saw the uncommitted data. Enable it
+ * with <code>distributed-cache-clear-class-name="org.ofbiz.entity.cache.BatchedCacheClear"</code>
+ * on the delegator in entityengine.xml; the transport is configured in cache.properties.</p>
+ */
+public class BatchedCacheClear implements DistributedCacheClear {
+
+    public static final String module = BatchedCacheClear.class.getName();
+
+    private final ConcurrentMap<Transaction, TransactionBatch> transactionBatches = new ConcurrentHashMap<Transaction, TransactionBatch>();
+    private volatile CacheClearChannel channel;
+    private String delegatorName;
+
+    public BatchedCacheClear() {}
+
+    public BatchedCacheClear(CacheClearChannel channel) {
+        this.channel = channel;
+    }
+
+    public void setDelegator(Delegator delegator, String userLoginId) {
+        this.delegatorName = delegator.getDelegatorName();
+        if (channel == null) {
+            try {
+                channel = CacheClearChannel.getInstance();
+            } catch (IOException e) {
+                Debug.logError(e, "Could not start the cache clear channel, distributed cache clearing will be disabled", module);
+            }
+        }
+    }
+
+    public void distributedClearCacheLine(GenericValue value) {
+        add(CacheClearBatch.Entry.value(delegatorName, value));
+    }
+
+    public void distributedClearCacheLineFlexible(GenericEntity dummyPK) {
+        add(CacheClearBatch.Entry.dummyPK(delegatorName, dummyPK));
+    }
+
+    public void distributedClearCacheLineByCondition(String entityName, EntityCondition condition) {
+        add(CacheClearBatch.Entry.condition(delegatorName, entityName, condition));
+    }
+
+    public void distributedClearCacheLine(GenericPK primaryKey) {
+        add(CacheClearBatch.Entry.primaryKey(delegatorName, primaryKey));
+    }
+
+    public void clearAllCaches() {
+        add(CacheClearBatch.Entry.clearAll(delegatorName));
+    }
+
+    private void add(CacheClearBatch.Entry entry) {
+        CacheClearChannel channel = this.channel;
+        if (channel == null) {
+            return;
+        }
+        Transaction transaction = getActiveTransaction();
+        if (transaction != null) {
+            TransactionBatch batch = transactionBatches.get(transaction);
+            if (batch == null) {
+                batch = new TransactionBatch(transaction, channel);
+                try {
+                    transaction.registerSynchronization(batch);
+                    transactionBatches.put(transaction, batch);
+                } catch (RollbackException e) {
+                    // nothing to hold back for a transaction that will roll back
+                    return;
+                } catch (SystemException e) {
+                    Debug.logWarning(e, "Could not hold back cache clear until commit, sending it now", module);
+                    batch = null;
+                }
+            }
+            if (batch != null) {
+                batch.add(entry);
+                return;
+            }
+        }
+        channel.add(entry);
+    }
+
+    private static Transaction getActiveTransaction() {
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                return tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction", module);
+        }
+        return null;
+    }
+
+    private final class TransactionBatch implements Synchronization {
+        private final Transaction transaction;
+        private final CacheClearChannel channel;
+        private final CacheClearBatch batch = new CacheClearBatch(0);
+
+        private TransactionBatch(Transaction transaction, CacheClearChannel channel) {
+            this.transaction = transaction;
+            this.channel = channel;
+        }
+
+        private synchronized void add(CacheClearBatch.Entry entry) {
+            batch.add(entry);
+        }
+
+        public void beforeCompletion() {
+        }
+
+        public synchronized void afterCompletion(int status) {
+            transactionBatches.remove(transaction);
+            if (status == Status.STATUS_COMMITTED) {
+                channel.addAll(batch);
+            }
+        }
+    }
+}
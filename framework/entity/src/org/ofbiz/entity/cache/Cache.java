@@ -21,7 +21,9 @@ package org.ofbiz.entity.cache;
 import java.util.List;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.GenericPK;
@@ -59,10 +61,40 @@ public class Cache {
         return entityCache.get(pk);
     }
 
+    /**
+     * Gets a value from the primary key cache, loading it with <code>loader</code> if it is missing.
+     * Concurrent misses on the same key outside a transaction share one load. A loaded <code>null</code> is cached as
+     * {@link GenericValue#NULL_VALUE}, which is also what is returned for it.
+     */
+    public GenericValue get(GenericPK pk, final CacheLoader<GenericPK, GenericValue> loader) throws GeneralException {
+        return entityCache.get(pk, new CacheLoader<GenericPK, GenericValue>() {
+            public GenericValue load(GenericPK pk) throws Exception {
+                GenericValue entity = loader.load(pk);
+                if (entity == null) {
+                    return GenericValue.NULL_VALUE;
+                }
+                entity.setImmutable();
+                if (pk.getModelEntity().getAutoClearCache()) {
+                    entityListCache.storeHook(pk, entity);
+                    entityObjectCache.storeHook(pk, entity);
+                }
+                return entity;
+            }
+        });
+    }
+
     public List<GenericValue> get(String entityName, EntityCondition condition, List<String> orderBy) {
         return entityListCache.get(entityName, condition, orderBy);
     }
 
+    /**
+     * Gets a list from the condition cache, loading it with <code>loader</code> if it is missing.
+     * Concurrent misses on the same condition and ordering outside a transaction share one load.
+     */
+    public List<GenericValue> get(String entityName, EntityCondition condition, List<String> orderBy, CacheLoader<EntityCondition, List<GenericValue>> loader) throws GeneralException {
+        return entityListCache.get(entityName, condition, orderBy, loader);
+    }
+
     public <T> T get(String entityName, EntityCondition condition, String name) {
         return UtilGenerics.<T>cast(entityObjectCache.get(entityName, condition, name));
     }
@@ -112,22 +144,17 @@ public class Cache {
     public GenericValue remove(GenericEntity entity) {
         if (Debug.verboseOn()) Debug.logVerbose("Cache remove GenericEntity: " + entity, module);
         GenericValue oldEntity = entityCache.remove(entity.getPrimaryKey());
-        // Workaround because AbstractEntityConditionCache.storeHook doesn't work.
+        // the value from the primary key cache can be older than the row, so it can't tell which conditions selected the row
         entityListCache.remove(entity);
         entityObjectCache.remove(entity);
-        // entityListCache.storeHook(entity, null);
-        // entityObjectCache.storeHook(entity, null);
         return oldEntity;
     }
 
     public GenericValue remove(GenericPK pk) {
         if (Debug.verboseOn()) Debug.logVerbose("Cache remove GenericPK: " + pk, module);
         GenericValue oldEntity = entityCache.remove(pk);
-        // Workaround because AbstractEntityConditionCache.storeHook doesn't work.
         entityListCache.remove(pk);
         entityObjectCache.remove(pk);
-        // entityListCache.storeHook(pk, null);
-        // entityObjectCache.storeHook(pk, null);
         return oldEntity;
     }
 }
@@ -0,0 +1,786 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityComparisonOperator;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityJoinOperator;
+import org.ofbiz.entity.condition.EntityOperator;
+
+/**
+ * A set of distributed cache clear operations, deduplicated as they are added and encoded
+ * as compact binary messages.
+ * <p>Adding an operation that is already in the batch does nothing, except that a newer
+ * value of the same row replaces the older one. Clearing all caches of a delegator makes
+ * every other operation for that delegator redundant, and once more than
+ * <code>entityThreshold</code> rows of one entity are in the batch they are replaced by
+ * a single clear of that entity. Entity, field and delegator names are written once per
+ * message and referred to by number afterwards. Field values and conditions are written
+ * in an explicit format that only knows the field types of the entity engine and conditions
+ * built from field, operator and value; nothing is deserialized into arbitrary classes.
+ * An operation that can't be written this way is sent as a clear of its entity.</p>
+ * <p>This class is not thread-safe.</p>
+ */
+public final class CacheClearBatch {
+
+    private static final int MAGIC = 0x4f464343; // "OFCC"
+    private static final byte VERSION = 2;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte INTEGER = 3;
+    private static final byte BIG_DECIMAL = 4;
+    private static final byte TIMESTAMP = 5;
+    private static final byte DATE = 6;
+    private static final byte TIME = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte LONG_STRING = 10;
+    private static final byte BYTES = 11;
+    // the following are only used in conditions
+    private static final byte NULL_FIELD = 12;
+    private static final byte FIELD = 13;
+    private static final byte COLLECTION = 14;
+
+    private static final byte EXPR = 1;
+    private static final byte JOIN_EXPR = 2;
+    private static final byte CONDITION_LIST = 3;
+    private static final byte FIELD_MAP = 4;
+    private static final int MAX_CONDITION_DEPTH = 32;
+
+    // indexed by operator id
+    private static final EntityComparisonOperator<?,?>[] comparisonOperators = new EntityComparisonOperator<?,?>[EntityOperator.ID_NOT_LIKE + 1];
+    static {
+        for (EntityComparisonOperator<?,?> operator: Arrays.<EntityComparisonOperator<?,?>>asList(EntityOperator.EQUALS, EntityOperator.NOT_EQUAL,
+                EntityOperator.LESS_THAN, EntityOperator.GREATER_THAN, EntityOperator.LESS_THAN_EQUAL_TO, EntityOperator.GREATER_THAN_EQUAL_TO,
+                EntityOperator.IN, EntityOperator.BETWEEN, EntityOperator.LIKE, EntityOperator.NOT_IN, EntityOperator.NOT_LIKE)) {
+            comparisonOperators[operator.getId()] = operator;
+        }
+    }
+
+    // writeUTF is limited to 64KB, longer strings are written as UTF-8 bytes
+    private static final int MAX_INLINE_STRING_LENGTH = 8192;
+
+    private final int entityThreshold;
+    private final Map<List<Object>, Entry> entries = new LinkedHashMap<List<Object>, Entry>();
+    private final Map<List<Object>, Integer> rowCounts = new HashMap<List<Object>, Integer>();
+    private long senderId;
+
+    /**
+     * @param entityThreshold The number of rows of one entity above which they are replaced
+     * by a clear of the entire entity, or 0 to never do this
+     */
+    public CacheClearBatch(int entityThreshold) {
+        this.entityThreshold = entityThreshold;
+    }
+
+    /** Returns the id of the server that sent this batch, for decoded batches. */
+    public long getSenderId() {
+        return senderId;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /** Adds an operation, returns false if it was already covered by the batch. */
+    public boolean add(Entry entry) {
+        if (entries.containsKey(Entry.clearAll(entry.delegatorName).getKey())) {
+            return false;
+        }
+        if (entry.type == Entry.CLEAR_ALL) {
+            removeEntries(entry.delegatorName, null);
+        } else if (entry.type == Entry.ENTITY) {
+            removeEntries(entry.delegatorName, entry.entityName);
+        } else {
+            if (entries.containsKey(Entry.entity(entry.delegatorName, entry.entityName).getKey())) {
+                return false;
+            }
+            List<Object> entityKey = Arrays.<Object>asList(entry.delegatorName, entry.entityName);
+            if (!entries.containsKey(entry.getKey())) {
+                Integer count = rowCounts.get(entityKey);
+                count = count == null ? 1 : count + 1;
+                if (entityThreshold > 0 && count > entityThreshold) {
+                    return add(Entry.entity(entry.delegatorName, entry.entityName));
+                }
+                rowCounts.put(entityKey, count);
+            }
+        }
+        entries.put(entry.getKey(), entry);
+        return true;
+    }
+
+    public void addAll(CacheClearBatch batch) {
+        for (Entry entry: batch.entries.values()) {
+            add(entry);
+        }
+    }
+
+    private void removeEntries(String delegatorName, String entityName) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry existing = it.next();
+            if (existing.delegatorName.equals(delegatorName) && (entityName == null || entityName.equals(existing.entityName))) {
+                it.remove();
+            }
+        }
+        Iterator<List<Object>> countIt = rowCounts.keySet().iterator();
+        while (countIt.hasNext()) {
+            List<Object> entityKey = countIt.next();
+            if (entityKey.get(0).equals(delegatorName) && (entityName == null || entityName.equals(entityKey.get(1)))) {
+                countIt.remove();
+            }
+        }
+    }
+
+    /**
+     * Encodes the batch as one or more messages of at most <code>maxMessageSize</code> bytes.
+     * An operation that doesn't fit in a message on its own is sent as a clear of its entity.
+     */
+    public List<byte[]> encode(long senderId, int maxMessageSize) throws IOException {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        List<Entry> writable = new ArrayList<Entry>(entries.size());
+        for (Entry entry: entries.values()) {
+            writable.add(entry.isWritable() ? entry : Entry.entity(entry.delegatorName, entry.entityName));
+        }
+        encode(writable, senderId, maxMessageSize, messages);
+        return messages;
+    }
+
+    private static void encode(List<Entry> entries, long senderId, int maxMessageSize, List<byte[]> messages) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        byte[] message = encode(entries, senderId);
+        if (message.length <= maxMessageSize) {
+            messages.add(message);
+        } else if (entries.size() > 1) {
+            int half = entries.size() / 2;
+            encode(entries.subList(0, half), senderId, maxMessageSize, messages);
+            encode(entries.subList(half, entries.size()), senderId, maxMessageSize, messages);
+        } else {
+            Entry entry = entries.get(0);
+            if (entry.entityName == null) {
+                throw new IOException("Cache clear message of " + message.length + " bytes is larger than the transport limit of " + maxMessageSize + " bytes");
+            }
+            encode(Collections.singletonList(Entry.entity(entry.delegatorName, entry.entityName)), senderId, maxMessageSize, messages);
+        }
+    }
+
+    private static byte[] encode(List<Entry> entries, long senderId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, Integer> names = new HashMap<String, Integer>();
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(senderId);
+        out.writeInt(entries.size());
+        for (Entry entry: entries) {
+            out.writeByte(entry.type);
+            writeName(out, entry.delegatorName, names);
+            if (entry.type == Entry.CLEAR_ALL) {
+                continue;
+            }
+            writeName(out, entry.entityName, names);
+            if (entry.type == Entry.CONDITION) {
+                writeCondition(out, entry.condition, names);
+            } else if (entry.type != Entry.ENTITY) {
+                writeVarInt(out, entry.fields.size());
+                for (Map.Entry<String, Object> field: entry.fields.entrySet()) {
+                    writeName(out, field.getKey(), names);
+                    writeValue(out, field.getValue(), names);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a message created by {@link #encode(long, int)}. */
+    public static CacheClearBatch decode(byte[] message) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cache clear message");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cache clear message version " + version);
+        }
+        CacheClearBatch batch = new CacheClearBatch(0);
+        batch.senderId = in.readLong();
+        List<String> names = new ArrayList<String>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            if (type < Entry.CLEAR_ALL || type > Entry.ENTITY) {
+                throw new IOException("Unknown cache clear operation " + type);
+            }
+            String delegatorName = readName(in, names);
+            String entityName = null;
+            Map<String, Object> fields = null;
+            EntityCondition condition = null;
+            if (type != Entry.CLEAR_ALL) {
+                entityName = readName(in, names);
+                if (type == Entry.CONDITION) {
+                    try {
+                        condition = readCondition(in, names, 0);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Invalid cache clear condition: " + e.getMessage());
+                    }
+                } else if (type != Entry.ENTITY) {
+                    int fieldCount = readLength(in);
+                    fields = new TreeMap<String, Object>();
+                    for (int j = 0; j < fieldCount; j++) {
+                        String fieldName = readName(in, names);
+                        fields.put(fieldName, readValue(in, names));
+                    }
+                }
+            }
+            batch.add(new Entry(type, delegatorName, entityName, fields, null, condition));
+        }
+        return batch;
+    }
+
+    private static void writeName(DataOutputStream out, String name, Map<String, Integer> names) throws IOException {
+        Integer index = names.get(name);
+        if (index != null) {
+            writeVarInt(out, index + 1);
+        } else {
+            writeVarInt(out, 0);
+            out.writeUTF(name);
+            names.put(name, names.size());
+        }
+    }
+
+    private static String readName(DataInputStream in, List<String> names) throws IOException {
+        int index = readVarInt(in);
+        if (index > 0) {
+            if (index > names.size()) {
+                throw new IOException("Invalid name reference " + index);
+            }
+            return names.get(index - 1);
+        }
+        String name = in.readUTF();
+        names.add(name);
+        return name;
+    }
+
+    /** Returns true if <code>value</code> is of one of the field types {@link #writeValue} knows. */
+    private static boolean isWritable(Object value) {
+        return value == null || value instanceof String || value instanceof Long || value instanceof Integer || value instanceof BigDecimal
+                || value instanceof Timestamp || value instanceof java.sql.Date || value instanceof Time || value instanceof Boolean
+                || value instanceof Double || value instanceof byte[];
+    }
+
+    private static void writeValue(DataOutputStream out, Object value, Map<String, Integer> names) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            String string = (String) value;
+            if (string.length() <= MAX_INLINE_STRING_LENGTH) {
+                out.writeByte(STRING);
+                writeName(out, string, names);
+            } else {
+                out.writeByte(LONG_STRING);
+                writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(decimal.scale());
+            writeBytes(out, unscaled);
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else {
+            throw new IOException("Cannot write field value of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, List<String> names) throws IOException {
+        return readValue(in, in.readByte(), names);
+    }
+
+    private static Object readValue(DataInputStream in, byte tag, List<String> names) throws IOException {
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readName(in, names);
+            case LONG_STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case BIG_DECIMAL:
+                int scale = in.readInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case DATE:
+                return new java.sql.Date(in.readLong());
+            case TIME:
+                return new Time(in.readLong());
+            case BOOLEAN:
+                return in.readBoolean();
+            case DOUBLE:
+                return in.readDouble();
+            case BYTES:
+                return readBytes(in);
+            default:
+                throw new IOException("Unknown field value type " + tag);
+        }
+    }
+
+    /**
+     * Returns true if <code>condition</code> is made of comparisons of a field with a value,
+     * a collection of values or another field, joined by AND or OR, which is all {@link #writeCondition}
+     * can write.
+     */
+    private static boolean isWritable(EntityCondition condition, int depth) {
+        if (depth > MAX_CONDITION_DEPTH) {
+            return false;
+        }
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            Object lhs = expr.getLhs();
+            Object rhs = expr.getRhs();
+            if (lhs instanceof EntityCondition) {
+                return getJoinOperatorId(expr.getOperator()) > 0 && rhs instanceof EntityCondition
+                        && isWritable((EntityCondition) lhs, depth + 1) && isWritable((EntityCondition) rhs, depth + 1);
+            }
+            if (!isPlainField(lhs) || getComparisonOperatorId(expr.getOperator()) < 0) {
+                return false;
+            }
+            if (rhs instanceof Collection<?>) {
+                for (Object element: (Collection<?>) rhs) {
+                    if (!isWritable(element)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return rhs == GenericEntity.NULL_FIELD || isPlainField(rhs) || isWritable(rhs);
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            if (getJoinOperatorId(fieldMap.getOperator()) < 0) {
+                return false;
+            }
+            Iterator<Map.Entry<String, Object>> it = fieldMap.getFieldEntryIterator();
+            if (it.hasNext() && getComparisonOperatorId(fieldMap.getCondition(0).getOperator()) < 0) {
+                return false;
+            }
+            while (it.hasNext()) {
+                Object value = it.next().getValue();
+                if (value == GenericEntity.NULL_FIELD || !isWritable(value)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (condition instanceof EntityConditionList<?>) {
+            EntityConditionList<?> list = (EntityConditionList<?>) condition;
+            if (getJoinOperatorId(list.getOperator()) < 0) {
+                return false;
+            }
+            Iterator<? extends EntityCondition> it = list.getConditionIterator();
+            while (it.hasNext()) {
+                if (!isWritable(it.next(), depth + 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isPlainField(Object operand) {
+        if (operand == null || operand.getClass() != EntityFieldValue.class) {
+            return false;
+        }
+        // a field of an aliased member entity of a view entity can't be written
+        return operand.equals(EntityFieldValue.makeFieldValue(((EntityFieldValue) operand).getFieldName()));
+    }
+
+    private static int getComparisonOperatorId(EntityOperator<?,?,?> operator) {
+        int id = operator.getId();
+        return id >= 0 && id < comparisonOperators.length && comparisonOperators[id] == operator ? id : -1;
+    }
+
+    private static int getJoinOperatorId(EntityOperator<?,?,?> operator) {
+        return operator == EntityOperator.AND || operator == EntityOperator.OR ? operator.getId() : -1;
+    }
+
+    private static EntityComparisonOperator<?,?> getComparisonOperator(int id) throws IOException {
+        if (id < 0 || id >= comparisonOperators.length || comparisonOperators[id] == null) {
+            throw new IOException("Unknown comparison operator " + id);
+        }
+        return comparisonOperators[id];
+    }
+
+    private static EntityJoinOperator getJoinOperator(int id) throws IOException {
+        if (id == EntityOperator.ID_AND) {
+            return EntityOperator.AND;
+        } else if (id == EntityOperator.ID_OR) {
+            return EntityOperator.OR;
+        }
+        throw new IOException("Unknown join operator " + id);
+    }
+
+    /** Writes a condition for which {@link #isWritable(EntityCondition, int)} is true. */
+    private static void writeCondition(DataOutputStream out, EntityCondition condition, Map<String, Integer> names) throws IOException {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            if (expr.getLhs() instanceof EntityCondition) {
+                out.writeByte(JOIN_EXPR);
+                out.writeByte(getJoinOperatorId(expr.getOperator()));
+                writeCondition(out, (EntityCondition) expr.getLhs(), names);
+                writeCondition(out, (EntityCondition) expr.getRhs(), names);
+                return;
+            }
+            out.writeByte(EXPR);
+            out.writeByte(getComparisonOperatorId(expr.getOperator()));
+            writeName(out, ((EntityFieldValue) expr.getLhs()).getFieldName(), names);
+            Object rhs = expr.getRhs();
+            if (rhs == GenericEntity.NULL_FIELD) {
+                out.writeByte(NULL_FIELD);
+            } else if (rhs instanceof EntityFieldValue) {
+                out.writeByte(FIELD);
+                writeName(out, ((EntityFieldValue) rhs).getFieldName(), names);
+            } else if (rhs instanceof Collection<?>) {
+                Collection<?> values = (Collection<?>) rhs;
+                out.writeByte(COLLECTION);
+                writeVarInt(out, values.size());
+                for (Object value: values) {
+                    writeValue(out, value, names);
+                }
+            } else {
+                writeValue(out, rhs, names);
+            }
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            List<Map.Entry<String, Object>> fields = new ArrayList<Map.Entry<String, Object>>();
+            Iterator<Map.Entry<String, Object>> it = fieldMap.getFieldEntryIterator();
+            while (it.hasNext()) {
+                fields.add(it.next());
+            }
+            out.writeByte(FIELD_MAP);
+            out.writeByte(getJoinOperatorId(fieldMap.getOperator()));
+            out.writeByte(fields.isEmpty() ? EntityOperator.ID_EQUALS : getComparisonOperatorId(fieldMap.getCondition(0).getOperator()));
+            writeVarInt(out, fields.size());
+            for (Map.Entry<String, Object> field: fields) {
+                writeName(out, field.getKey(), names);
+                writeValue(out, field.getValue(), names);
+            }
+        } else {
+            EntityConditionList<?> list = (EntityConditionList<?>) condition;
+            out.writeByte(CONDITION_LIST);
+            out.writeByte(getJoinOperatorId(list.getOperator()));
+            writeVarInt(out, list.getConditionListSize());
+            Iterator<? extends EntityCondition> it = list.getConditionIterator();
+            while (it.hasNext()) {
+                writeCondition(out, it.next(), names);
+            }
+        }
+    }
+
+    private static EntityCondition readCondition(DataInputStream in, List<String> names, int depth) throws IOException {
+        if (depth > MAX_CONDITION_DEPTH) {
+            throw new IOException("Cache clear condition nested too deeply");
+        }
+        byte tag = in.readByte();
+        switch (tag) {
+            case EXPR:
+                EntityComparisonOperator<?,?> operator = getComparisonOperator(in.readByte());
+                String fieldName = readName(in, names);
+                byte valueTag = in.readByte();
+                Object rhs;
+                if (valueTag == NULL_FIELD) {
+                    rhs = GenericEntity.NULL_FIELD;
+                } else if (valueTag == FIELD) {
+                    rhs = EntityFieldValue.makeFieldValue(readName(in, names));
+                } else if (valueTag == COLLECTION) {
+                    int size = readLength(in);
+                    List<Object> values = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        values.add(readValue(in, names));
+                    }
+                    rhs = values;
+                } else {
+                    rhs = readValue(in, valueTag, names);
+                }
+                return EntityCondition.makeCondition(fieldName, operator, rhs);
+            case JOIN_EXPR:
+                EntityJoinOperator joinOperator = getJoinOperator(in.readByte());
+                EntityCondition lhs = readCondition(in, names, depth + 1);
+                return EntityCondition.makeCondition(lhs, joinOperator, readCondition(in, names, depth + 1));
+            case FIELD_MAP:
+                EntityJoinOperator fieldJoinOperator = getJoinOperator(in.readByte());
+                EntityComparisonOperator<?,?> fieldOperator = getComparisonOperator(in.readByte());
+                int fieldCount = readLength(in);
+                Map<String, Object> fields = new LinkedHashMap<String, Object>();
+                for (int i = 0; i < fieldCount; i++) {
+                    String name = readName(in, names);
+                    fields.put(name, readValue(in, names));
+                }
+                return EntityCondition.makeCondition(fields, fieldOperator, fieldJoinOperator);
+            case CONDITION_LIST:
+                EntityJoinOperator listOperator = getJoinOperator(in.readByte());
+                int size = readLength(in);
+                List<EntityCondition> conditions = new ArrayList<EntityCondition>(size);
+                for (int i = 0; i < size; i++) {
+                    conditions.add(readCondition(in, names, depth + 1));
+                }
+                return EntityCondition.makeCondition(conditions, listOperator);
+            default:
+                throw new IOException("Unknown cache clear condition type " + tag);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /** Reads a count or length, which can't be larger than what is left of the message. */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length + " in cache clear message");
+        }
+        return length;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /** One cache clear operation, mirroring the methods of {@link org.ofbiz.entity.util.DistributedCacheClear}. */
+    public static final class Entry {
+        public static final byte CLEAR_ALL = 0;
+        public static final byte VALUE = 1;
+        public static final byte DUMMY_PK = 2;
+        public static final byte PRIMARY_KEY = 3;
+        public static final byte CONDITION = 4;
+        /** Clears all caches of one entity; not sent by the delegator, used when coalescing. */
+        public static final byte ENTITY = 5;
+
+        private final byte type;
+        private final String delegatorName;
+        private final String entityName;
+        private final Map<String, Object> fields;
+        private final Map<String, Object> primaryKey;
+        private final EntityCondition condition;
+
+        private Entry(byte type, String delegatorName, String entityName, Map<String, Object> fields, Map<String, Object> primaryKey, EntityCondition condition) {
+            this.type = type;
+            this.delegatorName = delegatorName;
+            this.entityName = entityName;
+            this.fields = fields;
+            this.primaryKey = primaryKey;
+            this.condition = condition;
+        }
+
+        public static Entry clearAll(String delegatorName) {
+            return new Entry(CLEAR_ALL, delegatorName, null, null, null, null);
+        }
+
+        public static Entry value(String delegatorName, GenericValue value) {
+            return new Entry(VALUE, delegatorName, value.getEntityName(), new TreeMap<String, Object>(value.getAllFields()), value.getPrimaryKey().getAllFields(), null);
+        }
+
+        public static Entry dummyPK(String delegatorName, GenericEntity dummyPK) {
+            return new Entry(DUMMY_PK, delegatorName, dummyPK.getEntityName(), new TreeMap<String, Object>(dummyPK.getAllFields()), null, null);
+        }
+
+        public static Entry primaryKey(String delegatorName, GenericPK primaryKey) {
+            return new Entry(PRIMARY_KEY, delegatorName, primaryKey.getEntityName(), new TreeMap<String, Object>(primaryKey.getAllFields()), null, null);
+        }
+
+        public static Entry condition(String delegatorName, String entityName, EntityCondition condition) {
+            return new Entry(CONDITION, delegatorName, entityName, null, null, condition);
+        }
+
+        public static Entry entity(String delegatorName, String entityName) {
+            return new Entry(ENTITY, delegatorName, entityName, null, null, null);
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public String getDelegatorName() {
+            return delegatorName;
+        }
+
+        public String getEntityName() {
+            return entityName;
+        }
+
+        public Map<String, Object> getFields() {
+            return fields == null ? null : Collections.unmodifiableMap(fields);
+        }
+
+        public EntityCondition getCondition() {
+            return condition;
+        }
+
+        /** Returns true if this operation can be encoded as it is, rather than as a clear of its entity. */
+        private boolean isWritable() {
+            if (type == CONDITION) {
+                return CacheClearBatch.isWritable(condition, 0);
+            } else if (fields != null) {
+                for (Object value: fields.values()) {
+                    if (!CacheClearBatch.isWritable(value)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Returns the key used to deduplicate operations; a new value replaces an older one of the same row. */
+        private List<Object> getKey() {
+            Object detail;
+            if (primaryKey != null) {
+                detail = primaryKey;
+            } else if (type == CONDITION) {
+                detail = condition;
+            } else {
+                detail = fields;
+            }
+            return Arrays.asList(type, delegatorName, entityName, detail);
+        }
+
+        /** Runs the operation against the local caches of the delegator without distributing it again. */
+        public void apply(Delegator delegator) {
+            switch (type) {
+                case CLEAR_ALL:
+                    delegator.clearAllCaches(false);
+                    break;
+                case VALUE:
+                    delegator.clearCacheLine(delegator.makeValue(entityName, fields), false);
+                    break;
+                case DUMMY_PK:
+                    delegator.clearCacheLineFlexible(delegator.makeValue(entityName, fields), false);
+                    break;
+                case PRIMARY_KEY:
+                    delegator.clearCacheLine(delegator.makePK(entityName, fields), false);
+                    break;
+                case CONDITION:
+                    delegator.clearCacheLineByCondition(entityName, condition, false);
+                    break;
+                case ENTITY:
+                    delegator.clearCacheLine(entityName);
+                    break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "[" + type + ", " + delegatorName + ", " + entityName + ", " + (condition != null ? condition : fields) + "]";
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+
+/**
+ * Collects the cache clear operations of all delegators in this server and sends them
+ * to the other servers in batches, and applies the batches received from them.
+ * <p>Operations are buffered for <code>cache.clear.flushInterval</code> milliseconds, so
+ * a burst of writes results in a few messages instead of one per cleared line. One
+ * channel is shared by all delegators, see {@link #getInstance()}.</p>
+ * <p>Every message is signed with an HMAC of the secret shared by the servers of the cluster;
+ * messages without a valid signature are dropped, so a host that can reach the port but doesn't
+ * know the secret can't clear caches.</p>
+ */
+@ThreadSafe
+public final class CacheClearChannel implements CacheClearTransport.Receiver {
+
+    public static final String module = CacheClearChannel.class.getName();
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+
+    private static CacheClearChannel instance;
+
+    private final CacheClearTransport transport;
+    private final SecretKeySpec key;
+    private final long senderId = new SecureRandom().nextLong();
+    private final int entityThreshold;
+    private final ScheduledExecutorService executor;
+    // guarded by this
+    private CacheClearBatch pending;
+    // serializes flushes so that batches leave in the order they were collected
+    private final Object sendLock = new Object();
+
+    /**
+     * Returns the channel configured by the <code>cache.clear.*</code> properties in cache.properties,
+     * starting it on first use.
+     */
+    public static synchronized CacheClearChannel getInstance() throws IOException {
+        if (instance == null) {
+            long flushInterval = UtilProperties.getPropertyAsLong("cache", "cache.clear.flushInterval", 100);
+            int entityThreshold = UtilProperties.getPropertyAsInteger("cache", "cache.clear.entityThreshold", 1000);
+            String secret = UtilProperties.getPropertyValue("cache", "cache.clear.secret");
+            if (UtilValidate.isEmpty(secret)) {
+                throw new IOException("No cache.clear.secret set in cache.properties, it is required to sign cache clear batches");
+            }
+            instance = new CacheClearChannel(createTransport(), secret.getBytes(StandardCharsets.UTF_8), flushInterval, entityThreshold);
+        }
+        return instance;
+    }
+
+    private static CacheClearTransport createTransport() throws IOException {
+        String transport = UtilProperties.getPropertyValue("cache", "cache.clear.transport", "tcp");
+        if ("tcp".equals(transport)) {
+            int port = UtilProperties.getPropertyAsInteger("cache", "cache.clear.tcp.port", 8470);
+            String bindAddress = UtilProperties.getPropertyValue("cache", "cache.clear.tcp.bindAddress", "127.0.0.1");
+            String peers = UtilProperties.getPropertyValue("cache", "cache.clear.tcp.peers", "");
+            return new TcpCacheClearTransport(new InetSocketAddress(bindAddress, port), TcpCacheClearTransport.parseAddresses(peers, port));
+        } else if ("multicast".equals(transport)) {
+            String group = UtilProperties.getPropertyValue("cache", "cache.clear.multicast.group", "239.255.27.1");
+            int port = UtilProperties.getPropertyAsInteger("cache", "cache.clear.multicast.port", 8471);
+            int timeToLive = UtilProperties.getPropertyAsInteger("cache", "cache.clear.multicast.timeToLive", 1);
+            return new MulticastCacheClearTransport(InetAddress.getByName(group), port, timeToLive);
+        }
+        try {
+            return (CacheClearTransport) Thread.currentThread().getContextClassLoader().loadClass(transport).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IOException("Could not create cache clear transport " + transport, e);
+        }
+    }
+
+    /**
+     * Creates a channel and starts the transport.
+     * @param secret The key messages are signed with, the same on all servers
+     * @param flushInterval Milliseconds between sends, or 0 to send only when {@link #flush()} is called
+     * @param entityThreshold See {@link CacheClearBatch#CacheClearBatch(int)}
+     */
+    public CacheClearChannel(CacheClearTransport transport, byte[] secret, long flushInterval, int entityThreshold) throws IOException {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("A cache clear channel requires a secret");
+        }
+        this.transport = transport;
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.entityThreshold = entityThreshold;
+        this.pending = new CacheClearBatch(entityThreshold);
+        transport.start(this);
+        if (flushInterval > 0) {
+            executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-cache-clear", 1, 0, true);
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    public synchronized void add(CacheClearBatch.Entry entry) {
+        pending.add(entry);
+    }
+
+    public synchronized void addAll(CacheClearBatch batch) {
+        pending.addAll(batch);
+    }
+
+    /** Returns the number of operations waiting to be sent. */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /** Sends the pending operations now. */
+    public void flush() {
+        synchronized (sendLock) {
+            CacheClearBatch batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new CacheClearBatch(entityThreshold);
+            }
+            try {
+                for (byte[] message: batch.encode(senderId, transport.getMaxMessageSize() - MAC_LENGTH)) {
+                    transport.send(sign(message));
+                }
+                if (Debug.verboseOn()) Debug.logVerbose("Sent " + batch.size() + " cache clear operations", module);
+            } catch (IOException e) {
+                Debug.logError(e, "Could not send " + batch.size() + " cache clear operations", module);
+            }
+        }
+    }
+
+    public void receive(byte[] message) {
+        byte[] payload = verify(message);
+        if (payload == null) {
+            Debug.logWarning("Dropped a cache clear batch without a valid signature; check that cache.clear.secret is the same on all servers", module);
+            return;
+        }
+        CacheClearBatch batch;
+        try {
+            batch = CacheClearBatch.decode(payload);
+        } catch (IOException e) {
+            Debug.logError(e, "Could not decode cache clear batch", module);
+            return;
+        }
+        if (batch.getSenderId() == senderId) {
+            return;
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Received " + batch.size() + " cache clear operations", module);
+        for (CacheClearBatch.Entry entry: batch.getEntries()) {
+            Delegator delegator = DelegatorFactory.getDelegator(entry.getDelegatorName());
+            if (delegator == null) {
+                Debug.logWarning("Received cache clear operation for unknown delegator " + entry.getDelegatorName(), module);
+                continue;
+            }
+            try {
+                entry.apply(delegator);
+            } catch (RuntimeException e) {
+                Debug.logError(e, "Could not apply cache clear operation " + entry, module);
+            }
+        }
+    }
+
+    private byte[] mac(byte[] message, int length) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(message, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Returns the message followed by its signature. */
+    private byte[] sign(byte[] message) {
+        byte[] signed = Arrays.copyOf(message, message.length + MAC_LENGTH);
+        System.arraycopy(mac(message, message.length), 0, signed, message.length, MAC_LENGTH);
+        return signed;
+    }
+
+    /** Returns the message without its signature, or null if the signature is missing or wrong. */
+    private byte[] verify(byte[] signed) {
+        if (signed.length < MAC_LENGTH) {
+            return null;
+        }
+        int length = signed.length - MAC_LENGTH;
+        if (!MessageDigest.isEqual(mac(signed, length), Arrays.copyOfRange(signed, length, signed.length))) {
+            return null;
+        }
+        return Arrays.copyOf(signed, length);
+    }
+
+    /** Sends what is pending and stops the transport. */
+    public void stop() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        flush();
+        transport.stop();
+    }
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.IOException;
+
+/**
+ * Carries encoded cache clear batches between the servers of a cluster, see {@link BatchedCacheClear}.
+ * <p>Delivery is best effort: a server that is down or unreachable misses the batches sent
+ * meanwhile, just like it misses them with the service based implementation.</p>
+ */
+public interface CacheClearTransport {
+
+    /** Starts listening; every batch received from another server is handed to <code>receiver</code>. */
+    public void start(Receiver receiver) throws IOException;
+
+    /** Sends one batch to all other servers. */
+    public void send(byte[] message) throws IOException;
+
+    /** Returns the size in bytes of the largest batch {@link #send(byte[])} can carry. */
+    public int getMaxMessageSize();
+
+    public void stop();
+
+    public interface Receiver {
+        public void receive(byte[] message);
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.container.Container;
+import org.ofbiz.base.container.ContainerConfig;
+import org.ofbiz.base.container.ContainerException;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.UtilCacheSnapshots;
+
+/**
+ * Restores cache snapshots when the server starts and keeps writing them while it runs,
+ * see {@link UtilCacheSnapshots}. Primary key cache snapshots are validated with
+ * {@link EntityCacheSnapshotValidator}, which is why this container has to start after
+ * the delegator container.
+ */
+public class CacheSnapshotContainer implements Container {
+
+    public static final String module = CacheSnapshotContainer.class.getName();
+
+    private String name;
+    private int preloadThreads;
+    private ScheduledExecutorService scheduler = null;
+
+    @Override
+    public void init(String[] args, String name, String configFile) throws ContainerException {
+        this.name = name;
+        ContainerConfig.Container cc = ContainerConfig.getContainer(name, configFile);
+        this.preloadThreads = ContainerConfig.getPropertyValue(cc, "preload-threads", Runtime.getRuntime().availableProcessors());
+        UtilCacheSnapshots.registerValidator(EntityCacheSnapshotValidator.CACHE_NAME_PREFIX, new EntityCacheSnapshotValidator());
+    }
+
+    @Override
+    public boolean start() throws ContainerException {
+        long startTime = System.currentTimeMillis();
+        ExecutorService preloadExecutor = ExecutionPool.getScheduledExecutor(null, "OFBiz-cache-preload", Math.max(preloadThreads, 1), 0, false);
+        try {
+            int count = UtilCacheSnapshots.preloadSnapshots(preloadExecutor);
+            if (count > 0) {
+                Debug.logInfo("Read " + count + " cache entries from snapshots in " + (System.currentTimeMillis() - startTime) + "ms", module);
+            }
+        } finally {
+            preloadExecutor.shutdown();
+        }
+        long interval = UtilCacheSnapshots.getSnapshotInterval();
+        scheduler = ExecutionPool.getScheduledExecutor(null, "OFBiz-cache-snapshot", 1, 0, false);
+        // snapshots of caches that were not used by then can no longer be restored
+        long pendingMaxAge = UtilCacheSnapshots.getPendingMaxAge();
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                UtilCacheSnapshots.discardPending();
+            }
+        }, pendingMaxAge + 1, TimeUnit.MILLISECONDS);
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        UtilCacheSnapshots.writeSnapshots();
+                    } catch (Throwable t) {
+                        Debug.logError(t, "Error writing cache snapshots", module);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() throws ContainerException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        int count = UtilCacheSnapshots.writeSnapshots();
+        if (count > 0) {
+            Debug.logInfo("Wrote snapshots of " + count + " caches", module);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
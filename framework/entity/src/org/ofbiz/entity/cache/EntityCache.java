@@ -21,6 +21,8 @@ package org.ofbiz.entity.cache;
 import java.util.Iterator;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
@@ -40,6 +42,31 @@ public class EntityCache extends AbstractCache<GenericPK, GenericValue> {
         return entityCache.get(pk);
     }
 
+    /**
+     * Gets a value from the cache, loading it with <code>loader</code> if it is missing.
+     * The loader must return the value to cache, immutable and never <code>null</code>.
+     * Entities with never-cache set are loaded every time. Inside a transaction each miss
+     * is loaded by its own thread, see {@link #isLoadSharable()}.
+     */
+    public GenericValue get(GenericPK pk, CacheLoader<GenericPK, GenericValue> loader) throws GeneralException {
+        if (pk.getModelEntity().getNeverCache()) {
+            Debug.logWarning("Tried to put a value of the " + pk.getEntityName() + " entity in the BY PRIMARY KEY cache but this entity has never-cache set to true, not caching.", module);
+            return loadDirectly(loader, pk);
+        }
+        UtilCache<GenericPK, GenericValue> entityCache = getOrCreateCache(pk.getEntityName());
+        if (isLoadSharable()) {
+            return entityCache.get(pk, loader);
+        }
+        GenericValue value = entityCache.get(pk);
+        if (value == null) {
+            long startNanos = System.nanoTime();
+            value = loadDirectly(loader, pk);
+            entityCache.recordLoad(System.nanoTime() - startNanos);
+            entityCache.put(pk, value);
+        }
+        return value;
+    }
+
     public GenericValue put(GenericValue entity) {
         if (entity == null) return null;
         return put(entity.getPrimaryKey(), entity);
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilObject;
+import org.ofbiz.base.util.cache.UtilCacheSnapshots;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelViewEntity;
+
+/**
+ * Validates snapshots of the primary key caches (<code>entitycache.entity.*</code>) against
+ * the database: a value is only restored if the row still has the same
+ * <code>lastUpdatedStamp</code>, and a cached "not found" only if the row still does not exist.
+ * Snapshots of entities without stamps and of view entities are not restored at all.
+ */
+public class EntityCacheSnapshotValidator implements UtilCacheSnapshots.SnapshotValidator {
+
+    public static final String module = EntityCacheSnapshotValidator.class.getName();
+    public static final String CACHE_NAME_PREFIX = "entitycache.entity.";
+
+    /** How many primary keys are checked with one query */
+    private static final int BATCH_SIZE = 200;
+
+    public Map<Object, Object> validate(String cacheName, Map<Object, Object> entries) throws GenericEntityException {
+        Map<Object, Object> valid = new LinkedHashMap<Object, Object>();
+        // entitycache.entity.<delegator name>.<entity name>
+        String delegatorAndEntity = cacheName.substring(CACHE_NAME_PREFIX.length());
+        int separator = delegatorAndEntity.lastIndexOf('.');
+        if (separator <= 0) {
+            return valid;
+        }
+        Delegator delegator = DelegatorFactory.getDelegator(delegatorAndEntity.substring(0, separator));
+        if (delegator == null) {
+            return valid;
+        }
+        String entityName = delegatorAndEntity.substring(separator + 1);
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null || modelEntity instanceof ModelViewEntity || modelEntity.getNeverCache() || !modelEntity.isField(ModelEntity.STAMP_FIELD)) {
+            Debug.logInfo("Cannot validate the snapshot of cache " + cacheName + " against " + ModelEntity.STAMP_FIELD + ", not restoring it", module);
+            return valid;
+        }
+        Set<String> fieldsToSelect = new HashSet<String>(modelEntity.getPkFieldNames());
+        fieldsToSelect.add(ModelEntity.STAMP_FIELD);
+        List<GenericPK> batch = new ArrayList<GenericPK>(BATCH_SIZE);
+        for (Object key: entries.keySet()) {
+            if (key instanceof GenericPK) {
+                batch.add((GenericPK) key);
+                if (batch.size() == BATCH_SIZE) {
+                    validateBatch(delegator, entityName, fieldsToSelect, batch, entries, valid);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            validateBatch(delegator, entityName, fieldsToSelect, batch, entries, valid);
+        }
+        return valid;
+    }
+
+    private static void validateBatch(Delegator delegator, String entityName, Set<String> fieldsToSelect, List<GenericPK> batch, Map<Object, Object> entries, Map<Object, Object> valid) throws GenericEntityException {
+        List<EntityCondition> conditions = new ArrayList<EntityCondition>(batch.size());
+        for (GenericPK pk: batch) {
+            conditions.add(EntityCondition.makeCondition(pk.getAllFields()));
+        }
+        List<GenericValue> rows = delegator.findList(entityName, EntityCondition.makeCondition(conditions, EntityOperator.OR), fieldsToSelect, null, null, false);
+        Map<GenericPK, Object> currentStamps = new HashMap<GenericPK, Object>();
+        for (GenericValue row: rows) {
+            currentStamps.put(row.getPrimaryKey(), row.get(ModelEntity.STAMP_FIELD));
+        }
+        for (GenericPK pk: batch) {
+            Object value = entries.get(pk);
+            if (value == GenericValue.NULL_VALUE) {
+                if (!currentStamps.containsKey(pk)) {
+                    valid.put(pk, value);
+                }
+            } else if (value instanceof GenericValue && currentStamps.containsKey(pk)) {
+                GenericValue entity = (GenericValue) value;
+                Object stamp = currentStamps.get(pk);
+                if (stamp != null && UtilObject.equalsHelper(stamp, entity.get(ModelEntity.STAMP_FIELD))) {
+                    entity.setImmutable();
+                    valid.put(pk, entity);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityOperator;
+
+/**
+ * Indexes the conditions cached for one entity by one of their field equality constraints,
+ * so that a change to a single row only has to be checked against the conditions that
+ * could possibly select it.
+ * <p>A condition is filed under a <code>field = 'value'</code> term of its top level
+ * <code>AND</code>, preferring primary key fields. Conditions without such a term are kept
+ * in a separate set that is always checked. The index follows the cache through
+ * {@link CacheListener} events; lines that leave the cache without an event (size
+ * evictions) are pruned when they are next returned as candidates.</p>
+ */
+@ThreadSafe
+final class EntityConditionIndex<V> implements CacheListener<EntityCondition, V> {
+
+    private final UtilCache<EntityCondition, V> cache;
+    private final Set<String> pkFieldNames;
+    private final ConcurrentMap<String, ConcurrentMap<String, Set<EntityCondition>>> byField = new ConcurrentHashMap<String, ConcurrentMap<String, Set<EntityCondition>>>();
+    private final Set<EntityCondition> unindexed = newConditionSet();
+    private final AtomicInteger size = new AtomicInteger();
+
+    EntityConditionIndex(UtilCache<EntityCondition, V> cache, Collection<String> pkFieldNames) {
+        this.cache = cache;
+        this.pkFieldNames = new HashSet<String>(pkFieldNames);
+    }
+
+    UtilCache<EntityCondition, V> getCache() {
+        return cache;
+    }
+
+    /** Files all conditions currently in the cache and drops the ones that have left it. */
+    void rebuild() {
+        for (Set<EntityCondition> conditions: getAllSets()) {
+            for (EntityCondition condition: conditions) {
+                if (!cache.containsKey(condition)) {
+                    prune(condition);
+                }
+            }
+        }
+        for (EntityCondition condition: cache.getCacheLineKeys()) {
+            add(condition);
+        }
+    }
+
+    void add(EntityCondition condition) {
+        if (condition != null && getSet(condition, true).add(condition)) {
+            size.incrementAndGet();
+        }
+    }
+
+    void remove(EntityCondition condition) {
+        if (condition != null && getSet(condition, false).remove(condition)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a condition that was found missing from the cache. A concurrent put of the same
+     * condition notifies the index only after its line is in the cache, so checking the
+     * cache again after removing cannot lose that put.
+     */
+    void prune(EntityCondition condition) {
+        remove(condition);
+        if (cache.containsKey(condition)) {
+            add(condition);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the cached conditions that can select the row with the given primary key.
+     * @param primaryKey The primary key field values of the changed row
+     * @param states The complete field values the row had before and has after the change, or
+     * <code>null</code> if one of them is not known; in that case only primary key terms
+     * (which cannot change) are used to rule conditions out
+     */
+    Set<EntityCondition> getCandidates(Map<String, ? extends Object> primaryKey, List<? extends Map<String, ? extends Object>> states) {
+        if (size.get() > 2 * cache.size() + 64) {
+            // too many lines were evicted behind our back
+            rebuild();
+        }
+        Set<EntityCondition> candidates = new HashSet<EntityCondition>(unindexed);
+        for (Map.Entry<String, ConcurrentMap<String, Set<EntityCondition>>> entry: byField.entrySet()) {
+            String fieldName = entry.getKey();
+            ConcurrentMap<String, Set<EntityCondition>> byValue = entry.getValue();
+            Collection<? extends Map<String, ? extends Object>> rows;
+            if (pkFieldNames.contains(fieldName)) {
+                rows = Collections.singletonList(primaryKey);
+            } else if (states != null) {
+                rows = states;
+            } else {
+                rows = null;
+            }
+            if (rows != null && allStrings(rows, fieldName)) {
+                for (Map<String, ? extends Object> row: rows) {
+                    Set<EntityCondition> conditions = byValue.get(row.get(fieldName));
+                    if (conditions != null) {
+                        candidates.addAll(conditions);
+                    }
+                }
+            } else {
+                for (Set<EntityCondition> conditions: byValue.values()) {
+                    candidates.addAll(conditions);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    public void noteKeyAddition(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue) {
+        add(key);
+    }
+
+    public void noteKeyRemoval(UtilCache<EntityCondition, V> cache, EntityCondition key, V oldValue) {
+        remove(key);
+    }
+
+    public void noteKeyUpdate(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue, V oldValue) {
+    }
+
+    private Set<EntityCondition> getSet(EntityCondition condition, boolean create) {
+        Map<String, String> terms = new TreeMap<String, String>();
+        collectEqualsTerms(condition, terms);
+        String fieldName = null;
+        for (String termField: terms.keySet()) {
+            if (pkFieldNames.contains(termField)) {
+                fieldName = termField;
+                break;
+            }
+            if (fieldName == null) {
+                fieldName = termField;
+            }
+        }
+        if (fieldName == null) {
+            return unindexed;
+        }
+        ConcurrentMap<String, Set<EntityCondition>> byValue = byField.get(fieldName);
+        if (byValue == null) {
+            if (!create) {
+                return Collections.emptySet();
+            }
+            byField.putIfAbsent(fieldName, new ConcurrentHashMap<String, Set<EntityCondition>>());
+            byValue = byField.get(fieldName);
+        }
+        String value = terms.get(fieldName);
+        Set<EntityCondition> conditions = byValue.get(value);
+        if (conditions == null) {
+            if (!create) {
+                return Collections.emptySet();
+            }
+            byValue.putIfAbsent(value, newConditionSet());
+            conditions = byValue.get(value);
+        }
+        return conditions;
+    }
+
+    private Collection<Set<EntityCondition>> getAllSets() {
+        Collection<Set<EntityCondition>> sets = new HashSet<Set<EntityCondition>>();
+        sets.add(unindexed);
+        for (ConcurrentMap<String, Set<EntityCondition>> byValue: byField.values()) {
+            sets.addAll(byValue.values());
+        }
+        return sets;
+    }
+
+    private static boolean allStrings(Collection<? extends Map<String, ? extends Object>> rows, String fieldName) {
+        for (Map<String, ? extends Object> row: rows) {
+            if (!(row.get(fieldName) instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the <code>field = 'value'</code> terms every row selected by the condition has
+     * to satisfy. Only plain fields compared to string constants are collected, so the index
+     * never has to reason about type conversions.
+     */
+    private static void collectEqualsTerms(EntityCondition condition, Map<String, String> terms) {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            if (EntityOperator.EQUALS.equals(expr.getOperator()) && expr.getLhs() instanceof EntityFieldValue && expr.getRhs() instanceof String) {
+                EntityFieldValue field = (EntityFieldValue) expr.getLhs();
+                // fields qualified by a view entity alias are not plain fields of the entity
+                if (field.equals(EntityFieldValue.makeFieldValue(field.getFieldName()))) {
+                    terms.put(field.getFieldName(), (String) expr.getRhs());
+                }
+            }
+        } else if (condition instanceof EntityConditionList<?>) {
+            EntityConditionList<?> list = (EntityConditionList<?>) condition;
+            if (list.getOperator() == EntityOperator.AND) {
+                Iterator<? extends EntityCondition> it = list.getConditionIterator();
+                while (it.hasNext()) {
+                    collectEqualsTerms(it.next(), terms);
+                }
+            }
+        }
+    }
+
+    private static Set<EntityCondition> newConditionSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<EntityCondition, Boolean>());
+    }
+}
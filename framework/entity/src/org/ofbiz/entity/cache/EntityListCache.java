@@ -18,12 +18,19 @@
  *******************************************************************************/
 package org.ofbiz.entity.cache;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.CacheLoader;
+import org.ofbiz.base.util.cache.LoadCoalescer;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.model.ModelEntity;
@@ -33,6 +40,8 @@ public class EntityListCache extends AbstractEntityConditionCache<Object, List<G
 
     public static final String module = EntityListCache.class.getName();
 
+    private final LoadCoalescer<List<Object>, List<GenericValue>> loads = new LoadCoalescer<List<Object>, List<GenericValue>>();
+
     public EntityListCache(String delegatorName) {
         super(delegatorName, "entity-list");
     }
@@ -62,6 +71,39 @@ public class EntityListCache extends AbstractEntityConditionCache<Object, List<G
         return valueList;
     }
 
+    /**
+     * Gets a list from the cache, loading it with <code>loader</code> if it is missing. Concurrent
+     * misses on the same entity, condition and ordering wait for a single load, except inside a
+     * transaction, see {@link #isLoadSharable()}.
+     */
+    public List<GenericValue> get(final String entityName, final EntityCondition condition, final List<String> orderBy, final CacheLoader<EntityCondition, List<GenericValue>> loader) throws GeneralException {
+        List<GenericValue> valueList = get(entityName, condition, orderBy);
+        if (valueList != null) {
+            return valueList;
+        }
+        CacheLoader<List<Object>, List<GenericValue>> cachingLoader = new CacheLoader<List<Object>, List<GenericValue>>() {
+            public List<GenericValue> load(List<Object> key) throws Exception {
+                // another thread may have finished loading between our miss and this load
+                List<GenericValue> valueList = get(entityName, condition, orderBy);
+                if (valueList != null) {
+                    return valueList;
+                }
+                long startNanos = System.nanoTime();
+                valueList = loader.load(condition);
+                if (valueList != null) {
+                    put(entityName, condition, orderBy, valueList);
+                    recordLoad(entityName, System.nanoTime() - startNanos);
+                }
+                return valueList;
+            }
+        };
+        List<Object> key = Arrays.<Object>asList(entityName, condition, getOrderByKey(orderBy));
+        if (!isLoadSharable()) {
+            return loadDirectly(cachingLoader, key);
+        }
+        return loads.load(key, cachingLoader);
+    }
+
     public void put(String entityName, EntityCondition condition, List<GenericValue> entities) {
         this.put(entityName, condition, null, entities);
     }
@@ -83,6 +125,51 @@ public class EntityListCache extends AbstractEntityConditionCache<Object, List<G
         return super.remove(entityName, condition, getOrderByKey(orderBy));
     }
 
+    /**
+     * Returns true if every list cached for the condition already shows the row in the given state:
+     * holding a copy of <code>entity</code> with equal field values, or not holding the row at all
+     * if <code>entity</code> is <code>null</code>. Lists of values without their primary key fields
+     * (selected with a field list) can't be checked and are never current.
+     */
+    @Override
+    protected boolean isCurrent(ConcurrentMap<Object, List<GenericValue>> conditionCache, GenericPK primaryKey, GenericEntity entity) {
+        List<String> pkFieldNames = primaryKey.getModelEntity().getPkFieldNames();
+        for (List<GenericValue> valueList: conditionCache.values()) {
+            GenericValue found = null;
+            for (GenericValue value: valueList) {
+                boolean sameRow = true;
+                for (String fieldName: pkFieldNames) {
+                    if (!value.containsKey(fieldName)) {
+                        return false;
+                    }
+                    if (!UtilValidate.areEqual(value.get(fieldName), primaryKey.get(fieldName))) {
+                        sameRow = false;
+                        break;
+                    }
+                }
+                if (sameRow) {
+                    found = value;
+                    break;
+                }
+            }
+            if (found == null) {
+                if (entity != null) {
+                    return false;
+                }
+            } else {
+                if (entity == null) {
+                    return false;
+                }
+                for (Map.Entry<String, Object> entry: found.entrySet()) {
+                    if (!UtilValidate.areEqual(entry.getValue(), entity.get(entry.getKey()))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     public static final Object getOrderByKey(List<String> orderBy) {
         return orderBy != null ? (Object) orderBy : "{null}";
     }
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.Arrays;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * Sends cache clear batches as UDP multicast datagrams, so that servers join the cluster
+ * by listening on the same group without a list of peers.
+ * <p>A batch has to fit in one datagram; larger batches are split by the sender. Datagrams
+ * can be lost, so this transport suits networks where a missed clear is tolerable until
+ * the cache line expires.</p>
+ */
+@ThreadSafe
+public final class MulticastCacheClearTransport implements CacheClearTransport {
+
+    public static final String module = MulticastCacheClearTransport.class.getName();
+    // the largest UDP payload, less room for IP options
+    private static final int MAX_MESSAGE_SIZE = 65000;
+
+    private final InetAddress group;
+    private final int port;
+    private final int timeToLive;
+    private volatile MulticastSocket socket;
+
+    public MulticastCacheClearTransport(InetAddress group, int port, int timeToLive) {
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(group + " is not a multicast address");
+        }
+        this.group = group;
+        this.port = port;
+        this.timeToLive = timeToLive;
+    }
+
+    public void start(final Receiver receiver) throws IOException {
+        final MulticastSocket socket = new MulticastSocket(port);
+        socket.setTimeToLive(timeToLive);
+        // the interface is the one set on the socket, the default unless configured otherwise
+        socket.joinGroup(new InetSocketAddress(group, port), null);
+        this.socket = socket;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+                while (MulticastCacheClearTransport.this.socket == socket) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    try {
+                        socket.receive(packet);
+                    } catch (IOException e) {
+                        if (MulticastCacheClearTransport.this.socket == socket) {
+                            Debug.logWarning(e, "Error receiving cache clear batch", module);
+                        }
+                        continue;
+                    }
+                    try {
+                        receiver.receive(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+                    } catch (RuntimeException e) {
+                        Debug.logError(e, "Error processing cache clear batch from " + packet.getSocketAddress(), module);
+                    }
+                }
+            }
+        }, "OFBiz-cache-clear-multicast");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    public void send(byte[] message) throws IOException {
+        MulticastSocket socket = this.socket;
+        if (socket == null) {
+            throw new IOException("Multicast cache clear transport is not started");
+        }
+        socket.send(new DatagramPacket(message, message.length, group, port));
+    }
+
+    public void stop() {
+        MulticastSocket socket = this.socket;
+        this.socket = null;
+        if (socket != null) {
+            try {
+                socket.leaveGroup(new InetSocketAddress(group, port), null);
+            } catch (IOException e) {
+                Debug.logWarning(e, module);
+            }
+            socket.close();
+        }
+    }
+}
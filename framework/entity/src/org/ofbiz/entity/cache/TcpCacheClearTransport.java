@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilValidate;
+
+/**
+ * Sends cache clear batches over plain TCP connections to a fixed list of peers.
+ * <p>Every server listens on its own address and keeps one connection open to each peer;
+ * a batch is written to the connections as a length-prefixed frame. A peer that can't be
+ * reached is skipped and connected to again on the next batch. The peer list may contain
+ * the server itself, the batches it receives from itself are ignored.</p>
+ */
+@ThreadSafe
+public final class TcpCacheClearTransport implements CacheClearTransport {
+
+    public static final String module = TcpCacheClearTransport.class.getName();
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> peers;
+    // guarded by itself, writes to one peer must not interleave
+    private final Map<InetSocketAddress, Socket> connections = new HashMap<InetSocketAddress, Socket>();
+    private final Set<Socket> acceptedSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile ServerSocket serverSocket;
+    private volatile Receiver receiver;
+
+    public TcpCacheClearTransport(InetSocketAddress bindAddress, List<InetSocketAddress> peers) {
+        this.bindAddress = bindAddress;
+        this.peers = new ArrayList<InetSocketAddress>(peers);
+    }
+
+    /** Parses a comma separated list of <code>host:port</code> addresses; the port may be left out. */
+    public static List<InetSocketAddress> parseAddresses(String addresses, int defaultPort) {
+        List<InetSocketAddress> result = new ArrayList<InetSocketAddress>();
+        if (UtilValidate.isEmpty(addresses)) {
+            return result;
+        }
+        for (String address: StringUtil.split(addresses, ",")) {
+            address = address.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                result.add(new InetSocketAddress(address, defaultPort));
+            } else {
+                result.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+            }
+        }
+        return result;
+    }
+
+    public void start(Receiver receiver) throws IOException {
+        this.receiver = receiver;
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(bindAddress);
+        this.serverSocket = serverSocket;
+        startThread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "OFBiz-cache-clear-accept");
+    }
+
+    /** Returns the port this transport listens on, useful when it was bound to port 0. */
+    public int getLocalPort() {
+        ServerSocket serverSocket = this.serverSocket;
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    public int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    public void send(byte[] message) throws IOException {
+        synchronized (connections) {
+            for (InetSocketAddress peer: peers) {
+                try {
+                    write(peer, message);
+                } catch (IOException e) {
+                    // the connection may have been closed by the peer since the last batch, try a new one
+                    close(connections.remove(peer));
+                    try {
+                        write(peer, message);
+                    } catch (IOException e2) {
+                        close(connections.remove(peer));
+                        Debug.logWarning("Could not send cache clear batch to " + peer + ": " + e2, module);
+                    }
+                }
+            }
+        }
+    }
+
+    private void write(InetSocketAddress peer, byte[] message) throws IOException {
+        Socket socket = connections.get(peer);
+        if (socket == null) {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(peer, CONNECT_TIMEOUT);
+            connections.put(peer, socket);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(message.length);
+        out.write(message);
+        out.flush();
+    }
+
+    public void stop() {
+        ServerSocket serverSocket = this.serverSocket;
+        this.serverSocket = null;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                Debug.logWarning(e, module);
+            }
+        }
+        for (Socket socket: acceptedSockets) {
+            close(socket);
+        }
+        synchronized (connections) {
+            for (Socket socket: connections.values()) {
+                close(socket);
+            }
+            connections.clear();
+        }
+    }
+
+    private void accept() {
+        ServerSocket serverSocket;
+        while ((serverSocket = this.serverSocket) != null) {
+            try {
+                final Socket socket = serverSocket.accept();
+                acceptedSockets.add(socket);
+                startThread(new Runnable() {
+                    public void run() {
+                        read(socket);
+                    }
+                }, "OFBiz-cache-clear-read-" + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (this.serverSocket != null) {
+                    Debug.logWarning(e, "Error accepting cache clear connection", module);
+                }
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_MESSAGE_SIZE) {
+                    throw new IOException("Invalid cache clear frame length " + length);
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                try {
+                    receiver.receive(message);
+                } catch (RuntimeException e) {
+                    Debug.logError(e, "Error processing cache clear batch from " + socket.getRemoteSocketAddress(), module);
+                }
+            }
+        } catch (EOFException e) {
+            // the peer closed the connection
+        } catch (SocketException e) {
+            // closed by stop or by the peer
+        } catch (IOException e) {
+            Debug.logWarning(e, "Error reading cache clear batch from " + socket.getRemoteSocketAddress(), module);
+        } finally {
+            acceptedSockets.remove(socket);
+            close(socket);
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Debug.logWarning(e, module);
+            }
+        }
+    }
+}
@@ -22,8 +22,12 @@ package org.ofbiz.entity.condition;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericModelException;
 import org.ofbiz.entity.config.model.Datasource;
@@ -71,6 +75,64 @@ public class OrderByList implements Comparator<GenericEntity> {
         orderByList.add(orderByItem);
     }
 
+    /**
+     * Returns <code>orderBy</code> with each of the fields that is not ordered by yet added, ascending.
+     * Adding fields that are unique together, like the primary key fields, makes the order total so it
+     * can be used for {@link #makeSeekCondition(Delegator, Map) keyset pagination}.
+     */
+    public static List<String> addMissingOrderBy(List<String> orderBy, Collection<String> fieldNames) {
+        List<String> newOrderBy = new ArrayList<String>();
+        Set<String> orderedFieldNames = new HashSet<String>();
+        if (orderBy != null) {
+            for (String orderByText: orderBy) {
+                OrderByItem orderByItem = OrderByItem.parse(orderByText);
+                if (orderByItem.getValue() instanceof EntityFieldValue) {
+                    orderedFieldNames.add(((EntityFieldValue) orderByItem.getValue()).getFieldName());
+                }
+                newOrderBy.add(orderByText);
+            }
+        }
+        for (String fieldName: fieldNames) {
+            if (orderedFieldNames.add(fieldName)) {
+                newOrderBy.add(fieldName);
+            }
+        }
+        return newOrderBy;
+    }
+
+    /**
+     * Returns a condition that matches the rows that come after <code>lastValues</code> in this order, for
+     * keyset pagination: with the values of the last row of a page, the condition selects the next page
+     * without skipping over the rows before it. The order must be total, see {@link #addMissingOrderBy(List, Collection)}.
+     * Nulls are not supported, because databases sort them differently: the ordered fields must not be null in
+     * <code>lastValues</code>, and rows with a null in one of them are never matched.
+     * @throws IllegalArgumentException if <code>lastValues</code> is missing one of the ordered fields or has a null for it
+     */
+    public EntityCondition makeSeekCondition(Delegator delegator, Map<String, ? extends Object> lastValues) {
+        if (orderByList.isEmpty()) {
+            throw new IllegalArgumentException("Cannot seek without an order");
+        }
+        // (a > x) OR (a = x AND b > y) OR (a = x AND b = y AND c > z) ...
+        List<EntityCondition> alternatives = new ArrayList<EntityCondition>(orderByList.size());
+        List<EntityCondition> equalPrefix = new ArrayList<EntityCondition>(orderByList.size());
+        for (OrderByItem orderByItem: orderByList) {
+            EntityConditionValue value = orderByItem.getValue();
+            if (value instanceof EntityFieldValue && !lastValues.containsKey(((EntityFieldValue) value).getFieldName())) {
+                throw new IllegalArgumentException("Cannot seek after " + lastValues + ", it has no value for the ordered field " + ((EntityFieldValue) value).getFieldName());
+            }
+            Object lastValue = value.getValue(delegator, lastValues);
+            if (lastValue == null) {
+                throw new IllegalArgumentException("Cannot seek after " + lastValues + ", the ordered field " + value + " is null");
+            }
+            List<EntityCondition> alternative = new ArrayList<EntityCondition>(equalPrefix);
+            EntityComparisonOperator<?, ?> operator = orderByItem.getDescending() ? EntityOperator.LESS_THAN : EntityOperator.GREATER_THAN;
+            alternative.add(EntityCondition.makeCondition(orderByItem.getValue(), operator, lastValue));
+            alternatives.add(EntityCondition.makeCondition(alternative));
+            equalPrefix.add(EntityCondition.makeCondition(orderByItem.getValue(), EntityOperator.EQUALS, lastValue));
+        }
+        return EntityCondition.makeCondition(alternatives, EntityOperator.OR);
+    }
+
     public void checkOrderBy(ModelEntity modelEntity) throws GenericModelException {
         for (OrderByItem orderByItem: orderByList) {
             orderByItem.checkOrderBy(modelEntity);
@@ -55,6 +55,7 @@ public final class Datasource {
     private final boolean useProxyCursor;
     private final String proxyCursorName; // type = xs:string
     private final int resultFetchSize; // type = xs:integer
+    private final int resultStreamFetchSize; // type = xs:positiveInteger
     private final boolean useForeignKeys;
     private final boolean useForeignKeyIndices;
     private final boolean checkFksOnStart;
@@ -130,6 +131,19 @@ public final class Datasource {
                 throw new GenericEntityConfException("<datasource> element result-fetch-size attribute is invalid" + lineNumberText);
             }
         }
+        String resultStreamFetchSize = element.getAttribute("result-stream-fetch-size");
+        if (resultStreamFetchSize.isEmpty()) {
+            this.resultStreamFetchSize = 1000;
+        } else {
+            try {
+                this.resultStreamFetchSize = Integer.parseInt(resultStreamFetchSize);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<datasource> element result-stream-fetch-size attribute is invalid" + lineNumberText);
+            }
+            if (this.resultStreamFetchSize < 1) {
+                throw new GenericEntityConfException("<datasource> element result-stream-fetch-size attribute must be greater than zero" + lineNumberText);
+            }
+        }
         this.useForeignKeys = !"false".equals(element.getAttribute("use-foreign-keys"));
         this.useForeignKeyIndices = !"false".equals(element.getAttribute("use-foreign-key-indices"));
         this.checkFksOnStart = "true".equals(element.getAttribute("check-fks-on-start"));
@@ -289,6 +303,11 @@ public final class Datasource {
         return this.resultFetchSize;
     }
 
+    /** Returns the value of the <code>result-stream-fetch-size</code> attribute. */
+    public int getResultStreamFetchSize() {
+        return this.resultStreamFetchSize;
+    }
+
     /** Returns the value of the <code>use-foreign-keys</code> attribute. */
     public boolean getUseForeignKeys() {
         return this.useForeignKeys;
@@ -18,7 +18,12 @@
  *******************************************************************************/
 package org.ofbiz.entity.config.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.entity.GenericEntityConfException;
 import org.w3c.dom.Element;
 
@@ -32,6 +37,7 @@ public final class GroupMap {
 
     private final String groupName; // type = xs:string
     private final String datasourceName; // type = xs:string
+    private final List<ReadReplica> readReplicaList; // <read-replica>
 
     GroupMap(Element element) throws GenericEntityConfException {
         String lineNumberText = EntityConfig.createConfigFileLineNumberText(element);
@@ -45,6 +51,16 @@ public final class GroupMap {
             throw new GenericEntityConfException("<group-map> element datasource-name attribute is empty" + lineNumberText);
         }
         this.datasourceName = datasourceName;
+        List<? extends Element> readReplicaElementList = UtilXml.childElementList(element, "read-replica");
+        if (readReplicaElementList.isEmpty()) {
+            this.readReplicaList = Collections.emptyList();
+        } else {
+            List<ReadReplica> readReplicaList = new ArrayList<ReadReplica>(readReplicaElementList.size());
+            for (Element readReplicaElement : readReplicaElementList) {
+                readReplicaList.add(new ReadReplica(readReplicaElement));
+            }
+            this.readReplicaList = Collections.unmodifiableList(readReplicaList);
+        }
     }
 
     /** Returns the value of the <code>group-name</code> attribute. */
@@ -56,4 +72,9 @@ public final class GroupMap {
     public String getDatasourceName() {
         return this.datasourceName;
     }
+
+    /** Returns the <code>&lt;read-replica&gt;</code> child elements. */
+    public List<ReadReplica> getReadReplicaList() {
+        return this.readReplicaList;
+    }
 }
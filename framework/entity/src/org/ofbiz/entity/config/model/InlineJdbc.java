@@ -45,6 +45,9 @@ public final class InlineJdbc extends JdbcElement {
     private final int poolDeadlockMaxwait; // type = xs:nonNegativeInteger
     private final int poolDeadlockRetrywait; // type = xs:nonNegativeInteger
     private final String poolJdbcTestStmt; // type = xs:string
+    private final int poolMaxPreparedStatements; // type = xs:nonNegativeInteger
+    private final int poolAdaptiveMaxsize; // type = xs:nonNegativeInteger
+    private final int poolLeakThresholdMillis; // type = xs:nonNegativeInteger
     private final boolean testOnCreate; // type = xs:boolean
     private final boolean testOnBorrow; // type = xs:boolean
     private final boolean testOnReturn; // type = xs:boolean
@@ -162,6 +165,36 @@ public final class InlineJdbc extends JdbcElement {
             }
         }
         this.poolJdbcTestStmt = element.getAttribute("pool-jdbc-test-stmt").intern();
+        String poolMaxPreparedStatements = element.getAttribute("pool-max-prepared-statements");
+        if (poolMaxPreparedStatements.isEmpty()) {
+            this.poolMaxPreparedStatements = 0;
+        } else {
+            try {
+                this.poolMaxPreparedStatements = Integer.parseInt(poolMaxPreparedStatements);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-max-prepared-statements attribute is invalid" + lineNumberText);
+            }
+        }
+        String poolAdaptiveMaxsize = element.getAttribute("pool-adaptive-maxsize");
+        if (poolAdaptiveMaxsize.isEmpty()) {
+            this.poolAdaptiveMaxsize = 0;
+        } else {
+            try {
+                this.poolAdaptiveMaxsize = Integer.parseInt(poolAdaptiveMaxsize);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-adaptive-maxsize attribute is invalid" + lineNumberText);
+            }
+        }
+        String poolLeakThresholdMillis = element.getAttribute("pool-leak-threshold-millis");
+        if (poolLeakThresholdMillis.isEmpty()) {
+            this.poolLeakThresholdMillis = 0;
+        } else {
+            try {
+                this.poolLeakThresholdMillis = Integer.parseInt(poolLeakThresholdMillis);
+            } catch (Exception e) {
+                throw new GenericEntityConfException("<inline-jdbc> element pool-leak-threshold-millis attribute is invalid" + lineNumberText);
+            }
+        }
         this.testOnCreate = "true".equals(element.getAttribute("test-on-create"));
         this.testOnBorrow = "true".equals(element.getAttribute("test-on-borrow"));
         this.testOnReturn = "true".equals(element.getAttribute("test-on-return"));
@@ -244,6 +277,21 @@ public final class InlineJdbc extends JdbcElement {
         return this.poolJdbcTestStmt;
     }
 
+    /** Returns the value of the <code>pool-max-prepared-statements</code> attribute. */
+    public int getPoolMaxPreparedStatements() {
+        return this.poolMaxPreparedStatements;
+    }
+
+    /** Returns the value of the <code>pool-adaptive-maxsize</code> attribute. */
+    public int getPoolAdaptiveMaxsize() {
+        return this.poolAdaptiveMaxsize;
+    }
+
+    /** Returns the value of the <code>pool-leak-threshold-millis</code> attribute. */
+    public int getPoolLeakThresholdMillis() {
+        return this.poolLeakThresholdMillis;
+    }
+
     /** Returns the value of the <code>test-on-create</code> attribute. */
     public boolean getTestOnCreate() {
         return this.testOnCreate;
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.connection;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.util.Debug;
+
+/**
+ * Registers {@link MonitoredConnectionPool} instances with the platform MBean server.
+ */
+final class ConnectionPoolJmx {
+
+    public static final String module = ConnectionPoolJmx.class.getName();
+
+    private static ObjectName getObjectName(String helperName) throws JMException {
+        return new ObjectName("org.ofbiz:type=ConnectionPool,name=" + ObjectName.quote(helperName));
+    }
+
+    static void register(MonitoredConnectionPool pool) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getObjectName(pool.getHelperName());
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new PoolBean(pool), objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered concurrently by another thread for a pool with the same name
+        } catch (JMException e) {
+            Debug.logWarning(e, "Could not register JMX bean for connection pool " + pool.getHelperName(), module);
+        }
+    }
+
+    static void unregister(String helperName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName(helperName));
+        } catch (InstanceNotFoundException e) {
+        } catch (JMException e) {
+            Debug.logWarning(e, "Could not unregister JMX bean for connection pool " + helperName, module);
+        }
+    }
+
+    private static final class PoolBean implements ConnectionPoolMXBean {
+        private final MonitoredConnectionPool pool;
+
+        private PoolBean(MonitoredConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        public String getHelperName() {
+            return pool.getHelperName();
+        }
+
+        public int getNumActive() {
+            return pool.getNumActive();
+        }
+
+        public int getNumIdle() {
+            return pool.getNumIdle();
+        }
+
+        public int getMaxTotal() {
+            return pool.getMaxTotal();
+        }
+
+        public long getBorrowCount() {
+            return pool.getBorrowLatency().getCount();
+        }
+
+        public long getBorrowTimeoutCount() {
+            return pool.getBorrowTimeoutCount();
+        }
+
+        public long getBorrowWaitMeanNanos() {
+            return pool.getBorrowLatency().getMeanNanos();
+        }
+
+        public long getBorrowWait99thPercentileNanos() {
+            return pool.getBorrowLatency().getPercentileNanos(99.0);
+        }
+
+        public long getHoldMeanNanos() {
+            return pool.getHoldTime().getMeanNanos();
+        }
+
+        public long getHold99thPercentileNanos() {
+            return pool.getHoldTime().getPercentileNanos(99.0);
+        }
+
+        public long getHoldMaxNanos() {
+            return pool.getHoldTime().getMaxNanos();
+        }
+
+        public Map<String, Long> getOwnerHoldMeanNanos() {
+            Map<String, Long> holdMeans = new LinkedHashMap<String, Long>();
+            for (Map.Entry<String, LatencyHistogram> entry: pool.getOwnerHoldTimes().entrySet()) {
+                holdMeans.put(entry.getKey(), entry.getValue().getMeanNanos());
+            }
+            return holdMeans;
+        }
+
+        public long getLeakCount() {
+            return pool.getLeakCount();
+        }
+
+        public int getSuspectedLeakCount() {
+            return pool.getSuspectedLeaks().size();
+        }
+
+        public void clearCounters() {
+            pool.clearCounters();
+        }
+    }
+
+    private ConnectionPoolJmx() {}
+}
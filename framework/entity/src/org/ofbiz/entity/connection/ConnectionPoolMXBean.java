@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.connection;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link MonitoredConnectionPool}, registered as
+ * <code>org.ofbiz:type=ConnectionPool,name=&lt;helper name&gt;</code>.
+ */
+public interface ConnectionPoolMXBean {
+
+    String getHelperName();
+
+    int getNumActive();
+
+    int getNumIdle();
+
+    int getMaxTotal();
+
+    long getBorrowCount();
+
+    long getBorrowTimeoutCount();
+
+    long getBorrowWaitMeanNanos();
+
+    long getBorrowWait99thPercentileNanos();
+
+    long getHoldMeanNanos();
+
+    long getHold99thPercentileNanos();
+
+    long getHoldMaxNanos();
+
+    /** Returns the mean connection hold time per owner (service name). */
+    Map<String, Long> getOwnerHoldMeanNanos();
+
+    long getLeakCount();
+
+    int getSuspectedLeakCount();
+
+    void clearCounters();
+}
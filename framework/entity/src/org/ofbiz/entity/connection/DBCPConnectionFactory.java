@@ -34,7 +34,6 @@ import org.apache.commons.dbcp2.managed.LocalXAConnectionFactory;
 import org.apache.commons.dbcp2.managed.ManagedDataSource;
 import org.apache.commons.dbcp2.managed.PoolableManagedConnectionFactory;
 import org.apache.commons.dbcp2.managed.XAConnectionFactory;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityConfException;
@@ -55,6 +54,7 @@ public class DBCPConnectionFactory implements ConnectionFactory {
 
     public static final String module = DBCPConnectionFactory.class.getName();
     protected static final ConcurrentHashMap<String, ManagedDataSource> dsCache = new ConcurrentHashMap<String, ManagedDataSource>();
+    protected static final ConcurrentHashMap<String, MonitoredConnectionPool> poolCache = new ConcurrentHashMap<String, MonitoredConnectionPool>();
 
     public Connection getConnection(GenericHelperInfo helperInfo, JdbcElement abstractJdbc) throws SQLException, GenericEntityException {
         String cacheKey = helperInfo.getHelperFullName();
@@ -106,6 +106,11 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         // create the pool object factory
         PoolableConnectionFactory factory = new PoolableManagedConnectionFactory(xacf, null);
         factory.setValidationQuery(jdbcElement.getPoolJdbcTestStmt());
+        if (jdbcElement.getPoolMaxPreparedStatements() > 0) {
+            // each statement pool is a commons-pool JMX bean, its created and borrowed counts give the hit ratio
+            factory.setPoolStatements(true);
+            factory.setMaxOpenPrepatedStatements(jdbcElement.getPoolMaxPreparedStatements());
+        }
         factory.setDefaultReadOnly(false);
         String transIso = jdbcElement.getIsolationLevel();
         if (!transIso.isEmpty()) {
@@ -141,7 +146,7 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         poolConfig.setTestOnReturn(jdbcElement.getTestOnReturn());
         poolConfig.setTestWhileIdle(jdbcElement.getTestWhileIdle());
 
-        GenericObjectPool pool = new GenericObjectPool(factory, poolConfig);
+        MonitoredConnectionPool pool = new MonitoredConnectionPool(cacheKey, factory, poolConfig, jdbcElement);
         factory.setPool(pool);
 
         mds = new ManagedDataSource(pool, xacf.getTransactionRegistry());
@@ -149,7 +154,10 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         mds.setAccessToUnderlyingConnectionAllowed(true);
 
         // cache the pool
-        dsCache.putIfAbsent(cacheKey, mds);
+        if (dsCache.putIfAbsent(cacheKey, mds) == null) {
+            poolCache.put(cacheKey, pool);
+            ConnectionPoolJmx.register(pool);
+        }
         mds = dsCache.get(cacheKey);
 
         return TransactionUtil.getCursorConnection(helperInfo, mds.getConnection());
@@ -159,6 +167,10 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         // no methods on the pool to shutdown; so just clearing for GC
         // Hmm... then how do we close the JDBC connections?
         dsCache.clear();
+        for (String helperName: poolCache.keySet()) {
+            ConnectionPoolJmx.unregister(helperName);
+        }
+        poolCache.clear();
     }
 
     public static Map<String, Object> getDataSourceInfo(String helperName) {
@@ -167,7 +179,16 @@ public class DBCPConnectionFactory implements ConnectionFactory {
         if (mds instanceof DebugManagedDataSource) {
             dataSourceInfo = ((DebugManagedDataSource)mds).getInfo();
         }
+        MonitoredConnectionPool pool = poolCache.get(helperName);
+        if (pool != null) {
+            dataSourceInfo.putAll(pool.getInfo());
+        }
         return dataSourceInfo;
     }
 
+    /** Returns the connection pool of the helper, or null if it was not created yet. */
+    public static MonitoredConnectionPool getConnectionPool(String helperName) {
+        return poolCache.get(helperName);
+    }
+
 }
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.connection;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.config.model.InlineJdbc;
+
+/**
+ * A connection pool that records how long threads wait for a connection and how long
+ * connections are held, in total and per owner (the service that borrowed the connection,
+ * see {@link #pushOwner(String)}).
+ * <p>If <code>pool-leak-threshold-millis</code> is set, connections held longer than that are
+ * logged together with the stack trace that borrowed them. If <code>pool-adaptive-maxsize</code>
+ * is greater than <code>pool-maxsize</code>, the maximum size of the pool is raised while threads
+ * wait for connections and lowered again when they no longer do.</p>
+ */
+public class MonitoredConnectionPool extends GenericObjectPool<PoolableConnection> {
+
+    public static final String module = MonitoredConnectionPool.class.getName();
+
+    /** How often leaks are looked for and the pool is resized, at most */
+    private static final long CHECK_INTERVAL_MILLIS = 10000;
+    /** The pool grows when the mean wait for a connection during the last interval reaches this */
+    private static final long GROW_WAIT_NANOS = 5000000;
+    /** The pool shrinks when the mean wait for a connection during the last interval stays below this */
+    private static final long SHRINK_WAIT_NANOS = 100000;
+
+    private static final ThreadLocal<List<String>> ownerStack = new ThreadLocal<List<String>>();
+
+    private final String helperName;
+    private final int baseMaxTotal;
+    private final int adaptiveMaxTotal;
+    private final long leakThresholdMillis;
+    private final LatencyHistogram borrowLatency;
+    private final LatencyHistogram holdTime;
+    private final ConcurrentMap<String, LatencyHistogram> ownerHoldTimes = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<PoolableConnection, Borrow> borrowed = new ConcurrentHashMap<PoolableConnection, Borrow>();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong nextCheckTime = new AtomicLong();
+    // the borrows since the last check, for the adaptive sizing
+    private final AtomicLong intervalBorrowCount = new AtomicLong();
+    private final AtomicLong intervalWaitNanos = new AtomicLong();
+    private final AtomicLong intervalTimeoutCount = new AtomicLong();
+    private final AtomicInteger intervalPeakActive = new AtomicInteger();
+
+    public MonitoredConnectionPool(String helperName, PoolableConnectionFactory factory, GenericObjectPoolConfig config, InlineJdbc jdbcElement) {
+        this(helperName, factory, config, jdbcElement.getPoolAdaptiveMaxsize(), jdbcElement.getPoolLeakThresholdMillis());
+    }
+
+    public MonitoredConnectionPool(String helperName, PoolableConnectionFactory factory, GenericObjectPoolConfig config, int adaptiveMaxTotal, long leakThresholdMillis) {
+        super(factory, config);
+        this.helperName = helperName;
+        this.baseMaxTotal = config.getMaxTotal();
+        this.adaptiveMaxTotal = adaptiveMaxTotal;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.borrowLatency = new LatencyHistogram(helperName + ".borrow");
+        this.holdTime = new LatencyHistogram(helperName + ".hold");
+    }
+
+    /**
+     * Sets the owner of the connections the current thread borrows until the matching
+     * {@link #popOwner()}; the service engine pushes the name of each service it runs.
+     */
+    public static void pushOwner(String owner) {
+        if (owner == null) {
+            return;
+        }
+        List<String> curValList = ownerStack.get();
+        if (curValList == null) {
+            curValList = new LinkedList<String>();
+            ownerStack.set(curValList);
+        }
+        curValList.add(0, owner);
+    }
+
+    public static String popOwner() {
+        List<String> curValList = ownerStack.get();
+        if (curValList == null || curValList.size() == 0) {
+            return null;
+        }
+        return curValList.remove(0);
+    }
+
+    public static String getOwner() {
+        List<String> curValList = ownerStack.get();
+        if (curValList == null || curValList.size() == 0) {
+            return null;
+        }
+        return curValList.get(0);
+    }
+
+    @Override
+    public PoolableConnection borrowObject(long borrowMaxWaitMillis) throws Exception {
+        long startNanos = System.nanoTime();
+        PoolableConnection connection;
+        try {
+            connection = super.borrowObject(borrowMaxWaitMillis);
+        } catch (NoSuchElementException e) {
+            borrowTimeoutCount.incrementAndGet();
+            intervalTimeoutCount.incrementAndGet();
+            check();
+            throw e;
+        }
+        long waitNanos = System.nanoTime() - startNanos;
+        borrowLatency.record(waitNanos);
+        intervalBorrowCount.incrementAndGet();
+        intervalWaitNanos.addAndGet(waitNanos);
+        int active = getNumActive();
+        int peakActive = intervalPeakActive.get();
+        while (active > peakActive && !intervalPeakActive.compareAndSet(peakActive, active)) {
+            peakActive = intervalPeakActive.get();
+        }
+        borrowed.put(connection, new Borrow(getOwner(), leakThresholdMillis > 0));
+        check();
+        return connection;
+    }
+
+    @Override
+    public void returnObject(PoolableConnection connection) {
+        released(connection);
+        super.returnObject(connection);
+    }
+
+    @Override
+    public void invalidateObject(PoolableConnection connection) throws Exception {
+        released(connection);
+        super.invalidateObject(connection);
+    }
+
+    private void released(PoolableConnection connection) {
+        Borrow borrow = borrowed.remove(connection);
+        if (borrow == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - borrow.startNanos;
+        holdTime.record(nanos);
+        if (borrow.owner != null) {
+            LatencyHistogram ownerHoldTime = ownerHoldTimes.get(borrow.owner);
+            if (ownerHoldTime == null) {
+                ownerHoldTime = new LatencyHistogram(borrow.owner);
+                LatencyHistogram existing = ownerHoldTimes.putIfAbsent(borrow.owner, ownerHoldTime);
+                if (existing != null) {
+                    ownerHoldTime = existing;
+                }
+            }
+            ownerHoldTime.record(nanos);
+        }
+        if (borrow.leakReported) {
+            Debug.logInfo("Connection of pool [" + helperName + "] reported as a possible leak was returned after " + nanos / 1000000 + " ms", module);
+        }
+    }
+
+    // Runs the leak detection and the adaptive sizing, at most once per interval.
+    private void check() {
+        long now = System.currentTimeMillis();
+        long nextCheck = nextCheckTime.get();
+        if (now < nextCheck || !nextCheckTime.compareAndSet(nextCheck, now + CHECK_INTERVAL_MILLIS)) {
+            return;
+        }
+        if (leakThresholdMillis > 0) {
+            for (Borrow borrow: borrowed.values()) {
+                if (!borrow.leakReported && now - borrow.startMillis > leakThresholdMillis) {
+                    borrow.leakReported = true;
+                    leakCount.incrementAndGet();
+                    Debug.logWarning(borrow.stackTrace, "Connection of pool [" + helperName + "] held for " + (now - borrow.startMillis) + " ms by thread [" + borrow.threadName + "]"
+                            + (borrow.owner != null ? " in service [" + borrow.owner + "]" : "") + ", possible connection leak", module);
+                }
+            }
+        }
+        if (adaptiveMaxTotal > baseMaxTotal) {
+            adaptMaxTotal();
+        }
+    }
+
+    private void adaptMaxTotal() {
+        long borrowCount = intervalBorrowCount.getAndSet(0);
+        long waitNanos = intervalWaitNanos.getAndSet(0);
+        long timeoutCount = intervalTimeoutCount.getAndSet(0);
+        int peakActive = intervalPeakActive.getAndSet(0);
+        long meanWaitNanos = borrowCount == 0 ? 0 : waitNanos / borrowCount;
+        int maxTotal = getMaxTotal();
+        int step = Math.max(1, (adaptiveMaxTotal - baseMaxTotal) / 5);
+        if ((timeoutCount > 0 || meanWaitNanos >= GROW_WAIT_NANOS) && maxTotal < adaptiveMaxTotal) {
+            int newMaxTotal = Math.min(maxTotal + step, adaptiveMaxTotal);
+            setMaxTotal(newMaxTotal);
+            Debug.logInfo("Raised the maximum size of pool [" + helperName + "] from " + maxTotal + " to " + newMaxTotal + "; mean wait " + meanWaitNanos / 1000 + " us, " + timeoutCount + " timeouts", module);
+        } else if (timeoutCount == 0 && meanWaitNanos < SHRINK_WAIT_NANOS && maxTotal > baseMaxTotal && peakActive <= maxTotal - step) {
+            int newMaxTotal = Math.max(maxTotal - step, baseMaxTotal);
+            setMaxTotal(newMaxTotal);
+            Debug.logInfo("Lowered the maximum size of pool [" + helperName + "] from " + maxTotal + " to " + newMaxTotal + "; at most " + peakActive + " connections were in use", module);
+        }
+    }
+
+    public String getHelperName() {
+        return helperName;
+    }
+
+    public LatencyHistogram getBorrowLatency() {
+        return borrowLatency;
+    }
+
+    public LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    /** Returns the connection hold times per owner, sorted by owner. */
+    public Map<String, LatencyHistogram> getOwnerHoldTimes() {
+        return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(ownerHoldTimes));
+    }
+
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.get();
+    }
+
+    /** Returns how many connections were reported as possible leaks. */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * Returns the connections currently held longer than <code>pool-leak-threshold-millis</code>,
+     * longest held first; empty if leak detection is off.
+     */
+    public List<Map<String, Object>> getSuspectedLeaks() {
+        List<Map<String, Object>> leaks = new ArrayList<Map<String, Object>>();
+        if (leakThresholdMillis <= 0) {
+            return leaks;
+        }
+        long now = System.currentTimeMillis();
+        List<Borrow> borrows = new ArrayList<Borrow>(borrowed.values());
+        Collections.sort(borrows);
+        for (Borrow borrow: borrows) {
+            long heldMillis = now - borrow.startMillis;
+            if (heldMillis <= leakThresholdMillis) {
+                break;
+            }
+            Map<String, Object> leak = new HashMap<String, Object>();
+            leak.put("owner", borrow.owner);
+            leak.put("threadName", borrow.threadName);
+            leak.put("heldMillis", heldMillis);
+            StringWriter stackTrace = new StringWriter();
+            borrow.stackTrace.printStackTrace(new PrintWriter(stackTrace));
+            leak.put("stackTrace", stackTrace.toString());
+            leaks.add(leak);
+        }
+        return leaks;
+    }
+
+    /** Returns the pool state and metrics, with the keys used by the webtools connection pool page. */
+    public Map<String, Object> getInfo() {
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("poolNumActive", getNumActive());
+        info.put("poolNumIdle", getNumIdle());
+        info.put("poolNumTotal", getNumActive() + getNumIdle());
+        info.put("poolMaxActive", getMaxTotal());
+        info.put("poolMaxIdle", getMaxIdle());
+        info.put("poolMaxWait", getMaxWaitMillis());
+        info.put("poolMinEvictableIdleTimeMillis", getMinEvictableIdleTimeMillis());
+        info.put("poolMinIdle", getMinIdle());
+        info.put("borrowCount", borrowLatency.getCount());
+        info.put("borrowTimeoutCount", getBorrowTimeoutCount());
+        info.put("borrowWaitMeanMillis", toMillis(borrowLatency.getMeanNanos()));
+        info.put("borrowWait99Millis", toMillis(borrowLatency.getPercentileNanos(99.0)));
+        info.put("holdMeanMillis", toMillis(holdTime.getMeanNanos()));
+        info.put("hold99Millis", toMillis(holdTime.getPercentileNanos(99.0)));
+        info.put("holdMaxMillis", toMillis(holdTime.getMaxNanos()));
+        info.put("leakCount", getLeakCount());
+        return info;
+    }
+
+    public void clearCounters() {
+        borrowLatency.reset();
+        holdTime.reset();
+        ownerHoldTimes.clear();
+        borrowTimeoutCount.set(0);
+        leakCount.set(0);
+    }
+
+    static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static final class Borrow implements Comparable<Borrow> {
+        private final long startNanos = System.nanoTime();
+        private final long startMillis = System.currentTimeMillis();
+        private final String owner;
+        private final String threadName;
+        private final Throwable stackTrace;
+        private volatile boolean leakReported;
+
+        private Borrow(String owner, boolean recordStackTrace) {
+            this.owner = owner;
+            this.threadName = Thread.currentThread().getName();
+            this.stackTrace = recordStackTrace ? new Throwable("Connection borrowed here") : null;
+        }
+
+        public int compareTo(Borrow other) {
+            return startMillis < other.startMillis ? -1 : (startMillis == other.startMillis ? 0 : 1);
+        }
+    }
+}
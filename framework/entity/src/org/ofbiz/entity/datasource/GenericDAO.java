@@ -20,12 +20,15 @@ package org.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.EntityLockedException;
 import org.ofbiz.entity.GenericDataSourceException;
@@ -72,9 +76,15 @@ public class GenericDAO {
 
     private static final ConcurrentHashMap<String, GenericDAO> genericDAOs = new ConcurrentHashMap<String, GenericDAO>();
     private static final ThreadGroup GENERIC_DAO_THREAD_GROUP = new ThreadGroup("GenericDAO");
+    // update statements are keyed by the fields changed, so bound the number of statements kept
+    private static final int SQL_CACHE_MAX_SIZE = 10000;
+    /** The maximum number of rows written with one JDBC batch, or read with one select by primary keys. */
+    public static final int BATCH_SIZE = 500;
     private final GenericHelperInfo helperInfo;
     private final ModelFieldTypeReader modelFieldTypeReader;
     private final Datasource datasource;
+    // SQL of the primary key statements, keyed by makeSqlKey; see the entity.GenericDAO.sql.* cache for its hit ratio
+    private final UtilCache<String, String> sqlCache;
 
     public static GenericDAO getGenericDAO(GenericHelperInfo helperInfo) {
         String cacheKey = helperInfo.getHelperFullName();
@@ -90,6 +100,36 @@ public class GenericDAO {
         this.helperInfo = helperInfo;
         this.modelFieldTypeReader = ModelFieldTypeReader.getModelFieldTypeReader(helperInfo.getHelperBaseName());
         this.datasource = EntityConfig.getDatasource(helperInfo.getHelperBaseName());
+        this.sqlCache = UtilCache.getOrCreateUtilCache("entity.GenericDAO.sql." + helperInfo.getHelperFullName(), SQL_CACHE_MAX_SIZE, 0, 0, false, false);
+    }
+
+    /**
+     * Returns the key of the generated SQL of a statement on one row of a (non-view) entity: the SQL only
+     * depends on the operation, the fields used and which primary key fields are null (IS NULL instead of a parameter).
+     * Returns null for view entities, whose SQL is not cached since dynamic view entities can share a name.
+     */
+    private static String makeSqlKey(String operation, ModelEntity modelEntity, List<ModelField> fields, GenericEntity entity) {
+        if (modelEntity instanceof ModelViewEntity) {
+            return null;
+        }
+        StringBuilder sqlKey = new StringBuilder(operation).append(':').append(modelEntity.getEntityName());
+        if (fields != null) {
+            for (ModelField field: fields) {
+                sqlKey.append(',').append(field.getName());
+            }
+        }
+        if (entity != null) {
+            int index = 0;
+            Iterator<ModelField> pksIter = modelEntity.getPksIterator();
+            while (pksIter.hasNext()) {
+                Object pkValue = entity.dangerousGetNoCheckButFast(pksIter.next());
+                if (pkValue == null || pkValue == GenericEntity.NULL_FIELD) {
+                    sqlKey.append('!').append(index);
+                }
+                index++;
+            }
+        }
+        return sqlKey.toString();
     }
 
     private void addFieldIfMissing(List<ModelField> fieldsToSave, String fieldName, ModelEntity modelEntity) {
@@ -127,6 +167,25 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
+        setCreateStamps(entity, modelEntity, fieldsToSave);
+
+        String sql = makeInsertSql(modelEntity, fieldsToSave);
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            int retVal = sqlP.executeUpdate();
+
+            entity.synchronizedWithDatasource();
+            return retVal;
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    private void setCreateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -159,28 +218,101 @@ public class GenericDAO {
                 addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
             }
         }
+    }
 
+    private String makeInsertSql(ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        String sqlKey = makeSqlKey("insert", modelEntity, fieldsToSave, null);
+        String sql = sqlKey != null ? sqlCache.get(sqlKey) : null;
+        if (sql != null) {
+            return sql;
+        }
         StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
 
         modelEntity.colNameString(fieldsToSave, sqlB, "");
         sqlB.append(") VALUES (");
         modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
-        String sql = sqlB.append(")").toString();
+        sql = sqlB.append(")").toString();
+        if (sqlKey != null) {
+            sqlCache.put(sqlKey, sql);
+        }
+        return sql;
+    }
 
-        try {
-            sqlP.prepareStatement(sql);
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            int retVal = sqlP.executeUpdate();
+    /**
+     * Inserts the entities with JDBC batches of up to {@link #BATCH_SIZE} rows.
+     * The entities must all be of the same entity.
+     *@return the number of rows inserted
+     */
+    public int insertBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+        if (modelEntity instanceof ModelViewEntity) {
+            int retVal = 0;
+            for (GenericEntity entity: entities) {
+                retVal += insert(entity);
+            }
+            return retVal;
+        }
 
-            entity.synchronizedWithDatasource();
+        List<ModelField> fieldsToSave = modelEntity.getFieldsUnmodifiable();
+        SQLProcessor sqlP = new SQLProcessor(entities.get(0).getDelegator(), helperInfo);
+        try {
+            sqlP.prepareStatement(makeInsertSql(modelEntity, fieldsToSave));
+            int retVal = 0;
+            int batched = 0;
+            for (GenericEntity entity: entities) {
+                checkEntityName(modelEntity, entity);
+                setCreateStamps(entity, modelEntity, fieldsToSave);
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    retVal += countRows(sqlP.executeBatch(), false);
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                retVal += countRows(sqlP.executeBatch(), false);
+            }
+            for (GenericEntity entity: entities) {
+                entity.synchronizedWithDatasource();
+            }
             return retVal;
         } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+            sqlP.rollback();
+            throw new GenericEntityException("Error while inserting a batch of " + entities.size() + " " + modelEntity.getEntityName() + " values", e);
         } finally {
             sqlP.close();
         }
     }
 
+    private static void checkEntityName(ModelEntity modelEntity, GenericEntity entity) throws GenericModelException {
+        if (!modelEntity.getEntityName().equals(entity.getEntityName())) {
+            throw new GenericModelException("Cannot write a " + entity.getEntityName() + " value in a batch of " + modelEntity.getEntityName() + " values");
+        }
+    }
+
+    // Adds up the update counts of a batch, a count of 0 means the row to update was not found.
+    private static int countRows(int[] updateCounts, boolean update) throws GenericEntityException {
+        int rows = 0;
+        for (int updateCount: updateCounts) {
+            if (updateCount == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            } else if (updateCount == Statement.EXECUTE_FAILED) {
+                throw new GenericDataSourceException("A statement in the batch failed", null);
+            } else if (updateCount == 0 && update) {
+                throw new GenericEntityNotFoundException("Tried to update an entity that does not exist");
+            } else {
+                rows += updateCount;
+            }
+        }
+        return rows;
+    }
+
     public int updateAll(GenericEntity entity) throws GenericEntityException {
         ModelEntity modelEntity = entity.getModelEntity();
 
@@ -251,6 +383,29 @@ public class GenericDAO {
             }
         }
 
+        setUpdateStamps(entity, modelEntity, fieldsToSave);
+
+        int retVal = 0;
+
+        try {
+            sqlP.prepareStatement(makeUpdateSql(modelEntity, fieldsToSave, entity));
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+            retVal = sqlP.executeUpdate();
+            entity.synchronizedWithDatasource();
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+        } finally {
+            sqlP.close();
+        }
+
+        if (retVal == 0) {
+            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
+        }
+        return retVal;
+    }
+
+    private void setUpdateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -265,30 +420,104 @@ public class GenericDAO {
             entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
             addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
         }
+    }
 
-        StringBuilder sql = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
-        modelEntity.colNameString(fieldsToSave, sql, "", "=?, ", "=?", false);
-        sql.append(" WHERE ");
-        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+    private String makeUpdateSql(ModelEntity modelEntity, List<ModelField> fieldsToSave, GenericEntity entity) {
+        String sqlKey = makeSqlKey("update", modelEntity, fieldsToSave, entity);
+        String sql = sqlKey != null ? sqlCache.get(sqlKey) : null;
+        if (sql != null) {
+            return sql;
+        }
+        StringBuilder sqlB = new StringBuilder().append("UPDATE ").append(modelEntity.getTableName(datasource)).append(" SET ");
+        modelEntity.colNameString(fieldsToSave, sqlB, "", "=?, ", "=?", false);
+        sqlB.append(" WHERE ");
+        SqlJdbcUtil.makeWhereStringFromFields(sqlB, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        sql = sqlB.toString();
+        if (sqlKey != null) {
+            sqlCache.put(sqlKey, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Updates the entities with JDBC batches of up to {@link #BATCH_SIZE} rows. Like {@link #update(GenericEntity)},
+     * only the non-primary key fields that are in an entity are updated; entities that update the same fields
+     * share a batch. The entities must all be of the same entity.
+     *@return the number of rows updated
+     */
+    public int updateBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+        if (modelEntity instanceof ModelViewEntity || modelEntity.lock()) {
+            // optimistic locking needs a select for each entity anyway
+            int retVal = 0;
+            for (GenericEntity entity: entities) {
+                retVal += update(entity);
+            }
+            return retVal;
+        }
 
+        // group the entities by the fields they update
+        Map<List<ModelField>, List<GenericEntity>> batches = new LinkedHashMap<List<ModelField>, List<GenericEntity>>();
         int retVal = 0;
+        for (GenericEntity entity: entities) {
+            checkEntityName(modelEntity, entity);
+            List<ModelField> fieldsToSave = new ArrayList<ModelField>();
+            Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
+            while (nopkIter.hasNext()) {
+                ModelField curField = nopkIter.next();
+                if (entity.containsKey(curField.getName())) {
+                    fieldsToSave.add(curField);
+                }
+            }
+            if (fieldsToSave.isEmpty()) {
+                // same as update: nothing to do, but effectively updated
+                retVal++;
+                continue;
+            }
+            setUpdateStamps(entity, modelEntity, fieldsToSave);
+            List<GenericEntity> batch = batches.get(fieldsToSave);
+            if (batch == null) {
+                batch = new ArrayList<GenericEntity>();
+                batches.put(fieldsToSave, batch);
+            }
+            batch.add(entity);
+        }
 
+        SQLProcessor sqlP = new SQLProcessor(entities.get(0).getDelegator(), helperInfo);
         try {
-            sqlP.prepareStatement(sql.toString());
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
-            retVal = sqlP.executeUpdate();
-            entity.synchronizedWithDatasource();
+            for (Map.Entry<List<ModelField>, List<GenericEntity>> entry: batches.entrySet()) {
+                List<ModelField> fieldsToSave = entry.getKey();
+                sqlP.prepareStatement(makeUpdateSql(modelEntity, fieldsToSave, entry.getValue().get(0)));
+                int batched = 0;
+                for (GenericEntity entity: entry.getValue()) {
+                    SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                    SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                    sqlP.addBatch();
+                    if (++batched == BATCH_SIZE) {
+                        retVal += countRows(sqlP.executeBatch(), true);
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) {
+                    retVal += countRows(sqlP.executeBatch(), true);
+                }
+                for (GenericEntity entity: entry.getValue()) {
+                    entity.synchronizedWithDatasource();
+                }
+            }
+            return retVal;
         } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while updating: " + entity.toString(), e);
+            sqlP.rollback();
+            throw new GenericEntityException("Error while updating a batch of " + entities.size() + " " + modelEntity.getEntityName() + " values", e);
         } finally {
             sqlP.close();
         }
-
-        if (retVal == 0) {
-            throw new GenericEntityNotFoundException("Tried to update an entity that does not exist, entity: " + entity.toString());
-        }
-        return retVal;
     }
 
     public int updateByCondition(Delegator delegator, ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
@@ -506,19 +735,27 @@ public class GenericDAO {
             throw new GenericEntityException("Entity has no primary keys, cannot select by primary key");
         }
 
-        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
+        String sqlKey = makeSqlKey("select", modelEntity, null, entity);
+        String sql = sqlKey != null ? sqlCache.get(sqlKey) : null;
+        if (sql == null) {
+            StringBuilder sqlBuffer = new StringBuilder("SELECT ");
 
-        if (modelEntity.getNopksSize() > 0) {
-            modelEntity.colNameString(modelEntity.getNopksCopy(), sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
-        } else {
-            sqlBuffer.append("*");
-        }
+            if (modelEntity.getNopksSize() > 0) {
+                modelEntity.colNameString(modelEntity.getNopksCopy(), sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+            } else {
+                sqlBuffer.append("*");
+            }
 
-        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
-        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+            sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
+            sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+            sql = sqlBuffer.toString();
+            if (sqlKey != null) {
+                sqlCache.put(sqlKey, sql);
+            }
+        }
 
         try {
-            sqlP.prepareStatement(sqlBuffer.toString(), true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             sqlP.executeQuery();
 
@@ -576,20 +813,28 @@ public class GenericDAO {
             throw new GenericModelException("In partialSelect invalid field names specified: " + tempKeys.toString());
         }
 
-        StringBuilder sqlBuffer = new StringBuilder("SELECT ");
+        String sqlKey = makeSqlKey("partialSelect", modelEntity, partialFields, entity);
+        String sql = sqlKey != null ? sqlCache.get(sqlKey) : null;
+        if (sql == null) {
+            StringBuilder sqlBuffer = new StringBuilder("SELECT ");
 
-        if (partialFields.size() > 0) {
-            modelEntity.colNameString(partialFields, sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
-        } else {
-            sqlBuffer.append("*");
+            if (partialFields.size() > 0) {
+                modelEntity.colNameString(partialFields, sqlBuffer, "", ", ", "", datasource.getAliasViewColumns());
+            } else {
+                sqlBuffer.append("*");
+            }
+            sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
+            sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
+            sql = sqlBuffer.toString();
+            if (sqlKey != null) {
+                sqlCache.put(sqlKey, sql);
+            }
         }
-        sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, modelFieldTypeReader, datasource));
-        sqlBuffer.append(SqlJdbcUtil.makeWhereClause(modelEntity, modelEntity.getPkFieldsUnmodifiable(), entity, "AND", datasource.getJoinStyle()));
 
         SQLProcessor sqlP = new SQLProcessor(entity.getDelegator(), helperInfo);
 
         try {
-            sqlP.prepareStatement(sqlBuffer.toString(), true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             sqlP.executeQuery();
 
@@ -759,8 +1004,14 @@ public class GenericDAO {
         String sql = sqlBuffer.toString();
 
         SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo);
-        sqlP.prepareStatement(sql, findOptions.getSpecifyTypeAndConcur(), findOptions.getResultSetType(),
-                findOptions.getResultSetConcurrency(), findOptions.getFetchSize(), findOptions.getMaxRows());
+        if (findOptions.getStreaming()) {
+            // a scrollable or updatable cursor makes most drivers read the whole result up front
+            int fetchSize = findOptions.getFetchSize() > 0 ? findOptions.getFetchSize() : datasource.getResultStreamFetchSize();
+            sqlP.prepareStatement(sql, true, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, fetchSize, findOptions.getMaxRows());
+        } else {
+            sqlP.prepareStatement(sql, findOptions.getSpecifyTypeAndConcur(), findOptions.getResultSetType(),
+                    findOptions.getResultSetConcurrency(), findOptions.getFetchSize(), findOptions.getMaxRows());
+        }
 
         if (verboseOn) {
             // put this inside an if statement so that we don't have to generate the string when not used...
@@ -1164,13 +1415,21 @@ public class GenericDAO {
             throw new org.ofbiz.entity.GenericNotImplementedException("Operation delete not supported yet for view entities");
         }
 
-        StringBuilder sql = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
-        SqlJdbcUtil.makeWhereStringFromFields(sql, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+        String sqlKey = makeSqlKey("delete", modelEntity, null, entity);
+        String sql = sqlKey != null ? sqlCache.get(sqlKey) : null;
+        if (sql == null) {
+            StringBuilder sqlBuffer = new StringBuilder().append("DELETE FROM ").append(modelEntity.getTableName(datasource)).append(" WHERE ");
+            SqlJdbcUtil.makeWhereStringFromFields(sqlBuffer, modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
+            sql = sqlBuffer.toString();
+            if (sqlKey != null) {
+                sqlCache.put(sqlKey, sql);
+            }
+        }
 
         int retVal;
 
         try {
-            sqlP.prepareStatement(sql.toString());
+            sqlP.prepareStatement(sql);
             SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
             retVal = sqlP.executeUpdate();
             entity.removedFromDatasource();
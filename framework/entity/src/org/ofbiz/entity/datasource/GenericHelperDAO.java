@@ -18,18 +18,23 @@
  *******************************************************************************/
 package org.ofbiz.entity.datasource;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.util.EntityFindOptions;
@@ -43,6 +48,9 @@ public class GenericHelperDAO implements GenericHelper {
 
     public static final String module = GenericHelperDAO.class.getName();
 
+    /** How many primary keys are looked up with one query in findAllByPrimaryKeys */
+    private static final int FIND_BY_PRIMARY_KEYS_BATCH_SIZE = 200;
+
     protected GenericDAO genericDAO;
     protected GenericHelperInfo helperInfo;
 
@@ -67,6 +75,17 @@ public class GenericHelperDAO implements GenericHelper {
         return value;
     }
 
+    /** Creates a number of Entities of the same entity, all at once
+     *@param values List of GenericValue instances of the same entity
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (UtilValidate.isEmpty(values)) {
+            return 0;
+        }
+        return genericDAO.insertBatch(values);
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -99,15 +118,59 @@ public class GenericHelperDAO implements GenericHelper {
     /** Find a number of Generic Value objects by their Primary Keys, all at once
      * This is done here for the DAO GenericHelper; for a client-server helper it
      * would be done on the server side to reduce network round trips.
+     * The keys are grouped by entity and each group is queried in batches of
+     * up to 200 keys, with an IN condition for single field primary keys.
      *@param primaryKeys A List of primary keys to find by.
      *@return List of GenericValue objects corresponding to the passed primaryKey objects
      */
     public List<GenericValue> findAllByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
         if (primaryKeys == null) return null;
-        List<GenericValue> results = new LinkedList<GenericValue>();
+        Map<String, List<GenericPK>> keysByEntity = new LinkedHashMap<String, List<GenericPK>>();
+        for (GenericPK primaryKey: primaryKeys) {
+            List<GenericPK> entityKeys = keysByEntity.get(primaryKey.getEntityName());
+            if (entityKeys == null) {
+                entityKeys = new ArrayList<GenericPK>();
+                keysByEntity.put(primaryKey.getEntityName(), entityKeys);
+            }
+            entityKeys.add(primaryKey);
+        }
 
+        Map<GenericPK, GenericValue> found = new HashMap<GenericPK, GenericValue>();
+        for (List<GenericPK> entityKeys: keysByEntity.values()) {
+            for (int start = 0; start < entityKeys.size(); start += FIND_BY_PRIMARY_KEYS_BATCH_SIZE) {
+                List<GenericPK> batch = entityKeys.subList(start, Math.min(start + FIND_BY_PRIMARY_KEYS_BATCH_SIZE, entityKeys.size()));
+                GenericPK firstKey = batch.get(0);
+                ModelEntity modelEntity = firstKey.getModelEntity();
+                EntityCondition condition;
+                if (modelEntity.getPksSize() == 1) {
+                    String pkFieldName = modelEntity.getOnlyPk().getName();
+                    List<Object> pkValues = new ArrayList<Object>(batch.size());
+                    for (GenericPK primaryKey: batch) {
+                        pkValues.add(primaryKey.get(pkFieldName));
+                    }
+                    condition = EntityCondition.makeCondition(pkFieldName, EntityOperator.IN, pkValues);
+                } else {
+                    List<EntityCondition> pkConditions = new ArrayList<EntityCondition>(batch.size());
+                    for (GenericPK primaryKey: batch) {
+                        pkConditions.add(EntityCondition.makeCondition(primaryKey.getAllFields()));
+                    }
+                    condition = EntityCondition.makeCondition(pkConditions, EntityOperator.OR);
+                }
+                EntityListIterator eli = genericDAO.selectListIteratorByCondition(firstKey.getDelegator(), modelEntity, condition, null, null, null, null);
+                try {
+                    GenericValue value;
+                    while ((value = eli.next()) != null) {
+                        found.put(value.getPrimaryKey(), value);
+                    }
+                } finally {
+                    eli.close();
+                }
+            }
+        }
+
+        List<GenericValue> results = new LinkedList<GenericValue>();
         for (GenericPK primaryKey: primaryKeys) {
-            GenericValue result = this.findByPrimaryKey(primaryKey);
+            GenericValue result = found.get(primaryKey);
 
             if (result != null) results.add(result);
         }
@@ -172,6 +235,17 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.update(value);
     }
 
+    /** Stores a number of Entities of the same entity, all at once
+     *@param values List of GenericValue instances of the same entity
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        if (UtilValidate.isEmpty(values)) {
+            return 0;
+        }
+        return genericDAO.updateBatch(values);
+    }
+
     /** Updates a group of values in a single pass.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param fieldsToSet The fields of the named entity to set in the database
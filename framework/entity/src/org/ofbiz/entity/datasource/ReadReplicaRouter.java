@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.datasource;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.config.model.GroupMap;
+import org.ofbiz.entity.config.model.ReadReplica;
+import org.ofbiz.entity.jdbc.SQLProcessor;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+
+/**
+ * Picks the datasource for the reads of an entity group that has <code>&lt;read-replica&gt;</code> elements.
+ * <p>The replicas are used in turn, skipping the ones whose lag is over their <code>max-lag-seconds</code>.
+ * No replica is used in a transaction that has written: the delegator calls {@link #transactionWritten()} before
+ * each write, and the reads of that transaction go to the group's datasource until it completes.</p>
+ */
+@ThreadSafe
+public final class ReadReplicaRouter {
+
+    public static final String module = ReadReplicaRouter.class.getName();
+    private static final long LAG_CHECK_INTERVAL = 1000;
+
+    // the transactions that have written, removed when they complete
+    private static final Set<Transaction> writtenTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Transaction, Boolean>());
+    private static volatile boolean replicasConfigured = false;
+
+    private final Delegator delegator;
+    private final List<Replica> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReadReplicaRouter(Delegator delegator, GroupMap groupMap) {
+        this.delegator = delegator;
+        List<Replica> replicas = new ArrayList<Replica>(groupMap.getReadReplicaList().size());
+        for (ReadReplica readReplica : groupMap.getReadReplicaList()) {
+            replicas.add(new Replica(readReplica, new GenericHelperInfo(groupMap.getGroupName(), readReplica.getDatasourceName())));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+        replicasConfigured = true;
+    }
+
+    /**
+     * Records that the current transaction writes, so its reads are not routed to a replica that would not see
+     * the changes. Does nothing when there is no transaction or no replica is configured.
+     */
+    public static void transactionWritten() {
+        if (!replicasConfigured) {
+            return;
+        }
+        final Transaction tx = getTransaction();
+        if (tx == null || !writtenTransactions.add(tx)) {
+            return;
+        }
+        try {
+            tx.registerSynchronization(new Synchronization() {
+                public void beforeCompletion() {
+                }
+
+                public void afterCompletion(int status) {
+                    writtenTransactions.remove(tx);
+                }
+            });
+        } catch (RollbackException e) {
+            // the transaction is rolling back, nothing will be read in it anymore
+            writtenTransactions.remove(tx);
+        } catch (SystemException e) {
+            writtenTransactions.remove(tx);
+            Debug.logWarning(e, "Could not track the writes of the current transaction, its reads will not use read replicas", module);
+        } catch (IllegalStateException e) {
+            writtenTransactions.remove(tx);
+        }
+    }
+
+    private static Transaction getTransaction() {
+        TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+        if (tm == null) {
+            return null;
+        }
+        try {
+            return tm.getTransaction();
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction", module);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the helper info of the replica to read from, or null if the read must go to the group's datasource
+     * because the current transaction has written or no replica is within its lag limit.
+     */
+    public GenericHelperInfo getReplicaHelperInfo() {
+        if (!writtenTransactions.isEmpty()) {
+            Transaction tx = getTransaction();
+            if (tx != null && writtenTransactions.contains(tx)) {
+                return null;
+            }
+        }
+        int size = replicas.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isUsable()) {
+                return replica.helperInfo;
+            }
+        }
+        return null;
+    }
+
+    private final class Replica {
+        private final ReadReplica config;
+        private final GenericHelperInfo helperInfo;
+        private final AtomicLong nextLagCheck = new AtomicLong();
+        private volatile boolean withinLag = true;
+
+        private Replica(ReadReplica config, GenericHelperInfo helperInfo) {
+            this.config = config;
+            this.helperInfo = helperInfo;
+        }
+
+        private boolean isUsable() {
+            if (config.getLagQuery().isEmpty()) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            long checkAt = nextLagCheck.get();
+            // only one thread runs the lag query, the others use the last result
+            if (now >= checkAt && nextLagCheck.compareAndSet(checkAt, now + LAG_CHECK_INTERVAL)) {
+                withinLag = checkLag();
+            }
+            return withinLag;
+        }
+
+        private boolean checkLag() {
+            SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo);
+            try {
+                ResultSet rs = sqlP.executeQuery(config.getLagQuery());
+                if (rs.next()) {
+                    double lag = rs.getDouble(1);
+                    if (!rs.wasNull()) {
+                        if (lag > config.getMaxLagSeconds()) {
+                            if (withinLag) {
+                                Debug.logWarning("Read replica " + config.getDatasourceName() + " is " + lag + " seconds behind, reading from the primary datasource", module);
+                            }
+                            return false;
+                        }
+                        return true;
+                    }
+                }
+                Debug.logWarning("The lag query of read replica " + config.getDatasourceName() + " returned no value, reading from the primary datasource", module);
+                return false;
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Could not get the lag of read replica " + config.getDatasourceName() + ", reading from the primary datasource", module);
+                return false;
+            } catch (SQLException e) {
+                Debug.logWarning(e, "Could not get the lag of read replica " + config.getDatasourceName() + ", reading from the primary datasource", module);
+                return false;
+            } finally {
+                try {
+                    sqlP.close();
+                } catch (GenericEntityException e) {
+                    Debug.logWarning(e, module);
+                }
+            }
+        }
+    }
+}
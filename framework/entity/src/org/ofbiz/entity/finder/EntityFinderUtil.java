@@ -39,6 +39,7 @@ import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.base.util.collections.FlexibleMapAccessor;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
+import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityComparisonOperator;
@@ -455,6 +456,64 @@ public class EntityFinderUtil {
         }
     }
 
+    /**
+     * Keyset pagination: reads the <code>view-size</code> rows that come after the order by field
+     * values in the <code>after</code> Map, or the first rows when there is no Map.
+     */
+    @SuppressWarnings("serial")
+    public static class SeekView implements OutputHandler {
+        FlexibleMapAccessor<Map<String, Object>> afterAcsr;
+        FlexibleStringExpander viewSizeExdr;
+
+        public SeekView(Element seekViewElement) {
+            this.afterAcsr = FlexibleMapAccessor.getInstance(seekViewElement.getAttribute("after"));
+            this.viewSizeExdr = FlexibleStringExpander.getInstance(seekViewElement.getAttribute("view-size"));
+        }
+
+        /** Returns the values to seek after, converted to the field types of the entity, or null for the first page. */
+        Map<String, Object> getAfter(Map<String, Object> context, ModelEntity modelEntity, Delegator delegator) {
+            Map<String, Object> after = this.afterAcsr.get(context);
+            if (UtilValidate.isEmpty(after)) {
+                return null;
+            }
+            Map<String, Object> lastValues = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> entry: after.entrySet()) {
+                if (modelEntity.isField(entry.getKey())) {
+                    lastValues.put(entry.getKey(), modelEntity.convertFieldValue(entry.getKey(), entry.getValue(), delegator));
+                }
+            }
+            return lastValues;
+        }
+
+        int getSize(Map<String, Object> context) {
+            String viewSizeStr = this.viewSizeExdr.expandString(context);
+            try {
+                return Integer.parseInt(viewSizeStr);
+            } catch (NumberFormatException e) {
+                String errMsg = "The seek-view view-size number \"" + viewSizeStr + "\" was not valid: " + e.toString();
+                Debug.logError(e, errMsg, module);
+                throw new IllegalArgumentException(errMsg);
+            }
+        }
+
+        public void handleOutput(EntityListIterator eli, Map<String, Object> context, FlexibleMapAccessor<Object> listAcsr) {
+            int size = this.getSize(context);
+            try {
+                listAcsr.put(context, eli.getPartialList(1, size));
+                eli.close();
+            } catch (GenericEntityException e) {
+                String errMsg = "Error getting partial list in seek-view with size=" + size + ": " + e.toString();
+                Debug.logError(e, errMsg, module);
+                throw new IllegalArgumentException(errMsg);
+            }
+        }
+
+        public void handleOutput(List<GenericValue> results, Map<String, Object> context, FlexibleMapAccessor<Object> listAcsr) {
+            int size = this.getSize(context);
+            listAcsr.put(context, results.size() > size ? results.subList(0, size) : results);
+        }
+    }
+
     @SuppressWarnings("serial")
     public static class UseIterator implements OutputHandler {
         public UseIterator(Element useIteratorElement) {
@@ -36,10 +36,12 @@ import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.OrderByList;
 import org.ofbiz.entity.finder.EntityFinderUtil.GetAll;
 import org.ofbiz.entity.finder.EntityFinderUtil.LimitRange;
 import org.ofbiz.entity.finder.EntityFinderUtil.LimitView;
 import org.ofbiz.entity.finder.EntityFinderUtil.OutputHandler;
+import org.ofbiz.entity.finder.EntityFinderUtil.SeekView;
 import org.ofbiz.entity.finder.EntityFinderUtil.UseIterator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelFieldTypeReader;
@@ -95,17 +97,26 @@ public abstract class ListFinder extends Finder {
             }
         }
 
-        // process limit-range | limit-view | use-iterator
+        // process limit-range | limit-view | seek-view | use-iterator
         Element limitRangeElement = UtilXml.firstChildElement(element, "limit-range");
         Element limitViewElement = UtilXml.firstChildElement(element, "limit-view");
+        Element seekViewElement = UtilXml.firstChildElement(element, "seek-view");
         Element useIteratorElement = UtilXml.firstChildElement(element, "use-iterator");
-        if ((limitRangeElement != null && limitViewElement != null) || (limitRangeElement != null && useIteratorElement != null) || (limitViewElement != null && useIteratorElement != null)) {
-            throw new IllegalArgumentException("In entity find by " + label + " element, cannot have more than one of the following: limit-range, limit-view, " + label + " use-iterator");
+        int outputElementCount = 0;
+        for (Element outputElement: UtilMisc.toList(limitRangeElement, limitViewElement, seekViewElement, useIteratorElement)) {
+            if (outputElement != null) {
+                outputElementCount++;
+            }
+        }
+        if (outputElementCount > 1) {
+            throw new IllegalArgumentException("In entity find by " + label + " element, cannot have more than one of the following: limit-range, limit-view, seek-view, use-iterator");
         }
         if (limitRangeElement != null) {
             outputHandler = new LimitRange(limitRangeElement);
         } else if (limitViewElement != null) {
             outputHandler = new LimitView(limitViewElement);
+        } else if (seekViewElement != null) {
+            outputHandler = new SeekView(seekViewElement);
         } else if (useIteratorElement != null) {
             outputHandler = new UseIterator(useIteratorElement);
         } else {
@@ -178,6 +189,20 @@ public abstract class ListFinder extends Finder {
                 }
             }
 
+            if (outputHandler instanceof SeekView) {
+                // order by the primary key last so the order is total, then start after the last value of the previous page
+                orderByFields = OrderByList.addMissingOrderBy(orderByFields, modelEntity.getPkFieldNames());
+                Map<String, Object> lastValues = ((SeekView) outputHandler).getAfter(context, modelEntity, delegator);
+                if (lastValues != null) {
+                    EntityCondition seekCondition = new OrderByList(orderByFields).makeSeekCondition(delegator, lastValues);
+                    if (whereEntityCondition != null) {
+                        whereEntityCondition = EntityCondition.makeCondition(UtilMisc.toList(whereEntityCondition, seekCondition));
+                    } else {
+                        whereEntityCondition = seekCondition;
+                    }
+                }
+            }
+
             if (useCache) {
                 List<GenericValue> results = delegator.findList(entityName, whereEntityCondition, fieldsToSelect, orderByFields, null, true);
                 if (filterByDate) {
@@ -205,6 +230,8 @@ public abstract class ListFinder extends Finder {
                     int index = limitView.getIndex(context);
                     int size = limitView.getSize(context);
                     options.setMaxRows(size * (index + 1));
+                } else if (outputHandler instanceof SeekView) {
+                    options.setMaxRows(((SeekView) outputHandler).getSize(context));
                 }
                 boolean beganTransaction = false;
                 try {
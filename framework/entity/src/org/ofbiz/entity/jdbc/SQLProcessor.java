@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -379,6 +380,9 @@ public class SQLProcessor {
             if (maxRows > 0) {
                 _ps.setMaxRows(maxRows);
                 if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.prepareStatement] max rows set : " + maxRows, module);
+            } else if (_ps.getMaxRows() != 0) {
+                // a statement from the connection pool's statement cache keeps the max rows of its previous use
+                _ps.setMaxRows(0);
             }
             this.setFetchSize(_ps, fetchSize);
         } catch (SQLException sqle) {
@@ -461,6 +465,41 @@ public class SQLProcessor {
         }
     }
 
+    /**
+     * Add the values set so far to the batch of the prepared statement, and start
+     * over with the first binding variable for the next set of values.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding a batch to the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * Execute the batch of the prepared statement
+     *
+     * @return  The number of rows updated for each set of values in the batch;
+     *          <code>Statement.SUCCESS_NO_INFO</code> if the driver does not know
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            return _ps.executeBatch();
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            if (sqle instanceof BatchUpdateException && sqle.getNextException() != null) {
+                // the first exception of a batch usually only says that the batch failed
+                sqle = sqle.getNextException();
+            }
+            throw new GenericDataSourceException("SQL Exception while executing a batch of the following:" + _sql, sqle);
+        }
+    }
+
     /**
      * Test if there more records available
      *
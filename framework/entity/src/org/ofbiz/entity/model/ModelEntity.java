@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -98,6 +99,9 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
 
     private final Map<String, ModelField> fieldsMap = new HashMap<String, ModelField>();
 
+    /** Position of each field in fieldsList, shared by the values of this entity; rebuilt when the fields change. */
+    private volatile Map<String, Integer> fieldIndexMap = null;
+
     /** A List of the Field objects for the Entity, one for each Primary Key */
     private final ArrayList<ModelField> pks = new ArrayList<ModelField>();
 
@@ -269,6 +273,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         }
         this.fieldsList.add(newField);
         this.fieldsMap.put(newField.getName(), newField);
+        this.fieldIndexMap = null;
     }
 
     protected void populateRelated(ModelReader reader, Element entityElement) {
@@ -365,6 +370,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
                 }
                 this.fieldsList.add(newField);
                 this.fieldsMap.put(newField.getName(), newField);
+                this.fieldIndexMap = null;
                 if (!newField.getIsPk()) {
                     if (existingField != null) {
                         this.nopks.remove(existingField);
@@ -619,12 +625,32 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
         }
     }
 
+    /**
+     * Returns an unmodifiable Map of each field name to its position in the field list, in
+     * field list order. The Map is shared; a new one is made when fields are added or removed.
+     */
+    public Map<String, Integer> getFieldIndexMap() {
+        Map<String, Integer> indexMap = this.fieldIndexMap;
+        if (indexMap == null) {
+            synchronized (fieldsLock) {
+                indexMap = new LinkedHashMap<String, Integer>(this.fieldsList.size() * 2);
+                for (int i = 0; i < this.fieldsList.size(); i++) {
+                    indexMap.put(this.fieldsList.get(i).getName(), i);
+                }
+                indexMap = Collections.unmodifiableMap(indexMap);
+                this.fieldIndexMap = indexMap;
+            }
+        }
+        return indexMap;
+    }
+
     public void addField(ModelField field) {
         if (field == null)
             return;
         synchronized (fieldsLock) {
             this.fieldsList.add(field);
             fieldsMap.put(field.getName(), field);
+            fieldIndexMap = null;
             if (field.getIsPk()) {
                 pks.add(field);
             } else {
@@ -640,6 +666,7 @@ public class ModelEntity implements Comparable<ModelEntity>, Serializable {
             ModelField field = fieldsMap.remove(fieldName);
             if (field != null) {
                 this.fieldsList.remove(field);
+                fieldIndexMap = null;
                 if (field.getIsPk()) {
                     pks.remove(field);
                 } else {
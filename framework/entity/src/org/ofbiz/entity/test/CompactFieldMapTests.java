@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilObject;
+import org.ofbiz.entity.CompactFieldMap;
+
+/**
+ * Checks that {@link CompactFieldMap} behaves like a <code>HashMap</code>.
+ */
+public class CompactFieldMapTests extends GenericTestCaseBase {
+
+    private static final String[] FIELDS = { "productId", "productTypeId", "description", "price", "lastUpdatedStamp" };
+
+    private Map<String, Integer> index;
+
+    public CompactFieldMapTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Map<String, Integer> index = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < FIELDS.length; i++) {
+            index.put(FIELDS[i], i);
+        }
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    private static void assertSameMap(String label, Map<String, Object> expected, Map<String, Object> actual) {
+        assertEquals(label + ": size", expected.size(), actual.size());
+        assertEquals(label + ": isEmpty", expected.isEmpty(), actual.isEmpty());
+        assertEquals(label + ": equals", expected, actual);
+        assertEquals(label + ": equals reversed", actual, expected);
+        assertEquals(label + ": hashCode", expected.hashCode(), actual.hashCode());
+        assertEquals(label + ": keySet", expected.keySet(), actual.keySet());
+        assertEquals(label + ": entrySet", expected.entrySet(), actual.entrySet());
+    }
+
+    public void testNullAndAbsentKeys() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        assertNull("get absent", map.get("description"));
+        assertFalse("containsKey absent", map.containsKey("description"));
+        assertNull("remove absent", map.remove("description"));
+        assertNull("get unknown", map.get("noSuchField"));
+        assertNull("get null key", map.get(null));
+        assertFalse("containsKey null key", map.containsKey(null));
+        assertNull("get non-string key", map.get(Integer.valueOf(1)));
+
+        assertEquals("put null value", expected.put("description", null), map.put("description", null));
+        assertTrue("containsKey null value", map.containsKey("description"));
+        assertTrue("containsValue null", map.containsValue(null));
+        assertNull("get null value", map.get("description"));
+        assertEquals("replace null value", expected.put("description", "widget"), map.put("description", "widget"));
+        assertEquals("put null key", expected.put(null, "null key"), map.put(null, "null key"));
+        assertEquals("get null key", "null key", map.get(null));
+        assertSameMap("with nulls", expected, map);
+
+        assertEquals("remove null key", expected.remove(null), map.remove(null));
+        assertEquals("remove field", expected.remove("description"), map.remove("description"));
+        assertEquals("remove field again", expected.remove("description"), map.remove("description"));
+        assertSameMap("after remove", expected, map);
+    }
+
+    public void testOverflow() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        for (int i = 0; i < FIELDS.length; i++) {
+            expected.put(FIELDS[i], i);
+            map.put(FIELDS[i], i);
+        }
+        // names that are not in the index, e.g. fields added to the model later
+        for (int i = 0; i < 20; i++) {
+            assertEquals("put extra" + i, expected.put("extra" + i, i), map.put("extra" + i, i));
+        }
+        assertEquals("replace extra", expected.put("extra3", "three"), map.put("extra3", "three"));
+        assertEquals("put null extra", expected.put("extraNull", null), map.put("extraNull", null));
+        assertTrue("containsKey null extra", map.containsKey("extraNull"));
+        assertSameMap("overflowed", expected, map);
+
+        assertEquals("remove extra", expected.remove("extra5"), map.remove("extra5"));
+        assertEquals("remove field", expected.remove("price"), map.remove("price"));
+        assertSameMap("after remove", expected, map);
+
+        map.clear();
+        expected.clear();
+        assertSameMap("cleared", expected, map);
+        assertNull("extra gone", map.get("extra1"));
+        map.put("extra1", "again");
+        expected.put("extra1", "again");
+        assertSameMap("after clear", expected, map);
+    }
+
+    public void testIteratorRemove() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        for (String field: FIELDS) {
+            map.put(field, field.length());
+        }
+        map.put("price", null);
+        map.put("extra1", "one");
+        map.put("extra2", "two");
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+        try {
+            it.remove();
+            fail("remove before next");
+        } catch (IllegalStateException e) {
+        }
+        int position = 0;
+        while (it.hasNext()) {
+            Map.Entry<String, Object> entry = it.next();
+            if (position++ % 2 == 0) {
+                it.remove();
+                try {
+                    it.remove();
+                    fail("remove twice");
+                } catch (IllegalStateException e) {
+                }
+            } else {
+                expected.put(entry.getKey(), entry.getValue());
+            }
+        }
+        assertEquals("visited", FIELDS.length + 2, position);
+        assertSameMap("after iterator remove", expected, map);
+
+        // the remaining entries can be changed through the iterator
+        for (Map.Entry<String, Object> entry: map.entrySet()) {
+            entry.setValue("changed");
+        }
+        for (Map.Entry<String, Object> entry: expected.entrySet()) {
+            entry.setValue("changed");
+        }
+        assertSameMap("after setValue", expected, map);
+
+        map.keySet().remove("extra2");
+        expected.keySet().remove("extra2");
+        map.values().remove("changed");
+        expected.values().remove("changed");
+        assertEquals("views remove", expected.size(), map.size());
+    }
+
+    public void testEqualsAndHashCode() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        assertSameMap("empty", expected, map);
+        expected.put("productId", "P1");
+        map.put("productId", "P1");
+        expected.put("description", null);
+        map.put("description", null);
+        expected.put("extra", "x");
+        map.put("extra", "x");
+        assertSameMap("filled", expected, map);
+
+        Map<String, Object> other = new CompactFieldMap(index);
+        other.putAll(expected);
+        assertSameMap("two compact maps", map, other);
+
+        // a null value is not the same as an absent field
+        other.remove("description");
+        assertFalse("absent vs null", map.equals(other));
+        assertFalse("absent vs null reversed", other.equals(map));
+        other.put("description", "text");
+        assertFalse("different value", map.equals(other));
+        assertFalse("not a map", map.equals("productId=P1"));
+    }
+
+    public void testCopy() {
+        CompactFieldMap map = new CompactFieldMap(index);
+        map.put("productId", "P1");
+        map.put("extra", "x");
+        CompactFieldMap copy = new CompactFieldMap(map);
+        assertEquals("copy", map, copy);
+        copy.put("productId", "P2");
+        copy.put("extra", "y");
+        copy.put("description", "d");
+        assertEquals("original field unchanged", "P1", map.get("productId"));
+        assertEquals("original overflow unchanged", "x", map.get("extra"));
+        assertFalse("original has no new field", map.containsKey("description"));
+    }
+
+    public void testSerialization() {
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        expected.put("productId", "P1");
+        expected.put("description", null);
+        expected.put("extra", "x");
+        map.putAll(expected);
+        Map<String, Object> copy = UtilGenerics.cast(UtilObject.getObject(UtilObject.getBytes(map)));
+        assertTrue("still compact", copy instanceof CompactFieldMap);
+        assertSameMap("deserialized", expected, copy);
+        assertTrue("null value kept", copy.containsKey("description"));
+        assertFalse("absent field stays absent", copy.containsKey("price"));
+        copy.put("price", "9.99");
+        expected.put("price", "9.99");
+        copy.remove("extra");
+        expected.remove("extra");
+        assertSameMap("deserialized and changed", expected, copy);
+    }
+
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        String[] names = { "productId", "productTypeId", "description", "price", "lastUpdatedStamp", "extra1", "extra2", null };
+        Object[] values = { null, "a", "b", Integer.valueOf(1) };
+        Map<String, Object> expected = new HashMap<String, Object>();
+        Map<String, Object> map = new CompactFieldMap(index);
+        for (int i = 0; i < 5000; i++) {
+            String name = names[random.nextInt(names.length)];
+            switch (random.nextInt(5)) {
+            case 0:
+            case 1:
+                Object value = values[random.nextInt(values.length)];
+                assertEquals("put " + i, expected.put(name, value), map.put(name, value));
+                break;
+            case 2:
+                assertEquals("remove " + i, expected.remove(name), map.remove(name));
+                break;
+            case 3:
+                assertEquals("get " + i, expected.get(name), map.get(name));
+                assertEquals("containsKey " + i, expected.containsKey(name), map.containsKey(name));
+                break;
+            default:
+                if (random.nextInt(50) == 0) {
+                    expected.clear();
+                    map.clear();
+                }
+            }
+            assertEquals("size " + i, expected.size(), map.size());
+        }
+        assertSameMap("random", expected, map);
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.sql.Driver;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+import org.apache.commons.dbcp2.DriverConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.ofbiz.base.metrics.LatencyHistogram;
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.entity.connection.MonitoredConnectionPool;
+
+/**
+ * Checks the metrics, leak detection and adaptive sizing of {@link MonitoredConnectionPool}
+ * with an in-memory Derby database.
+ */
+public class ConnectionPoolTests extends GenericTestCaseBase {
+
+    public ConnectionPoolTests(String name) {
+        super(name);
+    }
+
+    private static MonitoredConnectionPool makePool(String name, int maxTotal, int adaptiveMaxTotal, long leakThresholdMillis) throws Exception {
+        Driver driver = (Driver) Class.forName("org.apache.derby.jdbc.EmbeddedDriver").newInstance();
+        DriverConnectionFactory connectionFactory = new DriverConnectionFactory(driver, "jdbc:derby:memory:" + name + ";create=true", new Properties());
+        PoolableConnectionFactory factory = new PoolableConnectionFactory(connectionFactory, null);
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(maxTotal);
+        config.setBlockWhenExhausted(true);
+        MonitoredConnectionPool pool = new MonitoredConnectionPool(name, factory, config, adaptiveMaxTotal, leakThresholdMillis);
+        factory.setPool(pool);
+        return pool;
+    }
+
+    public void testBorrowMetrics() throws Exception {
+        MonitoredConnectionPool pool = makePool("testBorrowMetrics", 2, 0, 0);
+        try {
+            MonitoredConnectionPool.pushOwner("testBorrowMetrics");
+            try {
+                PoolableConnection connection = pool.borrowObject();
+                Thread.sleep(20);
+                pool.returnObject(connection);
+            } finally {
+                assertEquals("owner popped", "testBorrowMetrics", MonitoredConnectionPool.popOwner());
+            }
+            // borrowed without an owner
+            pool.returnObject(pool.borrowObject());
+
+            assertEquals("borrows", 2, pool.getBorrowLatency().getCount());
+            assertEquals("holds", 2, pool.getHoldTime().getCount());
+            assertTrue("longest hold", pool.getHoldTime().getMaxNanos() >= 20000000L);
+            Map<String, LatencyHistogram> ownerHoldTimes = pool.getOwnerHoldTimes();
+            assertEquals("owners", 1, ownerHoldTimes.size());
+            assertEquals("owner holds", 1, ownerHoldTimes.get("testBorrowMetrics").getCount());
+            assertEquals("no timeouts", 0, pool.getBorrowTimeoutCount());
+            Map<String, Object> info = pool.getInfo();
+            assertEquals("info borrow count", Long.valueOf(2), info.get("borrowCount"));
+            assertEquals("info active", Integer.valueOf(0), info.get("poolNumActive"));
+
+            pool.clearCounters();
+            assertEquals("cleared borrows", 0, pool.getBorrowLatency().getCount());
+            assertTrue("cleared owners", pool.getOwnerHoldTimes().isEmpty());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testBorrowTimeout() throws Exception {
+        MonitoredConnectionPool pool = makePool("testBorrowTimeout", 1, 0, 0);
+        try {
+            PoolableConnection connection = pool.borrowObject();
+            try {
+                pool.borrowObject(50);
+                fail("pool exhausted");
+            } catch (NoSuchElementException e) {
+            }
+            assertEquals("timeouts", 1, pool.getBorrowTimeoutCount());
+            assertEquals("the timed out borrow is not a hold", 0, pool.getHoldTime().getCount());
+            pool.returnObject(connection);
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testSuspectedLeaks() throws Exception {
+        MonitoredConnectionPool pool = makePool("testSuspectedLeaks", 2, 0, 10);
+        try {
+            MonitoredConnectionPool.pushOwner("testSuspectedLeaks");
+            PoolableConnection connection;
+            try {
+                connection = pool.borrowObject();
+            } finally {
+                MonitoredConnectionPool.popOwner();
+            }
+            Thread.sleep(50);
+            List<Map<String, Object>> leaks = pool.getSuspectedLeaks();
+            assertEquals("leaks", 1, leaks.size());
+            assertEquals("leak owner", "testSuspectedLeaks", leaks.get(0).get("owner"));
+            assertTrue("leak stack trace", ((String) leaks.get(0).get("stackTrace")).contains("testSuspectedLeaks"));
+            pool.returnObject(connection);
+            assertTrue("returned", pool.getSuspectedLeaks().isEmpty());
+        } finally {
+            pool.close();
+        }
+    }
+
+    /*
+     * The pool is resized at most once per 10 second interval, the first time on the first borrow;
+     * creating the database can make that first borrow slow enough to grow the pool already.
+     */
+    public void testAdaptiveGrowth() throws Exception {
+        MonitoredConnectionPool pool = makePool("testAdaptiveGrowth", 1, 3, 0);
+        List<PoolableConnection> held = new LinkedList<PoolableConnection>();
+        try {
+            held.add(pool.borrowObject());
+            while (held.size() < pool.getMaxTotal()) {
+                held.add(pool.borrowObject());
+            }
+            assertTrue("not beyond the adaptive size", held.size() < 3);
+            Thread.sleep(10500);
+            try {
+                pool.borrowObject(50);
+                fail("pool exhausted");
+            } catch (NoSuchElementException e) {
+            }
+            assertEquals("grown after a timeout", held.size() + 1, pool.getMaxTotal());
+            held.add(pool.borrowObject(50));
+        } finally {
+            for (PoolableConnection connection : held) {
+                pool.returnObject(connection);
+            }
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.BatchedCacheClear;
+import org.ofbiz.entity.cache.CacheClearBatch;
+import org.ofbiz.entity.cache.CacheClearChannel;
+import org.ofbiz.entity.cache.CacheClearTransport;
+import org.ofbiz.entity.cache.TcpCacheClearTransport;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityFunction;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+public class DistributedCacheClearTests extends EntityTestCase {
+
+    public static final String module = DistributedCacheClearTests.class.getName();
+    private static final byte[] SECRET = "testing secret".getBytes(StandardCharsets.UTF_8);
+
+    public DistributedCacheClearTests(String name) {
+        super(name);
+    }
+
+    private GenericValue makeTestingType(String id, String description) {
+        return delegator.makeValue("TestingType", "testingTypeId", id, "description", description);
+    }
+
+    public void testBatchCoalescing() throws Exception {
+        String delegatorName = delegator.getDelegatorName();
+        CacheClearBatch batch = new CacheClearBatch(3);
+        assertTrue("first value added", batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCB-1", "first"))));
+        batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCB-1", "second")));
+        assertEquals("same row kept once", 1, batch.size());
+        assertEquals("newest value kept", "second", batch.getEntries().iterator().next().getFields().get("description"));
+        batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCB-2", "other")));
+        batch.add(CacheClearBatch.Entry.primaryKey(delegatorName, delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "CCB-3"))));
+        assertEquals("rows below the threshold", 3, batch.size());
+        batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCB-4", "fourth")));
+        assertEquals("rows above the threshold coalesced", 1, batch.size());
+        assertEquals("coalesced to an entity clear", CacheClearBatch.Entry.ENTITY, batch.getEntries().iterator().next().getType());
+        assertFalse("covered by the entity clear", batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCB-5", "fifth"))));
+        batch.add(CacheClearBatch.Entry.condition(delegatorName, "TestingSubtype", EntityCondition.makeCondition("testingTypeId", "CCB-1")));
+        batch.add(CacheClearBatch.Entry.clearAll(delegatorName));
+        assertEquals("clear all replaces everything", 1, batch.size());
+        assertFalse("covered by clear all", batch.add(CacheClearBatch.Entry.primaryKey(delegatorName, delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "CCB-6")))));
+    }
+
+    public void testEncoding() throws Exception {
+        String delegatorName = delegator.getDelegatorName();
+        GenericValue value = makeTestingType("CCE-1", "encoded");
+        value.set("lastUpdatedStamp", new Timestamp(1234567890123L));
+        value.set("lastUpdatedTxStamp", null);
+        GenericValue testing = delegator.makeValue("Testing", "testingId", "CCE-2", "testingSize", 12L, "testingDate", new Timestamp(System.currentTimeMillis()));
+        EntityCondition condition = EntityCondition.makeCondition(EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "CCE-%"), EntityOperator.AND, EntityCondition.makeCondition("description", EntityOperator.NOT_EQUAL, null));
+        CacheClearBatch batch = new CacheClearBatch(0);
+        batch.add(CacheClearBatch.Entry.value(delegatorName, value));
+        batch.add(CacheClearBatch.Entry.value(delegatorName, testing));
+        batch.add(CacheClearBatch.Entry.primaryKey(delegatorName, value.getPrimaryKey()));
+        batch.add(CacheClearBatch.Entry.dummyPK(delegatorName, delegator.makeValue("TestingType", "description", "encoded")));
+        batch.add(CacheClearBatch.Entry.condition(delegatorName, "TestingType", condition));
+        List<byte[]> messages = batch.encode(42, Integer.MAX_VALUE);
+        assertEquals("one message", 1, messages.size());
+        CacheClearBatch decoded = CacheClearBatch.decode(messages.get(0));
+        assertEquals("sender", 42, decoded.getSenderId());
+        assertEquals("entries", batch.size(), decoded.size());
+        List<CacheClearBatch.Entry> expected = new ArrayList<CacheClearBatch.Entry>(batch.getEntries());
+        List<CacheClearBatch.Entry> actual = new ArrayList<CacheClearBatch.Entry>(decoded.getEntries());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("type " + i, expected.get(i).getType(), actual.get(i).getType());
+            assertEquals("delegator " + i, delegatorName, actual.get(i).getDelegatorName());
+            assertEquals("entity " + i, expected.get(i).getEntityName(), actual.get(i).getEntityName());
+            assertEquals("fields " + i, expected.get(i).getFields(), actual.get(i).getFields());
+            assertEquals("condition " + i, expected.get(i).getCondition(), actual.get(i).getCondition());
+        }
+        assertTrue("null field kept", actual.get(0).getFields().containsKey("lastUpdatedTxStamp"));
+
+        batch = new CacheClearBatch(0);
+        for (int i = 0; i < 100; i++) {
+            batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCE-" + i, "Split testing type #" + i)));
+        }
+        messages = batch.encode(42, 1024);
+        assertTrue("split into several messages", messages.size() > 1);
+        int count = 0;
+        for (byte[] message: messages) {
+            assertTrue("message within limit", message.length <= 1024);
+            count += CacheClearBatch.decode(message).size();
+        }
+        assertEquals("all entries sent", 100, count);
+        batch = new CacheClearBatch(0);
+        batch.add(CacheClearBatch.Entry.value(delegatorName, makeTestingType("CCE-large", new String(new char[2000]).replace('\0', 'x'))));
+        messages = batch.encode(42, 1024);
+        assertEquals("oversized entry sent alone", 1, messages.size());
+        assertEquals("oversized entry sent as entity clear", CacheClearBatch.Entry.ENTITY, CacheClearBatch.decode(messages.get(0)).getEntries().iterator().next().getType());
+    }
+
+    public void testConditionEncoding() throws Exception {
+        String delegatorName = delegator.getDelegatorName();
+        Map<String, Object> fieldMap = UtilMisc.<String, Object>toMap("testingTypeId", "CCE-1", "description", null);
+        List<EntityCondition> conditions = UtilMisc.<EntityCondition>toList(
+                EntityCondition.makeCondition(fieldMap, EntityOperator.OR),
+                EntityCondition.makeCondition("testingSize", EntityOperator.IN, UtilMisc.toList(1L, 2L, 3L)),
+                EntityCondition.makeCondition("testingDate", EntityOperator.BETWEEN, UtilMisc.toList(new Timestamp(0), new Timestamp(1000))),
+                EntityCondition.makeCondition("testingName", EntityOperator.NOT_EQUAL, EntityFieldValue.makeFieldValue("description")),
+                EntityCondition.makeCondition("description", EntityOperator.LIKE, new String(new char[10000]).replace('\0', 'x')),
+                EntityCondition.makeCondition("testingSize", EntityOperator.GREATER_THAN_EQUAL_TO, new BigDecimal("12.50")));
+        CacheClearBatch batch = new CacheClearBatch(0);
+        batch.add(CacheClearBatch.Entry.condition(delegatorName, "Testing", EntityCondition.makeCondition(conditions, EntityOperator.AND)));
+        CacheClearBatch.Entry decoded = CacheClearBatch.decode(batch.encode(42, Integer.MAX_VALUE).get(0)).getEntries().iterator().next();
+        assertEquals("condition sent as condition", CacheClearBatch.Entry.CONDITION, decoded.getType());
+        assertEquals("condition", batch.getEntries().iterator().next().getCondition(), decoded.getCondition());
+
+        // Test conditions and values the encoding doesn't know are sent as entity clears
+        batch = new CacheClearBatch(0);
+        batch.add(CacheClearBatch.Entry.condition(delegatorName, "Testing", EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("testingName"), EntityOperator.EQUALS, "X")));
+        batch.add(CacheClearBatch.Entry.value(delegatorName, delegator.makeValue("TestingType", "testingTypeId", "CCE-1", "description", new StringBuilder("not a field type"))));
+        List<CacheClearBatch.Entry> entries = new ArrayList<CacheClearBatch.Entry>(CacheClearBatch.decode(batch.encode(42, Integer.MAX_VALUE).get(0)).getEntries());
+        assertEquals("entries", 2, entries.size());
+        assertEquals("function condition sent as entity clear", CacheClearBatch.Entry.ENTITY, entries.get(0).getType());
+        assertEquals("unknown value type sent as entity clear", CacheClearBatch.Entry.ENTITY, entries.get(1).getType());
+
+        byte[] message = batch.encode(42, Integer.MAX_VALUE).get(0);
+        try {
+            CacheClearBatch.decode(Arrays.copyOf(message, message.length - 1));
+            fail("truncated message decoded");
+        } catch (IOException e) {
+        }
+    }
+
+    public void testTcpTransport() throws Exception {
+        final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+        TcpCacheClearTransport receiver = new TcpCacheClearTransport(new InetSocketAddress("127.0.0.1", 0), Collections.<InetSocketAddress>emptyList());
+        receiver.start(new CacheClearTransport.Receiver() {
+            public void receive(byte[] message) {
+                received.add(message);
+            }
+        });
+        TcpCacheClearTransport sender = new TcpCacheClearTransport(new InetSocketAddress("127.0.0.1", 0), UtilMisc.toList(new InetSocketAddress("127.0.0.1", receiver.getLocalPort())));
+        sender.start(new CacheClearTransport.Receiver() {
+            public void receive(byte[] message) {
+                fail("sender received a message");
+            }
+        });
+        try {
+            sender.send(new byte[] {1, 2, 3});
+            sender.send(new byte[0]);
+            assertEquals("first message", UtilMisc.toList((byte) 1, (byte) 2, (byte) 3), toList(received.poll(10, TimeUnit.SECONDS)));
+            assertEquals("empty message", 0, received.poll(10, TimeUnit.SECONDS).length);
+        } finally {
+            sender.stop();
+            receiver.stop();
+        }
+    }
+
+    public void testBatchedCacheClear() throws Exception {
+        TcpCacheClearTransport receivingTransport = new TcpCacheClearTransport(new InetSocketAddress("127.0.0.1", 0), Collections.<InetSocketAddress>emptyList());
+        CacheClearChannel receivingChannel = new CacheClearChannel(receivingTransport, SECRET, 0, 0);
+        CacheClearChannel sendingChannel = new CacheClearChannel(new TcpCacheClearTransport(new InetSocketAddress("127.0.0.1", 0),
+                UtilMisc.toList(new InetSocketAddress("127.0.0.1", receivingTransport.getLocalPort()))), SECRET, 0, 0);
+        CacheClearChannel unknownChannel = new CacheClearChannel(new TcpCacheClearTransport(new InetSocketAddress("127.0.0.1", 0),
+                UtilMisc.toList(new InetSocketAddress("127.0.0.1", receivingTransport.getLocalPort()))), "wrong secret".getBytes(StandardCharsets.UTF_8), 0, 0);
+        try {
+            BatchedCacheClear dcc = new BatchedCacheClear(sendingChannel);
+            dcc.setDelegator(delegator, "system");
+            GenericValue value = makeTestingType("CCC-1", "Distributed clear");
+            GenericPK pk = value.getPrimaryKey();
+
+            // Test clears are held back until commit and dropped on rollback
+            TransactionUtil.begin();
+            dcc.distributedClearCacheLine(pk);
+            assertEquals("held back in transaction", 0, sendingChannel.getPendingCount());
+            TransactionUtil.rollback();
+            assertEquals("dropped on rollback", 0, sendingChannel.getPendingCount());
+            TransactionUtil.begin();
+            dcc.distributedClearCacheLine(pk);
+            dcc.distributedClearCacheLine(pk);
+            TransactionUtil.commit();
+            assertEquals("pending after commit", 1, sendingChannel.getPendingCount());
+
+            // Test a batch signed with another secret is dropped
+            delegator.putInPrimaryKeyCache(pk, value);
+            assertNotNull("value cached", delegator.getFromPrimaryKeyCache(pk));
+            unknownChannel.add(CacheClearBatch.Entry.primaryKey(delegator.getDelegatorName(), pk));
+            unknownChannel.flush();
+            Thread.sleep(500);
+            assertNotNull("value kept after a batch with a wrong signature", delegator.getFromPrimaryKeyCache(pk));
+
+            // Test the receiving server clears its cache
+            sendingChannel.flush();
+            assertEquals("nothing pending after flush", 0, sendingChannel.getPendingCount());
+            long deadline = System.currentTimeMillis() + 10000;
+            while (delegator.getFromPrimaryKeyCache(pk) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull("value cleared by the received batch", delegator.getFromPrimaryKeyCache(pk));
+        } finally {
+            unknownChannel.stop();
+            sendingChannel.stop();
+            receivingChannel.stop();
+        }
+    }
+
+    private static List<Byte> toList(byte[] bytes) {
+        List<Byte> list = new ArrayList<Byte>(bytes.length);
+        for (byte b: bytes) {
+            list.add(b);
+        }
+        return list;
+    }
+}
@@ -401,4 +401,38 @@ public class EntityQueryTestSuite extends EntityTestCase {
             TransactionUtil.rollback(transactionStarted, "Transaction is Rolled Back", e);
         }
     }
+
+    /*
+     * queryStream(): This method passes the records one at a time to a handler, reading them with a forward-only streaming cursor.
+     * assert 1: Compared the records passed to the handler with the records returned by queryList().
+     * assert 2: Checked that the handler stops the query when it returns false.
+     */
+    public void testQueryStream() throws GenericEntityException {
+        List<GenericValue> testingTypes = new LinkedList<GenericValue>();
+        testingTypes.add(delegator.makeValue("TestingType", "testingTypeId", "queryStream-1", "description", "Query Stream One"));
+        testingTypes.add(delegator.makeValue("TestingType", "testingTypeId", "queryStream-2", "description", "Query Stream Two"));
+        testingTypes.add(delegator.makeValue("TestingType", "testingTypeId", "queryStream-3", "description", "Query Stream Three"));
+        delegator.storeAll(testingTypes);
+
+        final List<GenericValue> streamed = new LinkedList<GenericValue>();
+        long count = EntityQuery.use(delegator).from("TestingType").where(EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "queryStream-%")).orderBy("testingTypeId").fetchSize(2).queryStream(new EntityQuery.ValueHandler() {
+            public boolean handleValue(GenericValue value) {
+                streamed.add(value);
+                return true;
+            }
+        });
+        List<GenericValue> listed = EntityQuery.use(delegator).from("TestingType").where(EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "queryStream-%")).orderBy("testingTypeId").queryList();
+
+        assertEquals("queryStream(): Number of records passed to the handler", 3, count);
+        assertEquals("queryStream(): Records matched", listed, streamed);
+
+        streamed.clear();
+        count = EntityQuery.use(delegator).from("TestingType").where(EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "queryStream-%")).orderBy("testingTypeId").queryStream(new EntityQuery.ValueHandler() {
+            public boolean handleValue(GenericValue value) {
+                streamed.add(value);
+                return streamed.size() < 2;
+            }
+        });
+        assertEquals("queryStream(): Handler stopped the query", 2, count);
+    }
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -45,6 +46,7 @@ import org.ofbiz.base.util.Observer;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericEntity;
@@ -57,6 +59,7 @@ import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.config.model.Datasource;
 import org.ofbiz.entity.config.model.EntityConfig;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.testtools.EntityTestCase;
@@ -306,6 +309,150 @@ public class EntityTestSuite extends EntityTestCase {
         assertEquals("View retrieved from cache has the correct member description", "New Testing Subtype #Cache-3", testValue.getString("subtypeDescription"));
     }
 
+    /*
+     * Tests that changing a value removes the condition cache entries of its entity, even when
+     * the primary key cache holds an outdated copy of the value
+     */
+    public void testEntityConditionCacheInvalidation() throws Exception {
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-CCI-%"));
+        delegator.create("TestingType", "testingTypeId", "TEST-CCI-1", "description", "Testing Type #CCI-1");
+        delegator.create("TestingType", "testingTypeId", "TEST-CCI-2", "description", "Testing Type #CCI-2");
+        EntityCondition bySecondId = EntityCondition.makeCondition("testingTypeId", "TEST-CCI-2");
+        EntityCondition byDescription = EntityCondition.makeCondition("description", EntityOperator.LIKE, "Testing Type #CCI-%");
+        // a copy in the primary key cache that no longer matches the row
+        GenericValue staleValue = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CCI-1").queryOne();
+        staleValue.put("description", "Other Testing Type #CCI-1");
+        delegator.getCache().put(staleValue);
+        for (EntityCondition condition: UtilMisc.toList(bySecondId, byDescription)) {
+            EntityQuery.use(delegator).from("TestingType").where(condition).cache(true).queryList();
+        }
+        assertNotNull("Condition cached", getCachedTestingTypes(byDescription));
+        // Test update operation removes the condition that selected the row, which the cached copy does not match
+        GenericValue testValue = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CCI-1").queryOne();
+        testValue.put("description", "Changed Testing Type #CCI-1");
+        testValue.store();
+        assertNull("Condition that selected the old value removed", getCachedTestingTypes(byDescription));
+        assertNull("Condition on another primary key removed", getCachedTestingTypes(bySecondId));
+        List<GenericValue> testList = EntityQuery.use(delegator).from("TestingType").where(byDescription).cache(true).queryList();
+        assertEquals("Reloaded condition no longer selects the updated value", 1, testList.size());
+        // Test remove operation removes the conditions that selected the value
+        testValue = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CCI-2").queryOne();
+        testValue.remove();
+        assertNull("Condition that selected the removed value removed", getCachedTestingTypes(byDescription));
+        testList = EntityQuery.use(delegator).from("TestingType").where(byDescription).cache(true).queryList();
+        assertEquals("Reloaded condition no longer selects the removed value", 0, testList.size());
+    }
+
+    private List<GenericValue> getCachedTestingTypes(EntityCondition condition) {
+        List<String> orderBy = null;
+        return delegator.getCache().get("TestingType", condition, orderBy);
+    }
+
+    /*
+     * Tests that the SQL of single row statements is cached per set of updated fields and per set of null primary key fields
+     */
+    public void testSqlCacheKeys() throws Exception {
+        GenericHelperInfo helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName("Testing"));
+        UtilCache<String, String> sqlCache = UtilCache.findCache("entity.GenericDAO.sql." + helperInfo.getHelperFullName());
+        assertNotNull("SQL cache exists", sqlCache);
+        delegator.removeByAnd("Testing", "testingId", "TEST-SQLC-1");
+        delegator.create("Testing", "testingId", "TEST-SQLC-1", "testingName", "Testing SQL cache", "description", "Testing SQL cache #1");
+        sqlCache.clear();
+        // Test updates of different fields use different statements
+        delegator.makeValue("Testing", "testingId", "TEST-SQLC-1", "testingName", "Testing SQL cache, name changed").store();
+        delegator.makeValue("Testing", "testingId", "TEST-SQLC-1", "testingName", "Testing SQL cache, both changed", "description", "Testing SQL cache #1, both changed").store();
+        List<String> updateStatements = getCachedSql(sqlCache, "update:Testing,");
+        assertEquals("One update statement per set of updated fields", 2, updateStatements.size());
+        assertFalse("Update statements differ", updateStatements.get(0).equals(updateStatements.get(1)));
+        GenericValue testValue = EntityQuery.use(delegator).from("Testing").where("testingId", "TEST-SQLC-1").queryOne();
+        assertEquals("Both updates written", "Testing SQL cache #1, both changed", testValue.getString("description"));
+        // Test a null primary key field uses IS NULL instead of the statement with a parameter
+        Timestamp fromDate = UtilDateTime.nowTimestamp();
+        delegator.removeByPrimaryKey(delegator.makePK("TestingNodeMember", "testingNodeId", "TEST-SQLC", "testingId", "TEST-SQLC-1", "fromDate", fromDate));
+        delegator.removeByPrimaryKey(delegator.makePK("TestingNodeMember", "testingNodeId", "TEST-SQLC", "testingId", "TEST-SQLC-1", "fromDate", null));
+        List<String> deleteStatements = getCachedSql(sqlCache, "delete:TestingNodeMember");
+        assertEquals("One delete statement per set of null primary key fields", 2, deleteStatements.size());
+        assertTrue("One delete statement has IS NULL", deleteStatements.get(0).contains("IS NULL") != deleteStatements.get(1).contains("IS NULL"));
+        delegator.removeByAnd("Testing", "testingId", "TEST-SQLC-1");
+    }
+
+    private static List<String> getCachedSql(UtilCache<String, String> sqlCache, String keyPrefix) {
+        List<String> statements = new ArrayList<String>();
+        for (String sqlKey: sqlCache.getCacheLineKeys()) {
+            if (sqlKey.startsWith(keyPrefix)) {
+                statements.add(sqlCache.get(sqlKey));
+            }
+        }
+        return statements;
+    }
+
+    /*
+     * Tests that a cached find inside a transaction loads by itself instead of waiting for
+     * the load of another thread, which is blocked on a row lock held by that transaction
+     */
+    public void testCachedFindInTransactionDoesNotWait() throws Exception {
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.EQUALS, "TEST-CACHE-TX"));
+        delegator.create("TestingType", "testingTypeId", "TEST-CACHE-TX", "description", "committed");
+        delegator.clearAllCaches();
+        boolean transBegin = TransactionUtil.begin();
+        Future<GenericValue> otherLoad = null;
+        try {
+            GenericValue testValue = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CACHE-TX").queryOne();
+            testValue.set("description", "uncommitted");
+            testValue.store();
+            // this load has to wait for the row lock of our transaction
+            otherLoad = ExecutionPool.GLOBAL_FORK_JOIN.submit(new Callable<GenericValue>() {
+                public GenericValue call() throws Exception {
+                    return EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CACHE-TX").cache(true).queryOne();
+                }
+            });
+            Thread.sleep(500);
+            testValue = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", "TEST-CACHE-TX").cache(true).queryOne();
+            assertEquals("Own change read inside the transaction", "uncommitted", testValue.getString("description"));
+        } finally {
+            TransactionUtil.rollback(transBegin, null, null);
+        }
+        assertNotNull("Other thread finished its load", otherLoad.get());
+        delegator.clearAllCaches();
+        delegator.removeByAnd("TestingType", "testingTypeId", "TEST-CACHE-TX");
+    }
+
+    /*
+     * Tests finding values by a list of primary keys, with and without the cache
+     */
+    public void testFindAllByPrimaryKeys() throws Exception {
+        delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "TEST-FAPK-%"));
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-FAPK-%"));
+        delegator.create("TestingType", "testingTypeId", "TEST-FAPK-1", "description", "Testing Type #FAPK-1");
+        delegator.create("TestingType", "testingTypeId", "TEST-FAPK-2", "description", "Testing Type #FAPK-2");
+        GenericPK firstKey = delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "TEST-FAPK-1"));
+        GenericPK secondKey = delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "TEST-FAPK-2"));
+        GenericPK missingKey = delegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "TEST-FAPK-3"));
+        List<GenericValue> testList = delegator.findAllByPrimaryKeys(UtilMisc.toList(secondKey, missingKey, firstKey), false);
+        assertEquals("Missing key skipped", 2, testList.size());
+        assertEquals("Values in the order of the keys", "TEST-FAPK-2", testList.get(0).getString("testingTypeId"));
+        assertEquals("Values in the order of the keys", "TEST-FAPK-1", testList.get(1).getString("testingTypeId"));
+        // Test found values and missing keys are put in the cache
+        delegator.findAllByPrimaryKeys(UtilMisc.toList(firstKey, missingKey), true);
+        assertNotNull("Found value cached", delegator.getFromPrimaryKeyCache(firstKey));
+        assertEquals("Missing key cached", GenericValue.NULL_VALUE, delegator.getCache().get(missingKey));
+        testList = delegator.findAllByPrimaryKeys(UtilMisc.toList(firstKey, secondKey, missingKey), true);
+        assertEquals("Cached and queried values", 2, testList.size());
+        assertFalse("Value from the cache", testList.get(0).isMutable());
+        // Test related values of a list of values
+        delegator.create("Testing", "testingId", "TEST-FAPK-A", "testingTypeId", "TEST-FAPK-2");
+        delegator.create("Testing", "testingId", "TEST-FAPK-B", "testingTypeId", "TEST-FAPK-1");
+        delegator.create("Testing", "testingId", "TEST-FAPK-C");
+        List<GenericValue> testings = EntityQuery.use(delegator).from("Testing").where(EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "TEST-FAPK-%")).orderBy("testingId").queryList();
+        List<GenericValue> types = delegator.getRelatedOne("TestingType", testings, true);
+        assertEquals("One related value per value", 3, types.size());
+        assertEquals("Related value", "TEST-FAPK-2", types.get(0).getString("testingTypeId"));
+        assertEquals("Related value", "TEST-FAPK-1", types.get(1).getString("testingTypeId"));
+        assertNull("No related value for an empty foreign key", types.get(2));
+        delegator.removeByCondition("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "TEST-FAPK-%"));
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "TEST-FAPK-%"));
+    }
+
     /*
      * Tests XML serialization by serializing/deserializing a GenericValue
      */
@@ -1223,6 +1370,47 @@ public class EntityTestSuite extends EntityTestCase {
         assertFalse("Duplicate sequence id returned", duplicateFound.get());
     }
 
+    /*
+     * Measures how many sequence ids 64 threads get per second, and checks they are all distinct
+     */
+    public void testSequenceValueItemThroughput() throws Exception {
+        final SequenceUtil sequencer = new SequenceUtil(delegator.getGroupHelperInfo(delegator.getEntityGroupName("SequenceValueItem")),
+                                                  delegator.getModelEntity("SequenceValueItem"),
+                                                  "seqName", "seqId");
+        final String sequenceName = "BogusSequence" + UUID.randomUUID().toString();
+        final int threadCount = 64;
+        final int idsPerThread = 2000;
+        final ConcurrentMap<Long, Long> seqIds = new ConcurrentHashMap<Long, Long>();
+        final AtomicBoolean nullSeqIdReturned = new AtomicBoolean(false);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(ExecutionPool.GLOBAL_BATCH.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    startSignal.await();
+                    for (int j = 0; j < idsPerThread; j++) {
+                        Long seqId = sequencer.getNextSeqId(sequenceName, 1, null);
+                        if (seqId == null) {
+                            nullSeqIdReturned.set(true);
+                            return null;
+                        }
+                        seqIds.put(seqId, seqId);
+                    }
+                    return null;
+                }
+            }));
+        }
+        long startTime = System.nanoTime();
+        startSignal.countDown();
+        ExecutionPool.getAllFutures(futures);
+        long totalNanos = System.nanoTime() - startTime;
+        long idsPerSecond = (long) threadCount * idsPerThread * 1000000000L / Math.max(totalNanos, 1);
+        Debug.logInfo("testSequenceValueItemThroughput " + threadCount + " threads, total time (ms): " + totalNanos / 1000000 + ", ids/sec: " + idsPerSecond, module);
+        assertFalse("Null sequence id returned", nullSeqIdReturned.get());
+        assertEquals("All sequence ids distinct", threadCount * idsPerThread, seqIds.size());
+    }
+
     /*
         This test is useful to confirm that the default setting of use-transaction="true" for screen definitions is
         the best one for performance.
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.datasource.GenericHelper;
+import org.ofbiz.entity.datasource.GenericHelperFactory;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * Tests which reads go to a read replica, using the "test-replica" delegator whose replica is a
+ * separate Derby database: a row has a different description in each database, so the value
+ * read shows which datasource served the read.
+ */
+public class ReadReplicaTests extends EntityTestCase {
+
+    public static final String module = ReadReplicaTests.class.getName();
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private Delegator replicaDelegator;
+    private GenericHelper replicaHelper;
+    private ModelEntity modelEntity;
+    private EntityCondition testRows;
+
+    public ReadReplicaTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        replicaDelegator = DelegatorFactory.getDelegator("test-replica");
+        replicaHelper = GenericHelperFactory.getHelper(new GenericHelperInfo("org.ofbiz", "localderbyreplica"));
+        modelEntity = replicaDelegator.getModelEntity("TestingType");
+        Map<String, ModelEntity> modelEntities = UtilMisc.toMap("TestingType", modelEntity);
+        replicaHelper.checkDataSource(modelEntities, new ArrayList<String>(), true);
+        testRows = EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, "RR-%");
+        removeTestRows();
+        replicaDelegator.create("TestingType", "testingTypeId", "RR-1", "description", PRIMARY);
+        replicaHelper.create(replicaDelegator.makeValue("TestingType", "testingTypeId", "RR-1", "description", REPLICA));
+        replicaDelegator.clearCacheLine("TestingType");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeTestRows();
+        replicaDelegator.clearCacheLine("TestingType");
+        super.tearDown();
+    }
+
+    private void removeTestRows() throws Exception {
+        replicaDelegator.removeByCondition("TestingType", testRows);
+        replicaHelper.removeByCondition(replicaDelegator, modelEntity, testRows);
+    }
+
+    private String findDescription(boolean useCache) throws Exception {
+        return replicaDelegator.findOne("TestingType", UtilMisc.toMap("testingTypeId", "RR-1"), useCache).getString("description");
+    }
+
+    private String queryDescription(boolean useCache, boolean useReadReplica) throws Exception {
+        EntityQuery query = EntityQuery.use(replicaDelegator).from("TestingType").where("testingTypeId", "RR-1").cache(useCache);
+        if (useReadReplica) {
+            query.useReadReplica();
+        }
+        return query.queryFirst().getString("description");
+    }
+
+    public void testReadsOutsideTransaction() throws Exception {
+        assertEquals("findOne", REPLICA, findDescription(false));
+        assertEquals("query", REPLICA, queryDescription(false, false));
+        GenericPK pk = replicaDelegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "RR-1"));
+        List<GenericValue> values = replicaDelegator.findAllByPrimaryKeys(UtilMisc.toList(pk), false);
+        assertEquals("findAllByPrimaryKeys", REPLICA, values.get(0).getString("description"));
+    }
+
+    public void testCacheFillsFromPrimary() throws Exception {
+        assertEquals("findOne with cache", PRIMARY, findDescription(true));
+        assertEquals("query with cache", PRIMARY, queryDescription(true, false));
+        assertEquals("query with cache asking for a replica", PRIMARY, queryDescription(true, true));
+        GenericPK pk = replicaDelegator.makePK("TestingType", UtilMisc.toMap("testingTypeId", "RR-1"));
+        replicaDelegator.clearCacheLine("TestingType");
+        List<GenericValue> values = replicaDelegator.findAllByPrimaryKeys(UtilMisc.toList(pk), true);
+        assertEquals("findAllByPrimaryKeys with cache", PRIMARY, values.get(0).getString("description"));
+
+        // Test a write followed by a cache miss doesn't cache the replica's row
+        GenericValue value = replicaDelegator.findOne("TestingType", UtilMisc.toMap("testingTypeId", "RR-1"), false);
+        value.set("description", "written");
+        replicaDelegator.store(value);
+        assertEquals("cache miss after a write", "written", findDescription(true));
+    }
+
+    public void testReadsInTransaction() throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            assertEquals("findOne in transaction", PRIMARY, findDescription(false));
+            assertEquals("query in transaction", PRIMARY, queryDescription(false, false));
+            assertEquals("query asking for a replica", REPLICA, queryDescription(false, true));
+            replicaDelegator.create("TestingType", "testingTypeId", "RR-2", "description", PRIMARY);
+            assertEquals("query asking for a replica after a write", PRIMARY, queryDescription(false, true));
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Rolling back read replica test", null);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.OrderByList;
+
+/**
+ * Checks the keyset pagination condition of {@link OrderByList#makeSeekCondition} by matching it
+ * against rows in memory.
+ */
+public class SeekConditionTests extends GenericTestCaseBase {
+
+    private static final List<String> PK_FIELDS = UtilMisc.toList("productId");
+
+    public SeekConditionTests(String name) {
+        super(name);
+    }
+
+    private static Map<String, Object> row(String productId, String category, Integer price) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("productId", productId);
+        row.put("category", category);
+        row.put("price", price);
+        return row;
+    }
+
+    private static List<Map<String, Object>> makeRows() {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        String[] categories = { "A", "B", "C" };
+        int[] prices = { 5, 10, 10, 20 };
+        int id = 0;
+        // many rows share a category and price, only the primary key tells them apart
+        for (int i = 0; i < 3; i++) {
+            for (String category: categories) {
+                for (int price: prices) {
+                    rows.add(row(String.format("P%02d", id++), category, price));
+                }
+            }
+        }
+        Collections.shuffle(rows, new Random(7));
+        return rows;
+    }
+
+    // the order the database would return, for order by fields written as "name" or "-name"
+    private static Comparator<Map<String, Object>> comparator(final List<String> orderBy) {
+        return new Comparator<Map<String, Object>>() {
+            public int compare(Map<String, Object> row1, Map<String, Object> row2) {
+                for (String orderByField: orderBy) {
+                    boolean descending = orderByField.startsWith("-");
+                    String fieldName = descending ? orderByField.substring(1) : orderByField;
+                    @SuppressWarnings("unchecked")
+                    Comparable<Object> value1 = (Comparable<Object>) row1.get(fieldName);
+                    int result = value1.compareTo(row2.get(fieldName));
+                    if (result != 0) {
+                        return descending ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    private static List<Map<String, Object>> seek(List<Map<String, Object>> rows, List<String> orderBy, Map<String, Object> lastValues, int size) {
+        List<Map<String, Object>> page = new ArrayList<Map<String, Object>>();
+        EntityCondition condition = lastValues == null ? null : new OrderByList(orderBy).makeSeekCondition(null, lastValues);
+        for (Map<String, Object> row: rows) {
+            if (condition == null || condition.mapMatches(null, row)) {
+                page.add(row);
+            }
+        }
+        Collections.sort(page, comparator(orderBy));
+        return page.size() > size ? page.subList(0, size) : page;
+    }
+
+    public void testAddMissingOrderBy() {
+        assertEquals("no order", UtilMisc.toList("productId"), OrderByList.addMissingOrderBy(null, PK_FIELDS));
+        assertEquals("primary key appended", UtilMisc.toList("category", "-price", "productId"), OrderByList.addMissingOrderBy(UtilMisc.toList("category", "-price"), PK_FIELDS));
+        assertEquals("ordered primary key kept", UtilMisc.toList("-productId", "category"), OrderByList.addMissingOrderBy(UtilMisc.toList("-productId", "category"), PK_FIELDS));
+        assertEquals("only missing fields appended", UtilMisc.toList("orderId DESC", "orderItemSeqId"), OrderByList.addMissingOrderBy(UtilMisc.toList("orderId DESC"), UtilMisc.toList("orderId", "orderItemSeqId")));
+    }
+
+    public void testSingleField() {
+        Map<String, Object> last = row("P05", "B", 10);
+        EntityCondition ascending = new OrderByList("productId").makeSeekCondition(null, last);
+        assertTrue("ascending after", ascending.mapMatches(null, row("P06", "A", 5)));
+        assertFalse("ascending equal", ascending.mapMatches(null, last));
+        assertFalse("ascending before", ascending.mapMatches(null, row("P04", "C", 20)));
+        EntityCondition descending = new OrderByList("-productId").makeSeekCondition(null, last);
+        assertTrue("descending after", descending.mapMatches(null, row("P04", "A", 5)));
+        assertFalse("descending equal", descending.mapMatches(null, last));
+        assertFalse("descending before", descending.mapMatches(null, row("P06", "C", 20)));
+    }
+
+    public void testMixedDirectionsAndTieBreak() {
+        List<Map<String, Object>> rows = makeRows();
+        List<String> orderBy = OrderByList.addMissingOrderBy(UtilMisc.toList("category", "-price"), PK_FIELDS);
+        List<Map<String, Object>> sorted = new ArrayList<Map<String, Object>>(rows);
+        Collections.sort(sorted, comparator(orderBy));
+        // for every row, the condition matches exactly the rows after it in the order
+        for (int i = 0; i < sorted.size(); i++) {
+            EntityCondition condition = new OrderByList(orderBy).makeSeekCondition(null, sorted.get(i));
+            for (int j = 0; j < sorted.size(); j++) {
+                assertEquals("row " + j + " after row " + i, j > i, condition.mapMatches(null, sorted.get(j)));
+            }
+        }
+    }
+
+    public void testPagingAcrossEqualValues() {
+        List<Map<String, Object>> rows = makeRows();
+        for (List<String> order: Arrays.asList(UtilMisc.toList("price"), UtilMisc.toList("-price", "category"), UtilMisc.toList("category", "-price"))) {
+            List<String> orderBy = OrderByList.addMissingOrderBy(order, PK_FIELDS);
+            List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>(rows);
+            Collections.sort(expected, comparator(orderBy));
+            for (int size = 1; size <= 5; size++) {
+                List<Map<String, Object>> pages = new ArrayList<Map<String, Object>>();
+                Map<String, Object> last = null;
+                List<Map<String, Object>> page;
+                do {
+                    page = seek(rows, orderBy, last, size);
+                    pages.addAll(page);
+                    if (!page.isEmpty()) {
+                        last = page.get(page.size() - 1);
+                    }
+                } while (page.size() == size);
+                assertEquals(orderBy + " in pages of " + size, expected, pages);
+            }
+        }
+    }
+
+    public void testRejectsMissingAndNullValues() {
+        List<String> orderBy = OrderByList.addMissingOrderBy(UtilMisc.toList("category"), PK_FIELDS);
+        Map<String, Object> withoutPk = new HashMap<String, Object>();
+        withoutPk.put("category", "A");
+        try {
+            new OrderByList(orderBy).makeSeekCondition(null, withoutPk);
+            fail("primary key field missing");
+        } catch (IllegalArgumentException e) {
+            assertTrue("names the field", e.getMessage().contains("productId"));
+        }
+        try {
+            new OrderByList(orderBy).makeSeekCondition(null, row("P01", null, 5));
+            fail("null order by field");
+        } catch (IllegalArgumentException e) {
+            assertTrue("names the field", e.getMessage().contains("category"));
+        }
+        try {
+            new OrderByList().makeSeekCondition(null, row("P01", "A", 5));
+            fail("no order");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
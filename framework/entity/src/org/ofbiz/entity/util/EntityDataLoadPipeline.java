@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelReader;
+import org.ofbiz.entity.model.ModelRelation;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Loads a list of entity engine XML data files with several threads.
+ * <p>Each file is loaded by {@link EntityDataLoader} in its own transaction. Before loading, the
+ * files are scanned for the entities they write. A file is only loaded once the files before it
+ * in the list that write the same entities, or entities either file references through "one"
+ * relations, have been loaded; other files are loaded concurrently. When dummy foreign keys are
+ * created, the entities a file may write include every entity reachable through "one" relations.
+ * Transform files and files that cannot be scanned wait for, and are waited for by, all other
+ * files. When the delegator has entity ECA rules, which may write any entity, the files are loaded
+ * one at a time.</p>
+ */
+public class EntityDataLoadPipeline {
+
+    public static final String module = EntityDataLoadPipeline.class.getName();
+    private static final ThreadGroup DATA_LOAD_THREAD_GROUP = new ThreadGroup("EntityDataLoad");
+    private static final List<String> actionTags = UtilMisc.toList("create", "create-update", "create-replace", "delete");
+
+    private final Delegator delegator;
+    private final String helperName;
+    private final int threadCount;
+    private final EntityDataLoadStatistics statistics = new EntityDataLoadStatistics();
+    private int txTimeout = -1;
+    private boolean dummyFks = false;
+    private boolean maintainTxs = false;
+    private boolean tryInserts = false;
+
+    public EntityDataLoadPipeline(Delegator delegator, String helperName, int threadCount) {
+        this.delegator = delegator;
+        this.helperName = helperName;
+        this.threadCount = threadCount;
+    }
+
+    public void setTransactionTimeout(int txTimeout) {
+        this.txTimeout = txTimeout;
+    }
+
+    public void setCreateDummyFks(boolean dummyFks) {
+        this.dummyFks = dummyFks;
+    }
+
+    public void setMaintainTxStamps(boolean maintainTxs) {
+        this.maintainTxs = maintainTxs;
+    }
+
+    public void setTryInserts(boolean tryInserts) {
+        this.tryInserts = tryInserts;
+    }
+
+    /** Returns the rows written and the write time per entity of the files loaded so far. */
+    public EntityDataLoadStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Loads the files and returns the number of rows changed. A line with the rows changed is added
+     * to <code>infoMessages</code> for each file, in the order the files finished loading.
+     */
+    public int load(List<URL> urlList, List<Object> errorMessages, List<String> infoMessages) {
+        NumberFormat changedFormat = NumberFormat.getIntegerInstance();
+        changedFormat.setMinimumIntegerDigits(5);
+        changedFormat.setGroupingUsed(false);
+
+        int totalRowsChanged = 0;
+        if (threadCount <= 1 || urlList.size() <= 1 || delegator.getEntityEcaHandler() != null) {
+            if (threadCount > 1 && delegator.getEntityEcaHandler() != null) {
+                Debug.logImportant("Delegator " + delegator.getDelegatorName() + " has entity ECA rules, loading the files one at a time", module);
+            }
+            for (URL dataUrl: urlList) {
+                try {
+                    int rowsChanged = EntityDataLoader.loadData(dataUrl, helperName, delegator, errorMessages, txTimeout, dummyFks, maintainTxs, tryInserts, statistics);
+                    totalRowsChanged += rowsChanged;
+                    infoMessages.add(changedFormat.format(rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + dataUrl.toExternalForm());
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, "Error loading data file: " + dataUrl.toExternalForm(), module);
+                }
+            }
+            return totalRowsChanged;
+        }
+
+        List<Object> loadErrors = Collections.synchronizedList(new LinkedList<Object>());
+        ExecutorService executor = ExecutionPool.getScheduledExecutor(DATA_LOAD_THREAD_GROUP, "OFBiz-data-load", threadCount, 0, true);
+        try {
+            // scan all files, then wire up the files each one has to wait for
+            List<Future<DataFile>> scans = new ArrayList<Future<DataFile>>(urlList.size());
+            for (URL dataUrl: urlList) {
+                scans.add(executor.submit(new ScanCallable(new DataFile(dataUrl))));
+            }
+            List<DataFile> pending = new LinkedList<DataFile>();
+            for (Future<DataFile> scan: scans) {
+                DataFile dataFile = getResult(scan);
+                for (DataFile previous: pending) {
+                    if (dataFile.conflictsWith(previous)) {
+                        dataFile.waitingFor.add(previous);
+                    }
+                }
+                pending.add(dataFile);
+            }
+
+            CompletionService<DataFile> loads = new ExecutorCompletionService<DataFile>(executor);
+            int running = 0;
+            while (!pending.isEmpty() || running > 0) {
+                Iterator<DataFile> pendingIter = pending.iterator();
+                while (pendingIter.hasNext()) {
+                    DataFile dataFile = pendingIter.next();
+                    if (dataFile.waitingFor.isEmpty()) {
+                        pendingIter.remove();
+                        loads.submit(new LoadCallable(dataFile, loadErrors));
+                        running++;
+                    }
+                }
+                DataFile loaded = getResult(loads.take());
+                running--;
+                totalRowsChanged += loaded.rowsChanged;
+                infoMessages.add(changedFormat.format(loaded.rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + loaded.url.toExternalForm());
+                for (DataFile dataFile: pending) {
+                    dataFile.waitingFor.remove(loaded);
+                }
+            }
+        } catch (InterruptedException e) {
+            Debug.logError(e, "Data load interrupted", module);
+            loadErrors.add("Data load interrupted, not all files were loaded");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            errorMessages.addAll(loadErrors);
+        }
+        return totalRowsChanged;
+    }
+
+    // The callables catch everything, so an ExecutionException is an Error
+    private static DataFile getResult(Future<DataFile> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    private final class ScanCallable implements Callable<DataFile> {
+        private final DataFile dataFile;
+
+        private ScanCallable(DataFile dataFile) {
+            this.dataFile = dataFile;
+        }
+
+        public DataFile call() {
+            try {
+                dataFile.scan(delegator.getModelReader(), dummyFks);
+            } catch (Exception e) {
+                // the load will report the error
+                Debug.logWarning("Could not scan data file " + dataFile.url.toExternalForm() + ": " + e.toString(), module);
+                dataFile.exclusive = true;
+            }
+            return dataFile;
+        }
+    }
+
+    private final class LoadCallable implements Callable<DataFile> {
+        private final DataFile dataFile;
+        private final List<Object> loadErrors;
+
+        private LoadCallable(DataFile dataFile, List<Object> loadErrors) {
+            this.dataFile = dataFile;
+            this.loadErrors = loadErrors;
+        }
+
+        public DataFile call() {
+            try {
+                dataFile.rowsChanged = EntityDataLoader.loadData(dataFile.url, helperName, delegator, loadErrors, txTimeout, dummyFks, maintainTxs, tryInserts, statistics);
+            } catch (Exception e) {
+                Debug.logError(e, "Error loading data file: " + dataFile.url.toExternalForm(), module);
+            }
+            return dataFile;
+        }
+    }
+
+    private static final class DataFile {
+        private final URL url;
+        private final Set<String> entityNames = new HashSet<String>();
+        // the entities written and the entities they reference
+        private final Set<String> touchedEntityNames = new HashSet<String>();
+        private final Set<DataFile> waitingFor = new HashSet<DataFile>();
+        private boolean exclusive = false;
+        private int rowsChanged = 0;
+
+        private DataFile(URL url) {
+            this.url = url;
+        }
+
+        private void scan(final ModelReader modelReader, boolean dummyFks) throws GenericEntityException, IOException, ParserConfigurationException, SAXException {
+            final Set<String> elementNames = new HashSet<String>();
+            InputStream is = url.openStream();
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(is, new DefaultHandler() {
+                    private int depth = 0;
+                    private boolean inAction = false;
+
+                    @Override
+                    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                        depth++;
+                        if (depth == 1) {
+                            if ("entity-engine-transform-xml".equals(qName)) {
+                                exclusive = true;
+                            }
+                        } else if (depth == 2) {
+                            if (actionTags.contains(qName)) {
+                                inAction = true;
+                            } else {
+                                elementNames.add(qName);
+                            }
+                        } else if (depth == 3 && inAction) {
+                            elementNames.add(qName);
+                        }
+                    }
+
+                    @Override
+                    public void endElement(String uri, String localName, String qName) {
+                        if (depth == 2) {
+                            inAction = false;
+                        }
+                        depth--;
+                    }
+                });
+            } finally {
+                is.close();
+            }
+            for (String elementName: elementNames) {
+                ModelEntity modelEntity = modelReader.getModelEntityNoCheck(elementName);
+                if (modelEntity == null) {
+                    continue;
+                }
+                entityNames.add(elementName);
+                touchedEntityNames.add(elementName);
+                for (ModelRelation modelRelation: modelEntity.getRelationsOneList()) {
+                    touchedEntityNames.add(modelRelation.getRelEntityName());
+                }
+            }
+            if (dummyFks) {
+                // GenericEntity.checkFks creates the missing related values, and their own missing related values
+                List<String> unchecked = new LinkedList<String>(touchedEntityNames);
+                while (!unchecked.isEmpty()) {
+                    String entityName = unchecked.remove(0);
+                    entityNames.add(entityName);
+                    ModelEntity modelEntity = modelReader.getModelEntityNoCheck(entityName);
+                    if (modelEntity == null) {
+                        continue;
+                    }
+                    for (ModelRelation modelRelation: modelEntity.getRelationsOneList()) {
+                        if (touchedEntityNames.add(modelRelation.getRelEntityName())) {
+                            unchecked.add(modelRelation.getRelEntityName());
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean conflictsWith(DataFile other) {
+            if (exclusive || other.exclusive) {
+                return true;
+            }
+            return !Collections.disjoint(entityNames, other.touchedEntityNames) || !Collections.disjoint(touchedEntityNames, other.entityNames);
+        }
+    }
+}
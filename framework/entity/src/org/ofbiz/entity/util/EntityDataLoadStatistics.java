@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.util;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.entity.GenericValue;
+
+/**
+ * Rows written and write time per entity for a data load. The time of a write is split
+ * between the entities of the written values by row count.
+ */
+@ThreadSafe
+public final class EntityDataLoadStatistics {
+
+    private final ConcurrentMap<String, EntityCounter> counters = new ConcurrentHashMap<String, EntityCounter>();
+
+    /** Records that <code>values</code> were written in <code>nanos</code> nanoseconds. */
+    public void record(List<GenericValue> values, long nanos) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> rowsByEntity = new HashMap<String, Integer>();
+        for (GenericValue value: values) {
+            Integer rows = rowsByEntity.get(value.getEntityName());
+            rowsByEntity.put(value.getEntityName(), rows == null ? 1 : rows + 1);
+        }
+        for (Map.Entry<String, Integer> entry: rowsByEntity.entrySet()) {
+            EntityCounter counter = counters.get(entry.getKey());
+            if (counter == null) {
+                counter = new EntityCounter();
+                EntityCounter existing = counters.putIfAbsent(entry.getKey(), counter);
+                if (existing != null) {
+                    counter = existing;
+                }
+            }
+            counter.rows.addAndGet(entry.getValue());
+            counter.nanos.addAndGet(nanos * entry.getValue() / values.size());
+        }
+    }
+
+    public long getRows(String entityName) {
+        EntityCounter counter = counters.get(entityName);
+        return counter == null ? 0 : counter.rows.get();
+    }
+
+    /** Returns the rows of the entity written per second of write time, or 0 if none were written. */
+    public long getRowsPerSecond(String entityName) {
+        EntityCounter counter = counters.get(entityName);
+        if (counter == null) {
+            return 0;
+        }
+        long nanos = Math.max(counter.nanos.get(), 1);
+        return counter.rows.get() * 1000000000L / nanos;
+    }
+
+    /** Returns one line per entity with its rows, write time and rows/sec, ordered by entity name. */
+    public List<String> getMessages() {
+        List<String> messages = new LinkedList<String>();
+        for (Map.Entry<String, EntityCounter> entry: new TreeMap<String, EntityCounter>(counters).entrySet()) {
+            EntityCounter counter = entry.getValue();
+            messages.add(entry.getKey() + ": " + counter.rows.get() + " rows in " + counter.nanos.get() / 1000000 + " ms, "
+                    + getRowsPerSecond(entry.getKey()) + " rows/sec");
+        }
+        return messages;
+    }
+
+    private static final class EntityCounter {
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+    }
+}
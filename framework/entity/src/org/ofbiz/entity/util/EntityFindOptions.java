@@ -47,6 +47,8 @@ public class EntityFindOptions implements java.io.Serializable {
     protected int fetchSize = -1;
     protected int maxRows = -1;
     protected boolean distinct = false;
+    protected boolean streaming = false;
+    protected boolean useReadReplica = false;
 
     /** LIMIT option */
     protected int limit = -1;
@@ -153,6 +155,32 @@ public class EntityFindOptions implements java.io.Serializable {
     }
 
 
+    /** Specifies whether the results should be streamed: read with a forward-only, read-only cursor using the
+     *  datasource result-stream-fetch-size (or the fetch size of this query if set) so the driver does not hold the
+     *  whole result in memory. Only applies to finds that return an EntityListIterator. */
+    public boolean getStreaming() {
+        return streaming;
+    }
+
+    /** Specifies whether the results should be streamed: read with a forward-only, read-only cursor using the
+     *  datasource result-stream-fetch-size (or the fetch size of this query if set) so the driver does not hold the
+     *  whole result in memory. Only applies to finds that return an EntityListIterator. */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /** Specifies whether the query may read from a read replica of the entity group even inside a transaction;
+     *  it still reads from the primary datasource in a transaction that has written. */
+    public boolean getUseReadReplica() {
+        return useReadReplica;
+    }
+
+    /** Specifies whether the query may read from a read replica of the entity group even inside a transaction;
+     *  it still reads from the primary datasource in a transaction that has written. */
+    public void setUseReadReplica(boolean useReadReplica) {
+        this.useReadReplica = useReadReplica;
+    }
+
     /** Get the LIMIT number. */
     public int getLimit() {
         return limit;
@@ -33,7 +33,10 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.OrderByList;
 import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.transaction.TransactionUtil;
 
 /**
  * Used to setup various options for and subsequently execute entity queries.
@@ -63,6 +66,10 @@ public class EntityQuery {
     private boolean filterByDate = false;
     private Timestamp filterByDateMoment;
     private List<String> filterByFieldNames = null;
+    private boolean seek = false;
+    private Map<String, ? extends Object> seekAfterValues = null;
+    private boolean streaming = false;
+    private boolean useReadReplica = false;
 
 
 
@@ -218,6 +225,27 @@ public class EntityQuery {
         return this;
     }
 
+    /** Use keyset (seek) pagination: only the rows that come after <code>lastValues</code> in the order of the query are returned.
+     * 
+     * The primary key fields that are not ordered by yet are added to the order by fields so the order is total. Pass
+     * null for the first page, then the last value of each page for the next one, and set the page size with maxRows.
+     * Unlike an offset, the rows of the previous pages are not read again, so a deep page costs the same as the first one.
+     * A view entity without primary key fields has to be ordered by fields that are unique together, or rows with equal
+     * values will be skipped.
+     * 
+     * Nulls are not supported, as databases do not agree on where they sort: only order by fields that cannot be null,
+     * since rows with a null in an order by field are never returned after the first page.
+     * @param lastValues - The last value of the previous page, or null for the first page; a Map works too, but it must
+     * have a value for every order by field and every primary key field, and none of them may be null, or the query
+     * throws an IllegalArgumentException
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery seekAfter(Map<String, ? extends Object> lastValues) {
+        this.seek = true;
+        this.seekAfterValues = lastValues;
+        return this;
+    }
+
     /** Indicate that the ResultSet object's cursor may move only forward (this is the default behavior)
      * 
      * @return this EntityQuery object, to enable chaining
@@ -255,6 +283,29 @@ public class EntityQuery {
         return this;
     }
 
+    /** Stream the results: read them with a forward-only, read-only cursor using the datasource result-stream-fetch-size
+     * (unless a fetch size is set on this query), so the driver holds one fetch of rows in memory instead of the whole
+     * result. Only applies to queryIterator() and queryStream(), the other query methods still build a List.
+     * 
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery streaming() {
+        this.streaming = true;
+        this.resultSetType = EntityFindOptions.TYPE_FORWARD_ONLY;
+        return this;
+    }
+
+    /** Allow this query to read from a read replica of the entity group even inside a transaction, for reads that
+     * can live with data a few seconds old. Queries outside of a transaction use replicas anyway; queries that use
+     * the cache and queries in a transaction that has written always read from the primary datasource.
+     * 
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery useReadReplica() {
+        this.useReadReplica = true;
+        return this;
+    }
+
     /** Specifies the max number of rows to return, 0 means all rows.
      * 
      * @param maxRows - the max number of rows to return
@@ -389,12 +440,61 @@ public class EntityQuery {
             Debug.logWarning("Call to iterator() with cache, ignoring cache", module);
         }
         if (dynamicViewEntity == null) {
-            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         } else {
-            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         }
     }
 
+    /** Receives the results of {@link EntityQuery#queryStream(ValueHandler)} one at a time. */
+    public static interface ValueHandler {
+        /** Handles the next result, return false to stop reading the results. */
+        public boolean handleValue(GenericValue value) throws GenericEntityException;
+    }
+
+    /** Executes the EntityQuery as a streaming query and passes each result to <code>handler</code>, without ever
+     * holding more than one fetch of results in memory. The query runs in a transaction, the current one if there is
+     * one (begin a transaction with a longer timeout first for very large results), and the cursor is always closed
+     * before this method returns.
+     * 
+     * @param handler - Receives the results, in order
+     * @return the number of results passed to the handler
+     */
+    public long queryStream(ValueHandler handler) throws GenericEntityException {
+        streaming();
+        long count = 0;
+        boolean beganTransaction = TransactionUtil.begin();
+        EntityListIterator iterator = null;
+        try {
+            iterator = queryIterator();
+            GenericValue value;
+            while ((value = iterator.next()) != null) {
+                count++;
+                if (!handler.handleValue(value)) {
+                    break;
+                }
+            }
+            iterator.close();
+            iterator = null;
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Error streaming the results of the query", e);
+            throw e;
+        } catch (RuntimeException e) {
+            TransactionUtil.rollback(beganTransaction, "Error streaming the results of the query", e);
+            throw e;
+        } finally {
+            if (iterator != null) {
+                try {
+                    iterator.close();
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, "Error closing the EntityListIterator of a streaming query", module);
+                }
+            }
+        }
+        return count;
+    }
+
     /** Executes the EntityQuery and returns the first result
      * 
      * @return GenericValue representing the first result record from the query
@@ -445,7 +545,7 @@ public class EntityQuery {
         }
         List<GenericValue> result = null;
         if (dynamicViewEntity == null) {
-            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, orderBy, findOptions, useCache);
+            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, makeOrderBy(), findOptions, useCache);
         } else {
             result = queryIterator().getCompleteList();
         }
@@ -469,19 +569,43 @@ public class EntityQuery {
         if (distinct != null) {
             findOptions.setDistinct(distinct);
         }
+        findOptions.setStreaming(streaming);
+        findOptions.setUseReadReplica(useReadReplica);
         return findOptions;
     }
 
     private EntityCondition makeWhereCondition(boolean usingCache) {
+        EntityCondition whereCondition = whereEntityCondition;
         // we don't use the useCache field here because not all queries will actually use the cache, e.g. findCountByCondition never uses the cache
         if (filterByDate && !usingCache) {
-            if (whereEntityCondition != null) {
-                return EntityCondition.makeCondition(whereEntityCondition, this.makeDateCondition());
+            if (whereCondition != null) {
+                whereCondition = EntityCondition.makeCondition(whereCondition, this.makeDateCondition());
             } else {
-                return this.makeDateCondition();
+                whereCondition = this.makeDateCondition();
             }
         }
-        return whereEntityCondition;
+        if (seek && seekAfterValues != null) {
+            EntityCondition seekCondition = new OrderByList(makeOrderBy()).makeSeekCondition(delegator, seekAfterValues);
+            if (whereCondition != null) {
+                whereCondition = EntityCondition.makeCondition(whereCondition, seekCondition);
+            } else {
+                whereCondition = seekCondition;
+            }
+        }
+        return whereCondition;
+    }
+
+    private List<String> makeOrderBy() {
+        if (!seek) {
+            return orderBy;
+        }
+        ModelEntity modelEntity;
+        if (dynamicViewEntity == null) {
+            modelEntity = delegator.getModelEntity(entityName);
+        } else {
+            modelEntity = dynamicViewEntity.makeModelViewEntity(delegator);
+        }
+        return OrderByList.addMissingOrderBy(orderBy, modelEntity.getPkFieldNames());
     }
 
     private EntityCondition makeDateCondition() {
@@ -101,6 +101,7 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
     protected List<String> actionTags = UtilMisc.toList("create", "create-update", "create-replace", "delete");
     protected Action currentAction = Action.CREATE_UPDATE;
     protected List<Object> messageList = null;
+    protected EntityDataLoadStatistics statistics = null;
 
     protected List<GenericValue> valuesToWrite = new ArrayList<GenericValue>(valuesPerWrite);
     protected List<GenericValue> valuesToDelete = new ArrayList<GenericValue>(valuesPerWrite);
@@ -203,6 +204,15 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
         this.messageList = messageList;
     }
 
+    public EntityDataLoadStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /** Sets the statistics the rows written and their write time are added to. */
+    public void setStatistics(EntityDataLoadStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public void setDisableEeca(boolean disableEeca) {
         this.disableEeca = disableEeca;
         if (disableEeca) {
@@ -326,7 +336,11 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
         if (this.checkDataOnly) {
             EntityDataAssert.checkValueList(valuesToWrite, delegator, this.getMessageList());
         } else {
+            long startTime = System.nanoTime();
             delegator.storeAll(valuesToWrite, doCacheClear, createDummyFks);
+            if (statistics != null) {
+                statistics.record(valuesToWrite, System.nanoTime() - startTime);
+            }
         }
     }
 
@@ -22,11 +22,18 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.transaction.Transaction;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
@@ -103,23 +110,45 @@ public class SequenceUtil {
         return bank;
     }
 
+    /** A range of reserved ids; ids are taken from it with an atomic increment, without locking. */
+    private static final class SequenceRange {
+        private final AtomicLong nextSeqId;
+        private final long maxSeqId;
+        private final long size;
+        private final long prefetchSeqId;
+        private final long fetchedTime = System.currentTimeMillis();
+
+        private SequenceRange(long curSeqId, long maxSeqId) {
+            this.nextSeqId = new AtomicLong(curSeqId);
+            this.maxSeqId = maxSeqId;
+            this.size = maxSeqId - curSeqId;
+            // the next range is fetched in the background once half of this one is used
+            this.prefetchSeqId = curSeqId + this.size / 2;
+        }
+    }
+
     private class SequenceBank {
         public static final long defaultBankSize = 10;
         public static final long maxBankSize = 5000;
         public static final long startSeqId = 10000;
+        /** A bank that would be used up in less time than this is doubled for the next fetch, up to maxBankSize */
+        public static final long fastBankMillis = 1000;
+        /** A bank that would last longer than this is halved for the next fetch, down to the configured size */
+        public static final long slowBankMillis = 60000;
 
         private final String seqName;
-        private final long bankSize;
+        private final long minBankSize;
         private final String updateForLockStatement;
         private final String selectSequenceStatement;
 
-        private long curSeqId;
-        private long maxSeqId;
+        private final AtomicReference<SequenceRange> current;
+        private final AtomicReference<FutureTask<SequenceRange>> prefetch = new AtomicReference<FutureTask<SequenceRange>>();
+        private volatile long bankSize;
 
         private SequenceBank(String seqName, long bankSize) {
             this.seqName = seqName;
-            curSeqId = 0;
-            maxSeqId = 0;
+            this.current = new AtomicReference<SequenceRange>(new SequenceRange(0, 0));
+            this.minBankSize = bankSize;
             this.bankSize = bankSize;
             updateForLockStatement = "UPDATE " + SequenceUtil.this.tableName + " SET " + SequenceUtil.this.idColName + "=" + SequenceUtil.this.idColName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
             selectSequenceStatement = "SELECT " + SequenceUtil.this.idColName + " FROM " + SequenceUtil.this.tableName + " WHERE " + SequenceUtil.this.nameColName + "='" + this.seqName + "'";
@@ -131,18 +160,18 @@ public class SequenceUtil {
                 stagger = (long)Math.ceil(Math.random() * staggerMax);
                 if (stagger == 0) stagger = 1;
             }
-            synchronized (this) {
-                if ((curSeqId + stagger) <= maxSeqId) {
-                    long retSeqId = curSeqId;
-                    curSeqId += stagger;
+            while (true) {
+                SequenceRange range = current.get();
+                long retSeqId = range.nextSeqId.getAndAdd(stagger);
+                if ((retSeqId + stagger) <= range.maxSeqId) {
+                    if (retSeqId < range.prefetchSeqId && (retSeqId + stagger) >= range.prefetchSeqId) {
+                        startPrefetch(adaptBankSize(range, range.prefetchSeqId - (range.maxSeqId - range.size)));
+                    }
                     return retSeqId;
-                } else {
-                    fillBank(stagger);
-                    if ((curSeqId + stagger) <= maxSeqId) {
-                        long retSeqId = curSeqId;
-                        curSeqId += stagger;
-                        return retSeqId;
-                    } else {
+                }
+                // the range is used up, only one thread replaces it
+                synchronized (this) {
+                    if (current.get() == range && !nextRange(range, stagger)) {
                         Debug.logError("Fill bank failed, returning null", module);
                         return null;
                     }
@@ -151,8 +180,71 @@ public class SequenceUtil {
         }
 
         private synchronized void refresh(long staggerMax) {
-            this.curSeqId = this.maxSeqId;
-            this.fillBank(staggerMax);
+            FutureTask<SequenceRange> task = prefetch.getAndSet(null);
+            if (task != null) {
+                task.cancel(false);
+            }
+            SequenceRange range = fetchRange(staggerMax > 1 ? staggerMax * defaultBankSize : this.bankSize);
+            current.set(range != null ? range : new SequenceRange(0, 0));
+        }
+
+        // Replaces the used up range with the prefetched one, or with a newly fetched one if there is none.
+        private boolean nextRange(SequenceRange used, long stagger) {
+            SequenceRange range = null;
+            FutureTask<SequenceRange> task = prefetch.getAndSet(null);
+            if (task != null) {
+                try {
+                    range = task.get();
+                } catch (InterruptedException e) {
+                    Debug.logWarning(e, "Interrupted while waiting for the prefetched bank of sequenced IDs for [" + this.seqName + "]", module);
+                } catch (ExecutionException e) {
+                    Debug.logWarning(e, "Error prefetching a bank of sequenced IDs for [" + this.seqName + "]", module);
+                }
+            }
+            if (range == null || range.size < stagger) {
+                long bankSize = adaptBankSize(used, used.size);
+                if (stagger > 1) {
+                    // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
+                    bankSize = stagger * defaultBankSize;
+                }
+                range = fetchRange(bankSize);
+            }
+            if (range == null) {
+                return false;
+            }
+            current.set(range);
+            return true;
+        }
+
+        private void startPrefetch(final long bankSize) {
+            FutureTask<SequenceRange> task = new FutureTask<SequenceRange>(new Callable<SequenceRange>() {
+                public SequenceRange call() {
+                    return fetchRange(bankSize);
+                }
+            });
+            if (prefetch.compareAndSet(null, task)) {
+                try {
+                    ExecutionPool.GLOBAL_BATCH.execute(task);
+                } catch (RejectedExecutionException e) {
+                    prefetch.compareAndSet(task, null);
+                }
+            }
+        }
+
+        // Doubles the bank size when ids are taken fast and halves it again when they are taken slowly,
+        // based on how long the range would last at the rate its first usedIds ids were taken.
+        private long adaptBankSize(SequenceRange range, long usedIds) {
+            long bankSize = this.bankSize;
+            if (range.size > 0 && usedIds > 0) {
+                long rangeMillis = (System.currentTimeMillis() - range.fetchedTime) * range.size / usedIds;
+                if (rangeMillis < fastBankMillis) {
+                    bankSize = Math.min(bankSize * 2, maxBankSize);
+                } else if (rangeMillis > slowBankMillis) {
+                    bankSize = Math.max(bankSize / 2, minBankSize);
+                }
+                this.bankSize = bankSize;
+            }
+            return bankSize;
         }
 
         /*
@@ -162,23 +254,14 @@ public class SequenceUtil {
            2 - select the record (now locked) to get the curSeqId
            3 - increment the sequence
            The three steps are executed in one dedicated database transaction.
+           Returns null if the range could not be reserved.
          */
-        private void fillBank(long stagger) {
-            // no need to get a new bank, SeqIds available
-            if ((curSeqId + stagger) <= maxSeqId) {
-                return;
-            }
-
-            long bankSize = this.bankSize;
-            if (stagger > 1) {
-                // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
-                bankSize = stagger * defaultBankSize;
-            }
-
+        private SequenceRange fetchRange(long bankSize) {
             if (bankSize > maxBankSize) {
                 bankSize = maxBankSize;
             }
 
+            long curSeqId = 0;
             Transaction suspendedTransaction = null;
             try {
                 suspendedTransaction = TransactionUtil.suspend();
@@ -256,9 +339,7 @@ public class SequenceUtil {
                         }
                     }
                 } catch (Exception e) {
-                    // reset the sequence fields and return (note: it would be better to throw an exception)
-                    curSeqId = 0;
-                    maxSeqId = 0;
+                    // the caller gets no range (note: it would be better to throw an exception)
                     String errMsg = "General error in getting a sequenced ID";
                     Debug.logError(e, errMsg, module);
                     try {
@@ -266,30 +347,27 @@ public class SequenceUtil {
                     } catch (GenericTransactionException gte2) {
                         Debug.logError(gte2, "Unable to rollback transaction", module);
                     }
-                    return;
+                    return null;
                 }
             } catch (GenericTransactionException e) {
                 Debug.logError(e, "System Error suspending transaction in sequence util", module);
-                // reset the sequence fields and return (note: it would be better to throw an exception)
-                curSeqId = 0;
-                maxSeqId = 0;
-                return;
+                // the caller gets no range (note: it would be better to throw an exception)
+                return null;
             } finally {
                 if (suspendedTransaction != null) {
                     try {
                         TransactionUtil.resume(suspendedTransaction);
                     } catch (GenericTransactionException e) {
                         Debug.logError(e, "Error resuming suspended transaction in sequence util", module);
-                        // reset the sequence fields and return (note: it would be better to throw an exception)
-                        curSeqId = 0;
-                        maxSeqId = 0;
-                        return;
+                        // the caller gets no range (note: it would be better to throw an exception)
+                        return null;
                     }
                 }
             }
 
-            maxSeqId = curSeqId + bankSize;
+            long maxSeqId = curSeqId + bankSize;
             if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + maxSeqId + ", bankSize=" + bankSize, module);
+            return new SequenceRange(curSeqId, maxSeqId);
         }
     }
 }
@@ -21,7 +21,6 @@ package org.ofbiz.entityext.data;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
@@ -48,6 +47,7 @@ import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
 import org.ofbiz.entity.jdbc.DatabaseUtil;
 import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.util.EntityDataLoadPipeline;
 import org.ofbiz.entity.util.EntityDataLoader;
 import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityUtil;
@@ -77,6 +77,7 @@ public class EntityDataLoadContainer implements Container {
     protected boolean dropConstraints = false;
     protected boolean createConstraints = false;
     protected int txTimeout = -1;
+    protected int threads = 1;
 
     private String name;
 
@@ -102,6 +103,7 @@ public class EntityDataLoadContainer implements Container {
            group (overrides the entity group name configured for the container)
            dir (imports all XML files in a directory)
            file (import a specific XML file)
+           threads (number of files loaded at the same time, default 1)
 
            Example:
            $ java -jar ofbiz.jar -load-data -readers=seed,demo,ext -timeout=7200 -delegator=default -group=org.ofbiz
@@ -141,6 +143,12 @@ public class EntityDataLoadContainer implements Container {
                     } catch (Exception e) {
                         this.txTimeout = -1;
                     }
+                } else if ("threads".equalsIgnoreCase(argumentName)) {
+                    try {
+                        this.threads = Integer.parseInt(argumentVal);
+                    } catch (Exception e) {
+                        this.threads = 1;
+                    }
                 } else if ("component".equalsIgnoreCase(argumentName)) {
                     this.component = argumentVal;
                 } else if ("delegator".equalsIgnoreCase(argumentName)) {
@@ -186,6 +194,7 @@ public class EntityDataLoadContainer implements Container {
                     "-delegator=[name] .... use the defined delegator (default-no-eca)\n" +
                     "-group=[name] ........ override the entity group (org.ofbiz)\n" +
                     "-file=[path] ......... load a single file from location, several files separated by commas\n" +
+                    "-threads=[n] ......... load up to n files at the same time, files that depend on each other are loaded in order\n" +
                     "-createfks ........... create dummy (placeholder) FKs\n" +
                     "-maintainTxs ......... maintain timestamps in data file\n" +
                     "-inserts ............. use mostly inserts option\n" +
@@ -470,9 +479,11 @@ public class EntityDataLoadContainer implements Container {
         }
 
         // process the list of files
-        NumberFormat changedFormat = NumberFormat.getIntegerInstance();
-        changedFormat.setMinimumIntegerDigits(5);
-        changedFormat.setGroupingUsed(false);
+        EntityDataLoadPipeline pipeline = new EntityDataLoadPipeline(delegator, helperInfo.getHelperBaseName(), threads);
+        pipeline.setTransactionTimeout(txTimeout);
+        pipeline.setCreateDummyFks(useDummyFks);
+        pipeline.setMaintainTxStamps(maintainTxs);
+        pipeline.setTryInserts(tryInserts);
 
         List<Object> errorMessages = new LinkedList<Object>();
         List<String> infoMessages = new LinkedList<String>();
@@ -485,15 +496,7 @@ public class EntityDataLoadContainer implements Container {
 
             Debug.logImportant("=-=-=-=-=-=-= Starting the data load...", module);
 
-            for (URL dataUrl: urlList) {
-                try {
-                    int rowsChanged = EntityDataLoader.loadData(dataUrl, helperInfo.getHelperBaseName(), delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts);
-                    totalRowsChanged += rowsChanged;
-                    infoMessages.add(changedFormat.format(rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + dataUrl.toExternalForm());
-                } catch (GenericEntityException e) {
-                    Debug.logError(e, "Error loading data file: " + dataUrl.toExternalForm(), module);
-                }
-            }
+            totalRowsChanged = pipeline.load(urlList, errorMessages, infoMessages);
         } else {
             Debug.logImportant("=-=-=-=-=-=-= No data load files found.", module);
         }
@@ -505,6 +508,14 @@ public class EntityDataLoadContainer implements Container {
             }
         }
 
+        List<String> entityMessages = pipeline.getStatistics().getMessages();
+        if (entityMessages.size() > 0) {
+            Debug.logImportant("=-=-=-=-=-=-= Rows written per entity:", module);
+            for (String message: entityMessages) {
+              Debug.logImportant(message, module);
+            }
+        }
+
         if (errorMessages.size() > 0) {
             Debug.logImportant("The following errors occurred in the data load:", module);
             for (Object message: errorMessages) {
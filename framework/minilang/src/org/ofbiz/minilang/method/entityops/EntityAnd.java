@@ -46,7 +46,7 @@ public final class EntityAnd extends EntityOperation {
             MiniLangValidate.attributeNames(simpleMethod, element, "entity-name", "use-cache", "filter-by-date", "list", "distinct", "delegator-name");
             MiniLangValidate.requiredAttributes(simpleMethod, element, "entity-name", "list");
             MiniLangValidate.expressionAttributes(simpleMethod, element, "list");
-            MiniLangValidate.childElements(simpleMethod, element, "field-map", "order-by", "limit-range", "limit-view", "use-iterator");
+            MiniLangValidate.childElements(simpleMethod, element, "field-map", "order-by", "limit-range", "limit-view", "seek-view", "use-iterator");
             MiniLangValidate.requiredChildElements(simpleMethod, element, "field-map");
         }
         this.finder = new ByAndFinder(element);
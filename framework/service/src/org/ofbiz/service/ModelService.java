@@ -34,6 +34,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.wsdl.Binding;
 import javax.wsdl.BindingInput;
@@ -67,6 +69,7 @@ import org.ofbiz.base.util.UtilCodec;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.service.engine.JavaServiceInvoker;
 import org.ofbiz.service.group.GroupModel;
 import org.ofbiz.service.group.GroupServiceModel;
 import org.ofbiz.service.group.ServiceGroupReader;
@@ -211,6 +214,13 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      */
     public Metrics metrics = null;
 
+    /** The Java methods of the service bound by the java engine, by class loader; shared with the copies of this model */
+    private transient volatile ConcurrentMap<ClassLoader, JavaServiceInvoker> javaInvokers = null;
+
+    /** The resolved IN and OUT parameters, built on first use and dropped when a parameter is added */
+    private transient volatile ValidationPlan inValidationPlan = null;
+    private transient volatile ValidationPlan outValidationPlan = null;
+
     public ModelService() {}
 
     public ModelService(ModelService model) {
@@ -246,6 +256,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         for (ModelParam param: modelParamList) {
             this.addParamClone(param);
         }
+        // the copy has the same parameters and service method
+        this.inValidationPlan = model.inValidationPlan;
+        this.outValidationPlan = model.outValidationPlan;
+        this.javaInvokers = model.getJavaInvokers();
     }
 
     @Override
@@ -393,6 +407,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            this.inValidationPlan = null;
+            this.outValidationPlan = null;
         }
     }
 
@@ -468,19 +484,67 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         return count;
     }
 
-    public void updateDefaultValues(Map<String, Object> context, String mode) {
-        List<ModelParam> params = this.getModelParamList();
-        if (params != null) {
-            for (ModelParam param: params) {
-                if ("INOUT".equals(param.mode) || mode.equals(param.mode)) {
-                    Object defaultValueObj = param.getDefaultValue();
-                    if (defaultValueObj != null && context.get(param.name) == null) {
-                        context.put(param.name, defaultValueObj);
-                        Debug.logInfo("Set default value [" + defaultValueObj + "] for parameter [" + param.name + "]", module);
-                    }
+    private ConcurrentMap<ClassLoader, JavaServiceInvoker> getJavaInvokers() {
+        ConcurrentMap<ClassLoader, JavaServiceInvoker> invokers = this.javaInvokers;
+        if (invokers == null) {
+            synchronized (this) {
+                invokers = this.javaInvokers;
+                if (invokers == null) {
+                    invokers = new ConcurrentHashMap<ClassLoader, JavaServiceInvoker>();
+                    this.javaInvokers = invokers;
                 }
             }
         }
+        return invokers;
+    }
+
+    /**
+     * Returns the Java method of this service that the java engine bound with <code>classLoader</code>,
+     * or <code>null</code> if it was not bound yet.
+     */
+    public JavaServiceInvoker getJavaInvoker(ClassLoader classLoader) {
+        return classLoader == null ? null : getJavaInvokers().get(classLoader);
+    }
+
+    /** Keeps the Java method of this service that the java engine bound with <code>classLoader</code>. */
+    public void setJavaInvoker(ClassLoader classLoader, JavaServiceInvoker invoker) {
+        if (classLoader != null) {
+            getJavaInvokers().put(classLoader, invoker);
+        }
+    }
+
+    /**
+     * Returns the parameters of the mode (IN, OUT or INOUT) resolved for validation and
+     * conversion; the IN and OUT plans are kept until a parameter is added.
+     */
+    ValidationPlan getValidationPlan(String mode) {
+        ValidationPlan plan;
+        if (IN_PARAM.equals(mode)) {
+            plan = this.inValidationPlan;
+            if (plan == null) {
+                plan = new ValidationPlan(mode, this.getModelParamList(), this.contextInfo);
+                this.inValidationPlan = plan;
+            }
+        } else if (OUT_PARAM.equals(mode)) {
+            plan = this.outValidationPlan;
+            if (plan == null) {
+                plan = new ValidationPlan(mode, this.getModelParamList(), this.contextInfo);
+                this.outValidationPlan = plan;
+            }
+        } else {
+            plan = new ValidationPlan(mode, this.getModelParamList(), this.contextInfo);
+        }
+        return plan;
+    }
+
+    public void updateDefaultValues(Map<String, Object> context, String mode) {
+        for (ModelParam param: getValidationPlan(mode).getDefaultValueParams()) {
+            Object defaultValueObj = param.getDefaultValue();
+            if (defaultValueObj != null && context.get(param.name) == null) {
+                context.put(param.name, defaultValueObj);
+                Debug.logInfo("Set default value [" + defaultValueObj + "] for parameter [" + param.name + "]", module);
+            }
+        }
     }
 
     /**
@@ -490,8 +554,6 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
-        Map<String, String> requiredInfo = new HashMap<String, String>();
-        Map<String, String> optionalInfo = new HashMap<String, String>();
         boolean verboseOn = Debug.verboseOn();
 
         if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
@@ -505,35 +567,24 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         }
 
         // get the info values
-        for (ModelParam modelParam: this.contextParamList) {
-            // Debug.logInfo("In ModelService.validate preparing parameter [" + modelParam.name + (modelParam.optional?"(optional):":"(required):") + modelParam.mode + "] for service [" + this.name + "]", module);
-            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
-                if (modelParam.optional) {
-                    optionalInfo.put(modelParam.name, modelParam.type);
-                } else {
-                    requiredInfo.put(modelParam.name, modelParam.type);
-                }
-            }
-        }
+        ValidationPlan plan = getValidationPlan(mode);
+        Map<String, String> requiredInfo = plan.getRequiredInfo();
+        Map<String, String> optionalInfo = plan.getOptionalInfo();
 
         // get the test values
-        Map<String, Object> requiredTest = new HashMap<String, Object>();
-        Map<String, Object> optionalTest = new HashMap<String, Object>();
-
         if (context == null) context = new HashMap<String, Object>();
-        requiredTest.putAll(context);
+        Map<String, Object> requiredTest = new HashMap<String, Object>(context);
+        Map<String, Object> optionalTest = new HashMap<String, Object>();
 
         List<String> requiredButNull = new LinkedList<String>();
-        List<String> keyList = new LinkedList<String>();
-        keyList.addAll(requiredTest.keySet());
-        for (String key: keyList) {
-            Object value = requiredTest.get(key);
-
-            if (!requiredInfo.containsKey(key)) {
-                requiredTest.remove(key);
-                optionalTest.put(key, value);
-            } else if (value == null) {
-                requiredButNull.add(key);
+        Iterator<Map.Entry<String, Object>> testIter = requiredTest.entrySet().iterator();
+        while (testIter.hasNext()) {
+            Map.Entry<String, Object> entry = testIter.next();
+            if (!requiredInfo.containsKey(entry.getKey())) {
+                optionalTest.put(entry.getKey(), entry.getValue());
+                testIter.remove();
+            } else if (entry.getValue() == null) {
+                requiredButNull.add(entry.getKey());
             }
         }
 
@@ -569,8 +620,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         }
 
         try {
-            validate(requiredInfo, requiredTest, true, this, mode, locale);
-            validate(optionalInfo, optionalTest, false, this, mode, locale);
+            validate(requiredInfo, requiredTest, true, this, plan, mode, locale);
+            validate(optionalInfo, optionalTest, false, this, plan, mode, locale);
         } catch (ServiceValidationException e) {
             Debug.logError("[ModelService.validate] : {" + name + "} : (" + mode + ") Required test error: " + e.toString(), module);
             throw e;
@@ -579,10 +630,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         // required and type validation complete, do allow-html validation
         if ("IN".equals(mode)) {
             List<String> errorMessageList = new LinkedList<String>();
-            for (ModelParam modelParam : this.contextInfo.values()) {
-                // the param is a String, allow-html is not any, and we are looking at an IN parameter during input parameter validation
-                if (context.get(modelParam.name) != null && ("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type)) 
-                        && !"any".equals(modelParam.allowHtml) && ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
+            // the param is a String, allow-html is not any, and we are looking at an IN parameter during input parameter validation
+            for (ModelParam modelParam : plan.getHtmlCheckedParams()) {
+                if (context.get(modelParam.name) != null) {
                     String value = (String) context.get(modelParam.name);
                     UtilCodec.checkStringForHtmlStrictNone(modelParam.name, value, errorMessageList);
                 }
@@ -600,6 +650,11 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param reverse Test the maps in reverse.
      */
     public static void validate(Map<String, String> info, Map<String, ? extends Object> test, boolean reverse, ModelService model, String mode, Locale locale) throws ServiceValidationException {
+        validate(info, test, reverse, model, null, mode, locale);
+    }
+
+    // with a plan the type classes and validator methods resolved in it are used
+    private static void validate(Map<String, String> info, Map<String, ? extends Object> test, boolean reverse, ModelService model, ValidationPlan plan, String mode, Locale locale) throws ServiceValidationException {
         if (info == null || test == null) {
             throw new ServiceValidationException("Cannot validate NULL maps", model);
         }
@@ -665,7 +720,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
                 for (ModelParam.ModelParamValidator val: param.validators) {
                     if (UtilValidate.isNotEmpty(val.getMethodName())) {
                         try {
-                            if (!typeValidate(val, testObject)) {
+                            if (!(plan != null ? plan.typeValidate(val, testObject) : typeValidate(val, testObject))) {
                                 String msg = val.getFailMessage(locale);
                                 if (msg == null) {
                                     msg = "The following parameter failed validation: [" + model.name + "." + key + "]";
@@ -681,7 +736,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
                             typeFailMsgs.add(msg);
                         }
                     } else {
-                        if (!ObjectType.instanceOf(testObject, infoType, null)) {
+                        if (!(plan != null ? plan.instanceOf(key, testObject, infoType) : ObjectType.instanceOf(testObject, infoType, null))) {
                             String msg = val.getFailMessage(locale);
                             if (msg == null) {
                                 msg = "The following parameter failed validation: [" + model.name + "." + key + "]";
@@ -691,7 +746,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
                     }
                 }
             } else {
-                if (!ObjectType.instanceOf(testObject, infoType, null)) {
+                if (!(plan != null ? plan.instanceOf(key, testObject, infoType) : ObjectType.instanceOf(testObject, infoType, null))) {
                     String testType = testObject == null ? "null" : testObject.getClass().getName();
                     String msg = "Type check failed for field [" + model.name + "." + key + "]; expected type is [" + infoType + "]; actual type is [" + testType + "]";
                     typeFailMsgs.add(msg);
@@ -875,30 +930,32 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             }
         }
 
-        for (ModelParam param: contextParamList) {
+        ValidationPlan plan = getValidationPlan(mode);
+        for (ModelParam param: plan.getParams()) {
             //boolean internalParam = param.internal;
 
-            if (param.mode.equals("INOUT") || param.mode.equals(mode)) {
-                String key = param.name;
+            String key = param.name;
 
-                // internal map of strings
-                if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
-                    Map<String, Object> paramMap = this.makePrefixMap(source, param);
-                    if (UtilValidate.isNotEmpty(paramMap)) {
-                        target.put(key, paramMap);
-                    }
-                // internal list of strings
-                } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
-                    List<Object> paramList = this.makeSuffixList(source, param);
-                    if (UtilValidate.isNotEmpty(paramList)) {
-                        target.put(key, paramList);
-                    }
-                // other attributes
-                } else {
-                    if (source.containsKey(key)) {
-                        if ((param.internal && includeInternal) || (!param.internal)) {
-                            Object value = source.get(key);
+            // internal map of strings
+            if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
+                Map<String, Object> paramMap = this.makePrefixMap(source, param);
+                if (UtilValidate.isNotEmpty(paramMap)) {
+                    target.put(key, paramMap);
+                }
+            // internal list of strings
+            } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
+                List<Object> paramList = this.makeSuffixList(source, param);
+                if (UtilValidate.isNotEmpty(paramList)) {
+                    target.put(key, paramList);
+                }
+            // other attributes
+            } else {
+                if (source.containsKey(key)) {
+                    if ((param.internal && includeInternal) || (!param.internal)) {
+                        Object value = source.get(key);
 
+                        // values that already have the parameter's class are not converted again
+                        if (!plan.isConverted(key, value)) {
                             try {
                                 // no need to fail on type conversion; the validator will catch this
                                 value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
@@ -909,8 +966,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
                                     errorMessages.add(errMsg);
                                 }
                             }
-                            target.put(key, value);
                         }
+                        target.put(key, value);
                     }
                 }
             }
@@ -1188,6 +1245,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
                 }
             }
 
+            // inherited parameters may have been changed in place, rebuild the validation plans
+            this.inValidationPlan = null;
+            this.outValidationPlan = null;
+
             // set the flag so we don't do this again
             this.inheritedParameters = true;
         }
@@ -47,6 +47,7 @@ import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericDelegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.connection.MonitoredConnectionPool;
 import org.ofbiz.entity.transaction.DebugXaResource;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
@@ -279,6 +280,8 @@ public class ServiceDispatcher {
         boolean isFailure = false;
         boolean isError = false;
         boolean beganTrans = false;
+        // connections borrowed while the service runs are accounted to it
+        MonitoredConnectionPool.pushOwner(modelService.name);
         try {
             // check for semaphore and aquire a lock
             if ("wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore)) {
@@ -484,10 +487,12 @@ public class ServiceDispatcher {
                 } while (needsLockRetry && lockRetriesRemaining > 0);
 
                 // create a new context with the results to pass to ECA services; necessary because caller may reuse this context
-                ecaContext = new HashMap<String, Object>();
-                ecaContext.putAll(context);
-                // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
-                ecaContext.putAll(result);
+                if (eventMap != null) {
+                    ecaContext = new HashMap<String, Object>();
+                    ecaContext.putAll(context);
+                    // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
+                    ecaContext.putAll(result);
+                }
 
                 // setup default OUT values
                 modelService.updateDefaultValues(context, ModelService.OUT_PARAM);
@@ -575,6 +580,7 @@ public class ServiceDispatcher {
             Debug.logError(te, "Problems with the transaction", module);
             throw new GenericServiceException("Problems with the transaction.", te.getNested());
         } finally {
+            MonitoredConnectionPool.popOwner();
             if (lock != null) {
                 // release the semaphore lock
                 try {
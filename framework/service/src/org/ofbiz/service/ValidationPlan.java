@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.UtilValidate;
+import org.w3c.dom.Node;
+
+/**
+ * The parameters of a {@link ModelService} for one mode, resolved once so that validating
+ * and converting a context does not sort the parameters, load type classes or look up
+ * validator methods on every service call. A plan is built the first time the service is
+ * validated and dropped when a parameter is added to the service.
+ * <p>Anything that cannot be resolved up front (an unknown type, a missing validator) is
+ * left to the per call code in {@link ModelService}, so the errors stay the same.</p>
+ */
+@ThreadSafe
+final class ValidationPlan {
+
+    private final List<ModelParam> params;
+    private final Map<String, String> requiredInfo;
+    private final Map<String, String> optionalInfo;
+    private final List<ModelParam> defaultValueParams;
+    private final List<ModelParam> htmlCheckedParams;
+    private final Map<String, Class<?>> typeClasses;
+    private final Map<String, Class<?>> convertClasses;
+    private final Map<ModelParam.ModelParamValidator, BoundValidator> validators;
+
+    ValidationPlan(String mode, List<ModelParam> contextParamList, Map<String, ModelParam> contextInfo) {
+        List<ModelParam> params = new ArrayList<ModelParam>();
+        Map<String, String> requiredInfo = new HashMap<String, String>();
+        Map<String, String> optionalInfo = new HashMap<String, String>();
+        List<ModelParam> defaultValueParams = new ArrayList<ModelParam>();
+        Map<String, Class<?>> typeClasses = new HashMap<String, Class<?>>();
+        Map<String, Class<?>> convertClasses = new HashMap<String, Class<?>>();
+        Map<ModelParam.ModelParamValidator, BoundValidator> validators = new IdentityHashMap<ModelParam.ModelParamValidator, BoundValidator>();
+        for (ModelParam param: contextParamList) {
+            if (!"INOUT".equals(param.mode) && !mode.equals(param.mode)) {
+                continue;
+            }
+            params.add(param);
+            if (param.optional) {
+                optionalInfo.put(param.name, param.type);
+            } else {
+                requiredInfo.put(param.name, param.type);
+            }
+            if (param.getDefaultValue() != null) {
+                defaultValueParams.add(param);
+            }
+            Class<?> typeClass = loadTypeClass(param.type);
+            if (typeClass != null) {
+                typeClasses.put(param.name, typeClass);
+            }
+            Class<?> convertClass = loadConvertClass(param.type);
+            if (convertClass != null) {
+                convertClasses.put(param.name, convertClass);
+            }
+            if (UtilValidate.isNotEmpty(param.validators)) {
+                for (ModelParam.ModelParamValidator val: param.validators) {
+                    if (UtilValidate.isNotEmpty(val.getMethodName())) {
+                        BoundValidator bound = BoundValidator.bind(val);
+                        if (bound != null) {
+                            validators.put(val, bound);
+                        }
+                    }
+                }
+            }
+        }
+        List<ModelParam> htmlCheckedParams = new ArrayList<ModelParam>();
+        if ("IN".equals(mode)) {
+            for (ModelParam param: contextInfo.values()) {
+                if (("String".equals(param.type) || "java.lang.String".equals(param.type)) && !"any".equals(param.allowHtml)
+                        && ("INOUT".equals(param.mode) || "IN".equals(param.mode))) {
+                    htmlCheckedParams.add(param);
+                }
+            }
+        }
+        this.params = Collections.unmodifiableList(params);
+        this.requiredInfo = Collections.unmodifiableMap(requiredInfo);
+        this.optionalInfo = Collections.unmodifiableMap(optionalInfo);
+        this.defaultValueParams = Collections.unmodifiableList(defaultValueParams);
+        this.htmlCheckedParams = Collections.unmodifiableList(htmlCheckedParams);
+        this.typeClasses = typeClasses;
+        this.convertClasses = convertClasses;
+        this.validators = validators;
+    }
+
+    // the class ObjectType.instanceOf(Object, String, ClassLoader) would check against
+    private static Class<?> loadTypeClass(String type) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return ObjectType.loadInfoClass(type, null);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // the class ObjectType.simpleTypeConvert would convert to
+    private static Class<?> loadConvertClass(String type) {
+        if (UtilValidate.isEmpty(type) || "Object".equals(type) || "java.lang.Object".equals(type) || "PlainString".equals(type)) {
+            return null;
+        }
+        int genericsStart = type.indexOf("<");
+        if (genericsStart != -1) {
+            type = type.substring(0, genericsStart);
+        }
+        try {
+            return ObjectType.loadClass(type);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /** Returns the parameters of the mode, INOUT included, in definition order. */
+    List<ModelParam> getParams() {
+        return params;
+    }
+
+    /** Returns the types of the required parameters by name. */
+    Map<String, String> getRequiredInfo() {
+        return requiredInfo;
+    }
+
+    /** Returns the types of the optional parameters by name. */
+    Map<String, String> getOptionalInfo() {
+        return optionalInfo;
+    }
+
+    /** Returns the parameters that have a default value. */
+    List<ModelParam> getDefaultValueParams() {
+        return defaultValueParams;
+    }
+
+    /** Returns the String parameters whose values are checked for HTML, only for the IN mode. */
+    List<ModelParam> getHtmlCheckedParams() {
+        return htmlCheckedParams;
+    }
+
+    /** Same as <code>ObjectType.instanceOf(testObject, infoType, null)</code> for the type of parameter <code>name</code>. */
+    boolean instanceOf(String name, Object testObject, String infoType) {
+        Class<?> typeClass = typeClasses.get(name);
+        if (typeClass == null) {
+            return ObjectType.instanceOf(testObject, infoType, null);
+        }
+        return ObjectType.instanceOf(testObject, typeClass);
+    }
+
+    /** Returns true if ObjectType.simpleTypeConvert would return <code>value</code> unchanged for parameter <code>name</code>. */
+    boolean isConverted(String name, Object value) {
+        if (value == null || value instanceof Node) {
+            return value == null;
+        }
+        return value.getClass() == convertClasses.get(name);
+    }
+
+    /** Same as {@link ModelService#typeValidate(ModelParam.ModelParamValidator, Object)}. */
+    boolean typeValidate(ModelParam.ModelParamValidator vali, Object testValue) throws GeneralException {
+        BoundValidator bound = validators.get(vali);
+        if (bound == null) {
+            return ModelService.typeValidate(vali, testValue);
+        }
+        return bound.validate(testValue);
+    }
+
+    private static final class BoundValidator {
+        private final ModelParam.ModelParamValidator vali;
+        private final Method validatorMethod;
+        private final boolean foundObjectParam;
+
+        // returns null if the class or the method can't be found, the per call code reports that
+        private static BoundValidator bind(ModelParam.ModelParamValidator vali) {
+            Class<?> validatorClass;
+            try {
+                validatorClass = ObjectType.loadClass(vali.getClassName());
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            try {
+                return new BoundValidator(vali, validatorClass.getMethod(vali.getMethodName(), Object.class), true);
+            } catch (NoSuchMethodException e) {
+                try {
+                    return new BoundValidator(vali, validatorClass.getMethod(vali.getMethodName(), String.class), false);
+                } catch (NoSuchMethodException e2) {
+                    return null;
+                }
+            }
+        }
+
+        private BoundValidator(ModelParam.ModelParamValidator vali, Method validatorMethod, boolean foundObjectParam) {
+            this.vali = vali;
+            this.validatorMethod = validatorMethod;
+            this.foundObjectParam = foundObjectParam;
+        }
+
+        private boolean validate(Object testValue) throws GeneralException {
+            Object param;
+            if (!foundObjectParam) {
+                // convert to string
+                try {
+                    param = (String) ObjectType.simpleTypeConvert(testValue, "String", null, null);
+                } catch (GeneralException e) {
+                    throw new GeneralException("Unable to convert parameter to String");
+                }
+            } else {
+                // use plain object
+                param = testValue;
+            }
+
+            // run the validator
+            Boolean resultBool;
+            try {
+                resultBool = (Boolean) validatorMethod.invoke(null, param);
+            } catch (ClassCastException e) {
+                throw new GeneralException("Validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "] did not return expected Boolean");
+            } catch (Exception e) {
+                throw new GeneralException("Unable to run validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "]");
+            }
+
+            return resultBool.booleanValue();
+        }
+    }
+}
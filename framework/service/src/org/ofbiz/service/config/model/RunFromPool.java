@@ -28,7 +28,10 @@ import org.w3c.dom.Element;
 @ThreadSafe
 public final class RunFromPool {
 
+    public static final int WEIGHT = 1;
+
     private final String name;
+    private final int weight;
 
     RunFromPool(Element runFromPoolElement) throws ServiceConfigException {
         String name = runFromPoolElement.getAttribute("name").intern();
@@ -36,9 +39,26 @@ public final class RunFromPool {
             throw new ServiceConfigException("<run-from-pool> element name attribute is empty");
         }
         this.name = name;
+        String weight = runFromPoolElement.getAttribute("weight").intern();
+        if (weight.isEmpty()) {
+            this.weight = WEIGHT;
+        } else {
+            try {
+                this.weight = Integer.parseInt(weight);
+                if (this.weight < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element weight attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element weight attribute value is invalid");
+            }
+        }
     }
 
     public String getName() {
         return name;
     }
+
+    public int getWeight() {
+        return weight;
+    }
 }
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.config.model;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.service.config.ServiceConfigException;
+import org.w3c.dom.Element;
+
+/**
+ * An object that models the <code>&lt;service-limit&gt;</code> element.
+ */
+@ThreadSafe
+public final class ServiceLimit {
+
+    private final String serviceName;
+    private final int maxThreads;
+
+    ServiceLimit(Element serviceLimitElement) throws ServiceConfigException {
+        String serviceName = serviceLimitElement.getAttribute("service-name").intern();
+        if (serviceName.isEmpty()) {
+            throw new ServiceConfigException("<service-limit> element service-name attribute is empty");
+        }
+        this.serviceName = serviceName;
+        String maxThreads = serviceLimitElement.getAttribute("max-threads").intern();
+        try {
+            this.maxThreads = Integer.parseInt(maxThreads);
+            if (this.maxThreads < 1) {
+                throw new ServiceConfigException("<service-limit> element max-threads attribute value is invalid");
+            }
+        } catch (Exception e) {
+            throw new ServiceConfigException("<service-limit> element max-threads attribute value is invalid");
+        }
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+}
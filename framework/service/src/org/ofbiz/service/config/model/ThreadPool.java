@@ -33,23 +33,34 @@ import org.w3c.dom.Element;
 @ThreadSafe
 public final class ThreadPool {
 
+    public static final int CLAIM_BATCH_SIZE = 50;
     public static final int FAILED_RETRY_MIN = 30;
     public static final int MIN_THREADS = 1; // Must be no less than one or the executor will shut down.
     public static final int MAX_THREADS = 5; // Values higher than 5 might slow things down.
     public static final int POLL_WAIT = 30000; // Database polling interval - 30 seconds.
+    public static final int PURGE_CHUNK_SIZE = 500;
     public static final int PURGE_JOBS_DAYS = 30;
+    public static final int PURGE_PAUSE = 1000; // Pause between purge chunks - 1 second.
     public static final int QUEUE_SIZE = 100;
+    public static final int SUBMIT_WAIT = 10000; // Wait for room in a full queue - 10 seconds.
     public static final int THREAD_TTL = 120000; // Idle thread lifespan - 2 minutes.
 
+    private final int claimBatchSize;
     private final int failedRetryMin;
     private final int jobs;
     private final int maxThreads;
     private final int minThreads;
     private final int pollDbMillis;
     private final boolean pollEnabled;
+    private final String purgeArchiveDir;
+    private final int purgeChunkSize;
     private final int purgeJobDays;
+    private final int purgePauseMillis;
+    private final boolean pushEnabled;
     private final List<RunFromPool> runFromPools;
     private final String sendToPool;
+    private final List<ServiceLimit> serviceLimits;
+    private final int submitWaitMillis;
     private final int ttl;
 
     ThreadPool(Element poolElement) throws ServiceConfigException {
@@ -71,6 +82,33 @@ public final class ThreadPool {
                 throw new ServiceConfigException("<thread-pool> element purge-job-days attribute value is invalid");
             }
         }
+        String purgeChunkSize = poolElement.getAttribute("purge-chunk-size").intern();
+        if (purgeChunkSize.isEmpty()) {
+            this.purgeChunkSize = PURGE_CHUNK_SIZE;
+        } else {
+            try {
+                this.purgeChunkSize = Integer.parseInt(purgeChunkSize);
+                if (this.purgeChunkSize < 1) {
+                    throw new ServiceConfigException("<thread-pool> element purge-chunk-size attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<thread-pool> element purge-chunk-size attribute value is invalid");
+            }
+        }
+        String purgePauseMillis = poolElement.getAttribute("purge-pause-millis").intern();
+        if (purgePauseMillis.isEmpty()) {
+            this.purgePauseMillis = PURGE_PAUSE;
+        } else {
+            try {
+                this.purgePauseMillis = Integer.parseInt(purgePauseMillis);
+                if (this.purgePauseMillis < 0) {
+                    throw new ServiceConfigException("<thread-pool> element purge-pause-millis attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<thread-pool> element purge-pause-millis attribute value is invalid");
+            }
+        }
+        this.purgeArchiveDir = poolElement.getAttribute("purge-archive-dir").intern();
         String failedRetryMin = poolElement.getAttribute("failed-retry-min").intern();
         if (failedRetryMin.isEmpty()) {
             this.failedRetryMin = FAILED_RETRY_MIN;
@@ -150,6 +188,33 @@ public final class ThreadPool {
                 throw new ServiceConfigException("<thread-pool> element poll-db-millis attribute value is invalid");
             }
         }
+        this.pushEnabled = !"false".equals(poolElement.getAttribute("push-enabled"));
+        String claimBatchSize = poolElement.getAttribute("claim-batch-size").intern();
+        if (claimBatchSize.isEmpty()) {
+            this.claimBatchSize = CLAIM_BATCH_SIZE;
+        } else {
+            try {
+                this.claimBatchSize = Integer.parseInt(claimBatchSize);
+                if (this.claimBatchSize < 1) {
+                    throw new ServiceConfigException("<thread-pool> element claim-batch-size attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<thread-pool> element claim-batch-size attribute value is invalid");
+            }
+        }
+        String submitWaitMillis = poolElement.getAttribute("submit-wait-millis").intern();
+        if (submitWaitMillis.isEmpty()) {
+            this.submitWaitMillis = SUBMIT_WAIT;
+        } else {
+            try {
+                this.submitWaitMillis = Integer.parseInt(submitWaitMillis);
+                if (this.submitWaitMillis < 0) {
+                    throw new ServiceConfigException("<thread-pool> element submit-wait-millis attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<thread-pool> element submit-wait-millis attribute value is invalid");
+            }
+        }
         List<? extends Element> runFromPoolElementList = UtilXml.childElementList(poolElement, "run-from-pool");
         if (runFromPoolElementList.isEmpty()) {
             this.runFromPools = Collections.emptyList();
@@ -160,6 +225,20 @@ public final class ThreadPool {
             }
             this.runFromPools = Collections.unmodifiableList(runFromPools);
         }
+        List<? extends Element> serviceLimitElementList = UtilXml.childElementList(poolElement, "service-limit");
+        if (serviceLimitElementList.isEmpty()) {
+            this.serviceLimits = Collections.emptyList();
+        } else {
+            List<ServiceLimit> serviceLimits = new ArrayList<ServiceLimit>(serviceLimitElementList.size());
+            for (Element serviceLimitElement : serviceLimitElementList) {
+                serviceLimits.add(new ServiceLimit(serviceLimitElement));
+            }
+            this.serviceLimits = Collections.unmodifiableList(serviceLimits);
+        }
+    }
+
+    public int getClaimBatchSize() {
+        return claimBatchSize;
     }
 
     public int getFailedRetryMin() {
@@ -186,10 +265,26 @@ public final class ThreadPool {
         return pollEnabled;
     }
 
+    public String getPurgeArchiveDir() {
+        return purgeArchiveDir;
+    }
+
+    public int getPurgeChunkSize() {
+        return purgeChunkSize;
+    }
+
     public int getPurgeJobDays() {
         return purgeJobDays;
     }
 
+    public int getPurgePauseMillis() {
+        return purgePauseMillis;
+    }
+
+    public boolean getPushEnabled() {
+        return pushEnabled;
+    }
+
     public List<RunFromPool> getRunFromPools() {
         return this.runFromPools;
     }
@@ -198,6 +293,14 @@ public final class ThreadPool {
         return sendToPool;
     }
 
+    public List<ServiceLimit> getServiceLimits() {
+        return this.serviceLimits;
+    }
+
+    public int getSubmitWaitMillis() {
+        return submitWaitMillis;
+    }
+
     public int getTtl() {
         return ttl;
     }
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.ObjectType;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -51,6 +52,8 @@ public class ServiceEcaCondition implements java.io.Serializable {
     protected String format = null;
     protected boolean isConstant = false;
     protected boolean isService = false;
+    // built on the first evaluation, once all attributes are set
+    private transient volatile ConditionEvaluator evaluator = null;
 
     protected ServiceEcaCondition() {}
 
@@ -119,25 +122,88 @@ public class ServiceEcaCondition implements java.io.Serializable {
 
         if (Debug.verboseOn()) Debug.logVerbose(this.toString() + ", In the context: " + context, module);
 
+        ConditionEvaluator evaluator = this.evaluator;
+        if (evaluator == null) {
+            evaluator = compile();
+            this.evaluator = evaluator;
+        }
+        return evaluator.eval(serviceName, dctx, context);
+    }
+
+    /**
+     * Resolves what does not depend on the context once: the kind of condition, the operator
+     * and the constant converted to the compare type. Plain String equality against a
+     * constant, the most common condition, is checked without going through ObjectType.
+     */
+    private ConditionEvaluator compile() {
         // condition-service; run the service and return the reply result
         if (isService) {
-            LocalDispatcher dispatcher = dctx.getDispatcher();
-            Map<String, Object> conditionServiceResult = dispatcher.runSync(conditionService,
-                    UtilMisc.<String, Object>toMap("serviceContext", context, "serviceName", serviceName,
-                            "userLogin", context.get("userLogin")));
-
-            Boolean conditionReply = Boolean.FALSE;
-            if (ServiceUtil.isError(conditionServiceResult)) {
-                Debug.logError("Error in condition-service : " +
-                        ServiceUtil.getErrorMessage(conditionServiceResult), module);
-            } else {
-                conditionReply = (Boolean) conditionServiceResult.get("conditionReply");
+            return new ConditionEvaluator() {
+                public boolean eval(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException {
+                    return evalService(serviceName, dctx, context);
+                }
+            };
+        }
+
+        if (isConstant && UtilValidate.isEmpty(format) && ("String".equals(compareType) || "java.lang.String".equals(compareType))
+                && ("equals".equals(operator) || "not-equals".equals(operator))) {
+            final boolean equals = "equals".equals(operator);
+            return new ConditionEvaluator() {
+                public boolean eval(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException {
+                    Object lhsValue = getLhsValue(serviceName, context);
+                    if (lhsValue == null) {
+                        return !equals;
+                    }
+                    if (lhsValue instanceof String) {
+                        if (Debug.verboseOn()) Debug.logVerbose("Comparing : " + lhsValue + " " + operator + " " + rhsValueName, module);
+                        return equals == rhsValueName.equals(lhsValue);
+                    }
+                    return compare(lhsValue, rhsValueName, dctx);
+                }
+            };
+        }
+
+        if (isConstant) {
+            // converting the converted constant again is a no-op; if it can't be converted let the compare report it
+            Object convertedConstant = rhsValueName;
+            try {
+                convertedConstant = ObjectType.simpleTypeConvert(rhsValueName, compareType, format, UtilMisc.parseLocale("en"));
+            } catch (GeneralException e) {
+            }
+            final Object rhsValue = convertedConstant;
+            return new ConditionEvaluator() {
+                public boolean eval(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException {
+                    return compare(getLhsValue(serviceName, context), rhsValue, dctx);
+                }
+            };
+        }
+
+        return new ConditionEvaluator() {
+            public boolean eval(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException {
+                Object lhsValue = getLhsValue(serviceName, context);
+                return compare(lhsValue, getRhsValue(serviceName, context), dctx);
             }
-            return conditionReply.booleanValue();
+        };
+    }
+
+    private boolean evalService(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException {
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        Map<String, Object> conditionServiceResult = dispatcher.runSync(conditionService,
+                UtilMisc.<String, Object>toMap("serviceContext", context, "serviceName", serviceName,
+                        "userLogin", context.get("userLogin")));
+
+        Boolean conditionReply = Boolean.FALSE;
+        if (ServiceUtil.isError(conditionServiceResult)) {
+            Debug.logError("Error in condition-service : " +
+                    ServiceUtil.getErrorMessage(conditionServiceResult), module);
+        } else {
+            conditionReply = (Boolean) conditionServiceResult.get("conditionReply");
         }
+        return conditionReply.booleanValue();
+    }
 
+    private Object getLhsValue(String serviceName, Map<String, Object> context) throws GenericServiceException {
         Object lhsValue = null;
-        Object rhsValue = null;
         if (UtilValidate.isNotEmpty(lhsMapName)) {
             try {
                 if (context.containsKey(lhsMapName)) {
@@ -156,10 +222,12 @@ public class ServiceEcaCondition implements java.io.Serializable {
                 Debug.logInfo("From Field (" + lhsValueName + ") is not found in context for " + serviceName + ", defaulting to null.", module);
             }
         }
+        return lhsValue;
+    }
 
-        if (isConstant) {
-            rhsValue = rhsValueName;
-        } else if (UtilValidate.isNotEmpty(rhsMapName)) {
+    private Object getRhsValue(String serviceName, Map<String, Object> context) throws GenericServiceException {
+        Object rhsValue = null;
+        if (UtilValidate.isNotEmpty(rhsMapName)) {
             try {
                 if (context.containsKey(rhsMapName)) {
                     Map<String, ? extends Object> envMap = UtilGenerics.checkMap(context.get(rhsMapName));
@@ -177,7 +245,10 @@ public class ServiceEcaCondition implements java.io.Serializable {
                 Debug.logInfo("To Field (" + rhsValueName + ") is not found in context for " + serviceName + ", defaulting to null.", module);
             }
         }
+        return rhsValue;
+    }
 
+    private boolean compare(Object lhsValue, Object rhsValue, DispatchContext dctx) {
         if (Debug.verboseOn()) Debug.logVerbose("Comparing : " + lhsValue + " " + operator + " " + rhsValue, module);
 
         // evaluate the condition & invoke the action(s)
@@ -198,6 +269,10 @@ public class ServiceEcaCondition implements java.io.Serializable {
         }
     }
 
+    private interface ConditionEvaluator {
+        boolean eval(String serviceName, DispatchContext dctx, Map<String, Object> context) throws GenericServiceException;
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
@@ -48,6 +49,10 @@ public final class ServiceEcaRule implements java.io.Serializable {
     protected final List<Object> actionsAndSets = new ArrayList<Object>();
     protected boolean enabled = true;
     protected final String definitionLocation;
+    // statistics shown in webtools: how often the rule was evaluated, how often its conditions were true and the time spent
+    private final AtomicLong evalCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
 
     public ServiceEcaRule(Element eca, String definitionLocation) {
         this.definitionLocation = definitionLocation;
@@ -130,6 +135,16 @@ public final class ServiceEcaRule implements java.io.Serializable {
             return;
         }
 
+        long startTime = System.nanoTime();
+        try {
+            evalConditionsAndActions(serviceName, dctx, context, result, actionsRun);
+        } finally {
+            evalCount.incrementAndGet();
+            totalNanos.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    private void evalConditionsAndActions(String serviceName, DispatchContext dctx, Map<String, Object> context, Map<String, Object> result, Set<String> actionsRun) throws GenericServiceException {
         boolean allCondTrue = true;
         for (ServiceEcaCondition ec: conditions) {
             if (!ec.eval(serviceName, dctx, context)) {
@@ -147,6 +162,7 @@ public final class ServiceEcaRule implements java.io.Serializable {
 
         // if all conditions are true
         if (allCondTrue) {
+            hitCount.incrementAndGet();
             for (Object setOrAction: actionsAndSets) {
                 if (setOrAction instanceof ServiceEcaAction) {
                     ServiceEcaAction ea = (ServiceEcaAction) setOrAction;
@@ -168,6 +184,27 @@ public final class ServiceEcaRule implements java.io.Serializable {
         }
     }
 
+    /** Returns how often the rule was evaluated, not counting the calls skipped because of errors or failures. */
+    public long getEvalCount() {
+        return evalCount.get();
+    }
+
+    /** Returns how often all conditions of the rule were true and its actions ran. */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the time spent evaluating the conditions and running the actions of the rule. */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public void clearCounters() {
+        evalCount.set(0);
+        hitCount.set(0);
+        totalNanos.set(0);
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
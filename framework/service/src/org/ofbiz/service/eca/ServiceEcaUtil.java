@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.ofbiz.service.eca;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -135,13 +136,13 @@ public class ServiceEcaUtil {
 
             if (eventMap == null) {
                 eventMap = new HashMap<String, List<ServiceEcaRule>>();
-                rules = new LinkedList<ServiceEcaRule>();
+                rules = new ArrayList<ServiceEcaRule>();
                 ecaCache.put(serviceName, eventMap);
                 eventMap.put(eventName, rules);
             } else {
                 rules = eventMap.get(eventName);
                 if (rules == null) {
-                    rules = new LinkedList<ServiceEcaRule>();
+                    rules = new ArrayList<ServiceEcaRule>();
                     eventMap.put(eventName, rules);
                 }
             }
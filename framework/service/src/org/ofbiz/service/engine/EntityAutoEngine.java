@@ -356,6 +356,8 @@ public final class EntityAutoEngine extends GenericAsyncEngine {
                         }
                     }
                 }
+                // a single row per call; the JDBC batching of Delegator.storeAll only pays off for many rows,
+                // and callers writing many rows should call storeAll rather than an entity-auto service per row
                 lookedUpValue.store();
             } else if ("delete".equals(modelService.invoke)) {
                 /*
@@ -41,6 +41,7 @@ import org.ofbiz.service.job.GenericServiceJob;
 import org.ofbiz.service.job.Job;
 import org.ofbiz.service.job.JobManager;
 import org.ofbiz.service.job.JobManagerException;
+import org.ofbiz.service.job.JobPriority;
 
 /**
  * Generic Asynchronous Engine
@@ -112,6 +113,7 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
                 jFields.put("loaderName", localName);
                 jFields.put("maxRetry", Long.valueOf(modelService.maxRetry));
                 jFields.put("runtimeDataId", dataId);
+                jFields.put("priority", JobPriority.NORMAL);
                 if (UtilValidate.isNotEmpty(authUserLoginId)) {
                     jFields.put("authUserLoginId", authUserLoginId);
                 }
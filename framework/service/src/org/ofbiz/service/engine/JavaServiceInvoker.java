@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.service.DispatchContext;
+
+/**
+ * A Java service method bound once to a method handle, so calling the service does not
+ * load the class and look up the method each time. Non-static methods are called on a new
+ * instance for each call, like before.
+ */
+@ThreadSafe
+public final class JavaServiceInvoker {
+
+    private static final MethodType SERVICE_TYPE = MethodType.methodType(Object.class, DispatchContext.class, Map.class);
+
+    private final ClassLoader classLoader;
+    private final String location;
+    private final String invoke;
+    private final MethodHandle handle;
+
+    /**
+     * Binds the <code>public Map&lt;String, Object&gt; invoke(DispatchContext dctx, Map&lt;String, Object&gt; context)</code>
+     * method of the <code>location</code> class loaded with <code>classLoader</code>.
+     */
+    public static JavaServiceInvoker bind(ClassLoader classLoader, String location, String invoke) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+        Class<?> c = classLoader.loadClass(location);
+        Method m = c.getMethod(invoke, DispatchContext.class, Map.class);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(m);
+        if (!Modifier.isStatic(m.getModifiers())) {
+            // (C, DispatchContext, Map) with a new C for each call
+            handle = MethodHandles.foldArguments(handle, lookup.findConstructor(c, MethodType.methodType(void.class)));
+        }
+        return new JavaServiceInvoker(classLoader, location, invoke, handle.asType(SERVICE_TYPE));
+    }
+
+    private JavaServiceInvoker(ClassLoader classLoader, String location, String invoke, MethodHandle handle) {
+        this.classLoader = classLoader;
+        this.location = location;
+        this.invoke = invoke;
+        this.handle = handle;
+    }
+
+    /** Returns true if this invoker was bound to the same method with the same class loader. */
+    public boolean isBoundTo(ClassLoader classLoader, String location, String invoke) {
+        return this.classLoader == classLoader && this.location.equals(location) && this.invoke.equals(invoke);
+    }
+
+    /** Calls the service method; exceptions thrown by the method are passed through unwrapped. */
+    public Object invoke(DispatchContext dctx, Map<String, Object> context) throws Throwable {
+        return (Object) handle.invokeExact(dctx, context);
+    }
+}
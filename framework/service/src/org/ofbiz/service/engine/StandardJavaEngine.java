@@ -18,9 +18,7 @@
  */
 package org.ofbiz.service.engine;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.lang.invoke.WrongMethodTypeException;
 import java.util.Map;
 
 import org.ofbiz.service.DispatchContext;
@@ -93,32 +91,42 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
             cl = dctx.getClassLoader();
         }
 
-        try {
-            Class<?> c = cl.loadClass(this.getLocation(modelService));
-            Method m = c.getMethod(modelService.invoke, DispatchContext.class, Map.class);
-            if (Modifier.isStatic(m.getModifiers())) {
-                result = m.invoke(null, dctx, context);
-            } else {
-                result = m.invoke(c.newInstance(), dctx, context);
+        // bind the method once per service definition and class loader
+        String location = this.getLocation(modelService);
+        JavaServiceInvoker invoker = modelService.getJavaInvoker(cl);
+        if (invoker == null || !invoker.isBoundTo(cl, location, modelService.invoke)) {
+            try {
+                invoker = JavaServiceInvoker.bind(cl, location, modelService.invoke);
+            } catch (ClassNotFoundException cnfe) {
+                throw new GenericServiceException("Cannot find service [" + modelService.name + "] location class", cnfe);
+            } catch (NoSuchMethodException nsme) {
+                throw new GenericServiceException("Service [" + modelService.name + "] specified Java method (invoke attribute) does not exist", nsme);
+            } catch (SecurityException se) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Access denied", se);
+            } catch (IllegalAccessException iae) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Method not accessible", iae);
+            } catch (IllegalArgumentException iarge) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Invalid parameter match", iarge);
+            } catch (WrongMethodTypeException wmte) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Invalid parameter match", wmte);
+            } catch (NullPointerException npe) {
+                throw new GenericServiceException("Service [" + modelService.name + "] ran into an unexpected null object", npe);
+            } catch (ExceptionInInitializerError eie) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Initialization failed", eie);
+            } catch (Throwable th) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Error or unknown exception", th);
             }
-        } catch (ClassNotFoundException cnfe) {
-            throw new GenericServiceException("Cannot find service [" + modelService.name + "] location class", cnfe);
-        } catch (NoSuchMethodException nsme) {
-            throw new GenericServiceException("Service [" + modelService.name + "] specified Java method (invoke attribute) does not exist", nsme);
-        } catch (SecurityException se) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Access denied", se);
-        } catch (IllegalAccessException iae) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Method not accessible", iae);
-        } catch (IllegalArgumentException iarge) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Invalid parameter match", iarge);
-        } catch (InvocationTargetException ite) {
-            throw new GenericServiceException("Service [" + modelService.name + "] target threw an unexpected exception", ite.getTargetException());
-        } catch (NullPointerException npe) {
-            throw new GenericServiceException("Service [" + modelService.name + "] ran into an unexpected null object", npe);
+            modelService.setJavaInvoker(cl, invoker);
+        }
+
+        try {
+            result = invoker.invoke(dctx, context);
+        } catch (WrongMethodTypeException wmte) {
+            throw new GenericServiceException("Service [" + modelService.name + "] Invalid parameter match", wmte);
         } catch (ExceptionInInitializerError eie) {
             throw new GenericServiceException("Service [" + modelService.name + "] Initialization failed", eie);
         } catch (Throwable th) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Error or unknown exception", th);
+            throw new GenericServiceException("Service [" + modelService.name + "] target threw an unexpected exception", th);
         }
 
         return result;
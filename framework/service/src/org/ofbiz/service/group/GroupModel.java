@@ -21,11 +21,22 @@ package org.ofbiz.service.group;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilObject;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceDispatcher;
 import org.ofbiz.service.ServiceUtil;
 import org.w3c.dom.Element;
@@ -37,10 +48,21 @@ public class GroupModel {
 
     public static final String module = GroupModel.class.getName();
 
+    // the members of parallel groups run on these threads, the size is set with group.parallel.threads in service.properties
+    private static final ThreadGroup PARALLEL_THREAD_GROUP = new ThreadGroup("OFBiz-service-group");
+    private static final ExecutorService parallelExecutor = ExecutionPool.getScheduledExecutor(PARALLEL_THREAD_GROUP, "OFBiz-service-group",
+            UtilProperties.getPropertyAsInteger("service", "group.parallel.threads", Runtime.getRuntime().availableProcessors() * 4), 60, false);
+
+    // the standard response fields may differ between the services without being a conflict
+    private static final Set<String> RESPONSE_FIELDS = UtilMisc.toSet(ModelService.RESPONSE_MESSAGE, ModelService.ERROR_MESSAGE,
+            ModelService.ERROR_MESSAGE_LIST, ModelService.ERROR_MESSAGE_MAP, ModelService.SUCCESS_MESSAGE, ModelService.SUCCESS_MESSAGE_LIST);
+
     private String groupName, sendMode;
     private List<GroupServiceModel> services;
     private boolean optional = false;
     private int lastServiceRan;
+    private long parallelTimeout = 0;
+    private String resultMerge = "overwrite";
 
     /**
      * Constructor using DOM Element
@@ -55,6 +77,17 @@ public class GroupModel {
         if (groupName == null) {
             throw new IllegalArgumentException("Group Definition found with no name attribute! : " + group);
         }
+        String parallelTimeoutStr = group.getAttribute("parallel-timeout");
+        if (UtilValidate.isNotEmpty(parallelTimeoutStr)) {
+            try {
+                this.parallelTimeout = Long.parseLong(parallelTimeoutStr);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Group Definition [" + groupName + "] found with an invalid parallel-timeout attribute: " + parallelTimeoutStr);
+            }
+        }
+        if (UtilValidate.isNotEmpty(group.getAttribute("result-merge"))) {
+            this.resultMerge = group.getAttribute("result-merge");
+        }
 
         for (Element service : UtilXml.childElementList(group, "invoke")) {
             services.add(new GroupServiceModel(service));
@@ -69,6 +102,15 @@ public class GroupModel {
                     + "] found with OLD 'service' attribute, change to use 'invoke'", module);
         }
 
+        if ("parallel".equals(sendMode)) {
+            for (GroupServiceModel service : services) {
+                if (service.resultToContext()) {
+                    Debug.logWarning("Service Group Definition : [" + groupName + "] runs its services in parallel; ignoring result-to-context of ["
+                            + service.getName() + "]", module);
+                }
+            }
+        }
+
         if (Debug.verboseOn())
             Debug.logVerbose("Created Service Group Model --> " + this, module);
     }
@@ -114,6 +156,22 @@ public class GroupModel {
         return optional;
     }
 
+    /**
+     * Getter for the time in milliseconds the parallel send mode waits for the services, 0 waits until all are done
+     * @return long
+     */
+    public long getParallelTimeout() {
+        return this.parallelTimeout;
+    }
+
+    /**
+     * Getter for the rule used by the parallel send mode to merge the results (overwrite|preserve|fail-on-conflict)
+     * @return String
+     */
+    public String getResultMerge() {
+        return this.resultMerge;
+    }
+
     /**
      * Invokes the group of services in order defined
      * @param dispatcher ServiceDispatcher used for invocation
@@ -133,6 +191,8 @@ public class GroupModel {
             return runIndex(dispatcher, localName, context, randomIndex);
         } else if (this.getSendMode().equals("first-available")) {
             return runOne(dispatcher, localName, context);
+        } else if (this.getSendMode().equals("parallel")) {
+            return runParallel(dispatcher, localName, context);
         } else if (this.getSendMode().equals("none")) {
             return new HashMap<String, Object>();
         } else {
@@ -180,6 +240,94 @@ public class GroupModel {
         return result;
     }
 
+    private Map<String, Object> runParallel(final ServiceDispatcher dispatcher, final String localName, Map<String, Object> context)
+            throws GenericServiceException {
+        // every service gets the same context; none of them sees the results of the others
+        final Map<String, Object> runContext = Collections.unmodifiableMap(new HashMap<String, Object>(context));
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(services.size());
+        if (Thread.currentThread().getThreadGroup() == PARALLEL_THREAD_GROUP) {
+            // nested parallel group, waiting on the pool from one of its own threads could use up all of them
+            for (GroupServiceModel model : services) {
+                results.add(model.invoke(dispatcher, localName, runContext));
+            }
+        } else {
+            List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(services.size());
+            for (final GroupServiceModel model : services) {
+                futures.add(parallelExecutor.submit(new Callable<Map<String, Object>>() {
+                    public Map<String, Object> call() throws GenericServiceException {
+                        return model.invoke(dispatcher, localName, runContext);
+                    }
+                }));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(parallelTimeout);
+            Iterator<GroupServiceModel> modelIter = services.iterator();
+            try {
+                for (Future<Map<String, Object>> future : futures) {
+                    GroupServiceModel model = modelIter.next();
+                    try {
+                        if (parallelTimeout > 0) {
+                            results.add(future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+                        } else {
+                            results.add(future.get());
+                        }
+                    } catch (TimeoutException e) {
+                        throw new GenericServiceException("Grouped service [" + model.getName() + "] did not finish within " + parallelTimeout + " milliseconds");
+                    } catch (InterruptedException e) {
+                        throw new GenericServiceException("Interrupted while waiting for grouped service [" + model.getName() + "]", e);
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof GenericServiceException) {
+                            throw (GenericServiceException) e.getCause();
+                        }
+                        throw new GenericServiceException("Grouped service [" + model.getName() + "] failed", e.getCause());
+                    }
+                }
+            } finally {
+                // the services that are already running finish on their own, their results are dropped
+                for (Future<Map<String, Object>> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        Iterator<GroupServiceModel> modelIter = services.iterator();
+        for (Map<String, Object> thisResult : results) {
+            GroupServiceModel model = modelIter.next();
+            if (Debug.verboseOn())
+                Debug.logVerbose("Result: " + thisResult, module);
+
+            // make sure we didn't fail
+            if (ServiceUtil.isError(thisResult)) {
+                Debug.logError("Grouped service [" + model.getName() + "] failed.", module);
+                return thisResult;
+            }
+            mergeResult(result, thisResult, model);
+        }
+        return result;
+    }
+
+    // merges the results in the order the services are defined
+    private void mergeResult(Map<String, Object> result, Map<String, Object> thisResult, GroupServiceModel model) throws GenericServiceException {
+        if ("preserve".equals(resultMerge)) {
+            for (Map.Entry<String, Object> entry : thisResult.entrySet()) {
+                if (!result.containsKey(entry.getKey())) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } else if ("fail-on-conflict".equals(resultMerge)) {
+            for (Map.Entry<String, Object> entry : thisResult.entrySet()) {
+                if (result.containsKey(entry.getKey()) && !RESPONSE_FIELDS.contains(entry.getKey())
+                        && !UtilObject.equalsHelper(result.get(entry.getKey()), entry.getValue())) {
+                    throw new GenericServiceException("Grouped service [" + model.getName() + "] returned a different value for [" + entry.getKey()
+                            + "] than an earlier service of group [" + groupName + "]");
+                }
+                result.put(entry.getKey(), entry.getValue());
+            }
+        } else {
+            result.putAll(thisResult);
+        }
+    }
+
     private Map<String, Object> runIndex(ServiceDispatcher dispatcher, String localName, Map<String, Object> context, int index)
             throws GenericServiceException {
         GroupServiceModel model = services.get(index);
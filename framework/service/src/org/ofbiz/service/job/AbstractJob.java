@@ -115,4 +115,9 @@ public abstract class AbstractJob implements Job {
     public Date getStartTime() {
         return startTime;
     }
+
+    @Override
+    public long getPriority() {
+        return JobPriority.NORMAL;
+    }
 }
@@ -72,5 +72,11 @@ public interface Job extends Runnable {
      * Returns the time this job is scheduled to start.
      */
     Date getStartTime();
+
+    /**
+     * Returns the priority of this job. Jobs with a higher priority are started first.
+     * @see JobPriority
+     */
+    long getPriority();
 }
 
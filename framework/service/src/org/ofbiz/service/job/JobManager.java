@@ -25,9 +25,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
@@ -41,8 +46,11 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.model.ModelViewEntity;
 import org.ofbiz.entity.serialize.SerializeException;
 import org.ofbiz.entity.serialize.XmlSerializer;
+import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
@@ -53,8 +61,7 @@ import org.ofbiz.service.calendar.RecurrenceInfo;
 import org.ofbiz.service.calendar.RecurrenceInfoException;
 import org.ofbiz.service.config.ServiceConfigUtil;
 import org.ofbiz.service.config.model.RunFromPool;
-
-import com.ibm.icu.util.Calendar;
+import org.ofbiz.service.config.model.ThreadPool;
 
 /**
  * Job manager. The job manager queues and manages jobs. Client code can queue a job to be run immediately
@@ -65,6 +72,9 @@ import com.ibm.icu.util.Calendar;
  * on the job manager/job poller configuration (poll interval) and the load on the server.
  * Scheduled jobs might be rescheduled if the server is busy. Therefore, applications
  * requiring a precise job start time should use a different mechanism to schedule the job.</p>
+ * <p>Jobs that are due to run when they are scheduled, and that are sent to a pool this
+ * server runs, are claimed when they are created and handed to the job poller as soon as
+ * the transaction that created them commits. Polling picks up everything else.</p>
  */
 public final class JobManager {
 
@@ -95,6 +105,7 @@ public final class JobManager {
             jm = registeredManagers.get(delegator.getDelegatorName());
             if (enablePoller) {
                 jm.reloadCrashedJobs();
+                jm.pushEnabled = true;
                 JobPoller.registerJobManager(jm);
             }
         }
@@ -110,10 +121,14 @@ public final class JobManager {
     }
 
     private final Delegator delegator;
+    private final JobPurger purger;
+    private final Queue<GenericValue> pushedJobs = new ConcurrentLinkedQueue<GenericValue>();
+    private volatile boolean pushEnabled = false;
     private boolean crashedJobsReloaded = false;
 
     private JobManager(Delegator delegator) {
         this.delegator = delegator;
+        this.purger = new JobPurger(delegator);
     }
 
     /** Returns the Delegator. */
@@ -133,7 +148,9 @@ public final class JobManager {
      * @return List containing a Map of each thread's state.
      */
     public Map<String, Object> getPoolState() {
-        return JobPoller.getInstance().getPoolState();
+        Map<String, Object> poolState = JobPoller.getInstance().getPoolState();
+        poolState.put("purgeState", purger.getState());
+        return poolState;
     }
 
     private static List<String> getRunPools() throws GenericConfigException {
@@ -145,6 +162,16 @@ public final class JobManager {
         return readPools;
     }
 
+    // JobSandbox with a null priority read as NORMAL: jobs from data files have no priority, and
+    // databases that sort nulls high would otherwise start them before the HIGH priority jobs
+    private static DynamicViewEntity makeJobPriorityView() {
+        DynamicViewEntity view = new DynamicViewEntity();
+        view.addMemberEntity("JS", "JobSandbox");
+        view.addAliasAll("JS", null, UtilMisc.toList("priority"));
+        view.addAlias("JS", "priority", null, null, null, null, null, new ModelViewEntity.ComplexAliasField("JS", "priority", Long.toString(JobPriority.NORMAL), null));
+        return view;
+    }
+
     /**
      * Scans the JobSandbox entity and returns a list of jobs that are due to run.
      * Returns an empty list if there are no jobs due to run.
@@ -192,20 +219,21 @@ public final class JobManager {
                 Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
                 return poll;
             }
-            jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("runTime").queryIterator();
+            List<String> jobIds = new ArrayList<String>(limit);
+            jobsIterator = EntityQuery.use(delegator).select("jobId").from(makeJobPriorityView()).where(mainCondition).orderBy("-priority", "runTime").maxRows(limit).queryIterator();
             GenericValue jobValue = jobsIterator.next();
-            while (jobValue != null) {
-                // Claim ownership of this value. Using storeByCondition to avoid a race condition.
-                List<EntityExpr> updateExpression = UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.EQUALS, jobValue.get("jobId")), EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-                int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), EntityCondition.makeCondition(updateExpression));
-                if (rowsUpdated == 1) {
-                    poll.add(new PersistedServiceJob(dctx, jobValue, null));
-                    if (poll.size() == limit) {
-                        break;
-                    }
-                }
+            while (jobValue != null && jobIds.size() < limit) {
+                jobIds.add(jobValue.getString("jobId"));
                 jobValue = jobsIterator.next();
             }
+            jobsIterator.close();
+            jobsIterator = null;
+            int claimBatchSize = getClaimBatchSize();
+            for (int i = 0; i < jobIds.size(); i += claimBatchSize) {
+                for (GenericValue claimedValue : claimJobs(jobIds.subList(i, Math.min(i + claimBatchSize, jobIds.size())))) {
+                    poll.add(new PersistedServiceJob(dctx, claimedValue, null));
+                }
+            }
             TransactionUtil.commit(beganTransaction);
         } catch (Throwable t) {
             String errMsg = "Exception thrown while polling JobSandbox: ";
@@ -227,59 +255,86 @@ public final class JobManager {
         }
         if (poll.isEmpty()) {
             // No jobs to run, see if there are any jobs to purge
-            Calendar cal = Calendar.getInstance();
-            try {
-                int daysToKeep = ServiceConfigUtil.getServiceEngine().getThreadPool().getPurgeJobDays();
-                cal.add(Calendar.DAY_OF_YEAR, -daysToKeep);
-            } catch (GenericConfigException e) {
-                Debug.logWarning(e, "Unable to get purge job days: ", module);
-                return Collections.emptyList();
-            }
-            Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
-            List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
-            List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
-            EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
-            mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
-            beganTransaction = false;
-            jobsIterator = null;
-            try {
-                beganTransaction = TransactionUtil.begin();
-                if (!beganTransaction) {
-                    Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                    return Collections.emptyList();
-                }
-                jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("jobId").queryIterator();
-                GenericValue jobValue = jobsIterator.next();
-                while (jobValue != null) {
-                    poll.add(new PurgeJob(jobValue));
-                    if (poll.size() == limit) {
-                        break;
-                    }
-                    jobValue = jobsIterator.next();
-                }
-                TransactionUtil.commit(beganTransaction);
-            } catch (Throwable t) {
-                String errMsg = "Exception thrown while polling JobSandbox: ";
-                try {
-                    TransactionUtil.rollback(beganTransaction, errMsg, t);
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
-                }
-                Debug.logWarning(t, errMsg, module);
-                return Collections.emptyList();
-            } finally {
-                if (jobsIterator != null) {
-                    try {
-                        jobsIterator.close();
-                    } catch (GenericEntityException e) {
-                        Debug.logWarning(e, module);
-                    }
-                }
+            Job purgeJob = purger.newJob();
+            if (purgeJob != null) {
+                poll.add(purgeJob);
             }
         }
         return poll;
     }
 
+    /**
+     * Claims ownership of the given jobs with a single update and returns the
+     * JobSandbox values of the jobs that were claimed. Jobs that were claimed by
+     * another instance in the meantime are left out.
+     */
+    private List<GenericValue> claimJobs(List<String> jobIds) throws GenericEntityException {
+        // Using storeByCondition to avoid a race condition.
+        EntityCondition claimCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds),
+                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null)));
+        int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), claimCondition);
+        if (rowsUpdated == 0) {
+            return Collections.emptyList();
+        }
+        EntityCondition claimedCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds),
+                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, instanceId),
+                EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null)));
+        return EntityQuery.use(delegator).from("JobSandbox").where(claimedCondition).orderBy("runTime").queryList();
+    }
+
+    private static int getClaimBatchSize() {
+        try {
+            return ServiceConfigUtil.getServiceEngine().getThreadPool().getClaimBatchSize();
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get claim batch size: ", module);
+            return ThreadPool.CLAIM_BATCH_SIZE;
+        }
+    }
+
+    /**
+     * Returns the jobs that were created on this instance and pushed since the last call.
+     * The jobs were claimed when they were created, so they do not need to be claimed again.
+     * This method is called by the {@link JobPoller} polling thread.
+     */
+    protected List<Job> pollPushed() {
+        if (pushedJobs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        DispatchContext dctx = getDispatcher().getDispatchContext();
+        if (dctx == null) {
+            Debug.logWarning("Unable to locate DispatchContext object; leaving pushed jobs to the poller", module);
+            return Collections.emptyList();
+        }
+        List<Job> poll = new ArrayList<Job>();
+        GenericValue jobValue = pushedJobs.poll();
+        while (jobValue != null) {
+            poll.add(new PersistedServiceJob(dctx, jobValue, null));
+            jobValue = pushedJobs.poll();
+        }
+        return poll;
+    }
+
+    private boolean isPushEnabled(String poolId) {
+        if (!pushEnabled) {
+            return false;
+        }
+        try {
+            ThreadPool threadPool = ServiceConfigUtil.getServiceEngine().getThreadPool();
+            if (!threadPool.getPollEnabled() || !threadPool.getPushEnabled()) {
+                return false;
+            }
+            return getRunPools().contains(poolId);
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get run pools - not pushing job: ", module);
+            return false;
+        }
+    }
+
+    private void pushJob(GenericValue jobValue) {
+        pushedJobs.add(jobValue);
+        JobPoller.getInstance().wakeUp();
+    }
+
     private synchronized void reloadCrashedJobs() {
         assertIsRunning();
         if (crashedJobsReloaded) {
@@ -549,6 +604,13 @@ public final class JobManager {
         // set the max retry
         jFields.put("maxRetry", Long.valueOf(maxRetry));
         jFields.put("currentRetryCount", new Long(0));
+        jFields.put("priority", JobPriority.NORMAL);
+        // a job that is due now and runs from one of our pools is claimed right away
+        // and handed to the job poller once it is committed
+        boolean push = startTime <= System.currentTimeMillis() && isPushEnabled((String) jFields.get("poolId"));
+        if (push) {
+            jFields.put("runByInstanceId", instanceId);
+        }
         // create the value and store
         GenericValue jobV;
         try {
@@ -557,5 +619,37 @@ public final class JobManager {
         } catch (GenericEntityException e) {
             throw new JobManagerException(e.getMessage(), e);
         }
+        if (push) {
+            try {
+                if (TransactionUtil.isTransactionInPlace()) {
+                    // if the transaction rolls back there is nothing to run
+                    TransactionUtil.registerSynchronization(new PushJobSynchronization(jobV));
+                } else {
+                    pushJob(jobV);
+                }
+            } catch (GenericTransactionException e) {
+                // the job stays claimed by this instance and is rescheduled as a crashed job on restart
+                Debug.logWarning(e, "Unable to push job [" + jobV.getString("jobId") + "]: ", module);
+            }
+        }
+    }
+
+    private final class PushJobSynchronization implements Synchronization {
+        private final GenericValue jobValue;
+
+        private PushJobSynchronization(GenericValue jobValue) {
+            this.jobValue = jobValue;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                pushJob(jobValue);
+            }
+        }
     }
 }
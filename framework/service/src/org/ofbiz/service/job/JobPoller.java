@@ -26,8 +26,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -39,11 +39,18 @@ import org.ofbiz.base.util.Assert;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.service.config.ServiceConfigUtil;
 import org.ofbiz.service.config.ServiceConfigListener;
+import org.ofbiz.service.config.model.RunFromPool;
 import org.ofbiz.service.config.model.ServiceConfig;
+import org.ofbiz.service.config.model.ServiceLimit;
 import org.ofbiz.service.config.model.ThreadPool;
 
 /**
  * Job poller. Queues and runs jobs.
+ * <p>The polling thread polls the registered job managers every <code>poll-db-millis</code>
+ * milliseconds. It is woken up in between when a job manager pushes a job that was
+ * created on this server.</p>
+ * <p>Queued jobs are started by priority, with a weighted fair share for each job pool and
+ * optional per-service thread limits - see {@link JobQueue}.</p>
  */
 public final class JobPoller implements ServiceConfigListener {
 
@@ -63,12 +70,36 @@ public final class JobPoller implements ServiceConfigListener {
     private static ThreadPoolExecutor createThreadPoolExecutor() {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.engine).getThreadPool();
-            return new ThreadPoolExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threadPool.getJobs()), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            JobQueue queue = new JobQueue(threadPool.getJobs());
+            configureQueue(queue, threadPool);
+            return new JobExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
+                    TimeUnit.MILLISECONDS, queue, new JobInvokerThreadFactory(), new SubmitWaitPolicy());
         } catch (GenericConfigException e) {
             Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
-            return new ThreadPoolExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            return new JobExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
+                    TimeUnit.MILLISECONDS, new JobQueue(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new SubmitWaitPolicy());
+        }
+    }
+
+    private static void configureQueue(JobQueue queue, ThreadPool threadPool) {
+        Map<String, Integer> poolWeights = new HashMap<String, Integer>();
+        for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+            poolWeights.put(runFromPool.getName(), runFromPool.getWeight());
+        }
+        Map<String, Integer> serviceLimits = new HashMap<String, Integer>();
+        for (ServiceLimit serviceLimit : threadPool.getServiceLimits()) {
+            serviceLimits.put(serviceLimit.getServiceName(), serviceLimit.getMaxThreads());
+        }
+        queue.configure(poolWeights, serviceLimits);
+    }
+
+    private static int submitWaitTime() {
+        try {
+            ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.engine).getThreadPool();
+            return threadPool.getSubmitWaitMillis();
+        } catch (GenericConfigException e) {
+            Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
+            return ThreadPool.SUBMIT_WAIT;
         }
     }
 
@@ -96,6 +127,8 @@ public final class JobPoller implements ServiceConfigListener {
     // -------------------------------------- //
 
     private final Thread jobManagerPollerThread;
+    private final Object pollLock = new Object();
+    private boolean wakeUpRequested = false;
 
     private JobPoller() {
         if (pollEnabled()) {
@@ -138,6 +171,9 @@ public final class JobPoller implements ServiceConfigListener {
             taskList.add(taskInfo);
         }
         poolState.put("taskList", taskList);
+        JobQueue jobQueue = (JobQueue) queue;
+        poolState.put("jobPoolList", jobQueue.getPoolStates());
+        poolState.put("limitedServiceThreads", jobQueue.getLimitedServiceCounts());
         return poolState;
     }
 
@@ -148,6 +184,7 @@ public final class JobPoller implements ServiceConfigListener {
             executor.setCorePoolSize(threadPool.getMinThreads());
             executor.setMaximumPoolSize(threadPool.getMaxThreads());
             executor.setKeepAliveTime(threadPool.getTtl(), TimeUnit.MILLISECONDS);
+            configureQueue((JobQueue) executor.getQueue(), threadPool);
         }
     }
 
@@ -174,6 +211,24 @@ public final class JobPoller implements ServiceConfigListener {
         }
     }
 
+    /**
+     * Returns the number of jobs waiting in the job queue.
+     */
+    int getQueuedJobCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Wakes up the polling thread so jobs pushed by a {@link JobManager} are queued
+     * without waiting for the next database poll.
+     */
+    public void wakeUp() {
+        synchronized (pollLock) {
+            wakeUpRequested = true;
+            pollLock.notifyAll();
+        }
+    }
+
     /**
      * Stops the <code>JobPoller</code>. This method is called when OFBiz shuts down.
      * The <code>JobPoller</code> cannot be restarted.
@@ -195,6 +250,71 @@ public final class JobPoller implements ServiceConfigListener {
         Debug.logInfo("JobPoller shutdown completed.", module);
     }
 
+    // Reports started and ended jobs to the job queue so it can apply the service limits.
+    private static class JobExecutor extends ThreadPoolExecutor {
+
+        private JobExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, JobQueue workQueue,
+                ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        }
+
+        // The thread pool starts a job on a new thread, without passing it through the queue, while
+        // it has fewer threads than its minimum, or when the queue is full and it has fewer than its
+        // maximum. Jobs of a service that is at its limit are queued instead.
+        @Override
+        public void execute(Runnable job) {
+            JobQueue queue = (JobQueue) getQueue();
+            if (!queue.reserve(job)) {
+                // a thread running the same service takes it when that job ends
+                if (isShutdown() || !queue.offer(job)) {
+                    getRejectedExecutionHandler().rejectedExecution(job, this);
+                }
+                return;
+            }
+            try {
+                super.execute(job);
+            } catch (RuntimeException e) {
+                queue.release(job);
+                throw e;
+            }
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            ((JobQueue) getQueue()).jobStarted(r);
+            super.beforeExecute(t, r);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            ((JobQueue) getQueue()).jobEnded(r);
+        }
+    }
+
+    // Applies back pressure when the job queue is full: the submitting thread waits for
+    // room in the queue. Persisted jobs do not wait, they are returned to the JobSandbox
+    // entity and are picked up by a later poll.
+    private static class SubmitWaitPolicy implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Job poller is shut down");
+            }
+            if (r instanceof PersistedServiceJob) {
+                throw new RejectedExecutionException("Job queue is full");
+            }
+            try {
+                if (!executor.getQueue().offer(r, submitWaitTime(), TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("Job queue is still full after " + submitWaitTime() + " milliseconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the job queue");
+            }
+        }
+    }
+
     private static class JobInvokerThreadFactory implements ThreadFactory {
 
         public Thread newThread(Runnable runnable) {
@@ -213,9 +333,21 @@ public final class JobPoller implements ServiceConfigListener {
                 while (Start.getInstance().getCurrentState() != Start.ServerState.RUNNING) {
                     Thread.sleep(1000);
                 }
+                long nextPollTime = 0;
                 while (!executor.isShutdown()) {
+                    // Jobs pushed by the job managers are queued first, they are already claimed.
+                    // Jobs the executor rejects are dequeued and picked up by a later poll.
+                    for (JobManager jm : jobManagers.values()) {
+                        for (Job job : jm.pollPushed()) {
+                            try {
+                                queueNow(job);
+                            } catch (InvalidJobException e) {
+                                Debug.logError(e, module);
+                            }
+                        }
+                    }
                     int remainingCapacity = executor.getQueue().remainingCapacity();
-                    if (remainingCapacity > 0) {
+                    if (remainingCapacity > 0 && System.currentTimeMillis() >= nextPollTime) {
                         // Build "list of lists"
                         Collection<JobManager> jmCollection = jobManagers.values();
                         List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
@@ -243,8 +375,18 @@ public final class JobPoller implements ServiceConfigListener {
                                 Debug.logError(e, module);
                             }
                         }
+                        nextPollTime = System.currentTimeMillis() + pollWaitTime();
+                    }
+                    synchronized (pollLock) {
+                        long waitTime = Math.max(nextPollTime - System.currentTimeMillis(), 1);
+                        if (remainingCapacity <= 0) {
+                            waitTime = pollWaitTime();
+                        }
+                        if (!wakeUpRequested) {
+                            pollLock.wait(waitTime);
+                        }
+                        wakeUpRequested = false;
                     }
-                    Thread.sleep(pollWaitTime());
                 }
             } catch (InterruptedException e) {
                 // Happens when JobPoller shuts down - nothing to do.
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+/**
+ * Job priorities. Jobs with a higher priority are started before jobs with a lower
+ * priority from the same pool. Any value between {@link #LOW} and {@link #HIGH} can be used.
+ */
+public final class JobPriority {
+
+    public static final long LOW = 0;
+    public static final long NORMAL = 50;
+    public static final long HIGH = 100;
+
+    private JobPriority() {}
+}
@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.base.config.GenericConfigException;
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.config.ServiceConfigUtil;
+import org.ofbiz.service.config.model.ThreadPool;
+
+import com.ibm.icu.util.Calendar;
+
+/**
+ * Removes old completed and canceled jobs from the JobSandbox entity.
+ * <p>Jobs are removed oldest first, in chunks of <code>purge-chunk-size</code> jobs with one
+ * delete statement per chunk, together with the RuntimeData and RecurrenceInfo values no
+ * other job refers to. When <code>purge-archive-dir</code> is set, the removed values are
+ * written to a gzipped entity XML file and synced to disk before the delete is committed; if
+ * that fails the delete is rolled back and the purge stops.</p>
+ * <p>A purge runs as a single low priority job. It pauses between chunks and stops as soon
+ * as other jobs are waiting in the job queue, so it does not hold up job polling; the next
+ * purge continues where it stopped.</p>
+ */
+@ThreadSafe
+public final class JobPurger {
+
+    public static final String module = JobPurger.class.getName();
+    // once the backlog is gone, look for old jobs every ten minutes
+    private static final long IDLE_INTERVAL = 10 * 60 * 1000;
+    private static final String[] DATE_FIELDS = { "finishDateTime", "cancelDateTime" };
+
+    private final Delegator delegator;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long nextRunTime = 0;
+    // statistics
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong totalPurged = new AtomicLong();
+    private final AtomicLong totalArchived = new AtomicLong();
+    private volatile long lastRunStart = 0;
+    private volatile long lastRunEnd = 0;
+    private volatile long lastRunPurged = 0;
+    private volatile boolean lastRunComplete = false;
+    private volatile String lastArchiveFile = null;
+
+    public JobPurger(Delegator delegator) {
+        this.delegator = delegator;
+    }
+
+    /**
+     * Returns a job that purges old jobs, or <code>null</code> if a purge is running
+     * or is not due yet.
+     */
+    public Job newJob() {
+        if (System.currentTimeMillis() < nextRunTime || !running.compareAndSet(false, true)) {
+            return null;
+        }
+        return new PurgeRunJob("purge-" + delegator.getDelegatorName() + "-" + runCount.incrementAndGet());
+    }
+
+    /**
+     * Returns a <code>Map</code> with the purge progress and throughput.
+     */
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new HashMap<String, Object>();
+        state.put("running", running.get());
+        state.put("runs", runCount.get());
+        state.put("totalPurged", totalPurged.get());
+        state.put("totalArchived", totalArchived.get());
+        state.put("lastRunStart", lastRunStart == 0 ? null : new Timestamp(lastRunStart));
+        state.put("lastRunEnd", lastRunEnd == 0 ? null : new Timestamp(lastRunEnd));
+        state.put("lastRunPurged", lastRunPurged);
+        state.put("lastRunComplete", lastRunComplete);
+        long runMillis = (lastRunEnd > lastRunStart ? lastRunEnd : System.currentTimeMillis()) - lastRunStart;
+        state.put("lastRunPurgedPerSecond", lastRunStart == 0 || runMillis <= 0 ? 0 : lastRunPurged * 1000 / runMillis);
+        state.put("lastArchiveFile", lastArchiveFile);
+        return state;
+    }
+
+    private void purge() throws InterruptedException, IOException {
+        ThreadPool threadPool;
+        try {
+            threadPool = ServiceConfigUtil.getServiceEngine().getThreadPool();
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get <thread-pool> model, not purging jobs: ", module);
+            return;
+        }
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_YEAR, -threadPool.getPurgeJobDays());
+        Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
+        int chunkSize = threadPool.getPurgeChunkSize();
+        Archive archive = null;
+        if (UtilValidate.isNotEmpty(threadPool.getPurgeArchiveDir())) {
+            archive = new Archive(new File(threadPool.getPurgeArchiveDir()));
+        }
+        try {
+            for (String dateField : DATE_FIELDS) {
+                // jobs that could not be removed, most likely because other entities refer to them
+                Set<String> skipped = new HashSet<String>();
+                while (true) {
+                    if (JobPoller.getInstance().getQueuedJobCount() > 0) {
+                        return;
+                    }
+                    List<GenericValue> chunk = findChunk(dateField, purgeTime, skipped, chunkSize);
+                    if (chunk.isEmpty()) {
+                        break;
+                    }
+                    if (!remove(chunk, archive)) {
+                        // remove them one by one to find the ones that cannot be removed
+                        for (GenericValue jobValue : chunk) {
+                            if (!remove(UtilMisc.toList(jobValue), archive)) {
+                                skipped.add(jobValue.getString("jobId"));
+                            }
+                        }
+                    }
+                    if (chunk.size() < chunkSize) {
+                        break;
+                    }
+                    Thread.sleep(threadPool.getPurgePauseMillis());
+                }
+            }
+            lastRunComplete = true;
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+    }
+
+    private List<GenericValue> findChunk(String dateField, Timestamp purgeTime, Set<String> skipped, int chunkSize) {
+        List<EntityCondition> conditions = new ArrayList<EntityCondition>();
+        conditions.add(EntityCondition.makeCondition("runByInstanceId", JobManager.instanceId));
+        conditions.add(EntityCondition.makeCondition(dateField, EntityOperator.NOT_EQUAL, null));
+        conditions.add(EntityCondition.makeCondition(dateField, EntityOperator.LESS_THAN, purgeTime));
+        if (!skipped.isEmpty()) {
+            conditions.add(EntityCondition.makeCondition("jobId", EntityOperator.NOT_IN, skipped));
+        }
+        try {
+            return EntityQuery.use(delegator).from("JobSandbox").where(conditions).orderBy(dateField).maxRows(chunkSize).queryList();
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Exception thrown while looking for jobs to purge: ", module);
+            return Collections.emptyList();
+        }
+    }
+
+    // Removes the jobs and the related values no other job refers to in one transaction.
+    // Throws IOException when the values could not be archived, the transaction is rolled back then.
+    private boolean remove(List<GenericValue> jobValues, Archive archive) throws IOException {
+        List<String> jobIds = new ArrayList<String>(jobValues.size());
+        Set<String> runtimeDataIds = new LinkedHashSet<String>();
+        Set<String> recurrenceInfoIds = new LinkedHashSet<String>();
+        for (GenericValue jobValue : jobValues) {
+            jobIds.add(jobValue.getString("jobId"));
+            if (jobValue.get("runtimeDataId") != null) {
+                runtimeDataIds.add(jobValue.getString("runtimeDataId"));
+            }
+            if (jobValue.get("recurrenceInfoId") != null) {
+                recurrenceInfoIds.add(jobValue.getString("recurrenceInfoId"));
+            }
+        }
+        List<GenericValue> removedValues = new ArrayList<GenericValue>();
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            delegator.removeByCondition("JobSandbox", EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds));
+            for (String recurrenceInfoId : findUnreferenced("recurrenceInfoId", recurrenceInfoIds)) {
+                GenericValue recurrenceInfo = EntityQuery.use(delegator).from("RecurrenceInfo").where("recurrenceInfoId", recurrenceInfoId).queryOne();
+                if (recurrenceInfo != null) {
+                    List<GenericValue> recurrenceRules = recurrenceInfo.getRelated("RecurrenceRule", null, null, false);
+                    recurrenceInfo.remove();
+                    delegator.removeAll(recurrenceRules);
+                    removedValues.addAll(recurrenceRules);
+                    removedValues.add(recurrenceInfo);
+                }
+            }
+            List<String> unreferencedRuntimeDataIds = findUnreferenced("runtimeDataId", runtimeDataIds);
+            if (!unreferencedRuntimeDataIds.isEmpty()) {
+                EntityCondition runtimeDataCondition = EntityCondition.makeCondition("runtimeDataId", EntityOperator.IN, unreferencedRuntimeDataIds);
+                if (archive != null) {
+                    removedValues.addAll(EntityQuery.use(delegator).from("RuntimeData").where(runtimeDataCondition).queryList());
+                }
+                delegator.removeByCondition("RuntimeData", runtimeDataCondition);
+            }
+            if (archive != null) {
+                // related values first, so the archive loads without foreign key errors. If the commit
+                // fails after this the values are archived again by the next purge, which is harmless.
+                removedValues.addAll(jobValues);
+                archive.write(removedValues);
+            }
+            TransactionUtil.commit(beganTransaction);
+        } catch (IOException e) {
+            String errMsg = "Exception thrown while archiving jobs " + jobIds + ", purge stopped: ";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericEntityException e2) {
+                Debug.logWarning(e2, "Exception thrown while rolling back transaction: ", module);
+            }
+            throw e;
+        } catch (GenericEntityException e) {
+            String errMsg = "Exception thrown while purging jobs " + jobIds + ": ";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericEntityException e2) {
+                Debug.logWarning(e2, "Exception thrown while rolling back transaction: ", module);
+            }
+            if (jobValues.size() == 1) {
+                Debug.logWarning(e, errMsg, module);
+            }
+            return false;
+        }
+        if (archive != null) {
+            totalArchived.addAndGet(jobValues.size());
+        }
+        lastRunPurged += jobValues.size();
+        totalPurged.addAndGet(jobValues.size());
+        return true;
+    }
+
+    // Returns the IDs in ids that no JobSandbox value refers to in field.
+    private List<String> findUnreferenced(String field, Set<String> ids) throws GenericEntityException {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> unreferenced = new ArrayList<String>(ids);
+        EntityExpr condition = EntityCondition.makeCondition(field, EntityOperator.IN, unreferenced);
+        for (GenericValue value : EntityQuery.use(delegator).select(field).from("JobSandbox").where(condition).distinct().queryList()) {
+            unreferenced.remove(value.getString(field));
+        }
+        return unreferenced;
+    }
+
+    // A gzipped entity XML file that is opened when the first values are written.
+    private final class Archive {
+        private final File directory;
+        private FileOutputStream fileOut = null;
+        private PrintWriter writer = null;
+
+        private Archive(File directory) {
+            this.directory = directory;
+        }
+
+        // Writes the values and syncs them to disk, so they are safe before their delete is committed.
+        private void write(List<GenericValue> values) throws IOException {
+            if (writer == null) {
+                String fileName = "JobSandbox-" + delegator.getDelegatorName() + "-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".xml.gz";
+                File file = new File(directory, fileName);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Unable to create directory " + directory);
+                }
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    // sync flush, so that flush() writes out all values written so far
+                    writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, true), "UTF-8")));
+                } catch (IOException e) {
+                    out.close();
+                    throw e;
+                }
+                fileOut = out;
+                writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                writer.println("<entity-engine-xml>");
+                lastArchiveFile = file.getPath();
+            }
+            for (GenericValue value : values) {
+                value.writeXmlText(writer, "");
+            }
+            // PrintWriter doesn't throw, checkError flushes and reports any earlier failure
+            if (writer.checkError()) {
+                throw new IOException("Unable to write job archive file " + lastArchiveFile);
+            }
+            fileOut.getFD().sync();
+        }
+
+        private void close() {
+            if (writer != null) {
+                writer.println("</entity-engine-xml>");
+                writer.close();
+                if (writer.checkError()) {
+                    Debug.logError("Exception thrown while writing job archive file " + lastArchiveFile, module);
+                }
+                writer = null;
+                fileOut = null;
+            }
+        }
+    }
+
+    private final class PurgeRunJob extends AbstractJob {
+
+        private PurgeRunJob(String jobId) {
+            super(jobId, "Purge " + delegator.getDelegatorName() + " jobs");
+        }
+
+        @Override
+        public void exec() throws InvalidJobException {
+            if (currentState != State.QUEUED) {
+                throw new InvalidJobException("Illegal state change");
+            }
+            currentState = State.RUNNING;
+            lastRunStart = System.currentTimeMillis();
+            lastRunEnd = 0;
+            lastRunPurged = 0;
+            lastRunComplete = false;
+            try {
+                purge();
+                currentState = State.FINISHED;
+            } catch (IOException e) {
+                Debug.logError(e, "Exception thrown while archiving purged jobs, no jobs are purged until the archive can be written: ", module);
+                currentState = State.FAILED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                currentState = State.FAILED;
+            } catch (RuntimeException e) {
+                Debug.logWarning(e, "Exception thrown while purging jobs: ", module);
+                currentState = State.FAILED;
+            } finally {
+                lastRunEnd = System.currentTimeMillis();
+                // after a failure wait as long as after a complete run rather than retrying at once
+                nextRunTime = lastRunComplete || currentState == State.FAILED ? lastRunEnd + IDLE_INTERVAL : 0;
+                running.set(false);
+            }
+            if (lastRunPurged > 0) {
+                Debug.logInfo("Purged " + lastRunPurged + " jobs in " + (lastRunEnd - lastRunStart) + " ms", module);
+            }
+        }
+
+        @Override
+        public long getPriority() {
+            return JobPriority.LOW;
+        }
+
+        @Override
+        public boolean isValid() {
+            return currentState == State.CREATED;
+        }
+
+        @Override
+        public void deQueue() throws InvalidJobException {
+            super.deQueue();
+            running.set(false);
+        }
+    }
+}
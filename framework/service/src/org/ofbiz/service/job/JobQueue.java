@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.job;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.metrics.LatencyHistogram;
+
+/**
+ * The job queue used by the {@link JobPoller} executor.
+ * <p>Queued jobs are kept in one lane per job pool. Lanes take turns in proportion to their
+ * weight (stride scheduling), and within a lane jobs are taken by priority, then in the
+ * order they were queued. A job whose service already runs on as many threads as its
+ * limit allows is passed over until one of those jobs ends - the executor must report
+ * started and ended jobs with {@link #jobStarted(Runnable)} and {@link #jobEnded(Runnable)},
+ * and check new jobs with {@link #reserve(Runnable)} before it may start them on a new thread.</p>
+ */
+@ThreadSafe
+public final class JobQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final long STRIDE = 1L << 20;
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // guarded by lock
+    private final Map<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+    private final Map<String, Integer> runningByService = new HashMap<String, Integer>();
+    private final Set<Runnable> taken = Collections.newSetFromMap(new IdentityHashMap<Runnable, Boolean>());
+    private Map<String, Integer> poolWeights = Collections.emptyMap();
+    // replaced, never changed, so reserve can check it without the lock
+    private volatile Map<String, Integer> serviceLimits = Collections.emptyMap();
+    private int count = 0;
+    private long sequence = 0;
+    private long virtualTime = 0;
+
+    public JobQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the pool weights and the per-service thread limits. Pools without a weight have a weight of 1,
+     * services without a limit are not limited.
+     */
+    public void configure(Map<String, Integer> poolWeights, Map<String, Integer> serviceLimits) {
+        lock.lock();
+        try {
+            this.poolWeights = new HashMap<String, Integer>(poolWeights);
+            this.serviceLimits = new HashMap<String, Integer>(serviceLimits);
+            for (Map.Entry<String, Lane> entry : lanes.entrySet()) {
+                entry.getValue().weight = getWeight(entry.getKey());
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getWeight(String poolId) {
+        Integer weight = poolWeights.get(poolId);
+        return weight == null ? 1 : weight.intValue();
+    }
+
+    private static String getPoolId(Runnable job) {
+        if (job instanceof PersistedServiceJob) {
+            return ((PersistedServiceJob) job).getPoolId();
+        }
+        return null;
+    }
+
+    private static String getServiceName(Runnable job) {
+        if (job instanceof GenericServiceJob) {
+            return ((GenericServiceJob) job).getServiceName();
+        }
+        return null;
+    }
+
+    private static long getPriority(Runnable job) {
+        if (job instanceof Job) {
+            return ((Job) job).getPriority();
+        }
+        return JobPriority.NORMAL;
+    }
+
+    private void enqueue(Runnable job) {
+        if (taken.remove(job)) {
+            // reserved, but queued after all; it is counted again when it is taken
+            increment(getServiceName(job), -1);
+        }
+        String poolId = getPoolId(job);
+        Lane lane = lanes.get(poolId);
+        if (lane == null) {
+            lane = new Lane(poolId, getWeight(poolId));
+            lanes.put(poolId, lane);
+        }
+        if (lane.entries.isEmpty()) {
+            // a lane does not earn credit while it is idle
+            lane.pass = Math.max(lane.pass, virtualTime);
+        }
+        lane.entries.add(new QueuedJob(job, getPriority(job), sequence++));
+        count++;
+        available.signal();
+    }
+
+    private boolean isRunnable(QueuedJob queuedJob) {
+        return isRunnable(getServiceName(queuedJob.job));
+    }
+
+    private boolean isRunnable(String serviceName) {
+        if (serviceName == null) {
+            return true;
+        }
+        Integer limit = serviceLimits.get(serviceName);
+        if (limit == null) {
+            return true;
+        }
+        Integer running = runningByService.get(serviceName);
+        return running == null || running.intValue() < limit.intValue();
+    }
+
+    private Runnable dequeue() {
+        Lane selectedLane = null;
+        QueuedJob selected = null;
+        for (Lane lane : lanes.values()) {
+            if (lane.entries.isEmpty() || (selectedLane != null && lane.pass >= selectedLane.pass)) {
+                continue;
+            }
+            for (QueuedJob queuedJob : lane.entries) {
+                if (isRunnable(queuedJob)) {
+                    selectedLane = lane;
+                    selected = queuedJob;
+                    break;
+                }
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        selectedLane.entries.remove(selected);
+        virtualTime = selectedLane.pass;
+        selectedLane.pass += STRIDE / selectedLane.weight;
+        selectedLane.waitTime.record(System.nanoTime() - selected.queuedNanos);
+        count--;
+        increment(getServiceName(selected.job), 1);
+        taken.add(selected.job);
+        notFull.signal();
+        return selected.job;
+    }
+
+    private void increment(String serviceName, int delta) {
+        if (serviceName == null) {
+            return;
+        }
+        Integer running = runningByService.get(serviceName);
+        int value = (running == null ? 0 : running.intValue()) + delta;
+        if (value > 0) {
+            runningByService.put(serviceName, value);
+        } else {
+            runningByService.remove(serviceName);
+        }
+    }
+
+    /**
+     * Called by the executor for a new job, before the job can be started on a new thread without
+     * passing through this queue. Returns <code>false</code> if the service of the job already runs
+     * on as many threads as its limit allows; the job must then be queued. Otherwise the job is
+     * counted as running until it is started, queued or {@link #release(Runnable) released}, so
+     * that jobs submitted at the same time cannot exceed the limit together.
+     */
+    public boolean reserve(Runnable job) {
+        String serviceName = getServiceName(job);
+        if (serviceName == null || !serviceLimits.containsKey(serviceName)) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (!isRunnable(serviceName)) {
+                return false;
+            }
+            if (taken.add(job)) {
+                increment(serviceName, 1);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the executor when a job it {@link #reserve(Runnable) reserved} could not be
+     * started or queued.
+     */
+    public void release(Runnable job) {
+        lock.lock();
+        try {
+            if (taken.remove(job)) {
+                increment(getServiceName(job), -1);
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the executor before it runs <code>job</code>. Jobs the executor
+     * runs without taking them from this queue are counted here.
+     */
+    public void jobStarted(Runnable job) {
+        lock.lock();
+        try {
+            if (!taken.remove(job)) {
+                increment(getServiceName(job), 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by the executor after <code>job</code> has run.
+     */
+    public void jobEnded(Runnable job) {
+        lock.lock();
+        try {
+            increment(getServiceName(job), -1);
+            // a job that was held back by its service limit might be runnable now
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a <code>List</code> with a <code>Map</code> of statistics for each job pool.
+     */
+    public List<Map<String, Object>> getPoolStates() {
+        lock.lock();
+        try {
+            List<Map<String, Object>> poolStates = new ArrayList<Map<String, Object>>(lanes.size());
+            for (Lane lane : lanes.values()) {
+                Map<String, Object> poolState = new HashMap<String, Object>();
+                poolState.put("poolId", lane.poolId);
+                poolState.put("weight", lane.weight);
+                poolState.put("queueDepth", lane.entries.size());
+                poolState.put("startedJobs", lane.waitTime.getCount());
+                poolState.put("meanWaitMillis", TimeUnit.NANOSECONDS.toMillis(lane.waitTime.getMeanNanos()));
+                poolState.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(lane.waitTime.getMaxNanos()));
+                poolState.put("waitMillis99thPercentile", TimeUnit.NANOSECONDS.toMillis(lane.waitTime.getPercentileNanos(99.0)));
+                poolStates.add(poolState);
+            }
+            return poolStates;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of running jobs for each service that has a thread limit.
+     */
+    public Map<String, Integer> getLimitedServiceCounts() {
+        lock.lock();
+        try {
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (String serviceName : serviceLimits.keySet()) {
+                Integer running = runningByService.get(serviceName);
+                counts.put(serviceName, running == null ? 0 : running);
+            }
+            return counts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable job) {
+        if (job == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            enqueue(job);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable job, long timeout, TimeUnit unit) throws InterruptedException {
+        if (job == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(job);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable job) throws InterruptedException {
+        if (job == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(job);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable job = dequeue();
+            while (job == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = available.awaitNanos(nanos);
+                job = dequeue();
+            }
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable job = dequeue();
+            while (job == null) {
+                available.await();
+                job = dequeue();
+            }
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Lane selectedLane = null;
+            for (Lane lane : lanes.values()) {
+                if (!lane.entries.isEmpty() && (selectedLane == null || lane.pass < selectedLane.pass)) {
+                    selectedLane = lane;
+                }
+            }
+            return selectedLane == null ? null : selectedLane.entries.first().job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (Lane lane : lanes.values()) {
+                Iterator<QueuedJob> iterator = lane.entries.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().job == o) {
+                        iterator.remove();
+                        count--;
+                        notFull.signal();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            // service limits do not apply - this is used when the executor shuts down
+            int drained = 0;
+            for (Lane lane : lanes.values()) {
+                while (drained < maxElements && !lane.entries.isEmpty()) {
+                    c.add(lane.entries.pollFirst().job);
+                    drained++;
+                }
+            }
+            count -= drained;
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued jobs.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<Runnable>(count);
+            for (Lane lane : lanes.values()) {
+                for (QueuedJob queuedJob : lane.entries) {
+                    snapshot.add(queuedJob.job);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Lane {
+        private final String poolId;
+        private final TreeSet<QueuedJob> entries = new TreeSet<QueuedJob>();
+        private final LatencyHistogram waitTime;
+        private int weight;
+        private long pass = 0;
+
+        private Lane(String poolId, int weight) {
+            this.poolId = poolId;
+            this.weight = weight;
+            this.waitTime = new LatencyHistogram("job.queue.wait." + poolId);
+        }
+    }
+
+    private static final class QueuedJob implements Comparable<QueuedJob> {
+        private final Runnable job;
+        private final long priority;
+        private final long sequence;
+        private final long queuedNanos = System.nanoTime();
+
+        private QueuedJob(Runnable job, long priority, long sequence) {
+            this.job = job;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueuedJob other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -69,6 +69,7 @@ public class PersistedServiceJob extends GenericServiceJob {
     private final long currentRetryCount;
     private final GenericValue jobValue;
     private final long startTime;
+    private final long priority;
 
     /**
      * Creates a new PersistedServiceJob
@@ -83,6 +84,7 @@ public class PersistedServiceJob extends GenericServiceJob {
         Timestamp storedDate = jobValue.getTimestamp("runTime");
         this.startTime = storedDate.getTime();
         this.maxRetry = jobValue.get("maxRetry") != null ? jobValue.getLong("maxRetry").longValue() : -1;
+        this.priority = jobValue.get("priority") != null ? jobValue.getLong("priority").longValue() : JobPriority.NORMAL;
         Long retryCount = jobValue.getLong("currentRetryCount");
         if (retryCount != null) {
             this.currentRetryCount = retryCount.longValue();
@@ -204,6 +206,7 @@ public class PersistedServiceJob extends GenericServiceJob {
             newJob.set("startDateTime", null);
             newJob.set("runByInstanceId", null);
             newJob.set("runTime", new java.sql.Timestamp(next));
+            newJob.set("priority", priority);
             if (isRetryOnFailure) {
                 newJob.set("currentRetryCount", new Long(currentRetryCount + 1));
             } else {
@@ -376,4 +379,16 @@ public class PersistedServiceJob extends GenericServiceJob {
     public Date getStartTime() {
         return new Date(startTime);
     }
+
+    @Override
+    public long getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the job pool this job was sent to, or <code>null</code> if it was not sent to a pool.
+     */
+    protected String getPoolId() {
+        return jobValue.getString("poolId");
+    }
 }
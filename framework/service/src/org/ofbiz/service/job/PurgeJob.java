@@ -27,7 +27,9 @@ import org.ofbiz.entity.GenericValue;
 
 /**
  * Purge job - removes a JobSandbox entity value and its related values.
+ * @deprecated The job manager purges old jobs in chunks with {@link JobPurger}.
  */
+@Deprecated
 @SuppressWarnings("serial")
 public class PurgeJob extends AbstractJob implements Serializable {
 
@@ -71,6 +73,11 @@ public class PurgeJob extends AbstractJob implements Serializable {
         }
     }
 
+    @Override
+    public long getPriority() {
+        return JobPriority.LOW;
+    }
+
     @Override
     public boolean isValid() {
         return currentState == State.CREATED;
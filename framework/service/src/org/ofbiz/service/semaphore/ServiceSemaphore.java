@@ -19,14 +19,18 @@
 package org.ofbiz.service.semaphore;
 
 import java.sql.Timestamp;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.Transaction;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityQuery;
@@ -35,10 +39,17 @@ import org.ofbiz.service.job.JobManager;
 
 /**
  * ServiceSemaphore
+ * <p>Threads of this instance wait for each other in memory, in FIFO order, see
+ * {@link ServiceSemaphoreManager}. Only the thread at the head of the queue checks the
+ * <code>ServiceSemaphore</code> entity, which guards the service against other instances.</p>
+ * <p>With <code>semaphore.lease.seconds</code> set, a semaphore that is not renewed within the lease is
+ * taken over by another instance. This guards against crashes, not against a holder that is merely
+ * stalled: if the renewal falls behind the lease (a long GC pause, a database outage) another instance
+ * can run the service while the first one is still running it. The only check made is that the first
+ * instance doesn't remove the semaphore of the second when it finishes; services that must never
+ * overlap should leave the lease off.</p>
  */
 public class ServiceSemaphore {
-    // TODO: add something to make sure semaphores are cleaned up on failures and when the thread somehow goes away without cleaning it up
-    // TODO: write service engine test cases to make sure semaphore both blocking and timing out (use config to set sleep and wait to low values so it times out quickly)
 
     public static final String module = ServiceSemaphore.class.getName();
     public static final int SEMAPHORE_MODE_FAIL = 0;
@@ -49,9 +60,12 @@ public class ServiceSemaphore {
     protected GenericValue lock;
     protected ModelService model;
 
-    protected int wait = 0;
     protected int mode = SEMAPHORE_MODE_NONE;
     protected Timestamp lockTime = null;
+    protected String lockThread = null;
+    // when acquire() was called, the wait timeout counts from here
+    private long waitStart = 0;
+    private Semaphore localLock = null;
 
     public ServiceSemaphore(Delegator delegator, ModelService model) {
         this.delegator = delegator;
@@ -63,49 +77,81 @@ public class ServiceSemaphore {
     public void acquire() throws SemaphoreWaitException, SemaphoreFailException {
         if (mode == SEMAPHORE_MODE_NONE) return;
 
-        lockTime = UtilDateTime.nowTimestamp();
+        waitStart = System.currentTimeMillis();
+        lockThread = Thread.currentThread().getName();
 
-        if (this.checkLockNeedToWait()) {
-            waitOrFail();
+        Semaphore localLock = ServiceSemaphoreManager.getLocalLock(delegator.getDelegatorName(), model.name);
+        if (!localLock.tryAcquire()) {
+            waitOrFail(localLock);
+        }
+        this.localLock = localLock;
+
+        boolean acquired = false;
+        try {
+            if (this.checkLockNeedToWait()) {
+                waitOrFail(null);
+            }
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                releaseLocalLock();
+            }
         }
     }
 
     public void release() throws SemaphoreFailException {
         if (mode == SEMAPHORE_MODE_NONE) return;
 
-        // remove the lock file
-        if (lock != null) {
-            dbWrite(lock, true);
+        try {
+            // remove the lock file
+            if (lock != null) {
+                ServiceSemaphoreManager.removeLease(this);
+                dbWrite(lock, true);
+            }
+        } finally {
+            // wakes the next thread of this instance waiting for the semaphore
+            releaseLocalLock();
+        }
+    }
+
+    private void releaseLocalLock() {
+        if (localLock != null) {
+            localLock.release();
+            localLock = null;
         }
     }
 
-    private void waitOrFail() throws SemaphoreWaitException, SemaphoreFailException {
+    // waits for the local lock, or for the lock of another instance if localLock is null
+    private void waitOrFail(Semaphore localLock) throws SemaphoreWaitException, SemaphoreFailException {
         if (SEMAPHORE_MODE_FAIL == mode) {
             // fail
             throw new SemaphoreFailException("Service [" + model.name + "] is locked");
         } else if (SEMAPHORE_MODE_WAIT == mode) {
-            // get the wait and sleep values
-            long maxWaitCount = ((model.semaphoreWait * 1000) / model.semaphoreSleep);
-            long sleep = model.semaphoreSleep;
-
+            long deadline = waitStart + model.semaphoreWait * 1000L;
             boolean timedOut = true;
-            while (wait < maxWaitCount) {
-                wait++;
-                try {
-                    Thread.sleep(sleep);
-                } catch (InterruptedException e) {
-                    Debug.logInfo(e, "Sleep interrupted: ServiceSemaphone.waitOrFail()", module);
-                }
+            try {
+                if (localLock != null) {
+                    // released locks are handed to the waiting threads in FIFO order
+                    timedOut = !localLock.tryAcquire(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                } else {
+                    // held by another instance, only this thread polls the database, the others wait for it in memory
+                    while (System.currentTimeMillis() < deadline) {
+                        Thread.sleep(Math.max(Math.min(model.semaphoreSleep, deadline - System.currentTimeMillis()), 1));
 
-                // try again
-                if (!checkLockNeedToWait()) {
-                    timedOut = false;
-                    break;
+                        // try again
+                        if (!checkLockNeedToWait()) {
+                            timedOut = false;
+                            break;
+                        }
+                    }
                 }
+            } catch (InterruptedException e) {
+                Debug.logInfo(e, "Wait interrupted: ServiceSemaphore.waitOrFail()", module);
+                Thread.currentThread().interrupt();
             }
             if (timedOut) {
-                double waitTimeSec = ((System.currentTimeMillis() - lockTime.getTime()) / 1000.0);
-                String errMsg = "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + lockTime;
+                double waitTimeSec = ((System.currentTimeMillis() - waitStart) / 1000.0);
+                String errMsg = "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + new Timestamp(waitStart);
                 Debug.logWarning(errMsg, module);
                 throw new SemaphoreWaitException(errMsg);
             }
@@ -117,7 +163,10 @@ public class ServiceSemaphore {
     }
 
     private boolean checkLockNeedToWait() throws SemaphoreFailException {
-        String threadName = Thread.currentThread().getName();
+        return checkLockNeedToWait(true);
+    }
+
+    private boolean checkLockNeedToWait(boolean takeOverExpired) throws SemaphoreFailException {
         GenericValue semaphore;
 
         try {
@@ -126,11 +175,27 @@ public class ServiceSemaphore {
             throw new SemaphoreFailException(e);
         }
 
+        if (semaphore != null && takeOverExpired && isLeaseExpired(semaphore)) {
+            // left behind by a crashed instance, remove it unless it was renewed or taken over in the meantime
+            Debug.logWarning("Taking over the expired semaphore of service [" + model.name + "] locked by [" + semaphore.get("lockedByInstanceId")
+                    + "/" + semaphore.get("lockThread") + "] at " + semaphore.get("lockTime"), module);
+            final EntityCondition staleCondition = EntityCondition.makeCondition(UtilMisc.toMap("serviceName", model.name, "lockTime", semaphore.get("lockTime")));
+            inUniqueTransaction(new SemaphoreWrite() {
+                public void write() throws GenericEntityException {
+                    delegator.removeByCondition("ServiceSemaphore", staleCondition);
+                }
+            });
+            return checkLockNeedToWait(false);
+        }
+
         if (semaphore == null) {
-            semaphore = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockedByInstanceId", JobManager.instanceId, "lockThread", threadName, "lockTime", lockTime);
+            // the lease starts now, not when this thread started waiting
+            lockTime = UtilDateTime.nowTimestamp();
+            semaphore = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockedByInstanceId", JobManager.instanceId, "lockThread", lockThread, "lockTime", lockTime);
 
             // use the special method below so we can reuse the unqiue tx functions
             dbWrite(semaphore, false);
+            ServiceSemaphoreManager.addLease(this);
 
             // we own the lock, no waiting
             return false;
@@ -140,7 +205,53 @@ public class ServiceSemaphore {
         }
     }
 
-    private synchronized void dbWrite(GenericValue value, boolean delete) throws SemaphoreFailException {
+    private boolean isLeaseExpired(GenericValue semaphore) {
+        long leaseMillis = ServiceSemaphoreManager.getLeaseMillis();
+        Timestamp semaphoreLockTime = semaphore.getTimestamp("lockTime");
+        return leaseMillis > 0 && semaphoreLockTime != null && semaphoreLockTime.getTime() + leaseMillis < System.currentTimeMillis();
+    }
+
+    // called by the ServiceSemaphoreManager while the semaphore is held
+    synchronized void renewLease() throws SemaphoreFailException {
+        if (lock == null) {
+            return;
+        }
+        final EntityCondition ownCondition = EntityCondition.makeCondition(UtilMisc.toMap("serviceName", model.name,
+                "lockedByInstanceId", JobManager.instanceId, "lockThread", lockThread));
+        inUniqueTransaction(new SemaphoreWrite() {
+            public void write() throws GenericEntityException {
+                if (delegator.storeByCondition("ServiceSemaphore", UtilMisc.toMap("lockTime", UtilDateTime.nowTimestamp()), ownCondition) == 0) {
+                    Debug.logWarning("The semaphore of service [" + model.name + "] held by [" + lockThread + "] was taken over after its lease expired", module);
+                }
+            }
+        });
+    }
+
+    private synchronized void dbWrite(final GenericValue value, final boolean delete) throws SemaphoreFailException {
+        inUniqueTransaction(new SemaphoreWrite() {
+            public void write() throws GenericEntityException {
+                if (delete) {
+                    value.refresh();
+                    // the semaphore may have been taken over by another instance after the lease expired, leave it alone
+                    if (JobManager.instanceId.equals(value.getString("lockedByInstanceId")) && lockThread.equals(value.getString("lockThread"))) {
+                        value.remove();
+                    } else {
+                        Debug.logWarning("The semaphore of service [" + model.name + "] is now held by [" + value.get("lockedByInstanceId")
+                                + "/" + value.get("lockThread") + "]; not removing it", module);
+                    }
+                    lock = null;
+                } else {
+                    lock = value.create();
+                }
+            }
+        });
+    }
+
+    private interface SemaphoreWrite {
+        void write() throws GenericEntityException;
+    }
+
+    private void inUniqueTransaction(SemaphoreWrite semaphoreWrite) throws SemaphoreFailException {
         Transaction parent = null;
         boolean beganTx = false;
         boolean isError = false;
@@ -155,13 +266,7 @@ public class ServiceSemaphore {
 
             // store the value
             try {
-                if (delete) {
-                    value.refresh();
-                    value.remove();
-                    lock = null;
-                } else {
-                    lock = value.create();
-                }
+                semaphoreWrite.write();
             } catch (GenericEntityException e) {
                 Debug.logError(e, module);
                 isError = true;
@@ -194,4 +299,9 @@ public class ServiceSemaphore {
             }
         }
     }
+
+    @Override
+    public String toString() {
+        return "ServiceSemaphore:" + model.name + ":" + lockThread + ":" + lockTime;
+    }
 }
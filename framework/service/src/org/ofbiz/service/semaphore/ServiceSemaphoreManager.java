@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.semaphore;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.lang.ThreadSafe;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * Keeps the service semaphores of this instance in memory. Threads waiting for a semaphore
+ * held in this instance queue on a fair {@link Semaphore} and are woken in FIFO order as soon
+ * as it is released, instead of polling the <code>ServiceSemaphore</code> entity.
+ * <p>When <code>semaphore.lease.seconds</code> is set in service.properties, the semaphores held
+ * in this instance are renewed in the database at a third of the lease, and a semaphore of another
+ * instance that was not renewed within the lease is taken over as left behind by a crash.</p>
+ */
+@ThreadSafe
+final class ServiceSemaphoreManager {
+
+    public static final String module = ServiceSemaphoreManager.class.getName();
+
+    private static final long leaseMillis = UtilProperties.getPropertyAsLong("service", "semaphore.lease.seconds", 0) * 1000;
+    private static final ConcurrentMap<String, Semaphore> localLocks = new ConcurrentHashMap<String, Semaphore>();
+    private static final Set<ServiceSemaphore> leases = Collections.newSetFromMap(new ConcurrentHashMap<ServiceSemaphore, Boolean>());
+    private static volatile ScheduledExecutorService renewer = null;
+
+    /** Returns the lock threads of this instance queue on for the service in the database of the delegator. */
+    static Semaphore getLocalLock(String delegatorName, String serviceName) {
+        String key = delegatorName + ":" + serviceName;
+        Semaphore localLock = localLocks.get(key);
+        if (localLock == null) {
+            localLock = new Semaphore(1, true);
+            Semaphore existing = localLocks.putIfAbsent(key, localLock);
+            if (existing != null) {
+                localLock = existing;
+            }
+        }
+        return localLock;
+    }
+
+    /** Returns the time in milliseconds a semaphore stays valid without being renewed, 0 if it never expires. */
+    static long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /** Renews the semaphore in the database until it is removed, if leases are enabled. */
+    static void addLease(ServiceSemaphore semaphore) {
+        if (leaseMillis <= 0) {
+            return;
+        }
+        if (renewer == null) {
+            startRenewer();
+        }
+        leases.add(semaphore);
+    }
+
+    static void removeLease(ServiceSemaphore semaphore) {
+        leases.remove(semaphore);
+    }
+
+    private static synchronized void startRenewer() {
+        if (renewer != null) {
+            return;
+        }
+        long interval = Math.max(leaseMillis / 3, 1);
+        ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "OFBiz-service-semaphore", 1, 0, false);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (ServiceSemaphore semaphore : leases) {
+                    try {
+                        semaphore.renewLease();
+                    } catch (Exception e) {
+                        Debug.logError(e, "Could not renew the service semaphore lease of " + semaphore, module);
+                    }
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        renewer = executor;
+    }
+
+    private ServiceSemaphoreManager() {}
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.service.job.GenericServiceJob;
+import org.ofbiz.service.job.JobPriority;
+import org.ofbiz.service.job.JobQueue;
+import org.ofbiz.service.job.PersistedServiceJob;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests the order in which {@link JobQueue} hands out jobs, and its per-service limits.
+ * The jobs are never run.
+ */
+public class JobQueueTests extends OFBizTestCase {
+
+    private final Map<Runnable, String> jobPools = new IdentityHashMap<Runnable, String>();
+    private int jobCount = 0;
+
+    public JobQueueTests(String name) {
+        super(name);
+    }
+
+    private PersistedServiceJob persistedJob(String poolId, String serviceName, Long priority) {
+        GenericValue jobValue = delegator.makeValue("JobSandbox", UtilMisc.toMap("jobId", "JobQueueTests-" + jobCount++, "jobName", getName(),
+                "runTime", UtilDateTime.nowTimestamp(), "poolId", poolId, "serviceName", serviceName, "currentRetryCount", Long.valueOf(0)));
+        jobValue.set("priority", priority);
+        PersistedServiceJob job = new PersistedServiceJob(dispatcher.getDispatchContext(), jobValue, null);
+        jobPools.put(job, poolId);
+        return job;
+    }
+
+    private GenericServiceJob serviceJob(String serviceName) {
+        return new GenericServiceJob(dispatcher.getDispatchContext(), "JobQueueTests-" + jobCount++, getName(), serviceName, new HashMap<String, Object>(), null);
+    }
+
+    private static JobQueue makeQueue(Map<String, Integer> poolWeights, Map<String, Integer> serviceLimits) {
+        JobQueue queue = new JobQueue(1000);
+        queue.configure(poolWeights, serviceLimits);
+        return queue;
+    }
+
+    // takes a job, and runs it instantly
+    private static Runnable takeAndRun(JobQueue queue) {
+        Runnable job = queue.poll();
+        if (job != null) {
+            queue.jobStarted(job);
+            queue.jobEnded(job);
+        }
+        return job;
+    }
+
+    public void testStrideFairness() throws Exception {
+        Map<String, Integer> poolWeights = UtilMisc.toMap("heavy", 3, "light", 1);
+        JobQueue queue = makeQueue(poolWeights, Collections.<String, Integer>emptyMap());
+        for (int i = 0; i < 40; i++) {
+            queue.offer(persistedJob("heavy", "testScv", null));
+            queue.offer(persistedJob("light", "testScv", null));
+        }
+        int heavy = 0;
+        for (int i = 0; i < 40; i++) {
+            if ("heavy".equals(jobPools.get(takeAndRun(queue)))) {
+                heavy++;
+            }
+        }
+        assertTrue("3 of 4 jobs from the heavy pool, got " + heavy + " of 40", heavy >= 29 && heavy <= 31);
+
+        // a pool that was idle does not get to make up for it
+        queue = makeQueue(poolWeights, Collections.<String, Integer>emptyMap());
+        for (int i = 0; i < 20; i++) {
+            queue.offer(persistedJob("heavy", "testScv", null));
+        }
+        for (int i = 0; i < 10; i++) {
+            takeAndRun(queue);
+        }
+        for (int i = 0; i < 20; i++) {
+            queue.offer(persistedJob("light", "testScv", null));
+        }
+        int light = 0;
+        for (int i = 0; i < 8; i++) {
+            if ("light".equals(jobPools.get(takeAndRun(queue)))) {
+                light++;
+            }
+        }
+        assertTrue("1 of 4 jobs from the pool that was idle, got " + light + " of 8", light >= 1 && light <= 3);
+    }
+
+    public void testPriorityOrder() throws Exception {
+        JobQueue queue = makeQueue(Collections.<String, Integer>emptyMap(), Collections.<String, Integer>emptyMap());
+        List<Runnable> expected = new ArrayList<Runnable>();
+        Runnable low = persistedJob("pool", "testScv", JobPriority.LOW);
+        Runnable normal = persistedJob("pool", "testScv", JobPriority.NORMAL);
+        Runnable noPriority = persistedJob("pool", "testScv", null);
+        Runnable high = persistedJob("pool", "testScv", JobPriority.HIGH);
+        Runnable normalLater = persistedJob("pool", "testScv", JobPriority.NORMAL);
+        queue.offer(low);
+        queue.offer(normal);
+        queue.offer(noPriority);
+        queue.offer(high);
+        queue.offer(normalLater);
+        // a job without a priority is a NORMAL one, and equal priorities keep the queued order
+        expected.add(high);
+        expected.add(normal);
+        expected.add(noPriority);
+        expected.add(normalLater);
+        expected.add(low);
+        List<Runnable> taken = new ArrayList<Runnable>();
+        Runnable job;
+        while ((job = takeAndRun(queue)) != null) {
+            taken.add(job);
+        }
+        assertEquals("taken by priority", expected, taken);
+    }
+
+    public void testServiceLimit() throws Exception {
+        Map<String, Integer> serviceLimits = UtilMisc.toMap("testScv", 1);
+        JobQueue queue = makeQueue(Collections.<String, Integer>emptyMap(), serviceLimits);
+        Runnable limited1 = serviceJob("testScv");
+        Runnable limited2 = serviceJob("testScv");
+        Runnable other = serviceJob("testSvc");
+        queue.offer(limited1);
+        queue.offer(limited2);
+        queue.offer(other);
+        Runnable first = queue.poll();
+        assertSame("first limited job", limited1, first);
+        queue.jobStarted(first);
+        assertSame("second limited job is held back", other, queue.poll());
+        assertNull("nothing runnable", queue.poll());
+        assertEquals("queued", 1, queue.size());
+        assertEquals("running", Integer.valueOf(1), queue.getLimitedServiceCounts().get("testScv"));
+        queue.jobEnded(first);
+        assertSame("runnable once the first ended", limited2, queue.poll());
+    }
+
+    public void testServiceLimitForNewThreads() throws Exception {
+        Map<String, Integer> serviceLimits = UtilMisc.toMap("testScv", 1);
+        JobQueue queue = makeQueue(Collections.<String, Integer>emptyMap(), serviceLimits);
+        Runnable running = serviceJob("testScv");
+        Runnable next = serviceJob("testScv");
+        // jobs the executor wants to start on a new thread, without queueing them
+        assertTrue("free service", queue.reserve(running));
+        assertFalse("service at its limit", queue.reserve(next));
+        queue.jobStarted(running);
+        assertEquals("counted once", Integer.valueOf(1), queue.getLimitedServiceCounts().get("testScv"));
+        assertTrue("other services are not limited", queue.reserve(serviceJob("testSvc")));
+        queue.offer(next);
+        assertNull("queued job held back", queue.poll());
+        queue.jobEnded(running);
+        assertSame("queued job runnable", next, queue.poll());
+        queue.jobStarted(next);
+        queue.jobEnded(next);
+
+        // a reserved job that ends up in the queue, or is not started at all, is not counted
+        Runnable queued = serviceJob("testScv");
+        assertTrue("reserved", queue.reserve(queued));
+        queue.offer(queued);
+        assertEquals("queued after reserve", Integer.valueOf(0), queue.getLimitedServiceCounts().get("testScv"));
+        assertSame("queued reserved job", queued, queue.poll());
+        queue.jobStarted(queued);
+        queue.jobEnded(queued);
+        Runnable rejected = serviceJob("testScv");
+        assertTrue("reserved again", queue.reserve(rejected));
+        queue.release(rejected);
+        assertEquals("released", Integer.valueOf(0), queue.getLimitedServiceCounts().get("testScv"));
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.ofbiz.service.test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -41,6 +43,12 @@ public class ServiceEngineTestServices {
 
     public static final String module = ServiceEngineTestServices.class.getName();
     public static final String resource = "ServiceErrorUiLabels";
+    /** The calls of testServiceSemaphoreWait in the order they ran, as {callNumber, start millis, end millis}. */
+    public static final List<long[]> semaphoreWaitCalls = Collections.synchronizedList(new ArrayList<long[]>());
+    /** The calls of the testServiceParallelGroup members, as {start millis, end millis}. */
+    public static final List<long[]> parallelGroupCalls = Collections.synchronizedList(new ArrayList<long[]>());
+    /** The jobName parameters of the testServicePushedJob jobs that ran. */
+    public static final List<String> pushedJobNames = Collections.synchronizedList(new ArrayList<String>());
 
     public static Map<String, Object> testServiceDeadLockRetry(DispatchContext dctx, Map<String, ? extends Object> context) {
         Locale locale = (Locale) context.get("locale");
@@ -375,4 +383,47 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    public static Map<String, Object> testServiceParallelGroupA(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return testServiceParallelGroupMember("resultA");
+    }
+    public static Map<String, Object> testServiceParallelGroupB(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return testServiceParallelGroupMember("resultB");
+    }
+    private static Map<String, Object> testServiceParallelGroupMember(String resultName) {
+        long start = System.currentTimeMillis();
+        // long enough that the other member starts while this one runs
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            return ServiceUtil.returnError(e.toString());
+        }
+        parallelGroupCalls.add(new long[] { start, System.currentTimeMillis() });
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put(resultName, Thread.currentThread().getName());
+        return result;
+    }
+    public static Map<String, Object> testServiceSemaphoreWait(DispatchContext dctx, Map<String, ? extends Object> context) {
+        long start = System.currentTimeMillis();
+        // hold the semaphore long enough for the other callers to queue up behind it
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            return ServiceUtil.returnError(e.toString());
+        }
+        semaphoreWaitCalls.add(new long[] { (Integer) context.get("callNumber"), start, System.currentTimeMillis() });
+        return ServiceUtil.returnSuccess();
+    }
+    public static Map<String, Object> testServicePushedJob(DispatchContext dctx, Map<String, ? extends Object> context) {
+        pushedJobNames.add((String) context.get("jobName"));
+        return ServiceUtil.returnSuccess();
+    }
+    public static Map<String, Object> testServiceSemaphoreTimeout(DispatchContext dctx, Map<String, ? extends Object> context) {
+        try {
+            Thread.sleep(3000);
+        } catch (InterruptedException e) {
+            return ServiceUtil.returnError(e.toString());
+        }
+        return ServiceUtil.returnSuccess();
+    }
 }
@@ -18,14 +18,45 @@
  *******************************************************************************/
 package org.ofbiz.service.test;
 
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericResultWaiter;
+import org.ofbiz.service.ModelParam;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.ServiceValidationException;
+import org.ofbiz.service.eca.ServiceEcaCondition;
+import org.ofbiz.service.engine.JavaServiceInvoker;
+import org.ofbiz.service.job.Job;
+import org.ofbiz.service.job.JobManager;
+import org.ofbiz.service.job.JobPurger;
+import org.ofbiz.service.semaphore.SemaphoreWaitException;
 import org.ofbiz.service.testtools.OFBizTestCase;
+import org.w3c.dom.Element;
 
 public class ServiceEngineTests extends OFBizTestCase {
 
+    public static final String module = ServiceEngineTests.class.getName();
+
     public ServiceEngineTests(String name) {
         super(name);
     }
@@ -42,4 +73,239 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    public void testParallelServiceGroup() throws Exception {
+        ServiceEngineTestServices.parallelGroupCalls.clear();
+        Map<String, Object> result = dispatcher.runSync("testServiceParallelGroup", new HashMap<String, Object>());
+        assertTrue("Service result success", ServiceUtil.isSuccess(result));
+        assertNotNull("Result of first member", result.get("resultA"));
+        assertNotNull("Result of second member", result.get("resultB"));
+        assertFalse("Members ran on different threads", result.get("resultA").equals(result.get("resultB")));
+        List<long[]> ran = new ArrayList<long[]>(ServiceEngineTestServices.parallelGroupCalls);
+        assertEquals("Both members ran", 2, ran.size());
+        // the run of each member overlaps the other, whatever the load on the machine
+        long lastStart = Math.max(ran.get(0)[0], ran.get(1)[0]);
+        long firstEnd = Math.min(ran.get(0)[1], ran.get(1)[1]);
+        assertTrue("Members ran concurrently: the second started at " + lastStart + ", the first ended at " + firstEnd, lastStart < firstEnd);
+    }
+
+    public void testServiceSemaphoreWait() throws Exception {
+        int calls = 4;
+        ServiceEngineTestServices.semaphoreWaitCalls.clear();
+        List<GenericResultWaiter> waiters = new ArrayList<GenericResultWaiter>(calls);
+        for (int i = 0; i < calls; i++) {
+            waiters.add(dispatcher.runAsyncWait("testServiceSemaphoreWait", UtilMisc.<String, Object>toMap("callNumber", i), false));
+            // each call queues up behind the previous one while the first holds the semaphore for a second
+            Thread.sleep(200);
+        }
+        for (int i = 0; i < calls; i++) {
+            assertTrue("Call " + i + " success", ServiceUtil.isSuccess(waiters.get(i).waitForResult()));
+        }
+        List<long[]> ran = new ArrayList<long[]>(ServiceEngineTestServices.semaphoreWaitCalls);
+        assertEquals("All calls ran", calls, ran.size());
+        long semaphoreSleep = dispatcher.getDispatchContext().getModelService("testServiceSemaphoreWait").semaphoreSleep;
+        for (int i = 0; i < calls; i++) {
+            assertEquals("Calls ran in the order they were made", i, ran.get(i)[0]);
+            if (i > 0) {
+                long wakeUp = ran.get(i)[1] - ran.get(i - 1)[2];
+                assertTrue("Call " + i + " started " + wakeUp + " ms after the previous one finished, well under the semaphore-sleep of " + semaphoreSleep + " ms",
+                        wakeUp < semaphoreSleep / 5);
+            }
+        }
+    }
+
+    public void testServiceSemaphoreTimeout() throws Exception {
+        GenericResultWaiter holder = dispatcher.runAsyncWait("testServiceSemaphoreTimeout", new HashMap<String, Object>(), false);
+        // let the first call take the semaphore
+        Thread.sleep(500);
+        long startTime = System.currentTimeMillis();
+        try {
+            dispatcher.runSync("testServiceSemaphoreTimeout", new HashMap<String, Object>());
+            fail("Second call did not time out waiting for the semaphore");
+        } catch (SemaphoreWaitException e) {
+            long waited = System.currentTimeMillis() - startTime;
+            assertTrue("Second call gave up after the semaphore-wait-seconds, waited " + waited + " ms", waited >= 1000);
+        }
+        assertTrue("First call success", ServiceUtil.isSuccess(holder.waitForResult()));
+        // the semaphore is free again
+        assertTrue("Call after the first one success", ServiceUtil.isSuccess(dispatcher.runSync("testServiceSemaphoreTimeout", new HashMap<String, Object>())));
+    }
+
+    /*
+     * Tests that a job created in a transaction that rolls back is not pushed to the job poller
+     */
+    public void testPushedJobRollback() throws Exception {
+        ServiceEngineTestServices.pushedJobNames.clear();
+        JobManager jobManager = dispatcher.getJobManager();
+        String rolledBackName = "testPushedJobRollback-" + System.currentTimeMillis();
+        boolean beganTransaction = TransactionUtil.begin();
+        assertTrue("Began transaction", beganTransaction);
+        try {
+            jobManager.schedule(rolledBackName, null, "testServicePushedJob", UtilMisc.toMap("jobName", rolledBackName), System.currentTimeMillis(), -1, 0, 0, 0, -1);
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "testPushedJobRollback", null);
+        }
+        // a job pushed after the rolled back one runs after it would have
+        String committedName = rolledBackName + "-committed";
+        beganTransaction = TransactionUtil.begin();
+        try {
+            jobManager.schedule(committedName, null, "testServicePushedJob", UtilMisc.toMap("jobName", committedName), System.currentTimeMillis(), -1, 0, 0, 0, -1);
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!ServiceEngineTestServices.pushedJobNames.contains(committedName) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue("Committed job ran", ServiceEngineTestServices.pushedJobNames.contains(committedName));
+        assertFalse("Rolled back job did not run", ServiceEngineTestServices.pushedJobNames.contains(rolledBackName));
+        assertEquals("Rolled back job not stored", 0, EntityQuery.use(delegator).from("JobSandbox").where("jobName", rolledBackName).queryCount());
+    }
+
+    private GenericValue createJob(String jobId, String dateField, Timestamp date, String runtimeDataId) throws Exception {
+        GenericValue jobValue = delegator.makeValue("JobSandbox", UtilMisc.toMap("jobId", jobId, "jobName", jobId, "runTime", date,
+                "serviceName", "testScv", "runByInstanceId", JobManager.instanceId, "runtimeDataId", runtimeDataId));
+        jobValue.set("statusId", "finishDateTime".equals(dateField) ? "SERVICE_FINISHED" : "SERVICE_CANCELLED");
+        jobValue.set(dateField, date);
+        return jobValue.create();
+    }
+
+    /*
+     * Tests that the purge removes old finished and canceled jobs, and only the runtime data no remaining job refers to
+     */
+    public void testJobPurge() throws Exception {
+        delegator.removeByCondition("JobSandbox", EntityCondition.makeCondition("jobId", EntityOperator.LIKE, "TEST-PURGE-%"));
+        delegator.removeByCondition("RuntimeData", EntityCondition.makeCondition("runtimeDataId", EntityOperator.LIKE, "TEST-PURGE-%"));
+        delegator.create("RuntimeData", "runtimeDataId", "TEST-PURGE-OLD", "runtimeInfo", "<old/>");
+        delegator.create("RuntimeData", "runtimeDataId", "TEST-PURGE-SHARED", "runtimeInfo", "<shared/>");
+        Timestamp oldDate = Timestamp.valueOf("2000-01-01 00:00:00");
+        Timestamp now = UtilDateTime.nowTimestamp();
+        createJob("TEST-PURGE-1", "finishDateTime", oldDate, "TEST-PURGE-OLD");
+        createJob("TEST-PURGE-2", "finishDateTime", oldDate, "TEST-PURGE-SHARED");
+        createJob("TEST-PURGE-3", "cancelDateTime", oldDate, null);
+        createJob("TEST-PURGE-RECENT", "finishDateTime", now, "TEST-PURGE-SHARED");
+
+        JobPurger purger = new JobPurger(delegator);
+        Job purgeJob = purger.newJob();
+        assertNotNull("Purge is due", purgeJob);
+        assertNull("Only one purge runs at a time", purger.newJob());
+        purgeJob.queue();
+        purgeJob.run();
+
+        assertEquals("Old jobs removed", 0, EntityQuery.use(delegator).from("JobSandbox").where(EntityCondition.makeCondition("jobId", EntityOperator.IN, UtilMisc.toList("TEST-PURGE-1", "TEST-PURGE-2", "TEST-PURGE-3"))).queryCount());
+        assertNotNull("Recent job kept", EntityQuery.use(delegator).from("JobSandbox").where("jobId", "TEST-PURGE-RECENT").queryOne());
+        assertNull("Runtime data of the old job removed", EntityQuery.use(delegator).from("RuntimeData").where("runtimeDataId", "TEST-PURGE-OLD").queryOne());
+        assertNotNull("Runtime data of the recent job kept", EntityQuery.use(delegator).from("RuntimeData").where("runtimeDataId", "TEST-PURGE-SHARED").queryOne());
+        assertTrue("Purged jobs counted", ((Long) purger.getState().get("totalPurged")).longValue() >= 3);
+
+        delegator.removeByAnd("JobSandbox", "jobId", "TEST-PURGE-RECENT");
+        delegator.removeByAnd("RuntimeData", "runtimeDataId", "TEST-PURGE-SHARED");
+    }
+
+    public static Map<String, Object> noopService(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return ServiceUtil.returnSuccess();
+    }
+
+    /*
+     * Compares the per call overhead of the bound java service invoker with reflection.
+     */
+    public void testJavaInvokerOverhead() throws Throwable {
+        ClassLoader cl = getClass().getClassLoader();
+        Map<String, Object> context = new HashMap<String, Object>();
+        int calls = 1000000;
+        JavaServiceInvoker invoker = JavaServiceInvoker.bind(cl, getClass().getName(), "noopService");
+        assertTrue("Invoker bound", invoker.isBoundTo(cl, getClass().getName(), "noopService"));
+        assertEquals("Invoker result", ServiceUtil.returnSuccess(), invoker.invoke(null, context));
+        long reflectionNanos = 0;
+        long invokerNanos = 0;
+        // the first round warms up both paths
+        for (int round = 0; round < 2; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                // what the java engine did on every call before the invoker was bound once
+                Class<?> c = cl.loadClass(getClass().getName());
+                Method m = c.getMethod("noopService", DispatchContext.class, Map.class);
+                m.invoke(null, null, context);
+            }
+            reflectionNanos = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                invoker.invoke(null, context);
+            }
+            invokerNanos = System.nanoTime() - startTime;
+        }
+        Debug.logInfo("testJavaInvokerOverhead ns/call: reflection " + reflectionNanos / calls + ", invoker " + invokerNanos / calls, module);
+    }
+
+    private static ModelParam makeParam(String name, String type, String mode, boolean optional) {
+        ModelParam param = new ModelParam();
+        param.name = name;
+        param.type = type;
+        param.mode = mode;
+        param.optional = optional;
+        return param;
+    }
+
+    public void testValidationPlan() throws Exception {
+        ModelService model = new ModelService();
+        model.name = "testValidationPlan";
+        model.addParam(makeParam("message", "String", ModelService.IN_PARAM, false));
+        model.addParam(makeParam("count", "Long", ModelService.IN_PARAM, true));
+        model.addParam(makeParam("result", "String", ModelService.OUT_PARAM, true));
+
+        Map<String, Object> context = model.makeValid(UtilMisc.toMap("message", "hello", "count", Long.valueOf(5), "other", "x"), ModelService.IN_PARAM);
+        assertEquals("makeValid keeps IN parameters only", UtilMisc.toMap("message", "hello", "count", Long.valueOf(5)), context);
+        model.validate(context, ModelService.IN_PARAM, Locale.getDefault());
+        try {
+            model.validate(UtilMisc.<String, Object>toMap("count", Long.valueOf(5)), ModelService.IN_PARAM, Locale.getDefault());
+            fail("missing required parameter");
+        } catch (ServiceValidationException e) {
+            assertEquals("missing parameter reported", UtilMisc.toList("message"), e.getMissingFields());
+        }
+        try {
+            model.validate(UtilMisc.<String, Object>toMap("message", "hello", "count", "5"), ModelService.IN_PARAM, Locale.getDefault());
+            fail("wrong parameter type");
+        } catch (ServiceValidationException e) {
+        }
+
+        // adding a parameter rebuilds the plan
+        model.addParam(makeParam("required", "String", ModelService.IN_PARAM, false));
+        try {
+            model.validate(context, ModelService.IN_PARAM, Locale.getDefault());
+            fail("added required parameter");
+        } catch (ServiceValidationException e) {
+            assertEquals("added parameter reported", UtilMisc.toList("required"), e.getMissingFields());
+        }
+    }
+
+    /*
+     * The compiled String equals and not-equals conditions must give the same result as ObjectType.doRealCompare.
+     */
+    public void testEcaConditionStringCompare() throws Exception {
+        DispatchContext dctx = dispatcher.getDispatchContext();
+        List<Object> values = Arrays.<Object>asList(null, "A", "B", "", "5", Integer.valueOf(5), Integer.valueOf(6));
+        for (String type : UtilMisc.toList("String", "java.lang.String")) {
+            for (String operator : UtilMisc.toList("equals", "not-equals")) {
+                for (String constant : UtilMisc.toList("A", "", "5")) {
+                    Element element = UtilXml.makeEmptyXmlDocument("condition").getDocumentElement();
+                    element.setAttribute("field-name", "value");
+                    element.setAttribute("operator", operator);
+                    element.setAttribute("value", constant);
+                    element.setAttribute("type", type);
+                    ServiceEcaCondition condition = new ServiceEcaCondition(element, true, false);
+                    for (Object value : values) {
+                        Map<String, Object> context = new HashMap<String, Object>();
+                        context.put("value", value);
+                        Boolean expected = ObjectType.doRealCompare(value, constant, operator, type, "", new LinkedList<Object>(), null, dctx.getClassLoader(), true);
+                        String message = value + " " + operator + " " + type + " [" + constant + "]";
+                        assertEquals(message, Boolean.TRUE.equals(expected), condition.eval("testEcaCondition", dctx, context));
+                    }
+                    // a field missing from the context compares as null
+                    Boolean expected = ObjectType.doRealCompare(null, constant, operator, type, "", new LinkedList<Object>(), null, dctx.getClassLoader(), true);
+                    assertEquals("missing " + operator + " " + type + " [" + constant + "]", Boolean.TRUE.equals(expected),
+                            condition.eval("testEcaCondition", dctx, new HashMap<String, Object>()));
+                }
+            }
+        }
+    }
 }
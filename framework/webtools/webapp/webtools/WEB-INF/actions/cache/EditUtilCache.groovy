@@ -38,6 +38,22 @@ if (cacheName) {
         cache.missCountSoftRef = UtilFormatOut.formatQuantity(utilCache.getMissCountSoftRef());
         cache.removeHitCount = UtilFormatOut.formatQuantity(utilCache.getRemoveHitCount());
         cache.removeMissCount = UtilFormatOut.formatQuantity(utilCache.getRemoveMissCount());
+        cache.hitRatio = UtilFormatOut.formatPercentage(utilCache.getHitRatio());
+        cache.evictionCountSize = UtilFormatOut.formatQuantity(utilCache.getEvictionCountSize());
+        cache.evictionCountExpired = UtilFormatOut.formatQuantity(utilCache.getEvictionCountExpired());
+        cache.evictionCountSoftRef = UtilFormatOut.formatQuantity(utilCache.getEvictionCountSoftRef());
+        getLatency = utilCache.getGetLatency();
+        cache.getLatencyMean = UtilFormatOut.formatQuantity(getLatency.getMeanNanos());
+        cache.getLatency99 = UtilFormatOut.formatQuantity(getLatency.getPercentileNanos(99.0));
+        putLatency = utilCache.getPutLatency();
+        cache.putLatencyMean = UtilFormatOut.formatQuantity(putLatency.getMeanNanos());
+        cache.putLatency99 = UtilFormatOut.formatQuantity(putLatency.getPercentileNanos(99.0));
+        loadLatency = utilCache.getLoadLatency();
+        cache.loadCount = UtilFormatOut.formatQuantity(loadLatency.getCount());
+        cache.loadLatencyMean = UtilFormatOut.formatQuantity(loadLatency.getMeanNanos());
+        cache.loadLatency99 = UtilFormatOut.formatQuantity(loadLatency.getPercentileNanos(99.0));
+        cache.estimatedMemory = UtilFormatOut.formatQuantity(utilCache.getEstimatedSizeInBytes());
+        cache.evictionPolicy = utilCache.getEvictionPolicy();
         cache.maxInMemory = UtilFormatOut.formatQuantity(utilCache.getMaxInMemory());
         cache.expireTime = UtilFormatOut.formatQuantity(utilCache.getExpireTime());
         cache.useSoftReference = utilCache.getUseSoftReference().toString();
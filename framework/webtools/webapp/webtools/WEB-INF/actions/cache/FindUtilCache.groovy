@@ -39,6 +39,10 @@ names.each { cacheName ->
         cache.missCountSoftRef = UtilFormatOut.formatQuantity(utilCache.getMissCountSoftRef());
         cache.removeHitCount = UtilFormatOut.formatQuantity(utilCache.getRemoveHitCount());
         cache.removeMissCount = UtilFormatOut.formatQuantity(utilCache.getRemoveMissCount());
+        cache.hitRatio = UtilFormatOut.formatPercentage(utilCache.getHitRatio());
+        cache.evictionCountSize = UtilFormatOut.formatQuantity(utilCache.getEvictionCountSize());
+        cache.evictionCountExpired = UtilFormatOut.formatQuantity(utilCache.getEvictionCountExpired());
+        cache.evictionCountSoftRef = UtilFormatOut.formatQuantity(utilCache.getEvictionCountSoftRef());
         cache.maxInMemory = UtilFormatOut.formatQuantity(utilCache.getMaxInMemory());
         cache.expireTime = UtilFormatOut.formatQuantity(utilCache.getExpireTime());
         cache.useSoftReference = utilCache.getUseSoftReference().toString();
@@ -44,6 +44,11 @@ List getEcaListForService(String selectedService) {
 
             curRuleMap.ruleKey = ecaKey;
 
+            //statistics
+            curRuleMap.evalCount = curRule.getEvalCount();
+            curRuleMap.hitCount = curRule.getHitCount();
+            curRuleMap.meanMillis = curRuleMap.evalCount > 0 ? (curRule.getTotalNanos() / curRuleMap.evalCount / 1000000.0).setScale(3, BigDecimal.ROUND_HALF_UP) : 0;
+
             curRuleClass = curRule.getClass();
 
             //event name for rule
@@ -30,6 +30,14 @@ under the License.
         <td>Min Idle</td>
         <td>Min Evictable Idle Time</td>
         <td>Max Wait</td>
+        <td>Borrows</td>
+        <td>Borrow Timeouts</td>
+        <td>Borrow Wait Mean (ms)</td>
+        <td>Borrow Wait 99% (ms)</td>
+        <td>Hold Mean (ms)</td>
+        <td>Hold 99% (ms)</td>
+        <td>Hold Max (ms)</td>
+        <td>Possible Leaks</td>
     </tr>
     <#assign alt_row = false>
     <#if (groups?has_content)>
@@ -48,9 +56,71 @@ under the License.
                         <td>${dataSourceInfo.poolMinIdle!}</td>
                         <td>${dataSourceInfo.poolMinEvictableIdleTimeMillis!}</td>
                         <td>${dataSourceInfo.poolMaxWait!}</td>
+                        <td>${dataSourceInfo.borrowCount!}</td>
+                        <td>${dataSourceInfo.borrowTimeoutCount!}</td>
+                        <td>${dataSourceInfo.borrowWaitMeanMillis!}</td>
+                        <td>${dataSourceInfo.borrowWait99Millis!}</td>
+                        <td>${dataSourceInfo.holdMeanMillis!}</td>
+                        <td>${dataSourceInfo.hold99Millis!}</td>
+                        <td>${dataSourceInfo.holdMaxMillis!}</td>
+                        <td>${dataSourceInfo.leakCount!}</td>
                     </tr>
                 </#if>
             </#if>
         </#list>
     </#if>
 </table>
+
+<#if (groups?has_content)>
+    <#list groups as group>
+        <#assign helper = delegator.getGroupHelperName(group)!/>
+        <#if (helper?has_content)>
+            <#assign pool = Static["org.ofbiz.entity.connection.DBCPConnectionFactory"].getConnectionPool(helper)!/>
+            <#if (pool?has_content)>
+                <#assign ownerHoldTimes = pool.getOwnerHoldTimes()/>
+                <#if (ownerHoldTimes?has_content)>
+                    <h2>Connection Hold Time by Service: ${helper}</h2>
+                    <table class="basic-table light-grid hover-bar">
+                        <tr class="header-row">
+                            <td>Service</td>
+                            <td>Connections</td>
+                            <td>Mean (ms)</td>
+                            <td>99% (ms)</td>
+                            <td>Max (ms)</td>
+                        </tr>
+                        <#list ownerHoldTimes?keys as owner>
+                            <#assign ownerHoldTime = ownerHoldTimes.get(owner)/>
+                            <tr>
+                                <td>${owner}</td>
+                                <td>${ownerHoldTime.getCount()}</td>
+                                <td>${ownerHoldTime.getMeanNanos() / 1000000}</td>
+                                <td>${ownerHoldTime.getPercentileNanos(99.0) / 1000000}</td>
+                                <td>${ownerHoldTime.getMaxNanos() / 1000000}</td>
+                            </tr>
+                        </#list>
+                    </table>
+                </#if>
+                <#assign suspectedLeaks = pool.getSuspectedLeaks()/>
+                <#if (suspectedLeaks?has_content)>
+                    <h2>Possible Connection Leaks: ${helper}</h2>
+                    <table class="basic-table light-grid hover-bar">
+                        <tr class="header-row">
+                            <td>Service</td>
+                            <td>Thread</td>
+                            <td>Held (ms)</td>
+                            <td>Borrowed At</td>
+                        </tr>
+                        <#list suspectedLeaks as leak>
+                            <tr>
+                                <td>${leak.owner!}</td>
+                                <td>${leak.threadName!}</td>
+                                <td>${leak.heldMillis!}</td>
+                                <td><pre>${leak.stackTrace!?html}</pre></td>
+                            </tr>
+                        </#list>
+                    </table>
+                </#if>
+            </#if>
+        </#if>
+    </#list>
+</#if>
@@ -152,6 +152,7 @@ under the License.
         <table class="basic-table" cellspacing='0'>
           <tr class="header-row">
             <td>${uiLabelMap.WebtoolsEventName}</td>
+            <td>${uiLabelMap.WebtoolsSecasStatistics}</td>
             <#if ecaMapList.runOnError??>
               <td>${uiLabelMap.WebtoolsRunOnError}</td>
             </#if>
@@ -165,6 +166,11 @@ under the License.
           <#list ecaMapList as ecaMap>
             <tr>
               <td>${ecaMap.eventName!}</td>
+              <td>
+                <b>${uiLabelMap.WebtoolsSecasEvalCount}</b> ${ecaMap.evalCount}<br />
+                <b>${uiLabelMap.WebtoolsSecasHitCount}</b> ${ecaMap.hitCount}<br />
+                <b>${uiLabelMap.WebtoolsSecasMeanMillis}</b> ${ecaMap.meanMillis}
+              </td>
               <#if ecaMap.runOnError??>
                 <td>${ecaMap.runOnError}</div></td>
               </#if>
@@ -264,7 +270,7 @@ under the License.
                 </td>
               </#if>
             </tr>
-            <tr><td colspan='5'><hr/></td></tr>
+            <tr><td colspan='6'><hr/></td></tr>
           </#list>
         </table>
       </div>